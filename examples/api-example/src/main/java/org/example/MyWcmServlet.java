@@ -25,6 +25,7 @@ package org.example;
 
 import java.io.IOException;
 import java.io.PrintWriter;
+import java.util.ArrayList;
 import java.util.Date;
 import java.util.List;
 
@@ -36,6 +37,7 @@ import javax.servlet.http.HttpServletResponse;
 
 import org.gatein.wcm.api.WcmApi;
 import org.gatein.wcm.api.domain.Category;
+import org.gatein.wcm.api.domain.Post;
 import org.gatein.wcm.api.services.WcmApiService;
 
 @WebServlet(value="/test", loadOnStartup=1)
@@ -58,6 +60,18 @@ public class MyWcmServlet extends HttpServlet {
             for (Category c : listCategories) {
                 out.println(c);
             }
+            List<Long> ids = new ArrayList<Long>();
+            for (Post p : wcm.findPosts("root")) {
+                ids.add(p.getId());
+                if (ids.size() == 30) break;
+            }
+            t0 = System.currentTimeMillis();
+            List<Post> listPosts = wcm.findPosts(ids, "en", "root");
+            t1 = System.currentTimeMillis();
+            out.println("findPosts(" + ids.size() + " ids): " + (t1 - t0) + " ms");
+            for (Post p : listPosts) {
+                out.println(p.getId() + " " + p.getTitle());
+            }
         } catch (Exception e) {
             out.write(e.toString());
         }
@@ -28,6 +28,7 @@ import java.util.logging.Logger;
 import javax.naming.Context;
 import javax.naming.InitialContext;
 
+import org.gatein.wcm.api.services.CachingWcmApiService;
 import org.gatein.wcm.api.services.WcmApiService;
 
 /**
@@ -40,20 +41,71 @@ public class WcmApi {
     private static final Logger log = Logger.getLogger(WcmApi.class.getName());
     private static final String WCM_API_JNDI_NAME = "java:global/wcm/WcmApiServiceBean!org.gatein.wcm.api.services.WcmApiService";
 
+    /*
+     * Client side cache properties
+     */
+    private static final int CACHE_MAX_ENTRIES = (System.getProperty("wcm.api.cache.max_entries") == null ? 1000 : new Integer(System.getProperty("wcm.api.cache.max_entries")));
+    private static final long CACHE_TTL = (System.getProperty("wcm.api.cache.ttl") == null ? 60 : new Long(System.getProperty("wcm.api.cache.ttl"))) * 1000;
+    private static final long CACHE_STALE = (System.getProperty("wcm.api.cache.stale") == null ? 300 : new Long(System.getProperty("wcm.api.cache.stale"))) * 1000;
+    private static final int CACHE_REFRESH_THREADS = (System.getProperty("wcm.api.cache.refresh_threads") == null ? 2 : new Integer(System.getProperty("wcm.api.cache.refresh_threads")));
+    private static final int CACHE_REFRESH_QUEUE = (System.getProperty("wcm.api.cache.refresh_queue") == null ? 100 : new Integer(System.getProperty("wcm.api.cache.refresh_queue")));
+
+    private static volatile WcmApiService instance;
+    private static volatile CachingWcmApiService cachedInstance;
+
     /**
+     * Proxy is looked up once and reused, as WcmApiService is stateless.
+     *
      * @return Instance of proxy to WcmApiService
      * @throws Exception
      */
     public static WcmApiService getInstance() throws Exception {
-        WcmApiService instance = null;
+        WcmApiService proxy = instance;
+        if (proxy != null) return proxy;
         try {
             Context ctx = new InitialContext();
-            instance = (WcmApiService)ctx.lookup(WCM_API_JNDI_NAME);
-            return instance;
+            proxy = (WcmApiService)ctx.lookup(WCM_API_JNDI_NAME);
+            instance = proxy;
+            return proxy;
         } catch (Exception e) {
             log.warning(e.getMessage());
             e.printStackTrace();
             throw e;
         }
     }
+
+    /**
+     * Cache is bounded by wcm.api.cache.max_entries, entries are fresh for wcm.api.cache.ttl seconds
+     * and served while refreshed in background for wcm.api.cache.stale seconds more.
+     * Refreshes run in wcm.api.cache.refresh_threads threads with wcm.api.cache.refresh_queue refreshes waiting at most,
+     * reset() stops them.
+     *
+     * @return Shared instance of WcmApiService with client side cache
+     * @throws Exception
+     * @see CachingWcmApiService
+     */
+    public static CachingWcmApiService getCachedInstance() throws Exception {
+        CachingWcmApiService cached = cachedInstance;
+        if (cached != null) return cached;
+        synchronized (WcmApi.class) {
+            if (cachedInstance == null) {
+                cachedInstance = new CachingWcmApiService(getInstance(), CACHE_MAX_ENTRIES, CACHE_TTL, CACHE_STALE, CACHE_REFRESH_THREADS, CACHE_REFRESH_QUEUE);
+            }
+            return cachedInstance;
+        }
+    }
+
+    /**
+     * Drops cached proxy and client side cache, i.e. after a redeploy of the server.
+     * Background refreshes of the cache are stopped, applications using the cache call it when they are undeployed.
+     */
+    public static void reset() {
+        synchronized (WcmApi.class) {
+            if (cachedInstance != null) {
+                cachedInstance.close();
+            }
+            instance = null;
+            cachedInstance = null;
+        }
+    }
 }
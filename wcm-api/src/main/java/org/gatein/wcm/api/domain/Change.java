@@ -0,0 +1,165 @@
+/*
+ * JBoss, a division of Red Hat
+ * Copyright 2010, Red Hat Middleware, LLC, and individual
+ * contributors as indicated by the @authors tag. See the
+ * copyright.txt in the distribution for a full listing of
+ * individual contributors.
+ *
+ * This is free software; you can redistribute it and/or modify it
+ * under the terms of the GNU Lesser General Public License as
+ * published by the Free Software Foundation; either version 2.1 of
+ * the License, or (at your option) any later version.
+ *
+ * This software is distributed in the hope that it will be useful,
+ * but WITHOUT ANY WARRANTY; without even the implied warranty of
+ * MERCHANTABILITY or FITNESS FOR A PARTICULAR PURPOSE. See the GNU
+ * Lesser General Public License for more details.
+ *
+ * You should have received a copy of the GNU Lesser General Public
+ * License along with this software; if not, write to the Free
+ * Software Foundation, Inc., 51 Franklin St, Fifth Floor, Boston, MA
+ * 02110-1301 USA, or see the FSF site: http://www.fsf.org.
+ */
+
+package org.gatein.wcm.api.domain;
+
+import java.io.Serializable;
+import java.util.Calendar;
+
+/**
+ * Change represents a modification of content in the GateIn WCM system.
+ * Changes are read as a feed ordered by id, so consumers can update caches or indexes incrementally.
+ * Light representation from org.gatein.wcm.domain.Change class for remote api.
+ *
+ * @author <a href="mailto:lponce@redhat.com">Lucas Ponce</a>
+ */
+public class Change implements Serializable {
+
+    /*
+     * Type of item changed
+     */
+    public static final Character CATEGORY = 'C';
+    public static final Character POST = 'P';
+    public static final Character UPLOAD = 'U';
+    public static final Character TEMPLATE = 'T';
+    public static final Character COMMENT = 'M';
+    public static final Character ACL = 'A';
+    public static final Character RELATIONSHIP = 'R';
+
+    /*
+     * Operation on item
+     */
+    public static final Character CREATE = 'C';
+    public static final Character UPDATE = 'U';
+    public static final Character DELETE = 'D';
+
+    private Long id;
+    private Character type;
+    private Character operation;
+    private Long itemId;
+    private Character parentType;
+    private Long parentId;
+    private String user;
+    private Calendar created;
+
+    /**
+     * @return Sequence number of the Change in the feed
+     */
+    public Long getId() {
+        return id;
+    }
+
+    public void setId(Long id) {
+        this.id = id;
+    }
+
+    public Character getType() {
+        return type;
+    }
+
+    public void setType(Character type) {
+        this.type = type;
+    }
+
+    public Character getOperation() {
+        return operation;
+    }
+
+    public void setOperation(Character operation) {
+        this.operation = operation;
+    }
+
+    public Long getItemId() {
+        return itemId;
+    }
+
+    public void setItemId(Long itemId) {
+        this.itemId = itemId;
+    }
+
+    /**
+     * @return Type of item owning the changed item, i.e. Post of a Comment, null if none
+     */
+    public Character getParentType() {
+        return parentType;
+    }
+
+    public void setParentType(Character parentType) {
+        this.parentType = parentType;
+    }
+
+    public Long getParentId() {
+        return parentId;
+    }
+
+    public void setParentId(Long parentId) {
+        this.parentId = parentId;
+    }
+
+    public String getUser() {
+        return user;
+    }
+
+    public void setUser(String user) {
+        this.user = user;
+    }
+
+    public Calendar getCreated() {
+        return created;
+    }
+
+    public void setCreated(Calendar created) {
+        this.created = created;
+    }
+
+    @Override
+    public boolean equals(Object o) {
+        if (this == o) return true;
+        if (o == null || getClass() != o.getClass()) return false;
+
+        Change change = (Change) o;
+
+        if (id != null ? !id.equals(change.id) : change.id != null) return false;
+
+        return true;
+    }
+
+    @Override
+    public int hashCode() {
+        return id != null ? id.hashCode() : 0;
+    }
+
+    @Override
+    public String toString() {
+        return "Change{" +
+                "id=" + id +
+                ", type=" + type +
+                ", operation=" + operation +
+                ", itemId=" + itemId +
+                ", parentType=" + parentType +
+                ", parentId=" + parentId +
+                ", user='" + user + '\'' +
+                ", created=" + (created != null ? created.getTime() : null) +
+                '}';
+    }
+}
@@ -45,6 +45,35 @@ public class Post implements Serializable {
      */
     public static final Character DRAFT = 'D';
 
+    /*
+     * Field masks for paged queries.
+     * SUMMARY fields (id, version, author, title, dates, status, locale, comments counters) are always populated.
+     */
+    /**
+     * Only summary fields are populated.
+     */
+    public static final int SUMMARY = 0;
+    /**
+     * Post's content is populated.
+     */
+    public static final int CONTENT = 1;
+    /**
+     * Post's excerpt is populated.
+     */
+    public static final int EXCERPT = 2;
+    /**
+     * Post's comments are populated.
+     */
+    public static final int COMMENTS = 4;
+    /**
+     * Post's categories are populated.
+     */
+    public static final int CATEGORIES = 8;
+    /**
+     * All fields are populated.
+     */
+    public static final int ALL = CONTENT | EXCERPT | COMMENTS | CATEGORIES;
+
     private Long id;
     private Long version;
     private String author;
@@ -56,6 +85,11 @@ public class Post implements Serializable {
     private Calendar modified;
     private String locale;
     private Character commentsStatus;
+    private Integer commentsCount;
+    private Integer commentsPublic;
+    private Integer commentsPending;
+    private Calendar lastCommentAt;
+    private Integer wordCount;
     private Set<Comment> comments = new HashSet<Comment>();
     private Set<Category> categories = new HashSet<Category>();
 
@@ -147,6 +181,61 @@ public class Post implements Serializable {
         this.commentsStatus = commentsStatus;
     }
 
+    /**
+     * @return number of Comments of this Post in any status, null if user has not rights to write the Post
+     */
+    public Integer getCommentsCount() {
+        return commentsCount;
+    }
+
+    public void setCommentsCount(Integer commentsCount) {
+        this.commentsCount = commentsCount;
+    }
+
+    /**
+     * @return number of public Comments of this Post
+     */
+    public Integer getCommentsPublic() {
+        return commentsPublic;
+    }
+
+    public void setCommentsPublic(Integer commentsPublic) {
+        this.commentsPublic = commentsPublic;
+    }
+
+    /**
+     * @return number of Comments of this Post held for moderation, null if user has not rights to write the Post
+     */
+    public Integer getCommentsPending() {
+        return commentsPending;
+    }
+
+    public void setCommentsPending(Integer commentsPending) {
+        this.commentsPending = commentsPending;
+    }
+
+    /**
+     * @return creation date of newest Comment of this Post
+     */
+    public Calendar getLastCommentAt() {
+        return lastCommentAt;
+    }
+
+    public void setLastCommentAt(Calendar lastCommentAt) {
+        this.lastCommentAt = lastCommentAt;
+    }
+
+    /**
+     * @return number of words of content, computed when Post is saved
+     */
+    public Integer getWordCount() {
+        return wordCount;
+    }
+
+    public void setWordCount(Integer wordCount) {
+        this.wordCount = wordCount;
+    }
+
     public Set<Comment> getComments() {
         return comments;
     }
@@ -0,0 +1,137 @@
+/*
+ * JBoss, a division of Red Hat
+ * Copyright 2010, Red Hat Middleware, LLC, and individual
+ * contributors as indicated by the @authors tag. See the
+ * copyright.txt in the distribution for a full listing of
+ * individual contributors.
+ *
+ * This is free software; you can redistribute it and/or modify it
+ * under the terms of the GNU Lesser General Public License as
+ * published by the Free Software Foundation; either version 2.1 of
+ * the License, or (at your option) any later version.
+ *
+ * This software is distributed in the hope that it will be useful,
+ * but WITHOUT ANY WARRANTY; without even the implied warranty of
+ * MERCHANTABILITY or FITNESS FOR A PARTICULAR PURPOSE. See the GNU
+ * Lesser General Public License for more details.
+ *
+ * You should have received a copy of the GNU Lesser General Public
+ * License along with this software; if not, write to the Free
+ * Software Foundation, Inc., 51 Franklin St, Fifth Floor, Boston, MA
+ * 02110-1301 USA, or see the FSF site: http://www.fsf.org.
+ */
+
+package org.gatein.wcm.api.domain;
+
+import java.io.Serializable;
+import java.util.Calendar;
+import java.util.List;
+
+/**
+ * Position of a bulk iteration over Posts for remote api.
+ * Posts are iterated by modified date and id, so a PostCursor doesn't hold resources in the server and it can be dropped at any time.
+ * A Post modified during the iteration is fetched again at the end.
+ * A PostCursor only carries the position, chunks are returned by fetches and next() moves the position after a chunk.
+ *
+ * @author <a href="mailto:lponce@redhat.com">Lucas Ponce</a>
+ */
+public class PostCursor implements Serializable {
+
+    private Calendar lastModified;
+    private Long lastId;
+    private int size;
+    private int fields;
+    private boolean done;
+
+    public PostCursor() {
+    }
+
+    public PostCursor(int size, int fields) {
+        this.size = size;
+        this.fields = fields;
+    }
+
+    /**
+     * @param chunk Posts returned by a fetch with this PostCursor
+     * @return PostCursor positioned after last Post of chunk, done if chunk is smaller than size
+     */
+    public PostCursor next(List<Post> chunk) {
+        PostCursor next = new PostCursor(size, fields);
+        next.setLastModified(lastModified);
+        next.setLastId(lastId);
+        if (chunk != null && !chunk.isEmpty()) {
+            Post last = chunk.get(chunk.size() - 1);
+            next.setLastModified(last.getModified());
+            next.setLastId(last.getId());
+        }
+        next.setDone(chunk == null || chunk.size() < size);
+        return next;
+    }
+
+    /**
+     * @return Modified date of last Post fetched, null if nothing has been fetched yet
+     */
+    public Calendar getLastModified() {
+        return lastModified;
+    }
+
+    public void setLastModified(Calendar lastModified) {
+        this.lastModified = lastModified;
+    }
+
+    /**
+     * @return Id of last Post fetched, null if nothing has been fetched yet
+     */
+    public Long getLastId() {
+        return lastId;
+    }
+
+    public void setLastId(Long lastId) {
+        this.lastId = lastId;
+    }
+
+    /**
+     * @return Max number of Posts per chunk
+     */
+    public int getSize() {
+        return size;
+    }
+
+    public void setSize(int size) {
+        this.size = size;
+    }
+
+    /**
+     * @return Mask of Post's fields populated, see Post.SUMMARY
+     */
+    public int getFields() {
+        return fields;
+    }
+
+    public void setFields(int fields) {
+        this.fields = fields;
+    }
+
+    public boolean isDone() {
+        return done;
+    }
+
+    public void setDone(boolean done) {
+        this.done = done;
+    }
+
+    public boolean hasNext() {
+        return !done;
+    }
+
+    @Override
+    public String toString() {
+        return "PostCursor{" +
+                "lastModified=" + (lastModified != null ? lastModified.getTime() : null) +
+                ", lastId=" + lastId +
+                ", size=" + size +
+                ", fields=" + fields +
+                ", done=" + done +
+                '}';
+    }
+}
@@ -0,0 +1,434 @@
+/*
+ * JBoss, a division of Red Hat
+ * Copyright 2010, Red Hat Middleware, LLC, and individual
+ * contributors as indicated by the @authors tag. See the
+ * copyright.txt in the distribution for a full listing of
+ * individual contributors.
+ *
+ * This is free software; you can redistribute it and/or modify it
+ * under the terms of the GNU Lesser General Public License as
+ * published by the Free Software Foundation; either version 2.1 of
+ * the License, or (at your option) any later version.
+ *
+ * This software is distributed in the hope that it will be useful,
+ * but WITHOUT ANY WARRANTY; without even the implied warranty of
+ * MERCHANTABILITY or FITNESS FOR A PARTICULAR PURPOSE. See the GNU
+ * Lesser General Public License for more details.
+ *
+ * You should have received a copy of the GNU Lesser General Public
+ * License along with this software; if not, write to the Free
+ * Software Foundation, Inc., 51 Franklin St, Fifth Floor, Boston, MA
+ * 02110-1301 USA, or see the FSF site: http://www.fsf.org.
+ */
+
+package org.gatein.wcm.api.services;
+
+import java.util.Collection;
+import java.util.Iterator;
+import java.util.LinkedHashMap;
+import java.util.List;
+import java.util.Map;
+import java.util.concurrent.ArrayBlockingQueue;
+import java.util.concurrent.RejectedExecutionException;
+import java.util.concurrent.ThreadFactory;
+import java.util.concurrent.ThreadPoolExecutor;
+import java.util.concurrent.TimeUnit;
+import java.util.concurrent.atomic.AtomicBoolean;
+import java.util.logging.Logger;
+
+import org.gatein.wcm.api.domain.Category;
+import org.gatein.wcm.api.domain.Change;
+import org.gatein.wcm.api.domain.Comment;
+import org.gatein.wcm.api.domain.Post;
+import org.gatein.wcm.api.domain.PostCursor;
+import org.gatein.wcm.api.domain.Upload;
+
+/**
+ * Client side cache around a WcmApiService proxy.
+ *
+ * Category trees and Post/Upload lookups are kept in a bounded LRU cache by method, arguments and user.
+ * An entry is fresh during ttl; after ttl and until ttl + stale the first caller schedules a reload in a bounded
+ * pool of background threads and every caller is served the stale value (stale-while-revalidate);
+ * after that it's reloaded by every caller in its own thread.
+ * Users are passed explicitly to WcmApiService, so background reloads don't depend on the caller's context.
+ * If the pool is full or closed the stale value is served and the entry is reloaded by a later caller.
+ * close() stops the pool, WcmApi.reset() calls it so no thread is left behind when the application is undeployed.
+ *
+ * Full listings, filters, cursors, changes feed and write operations are not cached.
+ * Writes through this wrapper clear the cache.
+ * Returned objects are shared between callers and should be treated as read-only.
+ *
+ * @author <a href="mailto:lponce@redhat.com">Lucas Ponce</a>
+ */
+public class CachingWcmApiService implements WcmApiService {
+
+    private static final Logger log = Logger.getLogger(CachingWcmApiService.class.getName());
+
+    private final WcmApiService delegate;
+    private final long ttl;
+    private final long stale;
+    private final Map<String, Entry> cache;
+    private final ThreadPoolExecutor refresher;
+
+    /**
+     * @param delegate WcmApiService proxy
+     * @param maxEntries Max number of cached results
+     * @param ttl Milliseconds an entry is fresh
+     * @param stale Milliseconds after ttl an entry is returned while it's refreshed in background
+     */
+    public CachingWcmApiService(WcmApiService delegate, int maxEntries, long ttl, long stale) {
+        this(delegate, maxEntries, ttl, stale, 1, 100);
+    }
+
+    /**
+     * @param delegate WcmApiService proxy
+     * @param maxEntries Max number of cached results
+     * @param ttl Milliseconds an entry is fresh
+     * @param stale Milliseconds after ttl an entry is returned while it's refreshed in background
+     * @param threads Max number of background threads refreshing entries
+     * @param queue Max number of refreshes waiting for a thread
+     */
+    public CachingWcmApiService(WcmApiService delegate, final int maxEntries, long ttl, long stale, int threads, int queue) {
+        this.delegate = delegate;
+        this.ttl = ttl;
+        this.stale = stale;
+        this.cache = new LinkedHashMap<String, Entry>(16, 0.75f, true) {
+            @Override
+            protected boolean removeEldestEntry(Map.Entry<String, Entry> eldest) {
+                return size() > maxEntries;
+            }
+        };
+        this.refresher = new ThreadPoolExecutor(threads, threads, 60, TimeUnit.SECONDS,
+                new ArrayBlockingQueue<Runnable>(queue), new ThreadFactory() {
+            @Override
+            public Thread newThread(Runnable r) {
+                Thread t = new Thread(r, "wcm-api-cache-refresh");
+                t.setDaemon(true);
+                return t;
+            }
+        });
+        this.refresher.allowCoreThreadTimeOut(true);
+    }
+
+    /**
+     * Stops background refreshes and removes all cached entries.
+     * Stale entries are reloaded by callers after close.
+     */
+    public void close() {
+        refresher.shutdownNow();
+        invalidate();
+    }
+
+    /**
+     * Removes all cached entries.
+     */
+    public void invalidate() {
+        synchronized (cache) {
+            cache.clear();
+        }
+    }
+
+    /**
+     * Removes cached entries of a user.
+     */
+    public void invalidate(String user) {
+        String suffix = "|" + user;
+        synchronized (cache) {
+            Iterator<String> it = cache.keySet().iterator();
+            while (it.hasNext()) {
+                if (it.next().endsWith(suffix)) it.remove();
+            }
+        }
+    }
+
+    /**
+     * @return Number of cached entries
+     */
+    public int size() {
+        synchronized (cache) {
+            return cache.size();
+        }
+    }
+
+    @Override
+    public List<Category> findRootCategories(final String user) throws Exception {
+        return get(key("findRootCategories", user), new Loader<List<Category>>() {
+            @Override
+            public List<Category> load() throws Exception {
+                return delegate.findRootCategories(user);
+            }
+        });
+    }
+
+    @Override
+    public List<Category> findChildren(final Category cat, final String user) throws Exception {
+        return get(key("findChildren", user, cat == null ? null : cat.getId()), new Loader<List<Category>>() {
+            @Override
+            public List<Category> load() throws Exception {
+                return delegate.findChildren(cat, user);
+            }
+        });
+    }
+
+    @Override
+    public Category findCategory(final String path, final String user) throws Exception {
+        return get(key("findCategory", user, path), new Loader<Category>() {
+            @Override
+            public Category load() throws Exception {
+                return delegate.findCategory(path, user);
+            }
+        });
+    }
+
+    @Override
+    public List<Category> findCategories(final Collection<String> paths, final String user) throws Exception {
+        return get(key("findCategories", user, paths), new Loader<List<Category>>() {
+            @Override
+            public List<Category> load() throws Exception {
+                return delegate.findCategories(paths, user);
+            }
+        });
+    }
+
+    @Override
+    public List<Post> findPosts(String user) throws Exception {
+        return delegate.findPosts(user);
+    }
+
+    @Override
+    public List<Post> findPosts(final int offset, final int limit, final int fields, final String user) throws Exception {
+        return get(key("findPostsPage", user, offset, limit, fields), new Loader<List<Post>>() {
+            @Override
+            public List<Post> load() throws Exception {
+                return delegate.findPosts(offset, limit, fields, user);
+            }
+        });
+    }
+
+    @Override
+    public PostCursor openPosts(int size, int fields, String user) throws Exception {
+        return delegate.openPosts(size, fields, user);
+    }
+
+    @Override
+    public List<Post> fetchPosts(PostCursor cursor, String user) throws Exception {
+        return delegate.fetchPosts(cursor, user);
+    }
+
+    @Override
+    public List<Post> findPosts(final Long categoryId, final String user) throws Exception {
+        return get(key("findPostsCategory", user, categoryId), new Loader<List<Post>>() {
+            @Override
+            public List<Post> load() throws Exception {
+                return delegate.findPosts(categoryId, user);
+            }
+        });
+    }
+
+    @Override
+    public List<Post> findPosts(String filterName, String user) throws Exception {
+        return delegate.findPosts(filterName, user);
+    }
+
+    @Override
+    public List<Post> searchPosts(String query, int max, int fields, String user) throws Exception {
+        return delegate.searchPosts(query, max, fields, user);
+    }
+
+    @Override
+    public List<Post> findPosts(final Long categoryId, final Character status, final String user) throws Exception {
+        return get(key("findPostsCategory", user, categoryId, status), new Loader<List<Post>>() {
+            @Override
+            public List<Post> load() throws Exception {
+                return delegate.findPosts(categoryId, status, user);
+            }
+        });
+    }
+
+    @Override
+    public List<Post> findPosts(final Long categoryId, final String locale, final Character status, final String user) throws Exception {
+        return get(key("findPostsCategory", user, categoryId, locale, status), new Loader<List<Post>>() {
+            @Override
+            public List<Post> load() throws Exception {
+                return delegate.findPosts(categoryId, locale, status, user);
+            }
+        });
+    }
+
+    @Override
+    public List<Post> findPosts(final Long categoryId, final String locale, final Character status, final int offset, final int limit, final int fields, final String user) throws Exception {
+        return get(key("findPostsCategoryPage", user, categoryId, locale, status, offset, limit, fields), new Loader<List<Post>>() {
+            @Override
+            public List<Post> load() throws Exception {
+                return delegate.findPosts(categoryId, locale, status, offset, limit, fields, user);
+            }
+        });
+    }
+
+    @Override
+    public Post findPost(final Long id, final String user) throws Exception {
+        return get(key("findPost", user, id), new Loader<Post>() {
+            @Override
+            public Post load() throws Exception {
+                return delegate.findPost(id, user);
+            }
+        });
+    }
+
+    @Override
+    public Post findPost(final Long id, final String locale, final String user) throws Exception {
+        return get(key("findPost", user, id, locale), new Loader<Post>() {
+            @Override
+            public Post load() throws Exception {
+                return delegate.findPost(id, locale, user);
+            }
+        });
+    }
+
+    @Override
+    public List<Post> findPosts(final Collection<Long> ids, final String locale, final String user) throws Exception {
+        return get(key("findPostsIds", user, ids, locale), new Loader<List<Post>>() {
+            @Override
+            public List<Post> load() throws Exception {
+                return delegate.findPosts(ids, locale, user);
+            }
+        });
+    }
+
+    @Override
+    public List<Upload> findUploads(String user) throws Exception {
+        return delegate.findUploads(user);
+    }
+
+    @Override
+    public List<Upload> findUploads(String filterName, String user) throws Exception {
+        return delegate.findUploads(filterName, user);
+    }
+
+    @Override
+    public List<Upload> searchUploads(String query, int max, String user) throws Exception {
+        return delegate.searchUploads(query, max, user);
+    }
+
+    @Override
+    public List<Upload> findUploads(final Long categoryId, final String user) throws Exception {
+        return get(key("findUploadsCategory", user, categoryId), new Loader<List<Upload>>() {
+            @Override
+            public List<Upload> load() throws Exception {
+                return delegate.findUploads(categoryId, user);
+            }
+        });
+    }
+
+    @Override
+    public Upload findUpload(final Long id, final String user) throws Exception {
+        return get(key("findUpload", user, id), new Loader<Upload>() {
+            @Override
+            public Upload load() throws Exception {
+                return delegate.findUpload(id, user);
+            }
+        });
+    }
+
+    @Override
+    public List<Upload> findUploads(final Collection<Long> ids, final String user) throws Exception {
+        return get(key("findUploadsIds", user, ids), new Loader<List<Upload>>() {
+            @Override
+            public List<Upload> load() throws Exception {
+                return delegate.findUploads(ids, user);
+            }
+        });
+    }
+
+    @Override
+    public void add(Long postId, Comment comment, String user) throws Exception {
+        try {
+            delegate.add(postId, comment, user);
+        } finally {
+            invalidate();
+        }
+    }
+
+    @Override
+    public List<Change> findChanges(Long since, int max, String user) throws Exception {
+        return delegate.findChanges(since, max, user);
+    }
+
+    /*
+     * Cache internals
+     */
+
+    private interface Loader<T> {
+        T load() throws Exception;
+    }
+
+    private static class Entry {
+        final Object value;
+        final long loaded;
+        final AtomicBoolean refreshing = new AtomicBoolean();
+
+        Entry(Object value, long loaded) {
+            this.value = value;
+            this.loaded = loaded;
+        }
+    }
+
+    private String key(String method, String user, Object... args) {
+        StringBuilder key = new StringBuilder(method);
+        for (Object arg : args) {
+            key.append('|').append(arg);
+        }
+        return key.append('|').append(user).toString();
+    }
+
+    @SuppressWarnings("unchecked")
+    private <T> T get(final String key, final Loader<T> loader) throws Exception {
+        long now = System.currentTimeMillis();
+        Entry entry;
+        synchronized (cache) {
+            entry = cache.get(key);
+        }
+        if (entry != null) {
+            long age = now - entry.loaded;
+            if (age < ttl) {
+                return (T) entry.value;
+            }
+            if (age < ttl + stale) {
+                // Only one caller schedules the refresh, stale value is kept if refresh fails
+                if (entry.refreshing.compareAndSet(false, true)) {
+                    refresh(key, entry, loader);
+                }
+                return (T) entry.value;
+            }
+        }
+        T value = loader.load();
+        put(key, value);
+        return value;
+    }
+
+    private void refresh(final String key, final Entry entry, final Loader<?> loader) {
+        try {
+            refresher.execute(new Runnable() {
+                @Override
+                public void run() {
+                    try {
+                        put(key, loader.load());
+                    } catch (Exception e) {
+                        log.warning("Error refreshing " + key + ": " + e.getMessage());
+                        entry.refreshing.set(false);
+                    }
+                }
+            });
+        } catch (RejectedExecutionException e) {
+            // Pool is full or closed, a later caller retries
+            entry.refreshing.set(false);
+        }
+    }
+
+    private void put(String key, Object value) {
+        Entry entry = new Entry(value, System.currentTimeMillis());
+        synchronized (cache) {
+            cache.put(key, entry);
+        }
+    }
+}
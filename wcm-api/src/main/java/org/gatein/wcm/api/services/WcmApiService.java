@@ -23,13 +23,16 @@
 
 package org.gatein.wcm.api.services;
 
+import java.util.Collection;
 import java.util.List;
 
 import javax.ejb.Remote;
 
 import org.gatein.wcm.api.domain.Category;
+import org.gatein.wcm.api.domain.Change;
 import org.gatein.wcm.api.domain.Comment;
 import org.gatein.wcm.api.domain.Post;
+import org.gatein.wcm.api.domain.PostCursor;
 import org.gatein.wcm.api.domain.Upload;
 
 /**
@@ -67,6 +70,14 @@ public interface WcmApiService {
      */
     Category findCategory(String path, String user) throws Exception;
 
+    /**
+     * @param paths Categories' paths
+     * @param user who performs operation
+     * @return List of Categories defined by paths in the same order, skipping the ones that don't exist or user has not rights to read
+     * @throws Exception
+     */
+    List<Category> findCategories(Collection<String> paths, String user) throws Exception;
+
     /*
      * Posts API
      */
@@ -77,6 +88,44 @@ public interface WcmApiService {
      */
     List<Post> findPosts(String user) throws Exception;
 
+    /**
+     * @param offset Number of readable Posts to skip
+     * @param limit Max number of Posts to return
+     * @param fields Mask of Post.CONTENT, Post.EXCERPT, Post.COMMENTS, Post.CATEGORIES or Post.SUMMARY for headlines only
+     * @param user who performs operation
+     * @return Page of Posts that user can read, newest first
+     * @throws Exception
+     */
+    List<Post> findPosts(int offset, int limit, int fields, String user) throws Exception;
+
+    /**
+     * Starts a bulk iteration over all Posts that user can read.
+     * Typical use:
+     * <pre>
+     *     PostCursor cursor = wcm.openPosts(500, Post.ALL, user);
+     *     while (cursor.hasNext()) {
+     *         List&lt;Post&gt; posts = wcm.fetchPosts(cursor, user);
+     *         cursor = cursor.next(posts);
+     *         for (Post p : posts) { ... }
+     *     }
+     * </pre>
+     *
+     * @param size Max number of Posts per chunk
+     * @param fields Mask of Post.CONTENT, Post.EXCERPT, Post.COMMENTS, Post.CATEGORIES or Post.SUMMARY for headlines only
+     * @param user who performs operation
+     * @return PostCursor positioned before first Post
+     * @throws Exception
+     */
+    PostCursor openPosts(int size, int fields, String user) throws Exception;
+
+    /**
+     * @param cursor PostCursor returned by openPosts() or by next() of a previous one
+     * @param user who performs operation
+     * @return Next chunk of Posts after cursor's position ordered by modified date and id, empty if cursor is done
+     * @throws Exception
+     */
+    List<Post> fetchPosts(PostCursor cursor, String user) throws Exception;
+
     /**
      * @param categoryId Category's id
      * @param user who performs operation
@@ -93,6 +142,16 @@ public interface WcmApiService {
      */
     List<Post> findPosts(String filterName, String user) throws Exception;
 
+    /**
+     * @param query Words to search in Post's title, excerpt and content, last word is also matched as prefix
+     * @param max Max number of Posts to return
+     * @param fields Mask of Post.CONTENT, Post.EXCERPT, Post.COMMENTS, Post.CATEGORIES or Post.SUMMARY for headlines only
+     * @param user who performs operation
+     * @return List of Posts that user can read ranked by relevance
+     * @throws Exception
+     */
+    List<Post> searchPosts(String query, int max, int fields, String user) throws Exception;
+
     /**
      * @param categoryId Category's id
      * @param status Post's status
@@ -112,6 +171,19 @@ public interface WcmApiService {
      */
     List<Post> findPosts(Long categoryId, String locale, Character status, String user) throws Exception;
 
+    /**
+     * @param categoryId Category's id, null for Posts in any Category
+     * @param locale Locale used as a key for a Relationship, null for no translation
+     * @param status Post's status, null for any status
+     * @param offset Number of readable Posts to skip
+     * @param limit Max number of Posts to return
+     * @param fields Mask of Post.CONTENT, Post.EXCERPT, Post.COMMENTS, Post.CATEGORIES or Post.SUMMARY for headlines only
+     * @param user who performs operation
+     * @return Page of Posts linked by Category defined by categoryId that user can read, newest first
+     * @throws Exception
+     */
+    List<Post> findPosts(Long categoryId, String locale, Character status, int offset, int limit, int fields, String user) throws Exception;
+
     /**
      * @param id Post's id
      * @param user who performs operation
@@ -129,6 +201,15 @@ public interface WcmApiService {
      */
     Post findPost(Long id, String locale, String user) throws Exception;
 
+    /**
+     * @param ids Posts' ids
+     * @param locale Locale used as a key for a Relationship
+     * @param user who performs operation
+     * @return List of Posts defined by ids in the same order, skipping the ones that don't exist or user has not rights to read
+     * @throws Exception
+     */
+    List<Post> findPosts(Collection<Long> ids, String locale, String user) throws Exception;
+
     /*
      * Uploads API
      */
@@ -147,6 +228,15 @@ public interface WcmApiService {
      */
     List<Upload> findUploads(String filterName, String user) throws Exception;
 
+    /**
+     * @param query Words to search in Upload's file name and description, last word is also matched as prefix
+     * @param max Max number of Uploads to return
+     * @param user who performs operation
+     * @return List of Uploads that user can read ranked by relevance
+     * @throws Exception
+     */
+    List<Upload> searchUploads(String query, int max, String user) throws Exception;
+
     /**
      * @param categoryId Category's id
      * @param user who performs operation
@@ -163,6 +253,14 @@ public interface WcmApiService {
      */
     Upload findUpload(Long id, String user) throws Exception;
 
+    /**
+     * @param ids Uploads' ids
+     * @param user who performs operation
+     * @return List of Uploads defined by ids in the same order, skipping the ones that don't exist or user has not rights to read
+     * @throws Exception
+     */
+    List<Upload> findUploads(Collection<Long> ids, String user) throws Exception;
+
     /*
      * Comments API
      */
@@ -177,4 +275,21 @@ public interface WcmApiService {
      */
     void add(Long postId, Comment comment, String user) throws Exception;
 
+
+    /*
+     * Changes API
+     */
+    /**
+     * Reads the log of content modifications as a feed.
+     * Consumers store last Change's id read and use it as since in next call.
+     * Changes of items user can not read are skipped, users are only returned to users with WRITE rights on the item.
+     * A Change with only id marks the position of skipped Changes.
+     *
+     * @param since Last Change's id already read, null to start from the oldest Change kept
+     * @param max Max number of Changes
+     * @param user who performs operation
+     * @return List of Changes with id greater than since, ordered by id
+     * @throws Exception
+     */
+    List<Change> findChanges(Long since, int max, String user) throws Exception;
 }
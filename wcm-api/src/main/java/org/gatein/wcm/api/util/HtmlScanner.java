@@ -0,0 +1,340 @@
+/*
+ * JBoss, a division of Red Hat
+ * Copyright 2010, Red Hat Middleware, LLC, and individual
+ * contributors as indicated by the @authors tag. See the
+ * copyright.txt in the distribution for a full listing of
+ * individual contributors.
+ *
+ * This is free software; you can redistribute it and/or modify it
+ * under the terms of the GNU Lesser General Public License as
+ * published by the Free Software Foundation; either version 2.1 of
+ * the License, or (at your option) any later version.
+ *
+ * This software is distributed in the hope that it will be useful,
+ * but WITHOUT ANY WARRANTY; without even the implied warranty of
+ * MERCHANTABILITY or FITNESS FOR A PARTICULAR PURPOSE. See the GNU
+ * Lesser General Public License for more details.
+ *
+ * You should have received a copy of the GNU Lesser General Public
+ * License along with this software; if not, write to the Free
+ * Software Foundation, Inc., 51 Franklin St, Fifth Floor, Boston, MA
+ * 02110-1301 USA, or see the FSF site: http://www.fsf.org.
+ */
+package org.gatein.wcm.api.util;
+
+import java.util.HashMap;
+import java.util.Map;
+
+/**
+ * Index of <img> tags of a html fragment, built in a single pass.
+ * It only stores offsets, tags and attributes are extracted on demand.
+ * A scan can be reused while html doesn't change, i.e. for the same version of a Post.
+ *
+ * @author <a href="mailto:lponce@redhat.com">Lucas Ponce</a>
+ */
+public class HtmlScanner {
+
+    private static final String EMPTY_IMG = "<img>";
+
+    private final String html;
+    private int[] starts = new int[4];
+    private int[] ends = new int[4];
+    private int images;
+
+    private HtmlScanner(String html) {
+        this.html = html;
+    }
+
+    /**
+     * @param html code from Post's content
+     * @return index of <img> tags of html
+     */
+    public static HtmlScanner scan(String html) {
+        return scan(html, Integer.MAX_VALUE);
+    }
+
+    /**
+     * Partial scan for a single lookup, it should not be reused for images after max.
+     *
+     * @param html code from Post's content
+     * @param max number of <img> tags to index before stopping
+     * @return index of first max <img> tags of html
+     */
+    public static HtmlScanner scan(String html, int max) {
+        HtmlScanner scanner = new HtmlScanner(html == null ? "" : html);
+        scanner.scan(max);
+        return scanner;
+    }
+
+    private void scan(int max) {
+        int length = html.length();
+        int i = html.indexOf('<');
+        while (i != -1 && i < length - 1 && images < max) {
+            if (html.startsWith("<!--", i)) {
+                int end = html.indexOf("-->", i + 4);
+                if (end == -1) return;
+                i = html.indexOf('<', end + 3);
+                continue;
+            }
+            int end = endOfTag(html, i);
+            if (end == -1) return;
+            if (isTag(html, i, "img")) {
+                if (images == starts.length) {
+                    int[] s = new int[images * 2];
+                    int[] e = new int[images * 2];
+                    System.arraycopy(starts, 0, s, 0, images);
+                    System.arraycopy(ends, 0, e, 0, images);
+                    starts = s;
+                    ends = e;
+                }
+                starts[images] = i;
+                ends[images] = end + 1;
+                images++;
+            }
+            i = html.indexOf('<', end + 1);
+        }
+    }
+
+    /**
+     * @return html scanned
+     */
+    public String getHtml() {
+        return html;
+    }
+
+    /**
+     * @return number of <img> tags in html
+     */
+    public int images() {
+        return images;
+    }
+
+    /**
+     * @param index of the image
+     * @return offset of '<' of the image in html, -1 if there is no image with this index
+     */
+    public int start(int index) {
+        return index >= 0 && index < images ? starts[index] : -1;
+    }
+
+    /**
+     * @param index of the image
+     * @return offset after '>' of the image in html, -1 if there is no image with this index
+     */
+    public int end(int index) {
+        return index >= 0 && index < images ? ends[index] : -1;
+    }
+
+    /**
+     * @param index of the image to extract
+     * @return <img> tag, or an empty <img> if there is no image with this index
+     */
+    public String img(int index) {
+        if (index < 0 || index >= images) return EMPTY_IMG;
+        return html.substring(starts[index], ends[index]);
+    }
+
+    /**
+     * @param index of the image
+     * @return src attribute of the <img> tag, or "" if there is no image with this index
+     */
+    public String src(int index) {
+        if (index < 0 || index >= images) return "";
+        String src = attributes(html, starts[index]).get("src");
+        return src == null ? "" : src;
+    }
+
+    /**
+     * Attributes of the first start tag of a fragment, i.e. <wcm-img index="0" class="big">
+     * Values can be double quoted, single quoted or unquoted.
+     *
+     * @param tag html fragment starting with a tag
+     * @return map of attribute names and values
+     */
+    public static Map<String, String> attributes(String tag) {
+        if (tag == null) return new HashMap<String, String>();
+        return attributes(tag, Math.max(tag.indexOf('<'), 0));
+    }
+
+    private static Map<String, String> attributes(String html, int start) {
+        Map<String, String> attributes = new HashMap<String, String>();
+        int length = html.length();
+        int i = start;
+        if (i < length && html.charAt(i) == '<') i++;
+        // Skip tag name
+        while (i < length && !isSeparator(html.charAt(i))) i++;
+        while (i < length) {
+            char c = html.charAt(i);
+            if (c == '>') break;
+            if (isSeparator(c) || c == '/') {
+                i++;
+                continue;
+            }
+            int nameStart = i;
+            while (i < length && html.charAt(i) != '=' && html.charAt(i) != '/' && !isSeparator(html.charAt(i))) i++;
+            String name = html.substring(nameStart, i);
+            while (i < length && Character.isWhitespace(html.charAt(i))) i++;
+            if (i >= length || html.charAt(i) != '=') {
+                attributes.put(name, "");
+                continue;
+            }
+            i++;
+            while (i < length && Character.isWhitespace(html.charAt(i))) i++;
+            if (i >= length) break;
+            c = html.charAt(i);
+            int valueStart;
+            int valueEnd;
+            if (c == '"' || c == '\'') {
+                valueStart = i + 1;
+                valueEnd = html.indexOf(c, valueStart);
+                if (valueEnd == -1) valueEnd = length;
+                i = valueEnd + 1;
+            } else {
+                valueStart = i;
+                while (i < length && !Character.isWhitespace(html.charAt(i)) && html.charAt(i) != '>') i++;
+                valueEnd = i;
+            }
+            attributes.put(name, html.substring(valueStart, valueEnd));
+        }
+        return attributes;
+    }
+
+    /**
+     * Content between start and end tags of first element with tag name.
+     *
+     * @param tag name of the tag, i.e. wcm-link
+     * @param template html fragment
+     * @return content inside the element, "" if element is not found or it's empty
+     */
+    public static String inside(String tag, String template) {
+        if (template == null) return "";
+        int i = template.indexOf("<" + tag);
+        if (i == -1) return "";
+        i = endOfTag(template, i);
+        if (i == -1) return "";
+        int j = template.indexOf("</" + tag + ">", i);
+        if (j == -1) return "";
+        return template.substring(i + 1, j);
+    }
+
+    /**
+     * Text of a html fragment: tags and comments are removed and whitespace is collapsed.
+     * Entities are kept, so text can be written back into html as it is.
+     *
+     * @param html html fragment
+     * @return text of html fragment
+     */
+    public static String text(String html) {
+        if (html == null) return null;
+        int length = html.length();
+        StringBuilder text = new StringBuilder(length);
+        boolean space = false;
+        int i = 0;
+        while (i < length) {
+            char c = html.charAt(i);
+            if (c == '<' && i + 1 < length && isMarkup(html.charAt(i + 1))) {
+                int end;
+                if (html.startsWith("<!--", i)) {
+                    end = html.indexOf("-->", i + 4);
+                    end = end == -1 ? length : end + 3;
+                } else {
+                    end = endOfTag(html, i);
+                    end = end == -1 ? length : end + 1;
+                }
+                // Tags separate words, i.e. </p><p>
+                space = true;
+                i = end;
+                continue;
+            }
+            if (Character.isWhitespace(c)) {
+                space = true;
+            } else {
+                if (space && text.length() > 0) text.append(' ');
+                space = false;
+                text.append(c);
+            }
+            i++;
+        }
+        return text.toString();
+    }
+
+    /**
+     * @param html html fragment
+     * @return number of words in text of html, entities are not counted as words
+     */
+    public static int words(String html) {
+        String text = text(html);
+        if (text == null) return 0;
+        int words = 0;
+        boolean word = false;
+        int length = text.length();
+        for (int i = 0; i < length; i++) {
+            char c = text.charAt(i);
+            if (c == '&') {
+                int end = text.indexOf(';', i);
+                if (end != -1 && end - i <= 10) {
+                    word = false;
+                    i = end;
+                    continue;
+                }
+            }
+            if (Character.isWhitespace(c)) {
+                word = false;
+            } else if (!word && Character.isLetterOrDigit(c)) {
+                word = true;
+                words++;
+            }
+        }
+        return words;
+    }
+
+    /**
+     * Cuts text in the first word boundary after max characters.
+     *
+     * @param text text to cut
+     * @param max number of characters kept before looking for a word boundary
+     * @return text until the word boundary
+     */
+    public static String cutWord(String text, int max) {
+        if (text == null || "".equals(text)) return text;
+        if (max > text.length()) return text;
+        int i = text.indexOf(' ', max);
+        if (i == -1) i = max - 1;
+        return text.substring(0, i);
+    }
+
+    /*
+     * Offset of '>' closing the tag started at start, '>' inside quoted values are skipped.
+     */
+    private static int endOfTag(String html, int start) {
+        int length = html.length();
+        char quote = 0;
+        for (int i = start + 1; i < length; i++) {
+            char c = html.charAt(i);
+            if (quote != 0) {
+                if (c == quote) quote = 0;
+            } else if (c == '"' || c == '\'') {
+                if (Character.isWhitespace(html.charAt(i - 1)) || html.charAt(i - 1) == '=') quote = c;
+            } else if (c == '>') {
+                return i;
+            }
+        }
+        return -1;
+    }
+
+    private static boolean isTag(String html, int start, String name) {
+        int end = start + 1 + name.length();
+        if (end >= html.length()) return false;
+        if (!html.regionMatches(true, start + 1, name, 0, name.length())) return false;
+        char c = html.charAt(end);
+        return isSeparator(c) || c == '/' || c == '>';
+    }
+
+    private static boolean isMarkup(char c) {
+        return Character.isLetter(c) || c == '/' || c == '!';
+    }
+
+    private static boolean isSeparator(char c) {
+        return Character.isWhitespace(c) || c == '>';
+    }
+}
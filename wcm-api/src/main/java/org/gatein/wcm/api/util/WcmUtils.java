@@ -23,6 +23,8 @@
 
 package org.gatein.wcm.api.util;
 
+import java.security.MessageDigest;
+
 /**
  * Helper class for WCM content manipulation.
  *
@@ -34,63 +36,40 @@ public class WcmUtils {
      * @param html code from Post's content
      * @param index of the image to extract
      * @return src of the <img> tag to extract
+     * @see HtmlScanner to extract several images of the same content
      */
     public static String extractSrcImg(String html, int index) {
         if (html == null) return "";
-        int found = 0;
-        int i = 0;
-        int j = 0;
-        String output = "";
-        while (found != -1) {
-            j = html.indexOf("<img", i);
-            if (j != -1) {
-                if (found == index) {
-                    i = html.indexOf(">", j);
-                    output = html.substring(j, i+1);
-                    found = -1;
-                } else {
-                    i = j+1;
-                    found++;
-                }
-            } else {
-                found = -1;
-            }
-        }
-        if (!"".equals(output)) {
-            i = output.indexOf("src=");
-            j = output.indexOf(" ", i);
-            output = output.substring(i + 5, j - 1);
-        }
-        return output;
+        return HtmlScanner.scan(html, index + 1).src(index);
     }
 
     /**
      * @param html code from Post's content
      * @param index of the image to extract
      * @return <img> tag to extract
+     * @see HtmlScanner to extract several images of the same content
      */
     public static String extractImg(String html, int index) {
         if (html == null) return "<img>";
-        int found = 0;
-        int i = 0;
-        int j = 0;
-        String output = "<img>";
-        while (found != -1) {
-            j = html.indexOf("<img", i);
-            if (j != -1) {
-                if (found == index) {
-                    i = html.indexOf(">", j);
-                    output = html.substring(j, i+1);
-                    found = -1;
-                } else {
-                    i = j+1;
-                    found++;
-                }
-            } else {
-                found = -1;
+        return HtmlScanner.scan(html, index + 1).img(index);
+    }
+
+    /**
+     * @param value text to digest, usually a version or a response used as validation token
+     * @return SHA-1 digest of value in UTF-8, in hexadecimal
+     */
+    public static String sha1(String value) {
+        try {
+            byte[] digest = MessageDigest.getInstance("SHA-1").digest((value == null ? "" : value).getBytes("UTF-8"));
+            StringBuilder hex = new StringBuilder(digest.length * 2);
+            for (byte b : digest) {
+                hex.append(Character.forDigit((b >> 4) & 0xf, 16)).append(Character.forDigit(b & 0xf, 16));
             }
+            return hex.toString();
+        } catch (Exception e) {
+            // SHA-1 and UTF-8 are available in every JVM
+            throw new IllegalStateException(e);
         }
-        return output;
     }
 
 }
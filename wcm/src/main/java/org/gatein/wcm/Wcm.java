@@ -115,6 +115,19 @@ public interface Wcm {
          * Post is in draft mode and it can not be accessible from Content Portlets.
          */
 		static final Character DRAFT = 'D';
+        /**
+         * Max length of plain-text summary of Post's excerpt stored with the Post.
+         * Summaries longer than this are computed on render.
+         */
+        static final int SUMMARY = 1000;
+        /**
+         * Max length of image sources stored with the Post.
+         */
+        static final int IMAGES_LENGTH = 2000;
+        /**
+         * Number of image sources of Post's content stored with the Post.
+         */
+        static final int IMAGES = (System.getProperty("wcm.posts.images") == null ? 5 : new Integer(System.getProperty("wcm.posts.images")));
 	}
 
     /**
@@ -133,6 +146,28 @@ public interface Wcm {
          * This Post doesn't accept comments.
          */
 		static final Character NO_COMMENTS = 'N';
+        /**
+         * Default number of Comments per page in <wcm-comments page-size> tag.
+         */
+		static final int PAGE = (System.getProperty("wcm.comments.page") == null ? 20 : new Integer(System.getProperty("wcm.comments.page")));
+        /**
+         * Status of new Comments added from ContentPortlet.
+         * Wcm.COMMENT.PUBLIC publishes them, Wcm.COMMENT.PENDING holds them for moderation.
+         */
+		static final Character STATUS = (System.getProperty("wcm.comments.status") == null ? 'P' : System.getProperty("wcm.comments.status").charAt(0));
+        /**
+         * Max number of Comments waiting in memory to be written.
+         */
+		static final int QUEUE = (System.getProperty("wcm.comments.queue") == null ? 10000 : new Integer(System.getProperty("wcm.comments.queue")));
+        /**
+         * Max number of Comments written in a transaction.
+         */
+		static final int BATCH = (System.getProperty("wcm.comments.batch") == null ? 100 : new Integer(System.getProperty("wcm.comments.batch")));
+        /**
+         * Seconds a queued Comment is shown to its author before it's written.
+         * A Comment not written in this time is considered lost.
+         */
+		static final int PENDING = (System.getProperty("wcm.comments.pending") == null ? 60 : new Integer(System.getProperty("wcm.comments.pending")));
 	}
 
     /**
@@ -148,6 +183,10 @@ public interface Wcm {
          * It's used to preview Comments or to unpublish comments.
          */
 		static final Character REJECTED = 'R';
+        /**
+         * Comment is waiting for moderation, only user with WRITE access can read it.
+         */
+		static final Character PENDING = 'W';
         /**
          * Comment is deleted.
          */
@@ -287,6 +326,7 @@ public interface Wcm {
         static final String UPDATE_CONTENT_POST = "updatecontentpost";
         static final String SHOW_POST_COMMENTS = "showpostcomments";
         static final String ADD_COMMENT_POST = "addcommentpost";
+        static final String SHOW_MORE_COMMENTS = "showmorecomments";
         static final String UPDATE_COMMENTS_POST = "updatecommentspost";
         static final String UPDATE_STATUS_COMMENT_POST = "updatestatuscommentpost";
         static final String SHOW_POST_RELATIONSHIPS = "showpostrelationships";
@@ -301,6 +341,7 @@ public interface Wcm {
         static final String UNLOCK_TEMPLATE = "unlocktemplate";
         static final String SHOW_LOCKS = "showlocks";
         static final String REMOVE_LOCK = "removelock";
+        static final String COMPACT_HISTORY = "compacthistory";
     }
 
     /**
@@ -328,6 +369,37 @@ public interface Wcm {
         interface ACTIONS {
             static final String INLINE_EDITOR = "inlineeditor";
         }
+        /**
+         * Defines caches of ContentPortlet.
+         */
+        interface CACHE {
+            /**
+             * JSR-286 markup cache.
+             * Seconds portal reuses markup without asking ContentPortlet, after that markup is validated with an ETag.
+             */
+            static final int EXPIRATION = (System.getProperty("wcm.content.cache.expiration") == null ? 5 : new Integer(System.getProperty("wcm.content.cache.expiration")));
+            /**
+             * Max number of Post's content scans kept to process <wcm-img> and <wcm-content> tags.
+             */
+            static final int SCANS = (System.getProperty("wcm.content.cache.scans") == null ? 1000 : new Integer(System.getProperty("wcm.content.cache.scans")));
+        }
+        /**
+         * Defines limits of a Template render, a Template exceeding them is rendered partially.
+         */
+        interface BUDGET {
+            /**
+             * Max characters of processed markup.
+             */
+            static final int SIZE = (System.getProperty("wcm.content.budget.size") == null ? 1048576 : new Integer(System.getProperty("wcm.content.budget.size")));
+            /**
+             * Max items rendered per <wcm-list>, <wcm-param-list>, <wcm-file-list> or <wcm-cat-list> tag.
+             */
+            static final int ITEMS = (System.getProperty("wcm.content.budget.items") == null ? 500 : new Integer(System.getProperty("wcm.content.budget.items")));
+            /**
+             * Max milliseconds of a render.
+             */
+            static final long TIME = (System.getProperty("wcm.content.budget.time") == null ? 2000 : new Long(System.getProperty("wcm.content.budget.time")));
+        }
     }
 
     /**
@@ -370,6 +442,195 @@ public interface Wcm {
          * Defines max minutes a lock is valid
          */
         static final int LOCKS = (System.getProperty("wcm.timeout.locks") == null ? 20 : new Integer(System.getProperty("wcm.timeout.locks")));
+        /**
+         * Defines max expired locks deleted per transaction
+         */
+        static final int LOCKS_BATCH = (System.getProperty("wcm.timeout.locks_batch") == null ? 500 : new Integer(System.getProperty("wcm.timeout.locks_batch")));
+    }
+
+    /**
+     * Defines configuration for versions stored in history
+     */
+    interface HISTORY {
+        /**
+         * Defines every how many versions a PostHistory keeps full content instead of a delta.
+         */
+        static final int SNAPSHOTS = (System.getProperty("wcm.history.snapshots") == null ? 10 : new Integer(System.getProperty("wcm.history.snapshots")));
+        /**
+         * Defines system property name where to archive pruned versions as zip files.
+         * If it's not defined pruned versions are deleted without archive.
+         */
+        static final String ARCHIVE = "wcm.history.archive.folder";
+        /**
+         * Defines max versions of an item pruned per transaction.
+         */
+        static final int BATCH = (System.getProperty("wcm.history.batch") == null ? 100 : new Integer(System.getProperty("wcm.history.batch")));
+
+        /**
+         * Retention of Post history.
+         * KEEP_LAST newest versions are always kept, a negative value disables retention.
+         * Versions modified in last KEEP_DAYS days are kept.
+         * Older versions are pruned, if DAILY is true the last version of each day is kept.
+         */
+        interface POSTS {
+            static final int KEEP_LAST = (System.getProperty("wcm.history.posts.keep_last") == null ? -1 : new Integer(System.getProperty("wcm.history.posts.keep_last")));
+            static final int KEEP_DAYS = (System.getProperty("wcm.history.posts.keep_days") == null ? 30 : new Integer(System.getProperty("wcm.history.posts.keep_days")));
+            static final boolean DAILY = (System.getProperty("wcm.history.posts.daily") == null || "true".equals(System.getProperty("wcm.history.posts.daily")));
+        }
+
+        /**
+         * Retention of Upload history.
+         * KEEP_LAST newest versions are always kept, a negative value disables retention.
+         * Versions modified in last KEEP_DAYS days are kept.
+         * Older versions are pruned, if DAILY is true the last version of each day is kept.
+         */
+        interface UPLOADS {
+            static final int KEEP_LAST = (System.getProperty("wcm.history.uploads.keep_last") == null ? -1 : new Integer(System.getProperty("wcm.history.uploads.keep_last")));
+            static final int KEEP_DAYS = (System.getProperty("wcm.history.uploads.keep_days") == null ? 30 : new Integer(System.getProperty("wcm.history.uploads.keep_days")));
+            static final boolean DAILY = (System.getProperty("wcm.history.uploads.daily") == null || "true".equals(System.getProperty("wcm.history.uploads.daily")));
+        }
+
+        /**
+         * Retention of Template history.
+         * KEEP_LAST newest versions are always kept, a negative value disables retention.
+         * Versions modified in last KEEP_DAYS days are kept.
+         * Older versions are pruned, if DAILY is true the last version of each day is kept.
+         */
+        interface TEMPLATES {
+            static final int KEEP_LAST = (System.getProperty("wcm.history.templates.keep_last") == null ? -1 : new Integer(System.getProperty("wcm.history.templates.keep_last")));
+            static final int KEEP_DAYS = (System.getProperty("wcm.history.templates.keep_days") == null ? 30 : new Integer(System.getProperty("wcm.history.templates.keep_days")));
+            static final boolean DAILY = (System.getProperty("wcm.history.templates.daily") == null || "true".equals(System.getProperty("wcm.history.templates.daily")));
+        }
+    }
+
+    /**
+     * Defines configuration for multi-node deployments
+     */
+    interface CLUSTER {
+        /**
+         * Defines the name of this node, used as owner of Locks and Leases.
+         * By default it uses the application server node name.
+         */
+        static final String NODE = (System.getProperty("wcm.cluster.node") != null ? System.getProperty("wcm.cluster.node") :
+                (System.getProperty("jboss.node.name") != null ? System.getProperty("jboss.node.name") : "wcm"));
+        /**
+         * Defines max seconds a Lease is owned by a node without renewal.
+         * It should be longer than Wcm.TIMEOUTS.TIMER to keep same node as owner between executions.
+         */
+        static final int LEASE = (System.getProperty("wcm.cluster.lease") == null ? TIMEOUTS.TIMER * 60 * 2 : new Integer(System.getProperty("wcm.cluster.lease")));
+        /**
+         * Lease elected to expire Locks. Only its owner node runs the expiry timer.
+         */
+        static final String REAPER = "wcm-lock-reaper";
+        /**
+         * Lease used as counter for Locks' fencing tokens.
+         */
+        static final String TOKENS = "wcm-lock-tokens";
+        /**
+         * Lease elected to apply history retention. Only its owner node prunes history.
+         */
+        static final String RETENTION = "wcm-history-retention";
+        /**
+         * Lease elected to maintain Changes log. Only its owner node publishes and deletes Changes.
+         */
+        static final String CHANGES = "wcm-changes-retention";
+    }
+
+    /**
+     * Defines properties for bulk operations.
+     */
+    interface BULK {
+        /**
+         * Number of items written before flushing and clearing persistence context.
+         * It should match hibernate.jdbc.batch_size defined in persistence.xml.
+         */
+        static final int BATCH = (System.getProperty("wcm.bulk.batch") == null ? 50 : new Integer(System.getProperty("wcm.bulk.batch")));
+    }
+
+    /**
+     * Defines Change log of content modifications.
+     */
+    interface CHANGES {
+        /*
+         * Type of item changed
+         */
+        static final Character CATEGORY = 'C';
+        static final Character POST = 'P';
+        static final Character UPLOAD = 'U';
+        static final Character TEMPLATE = 'T';
+        static final Character COMMENT = 'M';
+        static final Character ACL = 'A';
+        static final Character RELATIONSHIP = 'R';
+        /*
+         * Operation on item
+         */
+        static final Character CREATE = 'C';
+        static final Character UPDATE = 'U';
+        static final Character DELETE = 'D';
+        /**
+         * Defines days Changes are kept in log.
+         */
+        static final int KEEP_DAYS = (System.getProperty("wcm.changes.keep_days") == null ? 7 : new Integer(System.getProperty("wcm.changes.keep_days")));
+        /**
+         * Max number of Changes returned in a single read of the feed.
+         */
+        static final int MAX = (System.getProperty("wcm.changes.max") == null ? 1000 : new Integer(System.getProperty("wcm.changes.max")));
+    }
+
+    /**
+     * Defines full-text index over Posts, Uploads and Templates.
+     * Each node keeps its own index on local disk and follows Wcm.CHANGES log to update it.
+     */
+    interface SEARCH {
+        /*
+         * Type of item indexed
+         */
+        static final Character POST = 'P';
+        static final Character UPLOAD = 'U';
+        static final Character TEMPLATE = 'T';
+        /**
+         * Defines system property name where to read the index folder.
+         * If it's not defined it's used ${jboss.server.data.dir}/wcm/search
+         */
+        static final String FOLDER = "wcm.search.folder";
+        /**
+         * Max number of ranked results returned by a search, before ACL filtering.
+         */
+        static final int MAX = (System.getProperty("wcm.search.max") == null ? 1000 : new Integer(System.getProperty("wcm.search.max")));
+        /**
+         * Max number of index terms a prefix in the last word of a query is expanded to.
+         */
+        static final int EXPANSIONS = (System.getProperty("wcm.search.expansions") == null ? 50 : new Integer(System.getProperty("wcm.search.expansions")));
+        /*
+         * Weight of fields in ranking
+         */
+        static final int TITLE = 3;
+        static final int EXCERPT = 2;
+        static final int CONTENT = 1;
+    }
+
+    /**
+     * Defines properties for JSON REST read api.
+     */
+    interface REST {
+        /**
+         * Default number of Posts returned in a listing.
+         */
+        static final int LIMIT = (System.getProperty("wcm.rest.limit") == null ? 20 : new Integer(System.getProperty("wcm.rest.limit")));
+        /**
+         * Max number of Posts a client can request in a listing.
+         */
+        static final int MAX_LIMIT = (System.getProperty("wcm.rest.max_limit") == null ? 100 : new Integer(System.getProperty("wcm.rest.max_limit")));
+        /**
+         * Defines properties for Client's and proxies' cache.
+         * HTTP/1.1 Cache-Control parameters
+         */
+        interface CACHE {
+            /**
+             * @ref http://www.w3.org/Protocols/rfc2616/rfc2616-sec14.html#sec14.9.3
+             */
+            static final int MAX_AGE = (System.getProperty("wcm.rest.cache.max-age") == null ? 60 : new Integer(System.getProperty("wcm.rest.cache.max-age")));
+        }
     }
 
     /**
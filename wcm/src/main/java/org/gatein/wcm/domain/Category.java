@@ -46,6 +46,8 @@ import javax.persistence.PreRemove;
 import javax.persistence.Table;
 import javax.persistence.Transient;
 
+import org.hibernate.annotations.BatchSize;
+
 /**
  * Categories group content (Posts, Uploads or Templates).
  * Categories have a tree structure with Category's parent reference.
@@ -58,6 +60,7 @@ import javax.persistence.Transient;
 @NamedQueries({
         @NamedQuery(name = "listAllCategories", query = "from Category c order by c.parent.id, c.type, c.name, c.id"),
 		@NamedQuery(name = "listCategoriesName", query = "from Category c where upper(c.name) like upper(:name) order by c.parent.id, c.type, c.name, c.id"),
+        @NamedQuery(name = "listCategoriesNames", query = "from Category c where c.name in (:names) order by c.parent.id, c.type, c.name, c.id"),
 		@NamedQuery(name = "listCategoriesType", query = "from Category c where c.type = :type order by c.parent.id, c.type, c.name, c.id"),
 		@NamedQuery(name = "listCategoriesChildren", query = "from Category c where c.parent is not null and c.parent.id = :id order by c.type, c.name, c.id"),
         @NamedQuery(name = "listRootCategories", query = "from Category c where c.parent is null order by c.type, c.name, c.id")
@@ -73,6 +76,7 @@ final public class Category implements Serializable {
 	private Category parent;
 	private Set<Acl> acls = new HashSet<Acl>();
     private int numChildren;
+    private Long lastChange;
 	
 	public Category() { }
 	
@@ -114,6 +118,19 @@ final public class Category implements Serializable {
 		this.type = type;
 	}
 	
+    /**
+     * Id of the last Change of this Category, its links, or Posts and Uploads linked to it.
+     * Ancestors are stamped too when the Category itself changes, so root Categories follow the whole tree.
+     * It's used to validate cached markup, null if Category has not changed since it was stored.
+     */
+    @Column(name = "category_last_change")
+    public Long getLastChange() {
+        return lastChange;
+    }
+    public void setLastChange(Long lastChange) {
+        this.lastChange = lastChange;
+    }
+
 	@ManyToMany(fetch = FetchType.LAZY)
 	@JoinTable(name = "wcm_categories_posts",
 			joinColumns = { @JoinColumn(name = "category_id", referencedColumnName = "category_id") },
@@ -170,6 +187,7 @@ final public class Category implements Serializable {
 	
 	@OneToMany(mappedBy = "category", cascade = { CascadeType.ALL }, fetch = FetchType.EAGER)
     @OrderBy("permission desc, principal asc")
+    @BatchSize(size = 100)
 	public Set<Acl> getAcls() {
 		return acls;
 	}
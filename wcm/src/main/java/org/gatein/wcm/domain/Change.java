@@ -0,0 +1,210 @@
+/*
+ * JBoss, a division of Red Hat
+ * Copyright 2010, Red Hat Middleware, LLC, and individual
+ * contributors as indicated by the @authors tag. See the
+ * copyright.txt in the distribution for a full listing of
+ * individual contributors.
+ *
+ * This is free software; you can redistribute it and/or modify it
+ * under the terms of the GNU Lesser General Public License as
+ * published by the Free Software Foundation; either version 2.1 of
+ * the License, or (at your option) any later version.
+ *
+ * This software is distributed in the hope that it will be useful,
+ * but WITHOUT ANY WARRANTY; without even the implied warranty of
+ * MERCHANTABILITY or FITNESS FOR A PARTICULAR PURPOSE. See the GNU
+ * Lesser General Public License for more details.
+ *
+ * You should have received a copy of the GNU Lesser General Public
+ * License along with this software; if not, write to the Free
+ * Software Foundation, Inc., 51 Franklin St, Fifth Floor, Boston, MA
+ * 02110-1301 USA, or see the FSF site: http://www.fsf.org.
+ */
+
+package org.gatein.wcm.domain;
+
+import java.io.Serializable;
+import java.util.Calendar;
+
+import javax.persistence.Column;
+import javax.persistence.Entity;
+import javax.persistence.GeneratedValue;
+import javax.persistence.Id;
+import javax.persistence.NamedQueries;
+import javax.persistence.NamedQuery;
+import javax.persistence.Table;
+import javax.persistence.Temporal;
+import javax.persistence.TemporalType;
+
+import org.hibernate.annotations.Index;
+
+/**
+ * Append-only log of modifications of content.
+ * A Change is stored in the same transaction as the modification it describes.
+ * Ids are assigned before commit, so a Change with a lower id can become visible after a higher one.
+ * A single publisher assigns positions to committed Changes in the order it finds them,
+ * Changes are read as a feed by position and they are not cached.
+ *
+ * @see org.gatein.wcm.Wcm.CHANGES
+ *
+ * @author <a href="mailto:lponce@redhat.com">Lucas Ponce</a>
+ */
+@Entity
+@Table(name = "wcm_changes")
+@org.hibernate.annotations.Table(appliesTo = "wcm_changes", indexes = {
+        @Index(name = "wcm_changes_created_idx", columnNames = { "change_created" }),
+        @Index(name = "wcm_changes_position_idx", columnNames = { "change_position" })
+})
+@NamedQueries({
+        @NamedQuery(name = "listChanges", query = "from Change c where c.position > :since order by c.position"),
+        @NamedQuery(name = "listUnpublishedChanges", query = "from Change c where c.position is null order by c.id"),
+        @NamedQuery(name = "deleteChanges", query = "delete from Change c where c.created < :cutoff and c.position is not null"),
+        @NamedQuery(name = "lastChange", query = "select max(c.position) from Change c")
+})
+final public class Change implements Serializable {
+
+    private Long id;
+    private Long position;
+    private Character type;
+    private Character operation;
+    private Long itemId;
+    private Character parentType;
+    private Long parentId;
+    private String username;
+    private Calendar created;
+
+    public Change() {
+        this.created = Calendar.getInstance();
+    }
+
+    public Change(Character type, Character operation, Long itemId, String username) {
+        this();
+        this.type = type;
+        this.operation = operation;
+        this.itemId = itemId;
+        this.username = username;
+    }
+
+    @Id @GeneratedValue
+    @Column(name = "change_id")
+    public Long getId() {
+        return id;
+    }
+    public void setId(Long id) {
+        this.id = id;
+    }
+
+    /**
+     * @return position of the Change in the feed, null until it's published
+     */
+    @Column(name = "change_position")
+    public Long getPosition() {
+        return position;
+    }
+    public void setPosition(Long position) {
+        this.position = position;
+    }
+
+    /**
+     * @see org.gatein.wcm.Wcm.CHANGES
+     * @return type of item changed
+     */
+    @Column(name = "change_type")
+    public Character getType() {
+        return type;
+    }
+    public void setType(Character type) {
+        this.type = type;
+    }
+
+    /**
+     * @see org.gatein.wcm.Wcm.CHANGES
+     * @return operation on item
+     */
+    @Column(name = "change_operation")
+    public Character getOperation() {
+        return operation;
+    }
+    public void setOperation(Character operation) {
+        this.operation = operation;
+    }
+
+    @Column(name = "change_item_id")
+    public Long getItemId() {
+        return itemId;
+    }
+    public void setItemId(Long itemId) {
+        this.itemId = itemId;
+    }
+
+    /**
+     * @return type of item owning the changed item (i.e. Post of a Comment), null if none
+     */
+    @Column(name = "change_parent_type")
+    public Character getParentType() {
+        return parentType;
+    }
+    public void setParentType(Character parentType) {
+        this.parentType = parentType;
+    }
+
+    @Column(name = "change_parent_id")
+    public Long getParentId() {
+        return parentId;
+    }
+    public void setParentId(Long parentId) {
+        this.parentId = parentId;
+    }
+
+    @Column(name = "change_user")
+    public String getUsername() {
+        return username;
+    }
+    public void setUsername(String username) {
+        this.username = username;
+    }
+
+    /**
+     * @return time of the modification in the node that did it, it's not used to order the feed
+     */
+    @Column(name = "change_created")
+    @Temporal(TemporalType.TIMESTAMP)
+    public Calendar getCreated() {
+        return created;
+    }
+    public void setCreated(Calendar created) {
+        this.created = created;
+    }
+
+    @Override
+    public boolean equals(Object o) {
+        if (this == o) return true;
+        if (o == null || getClass() != o.getClass()) return false;
+
+        Change change = (Change) o;
+
+        if (id != null ? !id.equals(change.id) : change.id != null) return false;
+
+        return true;
+    }
+
+    @Override
+    public int hashCode() {
+        return id != null ? id.hashCode() : 0;
+    }
+
+    @Override
+    public String toString() {
+        return "Change{" +
+                "id=" + id +
+                ", position=" + position +
+                ", type=" + type +
+                ", operation=" + operation +
+                ", itemId=" + itemId +
+                ", parentType=" + parentType +
+                ", parentId=" + parentId +
+                ", username='" + username + '\'' +
+                ", created=" + (created != null ? created.getTime() : null) +
+                '}';
+    }
+}
@@ -33,6 +33,8 @@ import javax.persistence.GeneratedValue;
 import javax.persistence.Id;
 import javax.persistence.JoinColumn;
 import javax.persistence.ManyToOne;
+import javax.persistence.NamedQueries;
+import javax.persistence.NamedQuery;
 import javax.persistence.Table;
 
 /**
@@ -43,6 +45,15 @@ import javax.persistence.Table;
 @Entity
 @Table(name = "wcm_comments")
 @Cacheable
+@NamedQueries({
+        @NamedQuery(name = "listCommentsPost", query = "select c.id, c.author, c.authorEmail, c.authorUrl, c.created, c.content, c.status from Comment c where c.post.id = :postId and c.status = :status order by c.id desc"),
+        @NamedQuery(name = "listCommentsPostBefore", query = "select c.id, c.author, c.authorEmail, c.authorUrl, c.created, c.content, c.status from Comment c where c.post.id = :postId and c.status = :status and c.id < :before order by c.id desc"),
+        @NamedQuery(name = "listAllCommentsPost", query = "select c.id, c.author, c.authorEmail, c.authorUrl, c.created, c.content, c.status from Comment c where c.post.id = :postId order by c.id desc"),
+        @NamedQuery(name = "listAllCommentsPostBefore", query = "select c.id, c.author, c.authorEmail, c.authorUrl, c.created, c.content, c.status from Comment c where c.post.id = :postId and c.id < :before order by c.id desc"),
+        @NamedQuery(name = "listCommentsPosts", query = "select c.post.id, c.id, c.author, c.authorEmail, c.authorUrl, c.created, c.content, c.status from Comment c where c.post.id in (:ids) and c.status = :status order by c.id desc"),
+        @NamedQuery(name = "listAllCommentsPosts", query = "select c.post.id, c.id, c.author, c.authorEmail, c.authorUrl, c.created, c.content, c.status from Comment c where c.post.id in (:ids) order by c.id desc"),
+        @NamedQuery(name = "countCommentsPost", query = "select c.status, count(c), max(c.created) from Comment c where c.post.id = :postId group by c.status")
+})
 final public class Comment implements Serializable {
 
 	private Long id;
@@ -0,0 +1,122 @@
+/*
+ * JBoss, a division of Red Hat
+ * Copyright 2010, Red Hat Middleware, LLC, and individual
+ * contributors as indicated by the @authors tag. See the
+ * copyright.txt in the distribution for a full listing of
+ * individual contributors.
+ *
+ * This is free software; you can redistribute it and/or modify it
+ * under the terms of the GNU Lesser General Public License as
+ * published by the Free Software Foundation; either version 2.1 of
+ * the License, or (at your option) any later version.
+ *
+ * This software is distributed in the hope that it will be useful,
+ * but WITHOUT ANY WARRANTY; without even the implied warranty of
+ * MERCHANTABILITY or FITNESS FOR A PARTICULAR PURPOSE. See the GNU
+ * Lesser General Public License for more details.
+ *
+ * You should have received a copy of the GNU Lesser General Public
+ * License along with this software; if not, write to the Free
+ * Software Foundation, Inc., 51 Franklin St, Fifth Floor, Boston, MA
+ * 02110-1301 USA, or see the FSF site: http://www.fsf.org.
+ */
+
+package org.gatein.wcm.domain;
+
+import java.io.Serializable;
+import java.util.Calendar;
+
+import javax.persistence.Column;
+import javax.persistence.Entity;
+import javax.persistence.Id;
+import javax.persistence.NamedQueries;
+import javax.persistence.NamedQuery;
+import javax.persistence.Table;
+import javax.persistence.Temporal;
+import javax.persistence.TemporalType;
+
+/**
+ * It represents a named lease shared by all nodes of a cluster.
+ * A lease is owned by one node until it expires, it is used to elect a single node for periodic tasks.
+ * Lease rows also keep monotonic counters used as fencing tokens for Locks.
+ * Leases are not cached as every node has to see the last state stored in database.
+ *
+ * @see org.gatein.wcm.Wcm.CLUSTER
+ *
+ * @author <a href="mailto:lponce@redhat.com">Lucas Ponce</a>
+ */
+@Entity
+@Table(name = "wcm_leases")
+@NamedQueries({
+        @NamedQuery(name = "acquireLease", query = "update Lease l set l.owner = :owner, l.expires = :expires where l.name = :name and (l.owner = :owner or l.expires is null or l.expires < :now)"),
+        @NamedQuery(name = "nextLeaseToken", query = "update Lease l set l.token = l.token + 1 where l.name = :name"),
+        @NamedQuery(name = "leaseToken", query = "select l.token from Lease l where l.name = :name")
+})
+final public class Lease implements Serializable {
+
+    private String name;
+    private String owner;
+    private Calendar expires;
+    private Long token = 0l;
+
+    @Id
+    @Column(name = "lease_name")
+    public String getName() {
+        return name;
+    }
+    public void setName(String name) {
+        this.name = name;
+    }
+
+    @Column(name = "lease_owner")
+    public String getOwner() {
+        return owner;
+    }
+    public void setOwner(String owner) {
+        this.owner = owner;
+    }
+
+    @Column(name = "lease_expires")
+    @Temporal(TemporalType.TIMESTAMP)
+    public Calendar getExpires() {
+        return expires;
+    }
+    public void setExpires(Calendar expires) {
+        this.expires = expires;
+    }
+
+    @Column(name = "lease_token")
+    public Long getToken() {
+        return token;
+    }
+    public void setToken(Long token) {
+        this.token = token;
+    }
+
+    @Override
+    public boolean equals(Object o) {
+        if (this == o) return true;
+        if (o == null || getClass() != o.getClass()) return false;
+
+        Lease lease = (Lease) o;
+
+        if (name != null ? !name.equals(lease.name) : lease.name != null) return false;
+
+        return true;
+    }
+
+    @Override
+    public int hashCode() {
+        return name != null ? name.hashCode() : 0;
+    }
+
+    @Override
+    public String toString() {
+        return "Lease{" +
+                "name='" + name + '\'' +
+                ", owner='" + owner + '\'' +
+                ", expires=" + expires +
+                ", token=" + token +
+                '}';
+    }
+}
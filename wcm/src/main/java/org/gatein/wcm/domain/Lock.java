@@ -26,7 +26,6 @@ package org.gatein.wcm.domain;
 import java.io.Serializable;
 import java.util.Calendar;
 
-import javax.persistence.Cacheable;
 import javax.persistence.Column;
 import javax.persistence.Entity;
 import javax.persistence.Id;
@@ -37,18 +36,30 @@ import javax.persistence.Table;
 import javax.persistence.Temporal;
 import javax.persistence.TemporalType;
 
+import org.hibernate.annotations.Index;
+
 /**
  * It represents a Lock of an editable item (Post, Category, Upload or Template) by a user.
  * It's managed by administrator.
+ * A Lock carries a fencing token, a cluster wide increasing number assigned when the Lock is acquired,
+ * and the node where it was acquired.
+ * Locks are not cached as every node of a cluster has to see the last state stored in database.
+ *
+ * @see org.gatein.wcm.services.LockCoordinator
  *
  * @author <a href="mailto:lponce@redhat.com">Lucas Ponce</a>
  */
 @Entity
 @Table(name = "wcm_locks")
+@org.hibernate.annotations.Table(appliesTo = "wcm_locks", indexes = {
+        @Index(name = "wcm_locks_created_idx", columnNames = { "lock_created" })
+})
 @IdClass(LockPK.class)
-@Cacheable
 @NamedQueries({
-        @NamedQuery(name = "listLocks", query = "select l from Lock l order by l.created")
+        @NamedQuery(name = "listLocks", query = "select l from Lock l order by l.created"),
+        @NamedQuery(name = "listExpiredLocks", query = "select l.created from Lock l where l.created < :cutoff order by l.created"),
+        @NamedQuery(name = "deleteExpiredLocks", query = "delete from Lock l where l.created < :cutoff and l.created <= :last"),
+        @NamedQuery(name = "renewLock", query = "update Lock l set l.created = :created where l.originId = :originid and l.type = :type and l.token = :token")
 })
 final public class Lock implements Serializable {
 	
@@ -56,6 +67,8 @@ final public class Lock implements Serializable {
     private Character type;
 	private String username;
     private Calendar created;
+    private Long token;
+    private String node;
 
     @Id
     @Column(name = "lock_origin_id")
@@ -92,6 +105,22 @@ final public class Lock implements Serializable {
         this.created = created;
     }
 
+    @Column(name = "lock_token")
+    public Long getToken() {
+        return token;
+    }
+    public void setToken(Long token) {
+        this.token = token;
+    }
+
+    @Column(name = "lock_node")
+    public String getNode() {
+        return node;
+    }
+    public void setNode(String node) {
+        this.node = node;
+    }
+
     @Override
     public boolean equals(Object o) {
         if (this == o) return true;
@@ -103,6 +132,7 @@ final public class Lock implements Serializable {
         if (originId != null ? !originId.equals(lock.originId) : lock.originId != null) return false;
         if (type != null ? !type.equals(lock.type) : lock.type != null) return false;
         if (username != null ? !username.equals(lock.username) : lock.username != null) return false;
+        if (token != null ? !token.equals(lock.token) : lock.token != null) return false;
 
         return true;
     }
@@ -113,6 +143,7 @@ final public class Lock implements Serializable {
         result = 31 * result + (type != null ? type.hashCode() : 0);
         result = 31 * result + (username != null ? username.hashCode() : 0);
         result = 31 * result + (created != null ? created.hashCode() : 0);
+        result = 31 * result + (token != null ? token.hashCode() : 0);
         return result;
     }
 
@@ -123,6 +154,8 @@ final public class Lock implements Serializable {
                 ", type=" + type +
                 ", username='" + username + '\'' +
                 ", created=" + created +
+                ", token=" + token +
+                ", node='" + node + '\'' +
                 '}';
     }
 }
\ No newline at end of file
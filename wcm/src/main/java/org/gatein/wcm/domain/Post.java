@@ -47,6 +47,7 @@ import javax.persistence.Temporal;
 import javax.persistence.TemporalType;
 
 import org.gatein.wcm.Wcm;
+import org.hibernate.annotations.Index;
 
 
 /**
@@ -56,16 +57,35 @@ import org.gatein.wcm.Wcm;
  */
 @Entity
 @Table(name = "wcm_posts")
+@org.hibernate.annotations.Table(appliesTo = "wcm_posts", indexes = {
+        @Index(name = "wcm_posts_modified_idx", columnNames = { "post_modified", "post_id" })
+})
 @Cacheable
 @NamedQueries({
 		@NamedQuery(name = "listPostsName", query = "from Post p where upper(p.title) like :title order by p.modified desc"),
         @NamedQuery(name = "listAllPosts", query = "from Post p order by p.modified desc"),
         @NamedQuery(name = "listPostsCategory", query = "from Post p order by p.modified desc"),
+        @NamedQuery(name = "listPostsIds", query = "select distinct p from Post p left join fetch p.categories left join fetch p.acls where p.id in (:ids)"),
+        @NamedQuery(name = "listPostsCommentsStatus", query = "select p.id, p.commentsStatus from Post p where p.id in (:ids)"),
+        @NamedQuery(name = "listPostAccess", query = "select p.commentsStatus, a.principal, a.permission from Post p left join p.acls a where p.id = :id"),
+        @NamedQuery(name = "listPostsAfter", query = "from Post p where p.modified > :modified or (p.modified = :modified and p.id > :id) order by p.modified, p.id"),
+        @NamedQuery(name = "searchPostsAfter", query = "select p.id, p.title, p.excerpt, p.content from Post p where p.id > :id order by p.id"),
+        @NamedQuery(name = "searchPostsIds", query = "select p.id, p.title, p.excerpt, p.content from Post p where p.id in (:ids)"),
+        @NamedQuery(name = "listPostsPage", query = "from Post p order by p.modified desc, p.id desc"),
+        @NamedQuery(name = "listPostsStatusPage", query = "from Post p where p.postStatus = :status order by p.modified desc, p.id desc"),
+        @NamedQuery(name = "listPostsCategoryPage", query = "select p from Post p join p.categories c where c.id = :categoryId order by p.modified desc, p.id desc"),
+        @NamedQuery(name = "listPostsCategoryStatusPage", query = "select p from Post p join p.categories c where c.id = :categoryId and p.postStatus = :status order by p.modified desc, p.id desc"),
+        @NamedQuery(name = "listPostsPageBefore", query = "from Post p where p.modified < :modified or (p.modified = :modified and p.id < :id) order by p.modified desc, p.id desc"),
+        @NamedQuery(name = "listPostsStatusPageBefore", query = "from Post p where p.postStatus = :status and (p.modified < :modified or (p.modified = :modified and p.id < :id)) order by p.modified desc, p.id desc"),
+        @NamedQuery(name = "listPostsCategoryPageBefore", query = "select p from Post p join p.categories c where c.id = :categoryId and (p.modified < :modified or (p.modified = :modified and p.id < :id)) order by p.modified desc, p.id desc"),
+        @NamedQuery(name = "listPostsCategoryStatusPageBefore", query = "select p from Post p join p.categories c where c.id = :categoryId and p.postStatus = :status and (p.modified < :modified or (p.modified = :modified and p.id < :id)) order by p.modified desc, p.id desc"),
+        @NamedQuery(name = "currentPostVersion", query = "select p.version from Post p where p.id = :id")
 })
 final public class Post implements Serializable {
 
 	private Long id;
 	private Long version;
+	private Long lastVersion;
 	private String author;
 	private Calendar created;
 	private String content;
@@ -75,17 +95,28 @@ final public class Post implements Serializable {
 	private Calendar modified;
 	private String locale;
 	private Character commentsStatus;
+	private String summary;
+	private String images;
+	private Integer wordCount;
+	private Integer commentsCount;
+	private Integer commentsPublic;
+	private Integer commentsPending;
+	private Calendar lastCommentAt;
 	private Set<Comment> comments = new HashSet<Comment>();
 	private Set<Category> categories = new HashSet<Category>();
 	private Set<Acl> acls = new HashSet<Acl>();
 	
 	public Post() {
 		this.version = 0l;
+		this.lastVersion = 0l;
 		this.created = Calendar.getInstance();
         this.modified = (Calendar)this.created.clone();
 		this.postStatus = Wcm.POSTS.DRAFT;
 		this.locale = Locale.getDefault().getLanguage();
 		this.commentsStatus = Wcm.COMMENTS.ANONYMOUS;
+		this.commentsCount = 0;
+		this.commentsPublic = 0;
+		this.commentsPending = 0;
 	}
 	
 	public Post(String title) {
@@ -115,6 +146,18 @@ final public class Post implements Serializable {
 		this.version = version;
 	}
 
+    /**
+     * Last version number assigned to this Post or to its history.
+     * It's incremented while the live row is locked, merges with a stale value are fixed in next update.
+     */
+    @Column(name = "post_last_version")
+    public Long getLastVersion() {
+        return lastVersion;
+    }
+    public void setLastVersion(Long lastVersion) {
+        this.lastVersion = lastVersion;
+    }
+
 	@Column(name = "post_author")
 	public String getAuthor() {
 		return author;
@@ -199,7 +242,98 @@ final public class Post implements Serializable {
 		this.commentsStatus = commentsStatus;
 	}
 
-	@OneToMany(mappedBy = "post", cascade = { CascadeType.ALL }, fetch = FetchType.EAGER)
+    /**
+     * Plain-text of excerpt, computed when Post is saved.
+     * @see Wcm.POSTS#SUMMARY
+     * @return summary of Post, null if it's not computed or it's too long
+     */
+    @Column(name = "post_summary", length = Wcm.POSTS.SUMMARY)
+    public String getSummary() {
+        return summary;
+    }
+    public void setSummary(String summary) {
+        this.summary = summary;
+    }
+
+    /**
+     * Sources of first Wcm.POSTS.IMAGES images of content separated by new lines, computed when Post is saved.
+     * @see Wcm.POSTS#IMAGES
+     * @return image sources of Post, "" if content has not images, null if it's not computed or sources are too long
+     */
+    @Column(name = "post_images", length = Wcm.POSTS.IMAGES_LENGTH)
+    public String getImages() {
+        return images;
+    }
+    public void setImages(String images) {
+        this.images = images;
+    }
+
+    /**
+     * @return number of words of content, computed when Post is saved
+     */
+    @Column(name = "post_word_count")
+    public Integer getWordCount() {
+        return wordCount;
+    }
+    public void setWordCount(Integer wordCount) {
+        this.wordCount = wordCount;
+    }
+
+    /*
+     * Comments counters are maintained by WcmService in the locked Post when Comments are added, removed or change status.
+     * WcmService keeps stored counters when a Post is updated, so merging a Post doesn't overwrite them.
+     * A null counter means it's not calculated yet for this Post.
+     */
+
+    /**
+     * @return number of Comments of this Post
+     */
+    @Column(name = "post_comments_count")
+    public Integer getCommentsCount() {
+        return commentsCount;
+    }
+    public void setCommentsCount(Integer commentsCount) {
+        this.commentsCount = commentsCount;
+    }
+
+    /**
+     * @return number of Wcm.COMMENT.PUBLIC Comments of this Post
+     */
+    @Column(name = "post_comments_public")
+    public Integer getCommentsPublic() {
+        return commentsPublic;
+    }
+    public void setCommentsPublic(Integer commentsPublic) {
+        this.commentsPublic = commentsPublic;
+    }
+
+    /**
+     * @return number of Wcm.COMMENT.PENDING Comments of this Post, held for moderation
+     */
+    @Column(name = "post_comments_pending")
+    public Integer getCommentsPending() {
+        return commentsPending;
+    }
+    public void setCommentsPending(Integer commentsPending) {
+        this.commentsPending = commentsPending;
+    }
+
+    /**
+     * @return creation date of newest Comment of this Post
+     */
+    @Column(name = "post_last_comment")
+    @Temporal(TemporalType.TIMESTAMP)
+    public Calendar getLastCommentAt() {
+        return lastCommentAt;
+    }
+    public void setLastCommentAt(Calendar lastCommentAt) {
+        this.lastCommentAt = lastCommentAt;
+    }
+
+    /**
+     * Comments are not loaded with the Post, they are read by pages with WcmService#findComments().
+     */
+	@OneToMany(mappedBy = "post", cascade = { CascadeType.ALL }, fetch = FetchType.LAZY)
     @OrderBy("created desc")
 	public Set<Comment> getComments() {
 		return comments;
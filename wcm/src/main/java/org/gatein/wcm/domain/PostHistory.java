@@ -41,6 +41,10 @@ import javax.persistence.TemporalType;
 /**
  * PostHistory will store older Posts.
  * PostHistory will implement a versioning utility inside wcm.
+ * Content and excerpt of a PostHistory can be stored as a delta against the next version in history,
+ * a full snapshot is kept every Wcm.HISTORY.SNAPSHOTS versions.
+ *
+ * @see org.gatein.wcm.services.HistoryService
  *
  * @author <a href="mailto:lponce@redhat.com">Lucas Ponce</a>
  */
@@ -50,7 +54,13 @@ import javax.persistence.TemporalType;
 @Cacheable
 @NamedQueries({
         @NamedQuery(name = "maxPostVersion", query = "select max(ph.version) from PostHistory ph where ph.id = :postid"),
-        @NamedQuery(name = "versionsPost", query = "select ph.version from PostHistory ph where ph.id = :postid order by ph.version desc")
+        @NamedQuery(name = "versionsPost", query = "select ph.version from PostHistory ph where ph.id = :postid order by ph.version desc"),
+        @NamedQuery(name = "listPostHistory", query = "select ph from PostHistory ph where ph.id = :postid order by ph.version desc"),
+        @NamedQuery(name = "listPostHistoryBefore", query = "select ph from PostHistory ph where ph.id = :postid and ph.version < :version order by ph.version desc"),
+        @NamedQuery(name = "listPostHistoryAfter", query = "select ph from PostHistory ph where ph.id = :postid and ph.version > :version order by ph.version"),
+        @NamedQuery(name = "snapshotPostHistory", query = "select min(ph.version) from PostHistory ph where ph.id = :postid and ph.version > :version and (ph.delta is null or ph.delta = false)"),
+        @NamedQuery(name = "listPostHistoryChain", query = "select ph from PostHistory ph where ph.id = :postid and ph.version > :version and ph.version <= :snapshot order by ph.version desc"),
+        @NamedQuery(name = "listPostsHistory", query = "select distinct ph.id from PostHistory ph order by ph.id")
 })
 final public class PostHistory implements Serializable {
 
@@ -67,6 +77,7 @@ final public class PostHistory implements Serializable {
 	private Calendar deleted;
 	private String group;
 	private String locale;
+	private Boolean delta;
 
 	@Id
 	@Column(name = "post_id")	
@@ -182,6 +193,18 @@ final public class PostHistory implements Serializable {
 	public void setLocale(String locale) {
 		this.locale = locale;
 	}
+
+    /**
+     * @return true if content and excerpt are stored as deltas against the next version in history.
+     * @see org.gatein.wcm.services.impl.TextDelta
+     */
+	@Column(name = "post_delta")
+	public Boolean getDelta() {
+		return delta;
+	}
+	public void setDelta(Boolean delta) {
+		this.delta = delta;
+	}
 	
 	@Override
 	public String toString() {
@@ -189,7 +212,7 @@ final public class PostHistory implements Serializable {
 				+ author + ", created=" + created + ", content=" + content
 				+ ", title=" + title + ", excerpt=" + excerpt + ", postStatus="
 				+ postStatus + ", name=" + name + ", modified=" + modified
-				+ ", group=" + group + ", locale=" + locale + "]";
+				+ ", group=" + group + ", locale=" + locale + ", delta=" + delta + "]";
 	}
 	
 	@Override
@@ -50,6 +50,7 @@ import javax.persistence.Table;
 @Cacheable
 @NamedQueries({
         @NamedQuery(name = "listRelationships", query = "select r from Relationship r where r.originId = :originId and r.type = :type order by r.originId, r.key"),
+        @NamedQuery(name = "listRelationshipsKey", query = "select r from Relationship r where r.originId in (:ids) and r.type = :type and r.key = :key"),
         @NamedQuery(name = "listPostsRelationships", query = "select p from Relationship r, Post p where p.id = r.aliasId and r.originId = :originId and r.type = :type order by r.originId, r.key"),
         @NamedQuery(name = "listTemplatesRelationships", query = "select t from Relationship r, Template t where t.id = r.aliasId and r.originId = :originId and r.type = :type order by r.originId, r.key")
 })
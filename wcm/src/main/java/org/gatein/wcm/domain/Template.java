@@ -54,12 +54,17 @@ import javax.persistence.TemporalType;
 @Cacheable
 @NamedQueries({
         @NamedQuery(name = "listTemplatesName", query = "from Template t where upper(t.name) like :name order by t.modified desc"),
-        @NamedQuery(name = "listAllTemplates", query = "from Template t order by t.modified desc")
+        @NamedQuery(name = "listAllTemplates", query = "from Template t order by t.modified desc"),
+        @NamedQuery(name = "listTemplatesIds", query = "from Template t where t.id in (:ids)"),
+        @NamedQuery(name = "searchTemplatesAfter", query = "select t.id, t.name, t.content from Template t where t.id > :id order by t.id"),
+        @NamedQuery(name = "searchTemplatesIds", query = "select t.id, t.name, t.content from Template t where t.id in (:ids)"),
+        @NamedQuery(name = "currentTemplateVersion", query = "select t.version from Template t where t.id = :id")
 })
 final public class Template implements Serializable {
 
 	private Long id;
     private Long version;
+    private Long lastVersion;
 	private String name;
 	private String content;
 	private String locale;
@@ -72,6 +77,7 @@ final public class Template implements Serializable {
         this.created = Calendar.getInstance();
         this.modified = (Calendar)this.created.clone();
         this.version = 0l;
+        this.lastVersion = 0l;
     }
 
     @Id @GeneratedValue
@@ -91,6 +97,18 @@ final public class Template implements Serializable {
         this.version = version;
     }
 
+    /**
+     * Last version number assigned to this Template or to its history.
+     * It's incremented while the live row is locked, merges with a stale value are fixed in next update.
+     */
+    @Column(name = "template_last_version")
+    public Long getLastVersion() {
+        return lastVersion;
+    }
+    public void setLastVersion(Long lastVersion) {
+        this.lastVersion = lastVersion;
+    }
+
 	@Column(name = "template_name")
 	public String getName() {
 		return name;
@@ -56,12 +56,17 @@ import javax.persistence.TemporalType;
 @Cacheable
 @NamedQueries({
 	@NamedQuery(name = "listUploadsFileName", query = "from Upload u where upper(u.fileName) like :fileName or upper(u.description) like :description order by u.modified desc"),
-    @NamedQuery(name = "listAllUploads", query = "from Upload u order by u.modified desc")
+    @NamedQuery(name = "listAllUploads", query = "from Upload u order by u.modified desc"),
+    @NamedQuery(name = "listUploadsIds", query = "select distinct u from Upload u left join fetch u.categories left join fetch u.acls where u.id in (:ids)"),
+    @NamedQuery(name = "searchUploadsAfter", query = "select u.id, u.fileName, u.description from Upload u where u.id > :id order by u.id"),
+    @NamedQuery(name = "searchUploadsIds", query = "select u.id, u.fileName, u.description from Upload u where u.id in (:ids)"),
+    @NamedQuery(name = "currentUploadVersion", query = "select u.version from Upload u where u.id = :id")
 })
 final public class Upload implements Serializable {
 	
 	private Long id;
 	private Long version;
+	private Long lastVersion;
 	private String fileName;
 	private String storedName;
 	private String mimeType;
@@ -76,6 +81,7 @@ final public class Upload implements Serializable {
 		this.created = Calendar.getInstance();
         this.modified = (Calendar)this.created.clone();
 		this.version = 0l;
+		this.lastVersion = 0l;
 	}
 	
 	@Id @GeneratedValue
@@ -94,6 +100,18 @@ final public class Upload implements Serializable {
 	public void setVersion(Long version) {
 		this.version = version;
 	}
+
+    /**
+     * Last version number assigned to this Upload or to its history.
+     * It's incremented while the live row is locked, merges with a stale value are fixed in next update.
+     */
+    @Column(name = "upload_last_version")
+    public Long getLastVersion() {
+        return lastVersion;
+    }
+    public void setLastVersion(Long lastVersion) {
+        this.lastVersion = lastVersion;
+    }
 	
 	@Column(name = "upload_filename")
 	public String getFileName() {
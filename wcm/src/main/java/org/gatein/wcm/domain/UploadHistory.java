@@ -48,7 +48,9 @@ import javax.persistence.TemporalType;
 @Cacheable
 @NamedQueries({
         @NamedQuery(name = "maxUploadVersion", query = "select max(uh.version) from UploadHistory uh where uh.id = :uploadid"),
-        @NamedQuery(name = "versionsUpload", query = "select uh.version from UploadHistory uh where uh.id = :uploadid order by uh.version desc")
+        @NamedQuery(name = "versionsUpload", query = "select uh.version from UploadHistory uh where uh.id = :uploadid order by uh.version desc"),
+        @NamedQuery(name = "listUploadHistory", query = "select uh from UploadHistory uh where uh.id = :uploadid order by uh.version desc"),
+        @NamedQuery(name = "listUploadsHistory", query = "select distinct uh.id from UploadHistory uh order by uh.id")
 })
 final public class UploadHistory implements Serializable {
 
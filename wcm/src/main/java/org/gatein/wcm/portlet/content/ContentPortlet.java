@@ -23,12 +23,16 @@
 
 package org.gatein.wcm.portlet.content;
 
+import org.gatein.api.PortalRequest;
+import org.gatein.wcm.api.util.WcmUtils;
 import org.gatein.wcm.Wcm;
 import org.gatein.wcm.WcmException;
 import org.gatein.wcm.domain.UserWcm;
 import org.gatein.wcm.portlet.content.config.ConfigActions;
+import org.gatein.wcm.portlet.content.config.ContentPortletConfig;
 import org.gatein.wcm.portlet.content.render.RenderActions;
 import org.gatein.wcm.services.PortalService;
+import org.gatein.wcm.services.WcmService;
 
 import javax.inject.Inject;
 import javax.portlet.*;
@@ -50,6 +54,9 @@ public class ContentPortlet extends GenericPortlet {
     @Inject
     private PortalService portal;
 
+    @Inject
+    private WcmService wcm;
+
     @Inject
     private ConfigActions config;
 
@@ -72,8 +79,27 @@ public class ContentPortlet extends GenericPortlet {
         }
         request.setAttribute("userWcm", userWcm);
 
+        // JSR-286 expiration and validation cache, portal reuses markup while token doesn't change
+        String etag = validationToken(request, userWcm);
+        if (etag != null) {
+            response.getCacheControl().setExpirationTime(Wcm.CONTENT.CACHE.EXPIRATION);
+            response.getCacheControl().setETag(etag);
+            if (etag.equals(request.getETag())) {
+                response.getCacheControl().setUseCachedContent(true);
+                return;
+            }
+        } else {
+            response.getCacheControl().setExpirationTime(0);
+        }
+
         String profile = render.renderTemplate(request, response, userWcm);
 
+        // Partial markup is not cached, next request renders it again
+        if (request.getAttribute("partialRender") != null) {
+            response.getCacheControl().setExpirationTime(0);
+            response.getCacheControl().setETag(null);
+        }
+
         String url = "/jsp/content/render/contentRead.jsp";
 
         if (profile != null && profile.equals("editor")) {
@@ -166,6 +192,9 @@ public class ContentPortlet extends GenericPortlet {
             } if (event.equals(Wcm.EVENTS.ADD_COMMENT_POST)) {
               // Updating comment post
                 render.eventAddCommentPost(request, response, userWcm);
+            } else if (event.equals(Wcm.EVENTS.SHOW_MORE_COMMENTS)) {
+                // Next page of comments
+                url = render.eventShowMoreComments(request, response, userWcm);
             } else if (event.equals(Wcm.EVENTS.UNLOCK_POST)) {
                 // Unlock post when user leaves page
                 render.eventUnlockPost(request, response, userWcm);
@@ -178,4 +207,41 @@ public class ContentPortlet extends GenericPortlet {
             }
         }
     }
+
+    /*
+        Validation token of markup, null if markup should not be cached.
+        Markup depends on user, locale, portlet preferences, page path and content.
+        Content version is derived from templates and content the render uses, including content shown by template tags.
+        Token is a SHA-1 digest, so different content doesn't share a token.
+     */
+    private String validationToken(RenderRequest request, UserWcm userWcm) {
+        PortletSession session = request.getPortletSession();
+        // Inline editor state is used only once
+        if (session.getAttribute("activeEditor") != null || session.getAttribute("lockMsg") != null) return null;
+        // Comments of this user not written yet are not in cached markup
+        if (!render.pendingComments(session).isEmpty()) return null;
+        try {
+            String version = render.versionContent(request, userWcm);
+            if (version == null) return null;
+            ContentPortletConfig config = ContentPortletConfig.get(request);
+            String listContentAttached = (String)session.getAttribute("listContentAttached");
+            if (listContentAttached == null) {
+                listContentAttached = config.getListContentAttached();
+            }
+            StringBuilder key = new StringBuilder();
+            key.append(userWcm != null ? userWcm.getUsername() : null).append('|')
+                .append(request.getLocale().getLanguage()).append('|')
+                .append(config.getMainTemplateId()).append('|')
+                .append(config.getPostTemplateId()).append('|')
+                .append(config.getCategoryTemplateId()).append('|')
+                .append(config.isLocaleRelationships()).append('|')
+                .append(listContentAttached).append('|')
+                .append(PortalRequest.getInstance().getNodePath());
+            return "w" + WcmUtils.sha1(key.append('|').append(version).toString());
+        } catch (Exception e) {
+            log.warning("Cannot calculate validation token of markup.");
+            e.printStackTrace();
+            return null;
+        }
+    }
 }
@@ -0,0 +1,184 @@
+/*
+ * JBoss, a division of Red Hat
+ * Copyright 2010, Red Hat Middleware, LLC, and individual
+ * contributors as indicated by the @authors tag. See the
+ * copyright.txt in the distribution for a full listing of
+ * individual contributors.
+ *
+ * This is free software; you can redistribute it and/or modify it
+ * under the terms of the GNU Lesser General Public License as
+ * published by the Free Software Foundation; either version 2.1 of
+ * the License, or (at your option) any later version.
+ *
+ * This software is distributed in the hope that it will be useful,
+ * but WITHOUT ANY WARRANTY; without even the implied warranty of
+ * MERCHANTABILITY or FITNESS FOR A PARTICULAR PURPOSE. See the GNU
+ * Lesser General Public License for more details.
+ *
+ * You should have received a copy of the GNU Lesser General Public
+ * License along with this software; if not, write to the Free
+ * Software Foundation, Inc., 51 Franklin St, Fifth Floor, Boston, MA
+ * 02110-1301 USA, or see the FSF site: http://www.fsf.org.
+ */
+package org.gatein.wcm.portlet.content.config;
+
+import javax.portlet.PortletPreferences;
+import javax.portlet.PortletRequest;
+import javax.portlet.PortletSession;
+import java.io.Serializable;
+import java.util.ArrayList;
+import java.util.Collections;
+import java.util.List;
+
+/**
+ * Configuration of a ContentPortlet window parsed from its PortletPreferences.
+ * Instances are immutable and kept in the portlet scope of the session, they are reused
+ * while raw preferences don't change, so preferences stored in any node are seen in the next request.
+ *
+ * @author <a href="mailto:lponce@redhat.com">Lucas Ponce</a>
+ */
+public final class ContentPortletConfig implements Serializable {
+
+    private static final String ATTRIBUTE = "contentPortletConfig";
+
+    private final String mainTemplateId;
+    private final String postTemplateId;
+    private final String categoryTemplateId;
+    private final boolean localeRelationships;
+    private final String listContentAttached;
+    private final List<Attached> contentAttached;
+
+    private ContentPortletConfig(String mainTemplateId, String postTemplateId, String categoryTemplateId, boolean localeRelationships, String listContentAttached) {
+        this.mainTemplateId = mainTemplateId;
+        this.postTemplateId = postTemplateId;
+        this.categoryTemplateId = categoryTemplateId;
+        this.localeRelationships = localeRelationships;
+        this.listContentAttached = listContentAttached;
+        this.contentAttached = parse(listContentAttached);
+    }
+
+    /**
+     * @param request PortletRequest of a ContentPortlet window
+     * @return Configuration of the window, parsed again only when its preferences change
+     */
+    public static ContentPortletConfig get(PortletRequest request) {
+        PortletPreferences preferences = request.getPreferences();
+        String mainTemplateId = preferences.getValue("mainTemplateId", null);
+        String postTemplateId = preferences.getValue("postTemplateId", null);
+        String categoryTemplateId = preferences.getValue("categoryTemplateId", null);
+        boolean localeRelationships = !preferences.getValue("localeRelationships", "false").equals("false");
+        String listContentAttached = preferences.getValue("listContentAttached", null);
+        PortletSession session = request.getPortletSession(false);
+        Object cached = session != null ? session.getAttribute(ATTRIBUTE) : null;
+        if (cached instanceof ContentPortletConfig) {
+            ContentPortletConfig config = (ContentPortletConfig)cached;
+            if (equal(config.mainTemplateId, mainTemplateId) && equal(config.postTemplateId, postTemplateId)
+                    && equal(config.categoryTemplateId, categoryTemplateId) && config.localeRelationships == localeRelationships
+                    && equal(config.listContentAttached, listContentAttached)) {
+                return config;
+            }
+        }
+        ContentPortletConfig config = new ContentPortletConfig(mainTemplateId, postTemplateId, categoryTemplateId, localeRelationships, listContentAttached);
+        if (session != null) {
+            session.setAttribute(ATTRIBUTE, config);
+        }
+        return config;
+    }
+
+    /**
+     * @param listContentAttached List of content attached edited in the session but not stored yet
+     * @return Configuration with listContentAttached, this if it's the same list
+     */
+    public ContentPortletConfig withContentAttached(String listContentAttached) {
+        if (listContentAttached == null ? this.listContentAttached == null : listContentAttached.equals(this.listContentAttached)) {
+            return this;
+        }
+        return new ContentPortletConfig(mainTemplateId, postTemplateId, categoryTemplateId, localeRelationships, listContentAttached);
+    }
+
+    public String getMainTemplateId() {
+        return mainTemplateId;
+    }
+
+    public String getPostTemplateId() {
+        return postTemplateId;
+    }
+
+    public String getCategoryTemplateId() {
+        return categoryTemplateId;
+    }
+
+    public boolean hasMainTemplate() {
+        return defined(mainTemplateId);
+    }
+
+    public boolean hasPostTemplate() {
+        return defined(postTemplateId);
+    }
+
+    public boolean hasCategoryTemplate() {
+        return defined(categoryTemplateId);
+    }
+
+    public boolean isLocaleRelationships() {
+        return localeRelationships;
+    }
+
+    /**
+     * @return List of content attached as stored in preferences: "id_type" separated by commas
+     */
+    public String getListContentAttached() {
+        return listContentAttached;
+    }
+
+    /**
+     * @return Content attached in order, null if there is not content attached
+     */
+    public List<Attached> getContentAttached() {
+        return contentAttached;
+    }
+
+    private static boolean equal(String a, String b) {
+        return a == null ? b == null : a.equals(b);
+    }
+
+    private static boolean defined(String templateId) {
+        return templateId != null && !"".equals(templateId) && !"-1".equals(templateId);
+    }
+
+    private static List<Attached> parse(String listContentAttached) {
+        if (listContentAttached == null || listContentAttached.equals("")) return null;
+        List<Attached> output = new ArrayList<Attached>();
+        for (String contentId : listContentAttached.split(",")) {
+            int sep = contentId.indexOf('_');
+            if (sep <= 0 || sep == contentId.length() - 1) continue;
+            try {
+                output.add(new Attached(Long.valueOf(contentId.substring(0, sep)), contentId.charAt(sep + 1) == 'C'));
+            } catch (NumberFormatException e) {
+                // Malformed id, not attached
+            }
+        }
+        return Collections.unmodifiableList(output);
+    }
+
+    /**
+     * Category or Post attached to a ContentPortlet window.
+     */
+    public static final class Attached implements Serializable {
+        private final Long id;
+        private final boolean category;
+
+        private Attached(Long id, boolean category) {
+            this.id = id;
+            this.category = category;
+        }
+
+        public Long getId() {
+            return id;
+        }
+
+        public boolean isCategory() {
+            return category;
+        }
+    }
+}
@@ -28,12 +28,19 @@ import org.gatein.wcm.Wcm;
 import org.gatein.wcm.WcmException;
 import org.gatein.wcm.WcmLockException;
 import org.gatein.wcm.domain.*;
+import org.gatein.wcm.portlet.content.config.ContentPortletConfig;
+import org.gatein.wcm.services.AsyncService;
+import org.gatein.wcm.services.CommentQueue;
 import org.gatein.wcm.services.WcmService;
 
 import javax.inject.Inject;
 import javax.portlet.*;
 import java.io.IOException;
 import java.util.*;
+import java.util.concurrent.Callable;
+import java.util.concurrent.Future;
+import java.util.concurrent.TimeUnit;
+import java.util.concurrent.TimeoutException;
 import java.util.logging.Logger;
 
 /**
@@ -50,10 +57,18 @@ public class RenderActions {
     @Inject
     private WcmTags tags;
 
+    @Inject
+    private AsyncService async;
+
+    @Inject
+    private CommentQueue comments;
+
     private Map<String, String> urlParams;
 
     private String localeRequest;
     private boolean localeRelationships;
+    // Render exceeded its budget and markup is partial
+    private boolean partial;
 
     /*
         Main render method
@@ -62,20 +77,24 @@ public class RenderActions {
 
         this.urlParams = parseUrl();
 
+        this.partial = false;
+
         this.localeRequest = request.getLocale().getLanguage();
 
         tags.setNamespace(response.getNamespace());
 
+        ContentPortletConfig config = ContentPortletConfig.get(request);
         String listContentAttached = (String)request.getPortletSession().getAttribute("listContentAttached");
         if (listContentAttached == null) {
-            listContentAttached = request.getPreferences().getValue("listContentAttached", null);
-            request.getPortletSession().setAttribute("listContentAttached", listContentAttached);
+            request.getPortletSession().setAttribute("listContentAttached", config.getListContentAttached());
+        } else {
+            // Content attached edited in config mode but not saved yet
+            config = config.withContentAttached(listContentAttached);
         }
+        this.localeRelationships = config.isLocaleRelationships();
 
-        String mainTemplateId = request.getPreferences().getValue("mainTemplateId", null);
-        String postTemplateId = request.getPreferences().getValue("postTemplateId", null);
-        String categoryTemplateId = request.getPreferences().getValue("categoryTemplateId", null);
-        this.localeRelationships = !request.getPreferences().getValue("localeRelationships", "false").equals("false");
+        // Comments of this session not written yet are shown in its renders
+        tags.setPendingComments(pendingComments(request.getPortletSession()));
 
         Template template = null;
         List<Object> contentAttached = null;
@@ -83,12 +102,17 @@ public class RenderActions {
         String profile = "read";
         Post postParameter = null;
         Category catParameter = null;
+        // Items looked up during this render, validation of cached markup could have read them already
+        RenderCache cache = (RenderCache)request.getAttribute("renderCache");
+        if (cache == null || !cache.isFor(userWcm)) {
+            cache = new RenderCache(wcm, userWcm);
+        }
 
         // Validation if post id or category id is valid, if not we forward to the main template of the portlet
-        if (urlParams.containsKey("post") && postTemplateId != null && !"".equals(postTemplateId) && !"-1".equals(postTemplateId)) {
-            postParameter = getPostParameter(urlParams, userWcm);
-        } else if (urlParams.containsKey("category") && categoryTemplateId != null && !"".equals(categoryTemplateId) && !"-1".equals(categoryTemplateId))  {
-            catParameter = getCategoryParameter(urlParams, userWcm);
+        if (urlParams.containsKey("post") && config.hasPostTemplate()) {
+            postParameter = getPostParameter(urlParams, cache);
+        } else if (urlParams.containsKey("category") && config.hasCategoryTemplate())  {
+            catParameter = getCategoryParameter(urlParams, cache);
         }
 
         if (postParameter != null) {
@@ -120,42 +144,151 @@ public class RenderActions {
                 request.setAttribute("editid", postParameter.getId());
             }
             // Template
-            template = getTemplate(postTemplateId, userWcm);
+            template = getTemplate(config.getPostTemplateId(), cache);
             // Content used: content attached in portlet configuration + content defined in parameter
-            contentAttached = getContentAttached(listContentAttached, userWcm);
+            contentAttached = getContentAttached(config, cache);
             // Processing template with content
-            processedTemplate = processTemplate(canWrite, template, postParameter, null, contentAttached, userWcm);
+            processedTemplate = processTemplate(canWrite, template, postParameter, null, contentAttached, cache, userWcm);
 
         } else if (catParameter != null) {
 
             // Template
-            template = getTemplate(categoryTemplateId, userWcm);
+            template = getTemplate(config.getCategoryTemplateId(), cache);
             // Content used: content attached in portlet configuration + content defined in parameter
-            contentAttached = getContentAttached(listContentAttached, userWcm);
+            contentAttached = getContentAttached(config, cache);
             // Processing template with content
-            processedTemplate = processTemplate(false, template, null, catParameter, contentAttached, userWcm);
+            processedTemplate = processTemplate(false, template, null, catParameter, contentAttached, cache, userWcm);
 
         } else {
 
             // Processing main template
-            if (mainTemplateId != null && !"".equals(mainTemplateId) && !"-1".equals(mainTemplateId)) {
+            if (config.hasMainTemplate()) {
                 // Template
-                template = getTemplate(mainTemplateId, userWcm);
+                template = getTemplate(config.getMainTemplateId(), cache);
 
                 // Content used: content attached in portlet configuration + content defined in parameter
-                contentAttached = getContentAttached(listContentAttached, userWcm);
+                contentAttached = getContentAttached(config, cache);
 
                 // Processing template with content
-                processedTemplate = processTemplate(false, template, null, null, contentAttached, userWcm);
+                processedTemplate = processTemplate(false, template, null, null, contentAttached, cache, userWcm);
             }
 
         }
 
         request.setAttribute("processedTemplate", processedTemplate);
+        if (partial) {
+            request.setAttribute("partialRender", Boolean.TRUE);
+        }
 
         return profile;
     }
 
+    /*
+        Version of the content renderTemplate() uses for this request, null if it can not be calculated.
+        Dependencies are gathered from portlet configuration, url parameters and tags of the template,
+        so a modification of content not shown doesn't invalidate the markup.
+        Items are read through a RenderCache left in the request, a render that follows doesn't read them again.
+     */
+    public String versionContent(RenderRequest request, UserWcm userWcm) {
+        Map<String, String> params = parseUrl();
+        ContentPortletConfig config = ContentPortletConfig.get(request);
+        String listContentAttached = (String)request.getPortletSession().getAttribute("listContentAttached");
+        if (listContentAttached != null) {
+            config = config.withContentAttached(listContentAttached);
+        }
+        String locale = config.isLocaleRelationships() ? request.getLocale().getLanguage() : null;
+        RenderCache cache = new RenderCache(wcm, userWcm);
+        request.setAttribute("renderCache", cache);
+        StringBuilder version = new StringBuilder();
+        List<String> templates = new ArrayList<String>();
+        boolean tree = false;
+        try {
+            // Template shown depends on url parameter, main template is the fallback if parameter is not valid
+            if (config.hasMainTemplate()) templates.add(config.getMainTemplateId());
+            if (params.containsKey("post") && config.hasPostTemplate()) {
+                templates.add(config.getPostTemplateId());
+                if (params.get("id") != null) version(version, cache.findPost(new Long(params.get("id")), locale));
+            } else if (params.containsKey("category") && config.hasCategoryTemplate()) {
+                templates.add(config.getCategoryTemplateId());
+                if (params.get("id") != null) version(version, cache.findCategory(new Long(params.get("id"))));
+            }
+            if (config.getContentAttached() != null) {
+                for (ContentPortletConfig.Attached attached : config.getContentAttached()) {
+                    if (attached.isCategory()) {
+                        version(version, cache.findCategory(attached.getId()));
+                    } else {
+                        version(version, cache.findPost(attached.getId(), locale));
+                    }
+                }
+            }
+            // Tags with content not attached to the portlet
+            for (String templateId : templates) {
+                Template t = cache.findTemplate(new Long(templateId), locale);
+                if (t == null) {
+                    version.append("t:null;");
+                    continue;
+                }
+                version.append("t:").append(t.getId()).append(':').append(t.getVersion()).append(';');
+                if (t.getContent() == null) continue;
+                List<String> paths = new ArrayList<String>();
+                for (String tag : tags.extractStartTags("wcm-list", t.getContent())) {
+                    paths.add(tags.propertiesTag(tag).get("path"));
+                }
+                for (String tag : tags.extractStartTags("wcm-file-list", t.getContent())) {
+                    paths.add(tags.propertiesTag(tag).get("path"));
+                }
+                for (String path : paths) {
+                    if (path != null) version(version, cache.findCategory(path));
+                }
+                // Names of Categories are shown from any Post or Category of the tree
+                tree = tree || tags.hasTag("wcm-cat-list", t.getContent()) || tags.hasTag("wcm-categories", t.getContent());
+            }
+            if (tree) {
+                version.append("r:").append(wcm.versionCategories(userWcm));
+            }
+            return version.toString();
+        } catch (Exception e) {
+            log.warning("Error calculating version of content.");
+            e.printStackTrace();
+            return null;
+        }
+    }
+
+    /*
+        Post's version, Comments' counters, Acls and Categories' names, Post's version doesn't change with them
+     */
+    private void version(StringBuilder version, Post post) {
+        if (post == null) {
+            version.append("p:null;");
+            return;
+        }
+        version.append("p:").append(post.getId()).append(':').append(post.getVersion())
+                .append(':').append(post.getCommentsCount())
+                .append(':').append(post.getCommentsPublic())
+                .append(':').append(post.getLastCommentAt() != null ? post.getLastCommentAt().getTimeInMillis() : null);
+        // Sets are not ordered
+        Set<Long> acls = new TreeSet<Long>();
+        for (Acl acl : post.getAcls()) {
+            acls.add(acl.getId());
+        }
+        Map<Long, String> categories = new TreeMap<Long, String>();
+        for (Category c : post.getCategories()) {
+            categories.put(c.getId(), c.getName());
+        }
+        version.append(':').append(acls).append(':').append(categories).append(';');
+    }
+
+    /*
+        Category's stamp covers its name, Acls, links and items linked
+     */
+    private void version(StringBuilder version, Category category) {
+        if (category == null) {
+            version.append("c:null;");
+            return;
+        }
+        version.append("c:").append(category.getId()).append(':').append(category.getLastChange()).append(';');
+    }
+
     /*
         Check Lock for inline edition.
         Returns null and lock Post or return a lock message.
@@ -175,15 +308,11 @@ public class RenderActions {
     /*
         Get Template attached with ContentPortlet
      */
-    private Template getTemplate(String contentTemplateId, UserWcm userWcm) {
+    private Template getTemplate(String contentTemplateId, RenderCache cache) {
         Template template = null;
         if (contentTemplateId != null) {
             try {
-                if (this.localeRelationships) {
-                    template = wcm.findTemplate(new Long(contentTemplateId), this.localeRequest, userWcm);
-                } else {
-                    template = wcm.findTemplate(new Long(contentTemplateId), userWcm);
-                }
+                template = cache.findTemplate(new Long(contentTemplateId), this.localeRelationships ? this.localeRequest : null);
             } catch(WcmException e) {
                 log.warning("Error query template id " + contentTemplateId);
                 e.printStackTrace();
@@ -195,27 +324,18 @@ public class RenderActions {
     /*
         Get list of content attached with ContentPortlet
      */
-    private List<Object> getContentAttached(String listContentAttached, UserWcm userWcm) {
+    private List<Object> getContentAttached(ContentPortletConfig config, RenderCache cache) {
         List<Object> contentAttached = null;
-        if (listContentAttached != null && !listContentAttached.equals("")) {
+        if (config.getContentAttached() != null) {
             try {
-                String[] listIds = listContentAttached.split(",");
                 contentAttached = new ArrayList<Object>();
-                listIds = listContentAttached.split(",");
-                for (String contentId : listIds) {
-                    String type = contentId.split("_")[1];
-                    String id = contentId.split("_")[0];
-                    if (type.equals("C")) {
-                        Category c = wcm.findCategory(new Long(id), userWcm);
-                        contentAttached.add(c);
+                for (ContentPortletConfig.Attached attached : config.getContentAttached()) {
+                    if (attached.isCategory()) {
+                        contentAttached.add(cache.findCategory(attached.getId()));
+                    } else if (this.localeRelationships) {
+                        contentAttached.add(cache.findPost(attached.getId(), this.localeRequest));
                     } else {
-                        Post p = null;
-                        if (this.localeRelationships) {
-                            p = wcm.findPost(new Long(id), this.localeRequest, userWcm);
-                        } else {
-                            p = wcm.findPost(new Long(id), userWcm);
-                        }
-                        contentAttached.add(p);
+                        contentAttached.add(cache.findPost(attached.getId(), null));
                     }
                 }
             } catch (WcmException e) {
@@ -226,13 +346,11 @@ public class RenderActions {
         return contentAttached;
     }
 
-    private Post getPostParameter(Map<String, String> params, UserWcm userWcm) {
+    private Post getPostParameter(Map<String, String> params, RenderCache cache) {
         Post postParameter = null;
         try {
-            postParameter = wcm.findPost(new Long(params.get("id")), userWcm);
-            if (this.localeRelationships && !postParameter.getLocale().equals(this.localeRequest)) {
-                postParameter = wcm.findPost(new Long(params.get("id")), this.localeRequest, userWcm);
-            }
+            // Locale is resolved before lookup, findPost() returns the Post itself when it's already in that locale
+            postParameter = cache.findPost(new Long(params.get("id")), this.localeRelationships ? this.localeRequest : null);
             if (postParameter != null && postParameter.getPostStatus() != null && !postParameter.getPostStatus().equals(Wcm.POSTS.PUBLISHED)) {
                 // Only show published posts
                 postParameter = null;
@@ -247,10 +365,10 @@ public class RenderActions {
         return postParameter;
     }
 
-    private Category getCategoryParameter(Map<String, String> params, UserWcm userWcm) {
+    private Category getCategoryParameter(Map<String, String> params, RenderCache cache) {
         Category catParameter = null;
         try {
-            catParameter = wcm.findCategory(new Long(params.get("id")), userWcm);
+            catParameter = cache.findCategory(new Long(params.get("id")));
         } catch(WcmException e) {
             log.warning("Error query post");
             e.printStackTrace();
@@ -264,40 +382,30 @@ public class RenderActions {
     /*
         Main process method
      */
-    private String processTemplate(boolean canWrite, Template template, Post postParameter, Category catParameter, List<Object> contentAttached, UserWcm userWcm) {
+    private String processTemplate(boolean canWrite, Template template, Post postParameter, Category catParameter, List<Object> contentAttached, RenderCache cache, UserWcm userWcm) {
         String processedTemplate = null;
         if (template != null) {
             processedTemplate = template.getContent();
+            RenderBudget budget = new RenderBudget();
+            Map<String, Future<Object>> prefetched = prefetch(processedTemplate, catParameter, contentAttached, cache, userWcm);
             boolean foundTag = false;
             int indexList = 0;
             int indexPost = 0;
+            // Last markup inside size budget
+            String checked = processedTemplate;
             while (!foundTag) {
+                if (budget.overflow(processedTemplate) || budget.expired()) {
+                    // Partial render: tags not processed yet are removed
+                    processedTemplate = tags.removeTags(processedTemplate.length() > checked.length() ? checked : processedTemplate);
+                    break;
+                }
+                checked = processedTemplate;
                 // <wcm-cat-list> to prevent order in nested with wcm-list
                 if (tags.hasTag("wcm-list", processedTemplate)) {
-                    // Check explicit order for content in the template
                     String tag = tags.extractTag("wcm-list", processedTemplate);
                     Map<String, String> properties = tags.propertiesTag(tag);
-                    int customIndex = -1;
-                    if (properties.containsKey("index")) {
-                        try {
-                            customIndex = new Integer(properties.get("index")).intValue();
-                        } catch (Exception e) {
-                            // Default customIndex and error
-                        }
-                    }
-                    String path = properties.containsKey("path") ? properties.get("path") : null;
                     // Get Posts attached
-                    List<Post> listPosts = null;
-                    if (path != null) {
-                        listPosts = getPostsFromCategoryPath(path, userWcm);
-                    } else {
-                        if (customIndex != -1) {
-                            listPosts = getPostsFromCategory(contentAttached, customIndex, userWcm);
-                        } else {
-                            // Default order
-                            listPosts = getPostsFromCategory(contentAttached, indexList, userWcm);
-                        }
-                    }
+                    List<Post> listPosts = budget.limit((List<Post>)fetch(prefetched, budget, block("wcm-list", properties, indexList, catParameter, contentAttached, cache, userWcm)));
                     processedTemplate = tags.tagWcmList("wcm-list", processedTemplate, listPosts, this.urlParams, userWcm);
                     indexList++;
                 } else if (tags.hasTag("wcm-single", processedTemplate)) {
@@ -325,54 +433,155 @@ public class RenderActions {
                 } else if (tags.hasTag("wcm-param-single", processedTemplate)) {
                     processedTemplate = tags.tagWcmSingle("wcm-param-single", processedTemplate, postParameter, this.urlParams, canWrite, userWcm);
                 } else if (tags.hasTag("wcm-param-list", processedTemplate)) {
-                    List<Post> listPosts = getPostsFromCategory(catParameter, userWcm);
+                    List<Post> listPosts = budget.limit((List<Post>)fetch(prefetched, budget, block("wcm-param-list", null, 0, catParameter, contentAttached, cache, userWcm)));
                     processedTemplate = tags.tagWcmList("wcm-param-list", processedTemplate, listPosts, this.urlParams, userWcm);
                 } else if (tags.hasTag("wcm-param-name", processedTemplate)) {
                     // Used to render category name pased as parameter
                     processedTemplate = tags.tagWcmParamName("wcm-param-name", processedTemplate, catParameter);
                 } else if (tags.hasTag("wcm-file-list", processedTemplate)) {
-                    // Check explicit order for content in the template
                     String tag = tags.extractTag("wcm-file-list", processedTemplate);
                     Map<String, String> properties = tags.propertiesTag(tag);
-                    int customIndex = -1;
-                    if (properties.containsKey("index")) {
-                        try {
-                            customIndex = new Integer(properties.get("index")).intValue();
-                        } catch (Exception e) {
-                            // Default customIndex and error
-                        }
-                    }
-                    String path = properties.containsKey("path") ? properties.get("path") : null;
-                    // Get Posts attached
-                    List<Upload> listUploads = null;
-                    if (path != null) {
-                        listUploads = getUploadsFromCategoryPath(path, userWcm);
-                    } else {
-                        if (customIndex != -1) {
-                            listUploads = getUploadsFromCategory(contentAttached, customIndex, userWcm);
-                        } else {
-                            // Default order
-                            listUploads = getUploadsFromCategory(contentAttached, indexList, userWcm);
-                        }
-                    }
+                    // Get Uploads attached
+                    List<Upload> listUploads = budget.limit((List<Upload>)fetch(prefetched, budget, block("wcm-file-list", properties, indexList, catParameter, contentAttached, cache, userWcm)));
                     processedTemplate = tags.tagWcmFileList("wcm-file-list", processedTemplate, listUploads, this.urlParams, userWcm);
                     indexList++;
                 } else if (tags.hasTag("wcm-cat-list", processedTemplate)) {
                     // Absolute cat link
                     String tag = tags.extractTag("wcm-cat-list", processedTemplate);
                     Map<String, String> properties = tags.propertiesTag(tag);
-                    String parent = properties.containsKey("parent") ? properties.get("parent") : "/";
-                    String type = properties.containsKey("type") ? properties.get("type") : "all";
-                    List<Category> categories = getCategoriesFromParameters(parent, type, userWcm);
+                    List<Category> categories = budget.limit((List<Category>)fetch(prefetched, budget, block("wcm-cat-list", properties, 0, catParameter, contentAttached, cache, userWcm)));
                     processedTemplate = tags.tagWcmCatList("wcm-cat-list", processedTemplate, categories, this.urlParams);
                 } else {
                     foundTag = true;
                 }
             }
+            if (budget.getExceeded() != null) {
+                partial = true;
+                log.warning("Template " + template.getId() + " exceeded render budget: " + budget.getExceeded() + ". Rendering partial content.");
+            }
         }
         return processedTemplate;
     }
 
+    /*
+        Data dependency of a block of the template: blocks with same key show same content.
+     */
+    private static class Block {
+        final String key;
+        final Callable<Object> task;
+
+        Block(String key, Callable<Object> task) {
+            this.key = key;
+            this.task = task;
+        }
+    }
+
+    /*
+        Block for <wcm-list>, <wcm-param-list>, <wcm-file-list> and <wcm-cat-list> tags.
+        indexList is the default order of the block in the template if it's not defined explicitly.
+     */
+    private Block block(String name, Map<String, String> properties, int indexList, final Category catParameter, final List<Object> contentAttached, final RenderCache cache, final UserWcm userWcm) {
+        if ("wcm-param-list".equals(name)) {
+            return new Block(name, new Callable<Object>() {
+                @Override
+                public Object call() {
+                    return getPostsFromCategory(catParameter, userWcm);
+                }
+            });
+        }
+        if ("wcm-cat-list".equals(name)) {
+            final String parent = properties.containsKey("parent") ? properties.get("parent") : "/";
+            final String type = properties.containsKey("type") ? properties.get("type") : "all";
+            return new Block(name + ":" + parent + ":" + type, new Callable<Object>() {
+                @Override
+                public Object call() {
+                    return getCategoriesFromParameters(parent, type, userWcm);
+                }
+            });
+        }
+        // Check explicit order for content in the template
+        int customIndex = -1;
+        if (properties.containsKey("index")) {
+            try {
+                customIndex = new Integer(properties.get("index")).intValue();
+            } catch (Exception e) {
+                // Default customIndex and error
+            }
+        }
+        final int index = customIndex != -1 ? customIndex : indexList;
+        final String path = properties.containsKey("path") ? properties.get("path") : null;
+        final boolean uploads = "wcm-file-list".equals(name);
+        return new Block(name + (path != null ? ":path:" + path : ":index:" + index), new Callable<Object>() {
+            @Override
+            public Object call() {
+                if (uploads) {
+                    return path != null ? getUploadsFromCategoryPath(path, cache, userWcm) : getUploadsFromCategory(contentAttached, index, userWcm);
+                }
+                return path != null ? getPostsFromCategoryPath(path, cache, userWcm) : getPostsFromCategory(contentAttached, index, userWcm);
+            }
+        });
+    }
+
+    /*
+        Plan of the template: blocks are gathered in the same order processTemplate() finds them
+        and fetched concurrently, so a template with several lists doesn't wait for serial queries.
+     */
+    private Map<String, Future<Object>> prefetch(String template, Category catParameter, List<Object> contentAttached, RenderCache cache, UserWcm userWcm) {
+        Map<String, Future<Object>> prefetched = new HashMap<String, Future<Object>>();
+        List<Block> blocks = new ArrayList<Block>();
+        int indexList = 0;
+        for (String tag : tags.extractStartTags("wcm-list", template)) {
+            blocks.add(block("wcm-list", tags.propertiesTag(tag), indexList++, catParameter, contentAttached, cache, userWcm));
+        }
+        if (tags.hasTag("wcm-param-list", template)) {
+            blocks.add(block("wcm-param-list", null, 0, catParameter, contentAttached, cache, userWcm));
+        }
+        for (String tag : tags.extractStartTags("wcm-file-list", template)) {
+            blocks.add(block("wcm-file-list", tags.propertiesTag(tag), indexList++, catParameter, contentAttached, cache, userWcm));
+        }
+        for (String tag : tags.extractStartTags("wcm-cat-list", template)) {
+            blocks.add(block("wcm-cat-list", tags.propertiesTag(tag), 0, catParameter, contentAttached, cache, userWcm));
+        }
+        // A single block is fetched in the render thread
+        if (blocks.size() < 2) return prefetched;
+        for (Block b : blocks) {
+            if (prefetched.containsKey(b.key)) continue;
+            try {
+                prefetched.put(b.key, async.submit(b.task));
+            } catch (Exception e) {
+                log.warning("Error fetching block " + b.key);
+            }
+        }
+        return prefetched;
+    }
+
+    /*
+        Result of a block, fetched in the render thread if it was not planned or its fetch failed.
+     */
+    private Object fetch(Map<String, Future<Object>> prefetched, RenderBudget budget, Block block) {
+        Future<Object> future = prefetched.get(block.key);
+        if (future != null) {
+            try {
+                return future.get(budget.remaining(), TimeUnit.MILLISECONDS);
+            } catch (TimeoutException e) {
+                // Block is rendered empty, render is out of time
+                log.warning("Timeout fetching block " + block.key);
+                future.cancel(true);
+                return null;
+            } catch (Exception e) {
+                log.warning("Error fetching block " + block.key);
+                e.printStackTrace();
+            }
+        }
+        try {
+            return block.task.call();
+        } catch (Exception e) {
+            log.warning("Error fetching block " + block.key);
+            e.printStackTrace();
+            return null;
+        }
+    }
+
     /*
         List<Object> contentAttached can store Category or Post objects.
         Category objects are linked with <wcm-list> tag in Template.
@@ -449,11 +658,11 @@ public class RenderActions {
         return listPosts;
     }
 
-    private List<Post> getPostsFromCategoryPath(String path, UserWcm userWcm) {
+    private List<Post> getPostsFromCategoryPath(String path, RenderCache cache, UserWcm userWcm) {
         List<Post> listPosts = null;
         if (path != null && userWcm != null) {
             try {
-                Category c = wcm.findCategory(path, userWcm);
+                Category c = cache.findCategory(path);
                 if (c != null) {
                     if (this.localeRelationships) {
                         listPosts = wcm.findPosts(c.getId(), Wcm.POSTS.PUBLISHED, userWcm);
@@ -495,11 +704,11 @@ public class RenderActions {
         return listUploads;
     }
 
-    private List<Upload> getUploadsFromCategoryPath(String path, UserWcm userWcm) {
+    private List<Upload> getUploadsFromCategoryPath(String path, RenderCache cache, UserWcm userWcm) {
         List<Upload> listUploads = null;
         if (path != null && userWcm != null) {
             try {
-                Category c = wcm.findCategory(path, userWcm);
+                Category c = cache.findCategory(path);
                 if (c != null)
                     listUploads = wcm.findUploads(c.getId(), userWcm);
             } catch (WcmException e) {
@@ -593,7 +802,7 @@ public class RenderActions {
             if (filterCategoryId != null && !filterCategoryId.equals("") && !filterCategoryId.equals("-1")) {
                 uploads = wcm.findUploads(new Long(filterCategoryId), userWcm);
             } else if (filterName != null && !filterName.equals("")) {
-                uploads = wcm.findUploads(filterName, userWcm);
+                uploads = wcm.searchUploads(filterName, Wcm.SEARCH.MAX, userWcm);
             } else {
                 uploads = wcm.findUploads(userWcm);
             }
@@ -702,17 +911,79 @@ public class RenderActions {
                 c.setAuthor(userWcm.getUsername());
             }
             c.setPost(post);
-            if (post.getCommentsStatus().equals(Wcm.COMMENTS.ANONYMOUS)) {
-                c.setStatus(Wcm.COMMENT.PUBLIC);
-            } else {
-                // TODO We can implement a mini-flow for approval comments...
-                c.setStatus(Wcm.COMMENT.PUBLIC);
+            c.setStatus(Wcm.COMMENTS.STATUS);
+            Long ticket = comments.add(post, c);
+            if (ticket != null) {
+                // Read-your-writes: Comment is kept in session until its ticket is released
+                Map<Long, Comment> pending = new LinkedHashMap<Long, Comment>();
+                Map<Long, Comment> stored = (Map<Long, Comment>)request.getPortletSession().getAttribute("pendingComments");
+                if (stored != null) pending.putAll(stored);
+                pending.put(ticket, c);
+                request.getPortletSession().setAttribute("pendingComments", pending);
+            }
+        } catch (Exception e) {
+            log.warning("Error querying Post's Comments");
+            e.printStackTrace();
+        }
+    }
+
+    /*
+        Comments added in this session not written yet by CommentQueue, stored by queue ticket.
+        Comments written, discarded, failed, expired or queued in another node are removed,
+        a written Comment is read from database.
+     */
+    public List<Comment> pendingComments(PortletSession session) {
+        List<Comment> pending = new ArrayList<Comment>();
+        Map<Long, Comment> stored = (Map<Long, Comment>)session.getAttribute("pendingComments");
+        if (stored != null) {
+            Map<Long, Comment> queued = new LinkedHashMap<Long, Comment>();
+            for (Map.Entry<Long, Comment> entry : stored.entrySet()) {
+                if (comments.isPending(entry.getKey())) {
+                    queued.put(entry.getKey(), entry.getValue());
+                    pending.add(entry.getValue());
+                }
+            }
+            if (queued.size() < stored.size()) {
+                session.setAttribute("pendingComments", queued.isEmpty() ? null : queued);
+            }
+        }
+        return pending;
+    }
+
+    /*
+        Next page of Comments of a <wcm-comments page-size="N"> tag.
+        Tag is read from the templates of the portlet, post template first.
+     */
+    public String eventShowMoreComments(ResourceRequest request, ResourceResponse response, UserWcm userWcm) {
+        String postId = request.getParameter("postid");
+        String before = request.getParameter("before");
+        String from = request.getParameter("from");
+        String processedComments = "";
+        try {
+            ContentPortletConfig config = ContentPortletConfig.get(request);
+            this.localeRequest = request.getLocale().getLanguage();
+            this.localeRelationships = config.isLocaleRelationships();
+            tags.setNamespace(response.getNamespace());
+            String tag = null;
+            RenderCache cache = new RenderCache(wcm, userWcm);
+            for (String templateId : new String[] {config.getPostTemplateId(), config.getMainTemplateId(), config.getCategoryTemplateId()}) {
+                if (templateId == null || "".equals(templateId) || "-1".equals(templateId)) continue;
+                Template template = getTemplate(templateId, cache);
+                if (template != null && tags.hasTag("wcm-comments", template.getContent())) {
+                    tag = tags.extractTag("wcm-comments", template.getContent());
+                    break;
+                }
+            }
+            // Post is not loaded, rights are checked by WcmService when Comments are read
+            if (tag != null) {
+                processedComments = tags.tagWcmCommentsMore(tag, new Long(postId), new Long(before), from != null ? new Integer(from) : 0, userWcm);
             }
-            wcm.add(post, c);
         } catch (Exception e) {
             log.warning("Error querying Post's Comments");
             e.printStackTrace();
         }
+        request.setAttribute("processedComments", processedComments);
+        return "/jsp/content/render/contentComments.jsp";
     }
 
     public void eventUnlockPost(ResourceRequest request, ResourceResponse response, UserWcm userWcm) {
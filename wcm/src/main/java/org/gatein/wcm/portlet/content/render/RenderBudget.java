@@ -0,0 +1,105 @@
+/*
+ * JBoss, a division of Red Hat
+ * Copyright 2010, Red Hat Middleware, LLC, and individual
+ * contributors as indicated by the @authors tag. See the
+ * copyright.txt in the distribution for a full listing of
+ * individual contributors.
+ *
+ * This is free software; you can redistribute it and/or modify it
+ * under the terms of the GNU Lesser General Public License as
+ * published by the Free Software Foundation; either version 2.1 of
+ * the License, or (at your option) any later version.
+ *
+ * This software is distributed in the hope that it will be useful,
+ * but WITHOUT ANY WARRANTY; without even the implied warranty of
+ * MERCHANTABILITY or FITNESS FOR A PARTICULAR PURPOSE. See the GNU
+ * Lesser General Public License for more details.
+ *
+ * You should have received a copy of the GNU Lesser General Public
+ * License along with this software; if not, write to the Free
+ * Software Foundation, Inc., 51 Franklin St, Fifth Floor, Boston, MA
+ * 02110-1301 USA, or see the FSF site: http://www.fsf.org.
+ */
+package org.gatein.wcm.portlet.content.render;
+
+import org.gatein.wcm.Wcm;
+
+import java.util.List;
+
+/**
+ * Limits of a single render of a Template in ContentPortlet: size of markup, items per list and time.
+ * A Template exceeding its budget is rendered partially instead of blocking the portal page.
+ *
+ * @author <a href="mailto:lponce@redhat.com">Lucas Ponce</a>
+ */
+public class RenderBudget {
+
+    private final int maxSize;
+    private final int maxItems;
+    private final long deadline;
+    private String exceeded;
+
+    public RenderBudget() {
+        this(Wcm.CONTENT.BUDGET.SIZE, Wcm.CONTENT.BUDGET.ITEMS, Wcm.CONTENT.BUDGET.TIME);
+    }
+
+    /**
+     * @param maxSize Max characters of processed markup
+     * @param maxItems Max items rendered per list
+     * @param time Milliseconds from now to finish the render
+     */
+    public RenderBudget(int maxSize, int maxItems, long time) {
+        this.maxSize = maxSize;
+        this.maxItems = maxItems;
+        this.deadline = System.currentTimeMillis() + time;
+    }
+
+    /**
+     * @param list List of items fetched for a list tag
+     * @return List truncated to max items per list
+     */
+    public <T> List<T> limit(List<T> list) {
+        if (list == null || list.size() <= maxItems) return list;
+        if (exceeded == null) {
+            exceeded = "list of " + list.size() + " items, max " + maxItems;
+        }
+        return list.subList(0, maxItems);
+    }
+
+    /**
+     * @param markup Markup processed so far
+     * @return true if markup is bigger than max size
+     */
+    public boolean overflow(String markup) {
+        if (markup != null && markup.length() > maxSize) {
+            exceeded = "markup of " + markup.length() + " characters, max " + maxSize;
+            return true;
+        }
+        return false;
+    }
+
+    /**
+     * @return true if deadline of the render has passed
+     */
+    public boolean expired() {
+        if (remaining() == 0) {
+            exceeded = "render time over deadline";
+            return true;
+        }
+        return false;
+    }
+
+    /**
+     * @return Milliseconds left until deadline, 0 if it has passed
+     */
+    public long remaining() {
+        return Math.max(0, deadline - System.currentTimeMillis());
+    }
+
+    /**
+     * @return Description of the last limit exceeded, null if render has been inside budget
+     */
+    public String getExceeded() {
+        return exceeded;
+    }
+}
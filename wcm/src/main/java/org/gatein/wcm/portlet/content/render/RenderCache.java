@@ -0,0 +1,126 @@
+/*
+ * JBoss, a division of Red Hat
+ * Copyright 2010, Red Hat Middleware, LLC, and individual
+ * contributors as indicated by the @authors tag. See the
+ * copyright.txt in the distribution for a full listing of
+ * individual contributors.
+ *
+ * This is free software; you can redistribute it and/or modify it
+ * under the terms of the GNU Lesser General Public License as
+ * published by the Free Software Foundation; either version 2.1 of
+ * the License, or (at your option) any later version.
+ *
+ * This software is distributed in the hope that it will be useful,
+ * but WITHOUT ANY WARRANTY; without even the implied warranty of
+ * MERCHANTABILITY or FITNESS FOR A PARTICULAR PURPOSE. See the GNU
+ * Lesser General Public License for more details.
+ *
+ * You should have received a copy of the GNU Lesser General Public
+ * License along with this software; if not, write to the Free
+ * Software Foundation, Inc., 51 Franklin St, Fifth Floor, Boston, MA
+ * 02110-1301 USA, or see the FSF site: http://www.fsf.org.
+ */
+package org.gatein.wcm.portlet.content.render;
+
+import org.gatein.wcm.WcmException;
+import org.gatein.wcm.domain.Category;
+import org.gatein.wcm.domain.Post;
+import org.gatein.wcm.domain.Template;
+import org.gatein.wcm.domain.UserWcm;
+import org.gatein.wcm.services.WcmService;
+
+import java.util.Map;
+import java.util.concurrent.ConcurrentHashMap;
+
+/**
+ * Lookups of Templates, Categories and Posts done during a single render of ContentPortlet.
+ * Repeated references of the same item in a page are queried once,
+ * items read to validate cached markup are reused by the render that follows.
+ * It's created per render and it's safe to use from blocks fetched concurrently.
+ *
+ * @author <a href="mailto:lponce@redhat.com">Lucas Ponce</a>
+ */
+public class RenderCache {
+
+    /*
+        ConcurrentHashMap doesn't store nulls, so not found or not readable items are stored as NULL
+     */
+    private static final Object NULL = new Object();
+
+    private final WcmService wcm;
+    private final UserWcm userWcm;
+    private final Map<String, Object> categories = new ConcurrentHashMap<String, Object>();
+    private final Map<String, Object> posts = new ConcurrentHashMap<String, Object>();
+    private final Map<String, Object> templates = new ConcurrentHashMap<String, Object>();
+
+    public RenderCache(WcmService wcm, UserWcm userWcm) {
+        this.wcm = wcm;
+        this.userWcm = userWcm;
+    }
+
+    public Category findCategory(Long id) throws WcmException {
+        if (id == null) return null;
+        String key = "id:" + id;
+        Object c = categories.get(key);
+        if (c == null) {
+            c = wcm.findCategory(id, userWcm);
+            categories.put(key, c == null ? NULL : c);
+        }
+        return c == NULL ? null : (Category)c;
+    }
+
+    public Category findCategory(String path) throws WcmException {
+        if (path == null) return null;
+        String key = "path:" + path;
+        Object c = categories.get(key);
+        if (c == null) {
+            c = wcm.findCategory(path, userWcm);
+            categories.put(key, c == null ? NULL : c);
+            if (c != null) {
+                categories.put("id:" + ((Category)c).getId(), c);
+            }
+        }
+        return c == NULL ? null : (Category)c;
+    }
+
+    /**
+     * @param id Post's id
+     * @param locale Locale used as a key for a Relationship, null for no translation
+     * @return Post, or its translation to locale if it exists, null if it's not found or user can not read it
+     * @throws WcmException
+     */
+    public Post findPost(Long id, String locale) throws WcmException {
+        if (id == null) return null;
+        String key = id + ":" + locale;
+        Object p = posts.get(key);
+        if (p == null) {
+            p = locale == null ? wcm.findPost(id, userWcm) : wcm.findPost(id, locale, userWcm);
+            posts.put(key, p == null ? NULL : p);
+        }
+        return p == NULL ? null : (Post)p;
+    }
+
+    /**
+     * @param id Template's id
+     * @param locale Locale used as a key for a Relationship, null for no translation
+     * @return Template, or its translation to locale if it exists, null if it's not found or user can not read it
+     * @throws WcmException
+     */
+    public Template findTemplate(Long id, String locale) throws WcmException {
+        if (id == null) return null;
+        String key = id + ":" + locale;
+        Object t = templates.get(key);
+        if (t == null) {
+            t = locale == null ? wcm.findTemplate(id, userWcm) : wcm.findTemplate(id, locale, userWcm);
+            templates.put(key, t == null ? NULL : t);
+        }
+        return t == NULL ? null : (Template)t;
+    }
+
+    /**
+     * @return true if this cache was filled for userWcm
+     */
+    public boolean isFor(UserWcm userWcm) {
+        return this.userWcm == userWcm;
+    }
+}
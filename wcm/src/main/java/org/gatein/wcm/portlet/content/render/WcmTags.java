@@ -24,9 +24,13 @@
 package org.gatein.wcm.portlet.content.render;
 
 import org.gatein.wcm.Wcm;
+import org.gatein.wcm.WcmException;
+import org.gatein.wcm.api.util.HtmlScanner;
 import org.gatein.wcm.domain.*;
 import org.gatein.wcm.portlet.util.ParseDates;
+import org.gatein.wcm.services.WcmService;
 
+import javax.inject.Inject;
 import java.text.SimpleDateFormat;
 import java.util.*;
 import java.util.logging.Logger;
@@ -39,13 +43,48 @@ import java.util.logging.Logger;
 public class WcmTags {
     private static final Logger log = Logger.getLogger(WcmTags.class.getName());
 
+    /*
+        Scans of Post's content shared by all renders, a Post's version identifies its content.
+        A list with many <wcm-img> tags scans each Post once.
+     */
+    private static final Map<String, HtmlScanner> scans = Collections.synchronizedMap(new LinkedHashMap<String, HtmlScanner>(16, 0.75f, true) {
+        @Override
+        protected boolean removeEldestEntry(Map.Entry<String, HtmlScanner> eldest) {
+            return size() > Wcm.CONTENT.CACHE.SCANS;
+        }
+    });
+
+    @Inject
+    private WcmService wcm;
+
     private Map<String, String> urlParams;
     private String namespace;
+    private List<Comment> pendingComments;
 
     public void setNamespace(String namespace) {
         this.namespace = namespace;
     }
 
+    /*
+        Comments added by current user not written yet, rendered before Post's Comments.
+     */
+    public void setPendingComments(List<Comment> pendingComments) {
+        this.pendingComments = pendingComments;
+    }
+
+    private List<Comment> pendingComments(Long postId) {
+        List<Comment> output = new ArrayList<Comment>();
+        if (pendingComments != null) {
+            for (int i = pendingComments.size() - 1; i >= 0; i--) {
+                Comment c = pendingComments.get(i);
+                if (c.getId() == null && c.getPost() != null && postId.equals(c.getPost().getId())) {
+                    output.add(c);
+                }
+            }
+        }
+        return output;
+    }
+
     /*
         <wcm-list> / <wcm-param-list> tag processing
      */
@@ -348,8 +387,14 @@ public class WcmTags {
                 output = tagWcmAuthor(output, post);
             } else if (hasTag("wcm-content", output)) {
                 output = tagWcmContent(output, post, canWrite);
+            } else if (hasTag("wcm-word-count", output)) {
+                output = tagWcmWordCount(output, post);
+            } else if (hasTag("wcm-count-comments", output)) {
+                output = tagWcmCountComments(output, post, userWcm);
+            } else if (hasTag("wcm-last-comment", output)) {
+                output = tagWcmLastComment(output, post);
             } else if (hasTag("wcm-comments", output)) {
-                output = tagWcmComments(output, post);
+                output = tagWcmComments(output, post, userWcm);
             } else if (hasTag("wcm-form-comments", output)) {
                 output = tagWcmFormComments(output, post, userWcm);
             } else {
@@ -512,7 +557,10 @@ public class WcmTags {
                 // Default value if exception happens
             }
         }
-        output = extractImg(post.getContent(), index, true);
+        output = storedImg(post, index);
+        if (output == null) {
+            output = extractImg(scan(post), index, true);
+        }
         // Check style
         if (properties.containsKey("class")) {
             String cssClass = properties.get("class");
@@ -573,9 +621,14 @@ public class WcmTags {
             } catch (Exception e) {
                 // Default value if exception happens
             }
-            if (max < post.getExcerpt().length())
-                output = substringWord(post.getExcerpt(), max) + " ...";
+            // Plain-text summary is stored with the Post, cutting html could break tags
+            String summary = post.getSummary() != null ? post.getSummary() : HtmlScanner.text(post.getExcerpt());
+            if (summary == null)
+                output = "";
+            else if (max < summary.length())
+                output = substringWord(summary, max) + " ...";
             else
+                // No cut needed, excerpt keeps its markup
                 output = post.getExcerpt();
         } else {
             output = post.getExcerpt();
@@ -643,6 +696,59 @@ public class WcmTags {
         return template.replace(tag, output);
     }
 
+    /*
+        <wcm-count-comments type="public|pending|total"> tag processing.
+        Counters are stored in Post, pending and total are shown only to users with WRITE rights.
+     */
+    public String tagWcmCountComments(String template, Post post, UserWcm userWcm) {
+        String tag = extractTag("wcm-count-comments", template);
+        Map<String, String> properties = propertiesTag(tag);
+        String type = properties.containsKey("type") && userWcm != null && userWcm.canWrite(post) ? properties.get("type") : "public";
+        Integer count;
+        if ("total".equals(type)) {
+            count = post.getCommentsCount();
+        } else if ("pending".equals(type)) {
+            count = post.getCommentsPending();
+        } else {
+            count = post.getCommentsPublic();
+        }
+        if (count == null) {
+            // Counters not calculated yet for this Post
+            List<Comment> comments = null;
+            try {
+                Character status = "total".equals(type) ? null : ("pending".equals(type) ? Wcm.COMMENT.PENDING : Wcm.COMMENT.PUBLIC);
+                comments = wcm.findComments(post.getId(), status, null, 0, userWcm);
+            } catch (WcmException e) {
+                log.warning("Error counting Comments of Post " + post.getId());
+                e.printStackTrace();
+            }
+            count = comments == null ? 0 : comments.size();
+        }
+        return template.replace(tag, count.toString());
+    }
+
+    /*
+        <wcm-last-comment> tag processing
+     */
+    public String tagWcmLastComment(String template, Post post) {
+        String tag = extractTag("wcm-last-comment", template);
+        Map<String, String> properties = propertiesTag(tag);
+        String output = "";
+        if (post.getLastCommentAt() != null) {
+            if (properties.containsKey("format")) {
+                try {
+                    SimpleDateFormat custom = new SimpleDateFormat(properties.get("format"));
+                    output = custom.format(post.getLastCommentAt().getTime());
+                } catch (Exception e) {
+                    log.warning("Error parsing date with format " + properties.get("format"));
+                }
+            } else {
+                output = ParseDates.parse(post.getLastCommentAt());
+            }
+        }
+        return template.replace(tag, output);
+    }
+
     /*
         <wcm-author> tag processing
      */
@@ -659,6 +765,16 @@ public class WcmTags {
         return template.replace(tag, output);
     }
 
+    /*
+        <wcm-word-count> tag processing
+        Number of words of Post's content, computed when Post is saved
+     */
+    public String tagWcmWordCount(String template, Post post) {
+        String tag = extractTag("wcm-word-count", template);
+        String output = post.getWordCount() != null ? post.getWordCount().toString() : "";
+        return template.replace(tag, output);
+    }
+
     /*
         <wcm-content> tag processing
         skipImages is a list of indexes of images in the content.
@@ -672,13 +788,24 @@ public class WcmTags {
         if (properties.containsKey("skipimages")) {
             try {
                 output = post.getContent();
+                HtmlScanner scanner = scan(post);
                 String[] skipImages = properties.get("skipimages").split(",");
+                boolean[] skip = new boolean[scanner.images()];
                 for (int i=0; i<skipImages.length; i++) {
-                    int iImage = new Integer(skipImages[i]).intValue();
-                    String image = extractImg(output, iImage, false);
-                    String imageNotVisible = notVisibleImg(image);
-                    output = output.replace(image, imageNotVisible);
+                    int iImage = new Integer(skipImages[i].trim()).intValue();
+                    if (iImage >= 0 && iImage < skip.length) skip[iImage] = true;
+                }
+                // Images are replaced in a single copy of the content
+                StringBuilder sb = new StringBuilder(output.length() + 32);
+                int last = 0;
+                for (int i=0; i<skip.length; i++) {
+                    if (!skip[i]) continue;
+                    sb.append(output, last, scanner.start(i));
+                    sb.append(notVisibleImg(scanner.img(i)));
+                    last = scanner.end(i);
                 }
+                sb.append(output, last, output.length());
+                output = sb.toString();
             } catch (Exception e) {
                 log.warning("Error parsing content with skipImages " + properties.get("skipImages"));
             }
@@ -901,10 +1028,24 @@ public class WcmTags {
     /*
         <wcm-comments> tag processing
      */
-    public String tagWcmComments(String template, Post post) {
+    public String tagWcmComments(String template, Post post, UserWcm userWcm) {
         String processedTemplate = "";
         String tag = extractTag("wcm-comments", template);
-        Set<Comment> setComments = post.getComments();
+        if (tag.length() > 0 && propertiesTag(tag).containsKey("page-size")) {
+            return tagWcmCommentsPage(template, tag, post, userWcm);
+        }
+        List<Comment> setComments = null;
+        try {
+            setComments = wcm.findComments(post.getId(), Wcm.COMMENT.PUBLIC, null, 0, userWcm);
+        } catch (WcmException e) {
+            log.warning("Error querying Comments of Post " + post.getId());
+            e.printStackTrace();
+        }
+        List<Comment> pending = pendingComments(post.getId());
+        if (setComments != null && !pending.isEmpty()) {
+            pending.addAll(setComments);
+            setComments = pending;
+        }
         if (tag != null && setComments != null && !post.getCommentsStatus().equals(Wcm.COMMENTS.NO_COMMENTS)) {
             String inside = insideTag("wcm-comments", tag);
             Map<String, String> properties = propertiesTag(tag);
@@ -960,7 +1101,8 @@ public class WcmTags {
                 Comment[] comments = setComments.toArray(new Comment[setComments.size()]);
                 for (int i = from; i < to; i++) {
                     Comment c = comments[i];
-                    if (c.getStatus().equals(Wcm.COMMENT.PUBLIC)) {
+                    // Pending Comments are shown to their author, also when they are held for moderation
+                    if (c.getStatus().equals(Wcm.COMMENT.PUBLIC) || c.getId() == null) {
                         if (size > 1) outputList += "<li>";
                         outputList += combineComment(inside, c, i);
                         if (size > 1) outputList += "</li>";
@@ -981,6 +1123,78 @@ public class WcmTags {
         return processedTemplate;
     }
 
+    /*
+        <wcm-comments page-size="N"> tag processing.
+        Only newest N public Comments are rendered, followed by a link to load the next page.
+     */
+    private String tagWcmCommentsPage(String template, String tag, Post post, UserWcm userWcm) {
+        if (post.getCommentsStatus().equals(Wcm.COMMENTS.NO_COMMENTS)) {
+            return template.replace(tag, "");
+        }
+        Map<String, String> properties = propertiesTag(tag);
+        String[] page = commentsPage(tag, post.getId(), null, 0, userWcm);
+        String outputList = "<ul";
+        if (properties.containsKey("id")) {
+            outputList += " id=\"" + properties.get("id") + "\"";
+        }
+        if (properties.containsKey("class")) {
+            outputList += " class=\"" + properties.get("class") + "\"";
+        }
+        outputList += " >" + page[0] + "</ul>" + page[1];
+        return template.replace(tag, outputList);
+    }
+
+    /*
+        Next page of a <wcm-comments page-size="N"> tag, requested by the "more" link.
+        from is the number of Comments already rendered, used for <wcm-iter> tag.
+     */
+    public String tagWcmCommentsMore(String tag, Long postId, Long before, int from, UserWcm userWcm) {
+        String[] page = commentsPage(tag, postId, before, from, userWcm);
+        return page[0] + page[1];
+    }
+
+    /*
+        Items of a page of Comments and link to next page, empty if there are no more Comments.
+     */
+    private String[] commentsPage(String tag, Long postId, Long before, int from, UserWcm userWcm) {
+        String inside = insideTag("wcm-comments", tag);
+        Map<String, String> properties = propertiesTag(tag);
+        int pageSize = Wcm.COMMENTS.PAGE;
+        try {
+            pageSize = new Integer(properties.get("page-size")).intValue();
+            if (pageSize <= 0) pageSize = Wcm.COMMENTS.PAGE;
+        } catch (Exception e) {
+            // Default value if exception happens
+        }
+        List<Comment> comments = null;
+        try {
+            // One more Comment to know if there is a next page
+            comments = wcm.findComments(postId, Wcm.COMMENT.PUBLIC, before, pageSize + 1, userWcm);
+        } catch (WcmException e) {
+            log.warning("Error querying Comments of Post " + postId);
+            e.printStackTrace();
+        }
+        if (comments == null) return new String[] {"", ""};
+        boolean more = comments.size() > pageSize;
+        if (more) comments = comments.subList(0, pageSize);
+        StringBuilder items = new StringBuilder();
+        if (before == null) {
+            // Pending Comments of current user on top of first page
+            List<Comment> pending = pendingComments(postId);
+            pending.addAll(comments);
+            comments = pending;
+        }
+        for (int i = 0; i < comments.size(); i++) {
+            items.append("<li>").append(combineComment(inside, comments.get(i), from + i)).append("</li>");
+        }
+        String link = "";
+        if (more) {
+            String label = properties.containsKey("more") ? properties.get("more") : "More comments";
+            link = "<a class=\"wcm-comments-more\" href=\"javascript:;\" onclick=\"wcmMoreComments('" + this.namespace + "', '" + postId + "', '" + comments.get(comments.size() - 1).getId() + "', this);\">" + label + "</a>";
+        }
+        return new String[] {items.toString(), link};
+    }
+
     /*
         Combine in-line tags with Comment object
      */
@@ -1175,6 +1389,43 @@ public class WcmTags {
         return (template.indexOf("<" + tag) > -1);
     }
 
+    /*
+        Start tags of all elements with tag name, in template order.
+     */
+    public List<String> extractStartTags(String tag, String template) {
+        List<String> output = new ArrayList<String>();
+        if (template == null) return output;
+        int i = template.indexOf("<" + tag);
+        while (i != -1) {
+            int j = template.indexOf(">", i);
+            if (j == -1) break;
+            output.add(template.substring(i, j + 1));
+            i = template.indexOf("<" + tag, j);
+        }
+        return output;
+    }
+
+    /*
+        Removes ContentPortlet tags not processed, used when a render is cut.
+     */
+    public String removeTags(String template) {
+        if (template == null) return null;
+        String[] names = {"wcm-list", "wcm-single", "wcm-param-single", "wcm-param-list", "wcm-param-name", "wcm-file-list", "wcm-cat-list"};
+        StringBuilder output = new StringBuilder(template);
+        for (String name : names) {
+            int i = output.indexOf("<" + name);
+            while (i != -1) {
+                String tag = extractTag(name, output.substring(i));
+                int j = output.indexOf(">", i);
+                // Unclosed tag, only start tag is removed
+                int end = tag.length() > 0 ? i + tag.length() : (j != -1 ? j + 1 : output.length());
+                output.delete(i, end);
+                i = output.indexOf("<" + name, i);
+            }
+        }
+        return output.toString();
+    }
+
     public String extractTag(String tag, String template) {
         String output = "";
         int i = template.indexOf("<" + tag);
@@ -1198,71 +1449,56 @@ public class WcmTags {
      */
     public String extractImg(String html, int index, boolean skipStyles) {
         if (html == null) return "<img>";
-        int found = 0;
-        int i = 0;
-        int j = 0;
-        String output = "<img>";
-        while (found != -1) {
-            j = html.indexOf("<img", i);
-            if (j != -1) {
-                if (found == index) {
-                    i = html.indexOf(">", j);
-                    output = html.substring(j, i+1);
-                    found = -1;
-                } else {
-                    i = j+1;
-                    found++;
-                }
-            } else {
-                found = -1;
-            }
-        }
+        return extractImg(HtmlScanner.scan(html, index + 1), index, skipStyles);
+    }
+
+    private String extractImg(HtmlScanner scanner, int index, boolean skipStyles) {
+        String output = scanner.img(index);
         // <img src="" class="" style="">
         // Extracts only src to build a new one without styling
-        if (skipStyles)
-        {
-            String src="";
-            i = output.indexOf("src=");
-            if (i > -1) {
-                j = output.indexOf(" ", i);
-                src = output.substring(i, j);
-                output = "<img " + src + ">";
+        if (skipStyles && index < scanner.images()) {
+            String src = HtmlScanner.attributes(output).get("src");
+            if (src != null) {
+                output = "<img src=\"" + src + "\">";
             }
         }
         return output;
     }
 
-    public Map<String, String> propertiesTag(String template) {
-        Map<String, String> output = new HashMap<String, String>();
-        if (template != null) {
-            int start = template.indexOf(" ");
-            int i = start;
-            int j = 0;
-            while (j != -1) {
-                // Look property name
-                j = template.indexOf("=", i);
-                if (j != -1) {
-                    String name = template.substring(i, j).trim();
-                    i = template.indexOf("\"", j);
-                    j = template.indexOf("\"", i+1);
-                    String value = template.substring(i+1, j);
-                    i = j+1;
-                    output.put(name, value);
-                }
-            }
+    /*
+        <img> from image sources stored with the Post, null if it should be extracted from content.
+     */
+    private String storedImg(Post post, int index) {
+        String images = post.getImages();
+        if (images == null) return null;
+        String[] sources = images.length() == 0 ? new String[0] : images.split("\n");
+        if (index >= 0 && index < sources.length) return "<img src=\"" + sources[index] + "\">";
+        if (sources.length < Wcm.POSTS.IMAGES) return "<img>";
+        return null;
+    }
+
+    /*
+        Scan of Post's content, cached by Post's id and version.
+        A cached scan is only reused for the exact same content, an unsaved edit keeps the version of the stored Post.
+     */
+    private HtmlScanner scan(Post post) {
+        String content = post.getContent();
+        if (post.getId() == null || post.getVersion() == null) return HtmlScanner.scan(content);
+        String key = post.getId() + ":" + post.getVersion();
+        HtmlScanner scanner = scans.get(key);
+        if (scanner == null || !scanner.getHtml().equals(content == null ? "" : content)) {
+            scanner = HtmlScanner.scan(content);
+            scans.put(key, scanner);
         }
-        return output;
+        return scanner;
+    }
+
+    public Map<String, String> propertiesTag(String template) {
+        return HtmlScanner.attributes(template);
     }
 
     public String insideTag(String tag, String template) {
-        String output = "";
-        int i = template.indexOf("<" + tag);
-        i = template.indexOf(">", i);
-        int j = template.indexOf("</" + tag + ">", i);
-        if (i>-1 && j>-1) {
-            output = template.substring(i+1, j);
-        }
-        return output;
+        return HtmlScanner.inside(tag, template);
     }
 
     // Rules to replace content in inline editor
@@ -1331,11 +1567,7 @@ public class WcmTags {
     }
 
     private String substringWord(String html, int index) {
-        if (html == null || "".equals(html)) return html;
-        if (index > html.length()) return html;
-        int i = html.indexOf(" ", index);
-        if (i == -1) i = index - 1;
-        return html.substring(0, i);
+        return HtmlScanner.cutWord(html, index);
     }
 
 }
@@ -442,6 +442,9 @@ public class EditorPortlet extends GenericPortlet {
             } else if (event.equals(Wcm.EVENTS.REMOVE_LOCK)) {
                 // Remove lock
                 url = manager.eventRemoveLock(request, response, userWcm);
+            } else if (event.equals(Wcm.EVENTS.COMPACT_HISTORY)) {
+                // Compact Posts' history
+                manager.eventCompactHistory(request, response, userWcm);
             } else {
                 // No default view.
             }
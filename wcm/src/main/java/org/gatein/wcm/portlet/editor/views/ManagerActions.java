@@ -88,4 +88,15 @@ public class ManagerActions {
         }
         return "/jsp/manager/managerLocks.jsp";
     }
+
+    public void eventCompactHistory(ResourceRequest request, ResourceResponse response, UserWcm userWcm) {
+        try {
+            int encoded = wcm.compactHistory(userWcm);
+            response.setContentType("text/plain");
+            response.getWriter().write(String.valueOf(encoded));
+        } catch (Exception e) {
+            log.warning("Error compacting history");
+            e.printStackTrace();
+        }
+    }
 }
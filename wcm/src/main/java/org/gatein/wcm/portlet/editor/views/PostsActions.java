@@ -33,6 +33,7 @@ import org.gatein.wcm.services.WcmService;
 
 import javax.inject.Inject;
 import javax.portlet.*;
+import java.util.ArrayList;
 import java.util.List;
 import java.util.Set;
 import java.util.logging.Logger;
@@ -261,15 +262,14 @@ public class PostsActions {
     public String actionAddSelectedCategoryPost(ActionRequest request, ActionResponse response, UserWcm userWcm) {
         String addSelectedCategoryPostListId = request.getParameter("addSelectedCategoryPostListId");
         String addCategoryPostId = request.getParameter("addCategoryPostId");
+        List<Long> locked = new ArrayList<Long>();
         try {
-            Category cat = wcm.findCategory(new Long(addCategoryPostId), userWcm);
             String[] postsIds = addSelectedCategoryPostListId.split(",");
             for (String postId : postsIds) {
-                Post post = wcm.findPost(new Long(postId), userWcm);
                 wcm.lock(new Long(postId), Wcm.LOCK.POST, userWcm);
-                wcm.add(post, cat, userWcm);
-                wcm.unlock(new Long(postId), Wcm.LOCK.POST, userWcm);
+                locked.add(new Long(postId));
             }
+            wcm.addAll(locked, new Long(addCategoryPostId), userWcm);
             return Wcm.VIEWS.POSTS;
         } catch (WcmLockException e) {
             response.setRenderParameter("errorWcm", e.getMessage());
@@ -277,10 +277,22 @@ public class PostsActions {
             log.warning("Error adding category to post.");
             e.printStackTrace();
             response.setRenderParameter("errorWcm", "Error adding category to post " + e.toString());
+        } finally {
+            unlock(locked, userWcm);
         }
         return Wcm.VIEWS.POSTS;
     }
 
+    private void unlock(List<Long> postIds, UserWcm userWcm) {
+        for (Long postId : postIds) {
+            try {
+                wcm.unlock(postId, Wcm.LOCK.POST, userWcm);
+            } catch (Exception e) {
+                log.warning("Error unlocking post " + postId);
+            }
+        }
+    }
+
     public String actionRemoveCategoryPost(ActionRequest request, ActionResponse response, UserWcm userWcm) {
         String catId = request.getParameter("catid");
         String postId = request.getParameter("postid");
@@ -395,7 +407,7 @@ public class PostsActions {
                         }
                     }
                 } else if (viewMetadata.isFilterName()) {
-                    List<Post> filterPosts = wcm.findPosts(viewMetadata.getName(), userWcm);
+                    List<Post> filterPosts = wcm.searchPosts(viewMetadata.getName(), Wcm.SEARCH.MAX, userWcm);
                     if (filterPosts != null) {
                         viewMetadata.setViewType(ViewMetadata.ViewType.POSTS);
                         viewMetadata.setTotalIndex(filterPosts.size());
@@ -474,7 +486,7 @@ public class PostsActions {
             if (filterCategoryId != null && !filterCategoryId.equals("") && !filterCategoryId.equals("-1")) {
                 uploads = wcm.findUploads(new Long(filterCategoryId), userWcm);
             } else if (filterName != null && !filterName.equals("")) {
-                uploads = wcm.findUploads(filterName, userWcm);
+                uploads = wcm.searchUploads(filterName, Wcm.SEARCH.MAX, userWcm);
             } else {
                 uploads = wcm.findUploads(userWcm);
             }
@@ -598,6 +610,7 @@ public class PostsActions {
         try {
             Post post = wcm.findPost(new Long(postId), userWcm);
             request.setAttribute("post", post);
+            request.setAttribute("comments", comments(post, userWcm));
             request.setAttribute("namespace", namespace);
         } catch (Exception e) {
             log.warning("Error querying Post's Comments");
@@ -620,6 +633,7 @@ public class PostsActions {
             wcm.add(post, c);
             post = wcm.findPost(post.getId(), userWcm);
             request.setAttribute("post", post);
+            request.setAttribute("comments", comments(post, userWcm));
             request.setAttribute("namespace", namespace);
         } catch (Exception e) {
             log.warning("Error querying Post's Comments");
@@ -644,6 +658,7 @@ public class PostsActions {
             wcm.update(post, userWcm);
 
             request.setAttribute("post", post);
+            request.setAttribute("comments", comments(post, userWcm));
             request.setAttribute("namespace", namespace);
         } catch (Exception e) {
             log.warning("Error updating Post's Comments");
@@ -660,27 +675,23 @@ public class PostsActions {
         try {
             Post post = wcm.findPost(new Long(postId), userWcm);
 
-            if (post.getComments() != null) {
-                Comment cDeleted = null;
-                for (Comment c : post.getComments()) {
-                    if (c.getId().equals(new Long(commentId))) {
-                        if (status.equals(Wcm.COMMENT.DELETED.toString())) {
-                            cDeleted = c;
-                        } else if (status.equals(Wcm.COMMENT.REJECTED.toString())) {
-                            c.setStatus(Wcm.COMMENT.REJECTED);
-                        } else if (status.equals(Wcm.COMMENT.PUBLIC.toString())) {
-                            c.setStatus(Wcm.COMMENT.PUBLIC);
-                        }
-                    }
-                }
+            if (post != null) {
+                Comment c = new Comment();
+                c.setId(new Long(commentId));
+                c.setPost(post);
                 if (status.equals(Wcm.COMMENT.DELETED.toString())) {
-                    wcm.remove(cDeleted, userWcm);
-                } else {
-                    wcm.update(post, userWcm);
+                    wcm.remove(c, userWcm);
+                } else if (status.equals(Wcm.COMMENT.REJECTED.toString())) {
+                    c.setStatus(Wcm.COMMENT.REJECTED);
+                    wcm.update(c, userWcm);
+                } else if (status.equals(Wcm.COMMENT.PUBLIC.toString())) {
+                    c.setStatus(Wcm.COMMENT.PUBLIC);
+                    wcm.update(c, userWcm);
                 }
             }
             post = wcm.findPost(new Long(postId), userWcm);
             request.setAttribute("post", post);
+            request.setAttribute("comments", comments(post, userWcm));
             request.setAttribute("namespace", namespace);
         } catch (Exception e) {
             log.warning("Error updating Post's Comments");
@@ -700,7 +711,7 @@ public class PostsActions {
             if (filterCategoryId != null && !"-1".equals(filterCategoryId)) {
                 posts = wcm.findPosts(new Long(filterCategoryId), userWcm);
             } else if (filterName != null && !"".equals(filterName)) {
-                posts = wcm.findPosts(filterName, userWcm);
+                posts = wcm.searchPosts(filterName, Wcm.SEARCH.MAX, userWcm);
             } else {
                 posts = wcm.findPosts(userWcm);
             }
@@ -736,7 +747,7 @@ public class PostsActions {
             if (filterCategoryId != null && !"-1".equals(filterCategoryId)) {
                 posts = wcm.findPosts(new Long(filterCategoryId), userWcm);
             } else if (filterName != null && !"".equals(filterName) && !"Filter By Name".equals(filterName)) {
-                posts = wcm.findPosts(filterName, userWcm);
+                posts = wcm.searchPosts(filterName, Wcm.SEARCH.MAX, userWcm);
             } else {
                 posts = wcm.findPosts(userWcm);
             }
@@ -775,7 +786,7 @@ public class PostsActions {
             if (filterCategoryId != null && !"-1".equals(filterCategoryId)) {
                 posts = wcm.findPosts(new Long(filterCategoryId), userWcm);
             } else if (filterName != null && !"".equals(filterName) && !"Filter By Name".equals(filterName)) {
-                posts = wcm.findPosts(filterName, userWcm);
+                posts = wcm.searchPosts(filterName, Wcm.SEARCH.MAX, userWcm);
             } else {
                 posts = wcm.findPosts(userWcm);
             }
@@ -814,6 +825,14 @@ public class PostsActions {
         }
     }
 
+    /*
+        Comments shown in editor, users with rights to write the Post moderate Comments in any status.
+     */
+    private List<Comment> comments(Post post, UserWcm userWcm) throws WcmException {
+        if (post == null) return null;
+        return wcm.findComments(post.getId(), userWcm.canWrite(post) ? null : Wcm.COMMENT.PUBLIC, null, 0, userWcm);
+    }
+
     private int countAcl(Set<Acl> acl, Character type) {
         if (acl == null) return -1;
         int count = 0;
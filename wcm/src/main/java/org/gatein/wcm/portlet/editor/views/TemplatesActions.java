@@ -348,7 +348,7 @@ public class TemplatesActions {
                         }
                     }
                 } else if (viewMetadata.isFilterName()) {
-                    List<Template> filterTemplates = wcm.findTemplates(viewMetadata.getName(), userWcm);
+                    List<Template> filterTemplates = wcm.searchTemplates(viewMetadata.getName(), Wcm.SEARCH.MAX, userWcm);
                     if (filterTemplates != null) {
                         viewMetadata.setViewType(ViewMetadata.ViewType.TEMPLATES);
                         viewMetadata.setTotalIndex(filterTemplates.size());
@@ -429,7 +429,7 @@ public class TemplatesActions {
             if (filterCategoryId != null && !"-1".equals(filterCategoryId)) {
                 templates = wcm.findTemplates(new Long(filterCategoryId), userWcm);
             } else if (filterName != null && !"".equals(filterName)) {
-                templates = wcm.findTemplates(filterName, userWcm);
+                templates = wcm.searchTemplates(filterName, Wcm.SEARCH.MAX, userWcm);
             } else {
                 templates = wcm.findTemplates(userWcm);
             }
@@ -465,7 +465,7 @@ public class TemplatesActions {
             if (filterCategoryId != null && !"-1".equals(filterCategoryId)) {
                 templates = wcm.findTemplates(new Long(filterCategoryId), userWcm);
             } else if (filterName != null && !"".equals(filterName) && !"Filter By Name".equals(filterName)) {
-                templates = wcm.findTemplates(filterName, userWcm);
+                templates = wcm.searchTemplates(filterName, Wcm.SEARCH.MAX, userWcm);
             } else {
                 templates = wcm.findTemplates(userWcm);
             }
@@ -504,7 +504,7 @@ public class TemplatesActions {
             if (filterCategoryId != null && !"-1".equals(filterCategoryId)) {
                 templates = wcm.findTemplates(new Long(filterCategoryId), userWcm);
             } else if (filterName != null && !"".equals(filterName) && !"Filter By Name".equals(filterName)) {
-                templates = wcm.findTemplates(filterName, userWcm);
+                templates = wcm.searchTemplates(filterName, Wcm.SEARCH.MAX, userWcm);
             } else {
                 templates = wcm.findTemplates(userWcm);
             }
@@ -380,7 +380,7 @@ public class UploadsActions {
                         }
                     }
                 } else if (viewMetadata.isFilterName()) {
-                    List<Upload> filterUploads = wcm.findUploads(viewMetadata.getName(), userWcm);
+                    List<Upload> filterUploads = wcm.searchUploads(viewMetadata.getName(), Wcm.SEARCH.MAX, userWcm);
                     if (filterUploads != null) {
                         viewMetadata.setViewType(ViewMetadata.ViewType.UPLOADS);
                         viewMetadata.setTotalIndex(filterUploads.size());
@@ -0,0 +1,390 @@
+/*
+ * JBoss, a division of Red Hat
+ * Copyright 2010, Red Hat Middleware, LLC, and individual
+ * contributors as indicated by the @authors tag. See the
+ * copyright.txt in the distribution for a full listing of
+ * individual contributors.
+ *
+ * This is free software; you can redistribute it and/or modify it
+ * under the terms of the GNU Lesser General Public License as
+ * published by the Free Software Foundation; either version 2.1 of
+ * the License, or (at your option) any later version.
+ *
+ * This software is distributed in the hope that it will be useful,
+ * but WITHOUT ANY WARRANTY; without even the implied warranty of
+ * MERCHANTABILITY or FITNESS FOR A PARTICULAR PURPOSE. See the GNU
+ * Lesser General Public License for more details.
+ *
+ * You should have received a copy of the GNU Lesser General Public
+ * License along with this software; if not, write to the Free
+ * Software Foundation, Inc., 51 Franklin St, Fifth Floor, Boston, MA
+ * 02110-1301 USA, or see the FSF site: http://www.fsf.org.
+ */
+
+package org.gatein.wcm.rest;
+
+import org.gatein.wcm.Wcm;
+import org.gatein.wcm.api.util.WcmUtils;
+import org.gatein.wcm.domain.Category;
+import org.gatein.wcm.domain.Change;
+import org.gatein.wcm.domain.Comment;
+import org.gatein.wcm.domain.Post;
+import org.gatein.wcm.domain.UserWcm;
+import org.gatein.wcm.portlet.util.ViewMetadata;
+import org.gatein.wcm.services.WcmService;
+
+import javax.inject.Inject;
+import javax.ws.rs.*;
+import java.util.ArrayList;
+import java.util.List;
+import java.util.logging.Logger;
+import javax.ws.rs.core.CacheControl;
+import javax.ws.rs.core.Context;
+import javax.ws.rs.core.EntityTag;
+import javax.ws.rs.core.Request;
+import javax.ws.rs.core.Response;
+
+/**
+ *   REST point to read published content as JSON for headless consumers.
+ *   Content is read as anonymous user and only published Posts are served.
+ *   Responses carry an ETag derived from Posts' versions and honor If-None-Match with 304.
+ *
+ *   @author <a href="mailto:lponce@redhat.com">Lucas Ponce</a>
+ */
+@Path("/c")
+public class ContentRest {
+    private static final Logger log = Logger.getLogger(ContentRest.class.getName());
+    private static final String JSON = "application/json; charset=UTF-8";
+
+    @Inject
+    private WcmService wcm;
+
+    @Context
+    private Request request;
+
+    /**
+     * @param path Category's path, root categories if empty
+     * @return Category defined by path with its children or list of root categories
+     */
+    @GET
+    @Path("/categories")
+    @Produces(JSON)
+    public Response getCategories(@QueryParam("path") String path) {
+        UserWcm userWcm = new UserWcm("anonymous");
+        try {
+            JsonWriter json = new JsonWriter();
+            if (path == null || "".equals(path) || "/".equals(path)) {
+                List<Category> roots = wcm.findRootCategories(userWcm);
+                json.beginArray();
+                if (roots != null) {
+                    for (Category c : roots) {
+                        category(json, c);
+                    }
+                }
+                json.endArray();
+            } else {
+                Category cat = wcm.findCategory(path, userWcm);
+                if (cat == null || !userWcm.canRead(cat)) {
+                    return notFound();
+                }
+                category(json.beginObject(), cat, false);
+                json.name("children").beginArray();
+                List<Category> children = wcm.findChildren(cat.getId(), userWcm);
+                if (children != null) {
+                    for (Category c : children) {
+                        category(json, c);
+                    }
+                }
+                json.endArray().endObject();
+            }
+            String body = json.toString();
+            return cached(tag("c", body), body);
+        } catch (Exception e) {
+            log.warning("Error querying categories for path " + path);
+            e.printStackTrace();
+            return Response.serverError().build();
+        }
+    }
+
+    /**
+     * @param id Post's id
+     * @param locale Locale used as a key for a Relationship
+     * @param fields Comma separated list of summary, content, excerpt, comments, categories or all
+     * @return Post defined by id
+     */
+    @GET
+    @Path("/posts/{id:\\d+}")
+    @Produces(JSON)
+    public Response getPost(@PathParam("id") Long id,
+                            @QueryParam("locale") String locale,
+                            @QueryParam("fields") String fields) {
+        UserWcm userWcm = new UserWcm("anonymous");
+        int mask = mask(fields, org.gatein.wcm.api.domain.Post.ALL);
+        try {
+            Post post = (locale == null || "".equals(locale)) ? wcm.findPost(id, userWcm) : wcm.findPost(id, locale, userWcm);
+            if (post == null || !Wcm.POSTS.PUBLISHED.equals(post.getPostStatus())) {
+                return notFound();
+            }
+            List<Comment> comments = comments(post, mask, userWcm);
+            EntityTag tag = new EntityTag(etag(post, mask, comments));
+            Response.ResponseBuilder notModified = request.evaluatePreconditions(tag);
+            if (notModified != null) {
+                return notModified.cacheControl(cacheControl()).tag(tag).build();
+            }
+            JsonWriter json = new JsonWriter();
+            post(json, post, mask, comments);
+            return Response.ok(json.toString(), JSON).cacheControl(cacheControl()).tag(tag).build();
+        } catch (Exception e) {
+            log.warning("Error querying post " + id);
+            e.printStackTrace();
+            return Response.serverError().build();
+        }
+    }
+
+    /**
+     * @param categoryId Category's id, optional
+     * @param path Category's path, optional
+     * @param locale Locale used as a key for a Relationship
+     * @param offset Number of Posts to skip
+     * @param limit Max number of Posts returned, bounded by Wcm.REST.MAX_LIMIT
+     * @param fields Comma separated list of summary, content, excerpt, comments, categories or all
+     * @return Page of published Posts, newest first
+     */
+    @GET
+    @Path("/posts")
+    @Produces(JSON)
+    public Response getPosts(@QueryParam("category") Long categoryId,
+                             @QueryParam("path") String path,
+                             @QueryParam("locale") String locale,
+                             @QueryParam("offset") @DefaultValue("0") int offset,
+                             @QueryParam("limit") @DefaultValue("-1") int limit,
+                             @QueryParam("fields") String fields) {
+        UserWcm userWcm = new UserWcm("anonymous");
+        int mask = mask(fields, org.gatein.wcm.api.domain.Post.EXCERPT | org.gatein.wcm.api.domain.Post.CATEGORIES);
+        if (limit < 0) limit = Wcm.REST.LIMIT;
+        if (limit > Wcm.REST.MAX_LIMIT) limit = Wcm.REST.MAX_LIMIT;
+        try {
+            if (categoryId == null && path != null && !"".equals(path)) {
+                Category cat = wcm.findCategory(path, userWcm);
+                if (cat == null) {
+                    return notFound();
+                }
+                categoryId = cat.getId();
+            }
+            List<Post> posts = wcm.findPosts(categoryId, locale, Wcm.POSTS.PUBLISHED, offset, limit, userWcm);
+            List<List<Comment>> comments = new ArrayList<List<Comment>>(posts.size());
+            StringBuilder tags = new StringBuilder();
+            for (Post p : posts) {
+                comments.add(comments(p, mask, userWcm));
+                tags.append(etag(p, mask, comments.get(comments.size() - 1))).append(',');
+            }
+            EntityTag tag = new EntityTag(tag("l", tags.toString()));
+            Response.ResponseBuilder notModified = request.evaluatePreconditions(tag);
+            if (notModified != null) {
+                return notModified.cacheControl(cacheControl()).tag(tag).build();
+            }
+            JsonWriter json = new JsonWriter();
+            json.beginObject()
+                    .member("offset", offset)
+                    .member("limit", limit)
+                    .name("posts").beginArray();
+            for (int i = 0; i < posts.size(); i++) {
+                post(json, posts.get(i), mask, comments.get(i));
+            }
+            json.endArray().endObject();
+            return Response.ok(json.toString(), JSON).cacheControl(cacheControl()).tag(tag).build();
+        } catch (Exception e) {
+            log.warning("Error querying posts for category " + categoryId + " path " + path);
+            e.printStackTrace();
+            return Response.serverError().build();
+        }
+    }
+
+    /**
+     * Feed of content modifications, consumers continue from last id read.
+     * Only Changes of content readable by anonymous users are listed and users are not exposed in the public feed.
+     * A Change with only id marks the position of skipped Changes.
+     *
+     * @param since Last Change's id already read
+     * @param max Max number of Changes returned, bounded by Wcm.CHANGES.MAX
+     * @return Changes with id greater than since, ordered by id
+     */
+    @GET
+    @Path("/changes")
+    @Produces(JSON)
+    public Response getChanges(@QueryParam("since") Long since,
+                               @QueryParam("max") @DefaultValue("-1") int max) {
+        UserWcm userWcm = new UserWcm("anonymous");
+        try {
+            List<Change> changes = wcm.findChanges(since, max, userWcm);
+            Long last = since;
+            JsonWriter json = new JsonWriter();
+            json.beginObject().name("changes").beginArray();
+            for (Change c : changes) {
+                json.beginObject()
+                        .member("id", c.getPosition())
+                        .member("type", c.getType())
+                        .member("operation", c.getOperation())
+                        .member("itemId", c.getItemId())
+                        .member("parentType", c.getParentType())
+                        .member("parentId", c.getParentId())
+                        .member("created", c.getCreated())
+                        .endObject();
+                last = c.getPosition();
+            }
+            json.endArray().member("last", last).endObject();
+            CacheControl cc = new CacheControl();
+            cc.setNoCache(true);
+            return Response.ok(json.toString(), JSON).cacheControl(cc).build();
+        } catch (Exception e) {
+            log.warning("Error querying changes since " + since);
+            e.printStackTrace();
+            return Response.serverError().build();
+        }
+    }
+
+    private Response cached(String etag, String body) {
+        EntityTag tag = new EntityTag(etag);
+        Response.ResponseBuilder notModified = request.evaluatePreconditions(tag);
+        if (notModified != null) {
+            return notModified.cacheControl(cacheControl()).tag(tag).build();
+        }
+        return Response.ok(body, JSON).cacheControl(cacheControl()).tag(tag).build();
+    }
+
+    private Response notFound() {
+        return Response.status(Response.Status.NOT_FOUND).cacheControl(cacheControl()).build();
+    }
+
+    private CacheControl cacheControl() {
+        CacheControl cc = new CacheControl();
+        cc.setMaxAge(Wcm.REST.CACHE.MAX_AGE);
+        cc.setPrivate(false);
+        return cc;
+    }
+
+    private String tag(String prefix, String value) {
+        return prefix + WcmUtils.sha1(value);
+    }
+
+    /*
+     * ETag of a Post: id and version identify Post's content, mask the representation.
+     * Comments don't change Post's version so public Comments counter is added.
+     * Comments and Categories served are digested as they are written, as edits and renames don't change Post's version.
+     */
+    private String etag(Post post, int mask, List<Comment> comments) {
+        StringBuilder tag = new StringBuilder();
+        tag.append("p").append(post.getId()).append("-").append(post.getVersion()).append("-").append(mask);
+        // Comments counters are served in every representation
+        tag.append("-").append(post.getCommentsPublic())
+                .append("-").append(post.getLastCommentAt() != null ? Long.toHexString(post.getLastCommentAt().getTimeInMillis()) : "0");
+        if ((mask & (org.gatein.wcm.api.domain.Post.CATEGORIES | org.gatein.wcm.api.domain.Post.COMMENTS)) != 0) {
+            JsonWriter json = new JsonWriter();
+            json.beginArray();
+            if ((mask & org.gatein.wcm.api.domain.Post.CATEGORIES) != 0) {
+                categories(json, post);
+            }
+            if ((mask & org.gatein.wcm.api.domain.Post.COMMENTS) != 0) {
+                comments(json, comments);
+            }
+            json.endArray();
+            tag.append("-").append(WcmUtils.sha1(json.toString()));
+        }
+        return tag.toString();
+    }
+
+    private int mask(String fields, int defaultMask) {
+        if (fields == null || "".equals(fields)) return defaultMask;
+        int mask = org.gatein.wcm.api.domain.Post.SUMMARY;
+        for (String f : fields.split(",")) {
+            f = f.trim();
+            if ("content".equals(f)) mask |= org.gatein.wcm.api.domain.Post.CONTENT;
+            else if ("excerpt".equals(f)) mask |= org.gatein.wcm.api.domain.Post.EXCERPT;
+            else if ("comments".equals(f)) mask |= org.gatein.wcm.api.domain.Post.COMMENTS;
+            else if ("categories".equals(f)) mask |= org.gatein.wcm.api.domain.Post.CATEGORIES;
+            else if ("all".equals(f)) mask |= org.gatein.wcm.api.domain.Post.ALL;
+        }
+        return mask;
+    }
+
+    private void category(JsonWriter json, Category cat) {
+        category(json.beginObject(), cat, true);
+    }
+
+    private void category(JsonWriter json, Category cat, boolean close) {
+        json.member("id", cat.getId())
+                .member("name", cat.getName())
+                .member("type", cat.getType())
+                .member("numChildren", cat.getNumChildren())
+                .member("path", ViewMetadata.categoryTitle(cat));
+        if (close) json.endObject();
+    }
+
+    /*
+     * Public Comments of a Post, only read when they are served.
+     */
+    private List<Comment> comments(Post post, int mask, UserWcm userWcm) throws Exception {
+        if ((mask & org.gatein.wcm.api.domain.Post.COMMENTS) == 0) return null;
+        return wcm.findComments(post.getId(), Wcm.COMMENT.PUBLIC, null, 0, userWcm);
+    }
+
+    private void post(JsonWriter json, Post post, int mask, List<Comment> comments) {
+        json.beginObject()
+                .member("id", post.getId())
+                .member("version", post.getVersion())
+                .member("title", post.getTitle())
+                .member("author", post.getAuthor())
+                .member("created", post.getCreated())
+                .member("modified", post.getModified())
+                .member("locale", post.getLocale())
+                .member("commentsStatus", post.getCommentsStatus())
+                .member("commentsPublic", post.getCommentsPublic())
+                .member("lastCommentAt", post.getLastCommentAt())
+                .member("wordCount", post.getWordCount());
+        if ((mask & org.gatein.wcm.api.domain.Post.EXCERPT) != 0) {
+            json.member("excerpt", post.getExcerpt());
+        }
+        if ((mask & org.gatein.wcm.api.domain.Post.CONTENT) != 0) {
+            json.member("content", post.getContent());
+        }
+        if ((mask & org.gatein.wcm.api.domain.Post.CATEGORIES) != 0) {
+            json.name("categories");
+            categories(json, post);
+        }
+        if ((mask & org.gatein.wcm.api.domain.Post.COMMENTS) != 0) {
+            json.name("comments");
+            comments(json, comments);
+        }
+        json.endObject();
+    }
+
+    private void categories(JsonWriter json, Post post) {
+        json.beginArray();
+        if (post.getCategories() != null) {
+            for (Category c : post.getCategories()) {
+                json.beginObject()
+                        .member("id", c.getId())
+                        .member("name", c.getName())
+                        .member("path", ViewMetadata.categoryTitle(c))
+                        .endObject();
+            }
+        }
+        json.endArray();
+    }
+
+    private void comments(JsonWriter json, List<Comment> comments) {
+        json.beginArray();
+        if (comments != null) {
+            for (Comment c : comments) {
+                json.beginObject()
+                        .member("id", c.getId())
+                        .member("author", c.getAuthor())
+                        .member("authorUrl", c.getAuthorUrl())
+                        .member("created", c.getCreated())
+                        .member("content", c.getContent())
+                        .endObject();
+            }
+        }
+        json.endArray();
+    }
+}
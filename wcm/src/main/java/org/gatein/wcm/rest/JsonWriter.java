@@ -0,0 +1,161 @@
+/*
+ * JBoss, a division of Red Hat
+ * Copyright 2010, Red Hat Middleware, LLC, and individual
+ * contributors as indicated by the @authors tag. See the
+ * copyright.txt in the distribution for a full listing of
+ * individual contributors.
+ *
+ * This is free software; you can redistribute it and/or modify it
+ * under the terms of the GNU Lesser General Public License as
+ * published by the Free Software Foundation; either version 2.1 of
+ * the License, or (at your option) any later version.
+ *
+ * This software is distributed in the hope that it will be useful,
+ * but WITHOUT ANY WARRANTY; without even the implied warranty of
+ * MERCHANTABILITY or FITNESS FOR A PARTICULAR PURPOSE. See the GNU
+ * Lesser General Public License for more details.
+ *
+ * You should have received a copy of the GNU Lesser General Public
+ * License along with this software; if not, write to the Free
+ * Software Foundation, Inc., 51 Franklin St, Fifth Floor, Boston, MA
+ * 02110-1301 USA, or see the FSF site: http://www.fsf.org.
+ */
+
+package org.gatein.wcm.rest;
+
+import java.util.ArrayList;
+import java.util.Calendar;
+import java.util.List;
+
+/**
+ *   Minimal streaming JSON writer for REST responses.
+ *   Callers are responsible of balancing objects and arrays.
+ *
+ *   @author <a href="mailto:lponce@redhat.com">Lucas Ponce</a>
+ */
+public class JsonWriter {
+
+    private final StringBuilder out = new StringBuilder();
+    private final List<Boolean> first = new ArrayList<Boolean>();
+
+    public JsonWriter beginObject() {
+        separator();
+        out.append('{');
+        first.add(Boolean.TRUE);
+        return this;
+    }
+
+    public JsonWriter endObject() {
+        first.remove(first.size() - 1);
+        out.append('}');
+        return this;
+    }
+
+    public JsonWriter beginArray() {
+        separator();
+        out.append('[');
+        first.add(Boolean.TRUE);
+        return this;
+    }
+
+    public JsonWriter endArray() {
+        first.remove(first.size() - 1);
+        out.append(']');
+        return this;
+    }
+
+    /**
+     * Writes a member name. Next value written is the member's value.
+     */
+    public JsonWriter name(String name) {
+        separator();
+        string(name);
+        out.append(':');
+        first.set(first.size() - 1, Boolean.TRUE);
+        return this;
+    }
+
+    public JsonWriter value(String value) {
+        separator();
+        if (value == null) out.append("null");
+        else string(value);
+        return this;
+    }
+
+    public JsonWriter value(Character value) {
+        return value(value == null ? null : value.toString());
+    }
+
+    public JsonWriter value(Number value) {
+        separator();
+        out.append(value == null ? "null" : value.toString());
+        return this;
+    }
+
+    public JsonWriter value(boolean value) {
+        separator();
+        out.append(value);
+        return this;
+    }
+
+    /**
+     * Dates are written as milliseconds since epoch.
+     */
+    public JsonWriter value(Calendar value) {
+        return value(value == null ? null : new Long(value.getTimeInMillis()));
+    }
+
+    public JsonWriter member(String name, String value) {
+        return name(name).value(value);
+    }
+
+    public JsonWriter member(String name, Character value) {
+        return name(name).value(value);
+    }
+
+    public JsonWriter member(String name, Number value) {
+        return name(name).value(value);
+    }
+
+    public JsonWriter member(String name, Calendar value) {
+        return name(name).value(value);
+    }
+
+    @Override
+    public String toString() {
+        return out.toString();
+    }
+
+    private void separator() {
+        if (first.isEmpty()) return;
+        int last = first.size() - 1;
+        if (first.get(last)) {
+            first.set(last, Boolean.FALSE);
+        } else {
+            out.append(',');
+        }
+    }
+
+    private void string(String s) {
+        out.append('"');
+        for (int i = 0; i < s.length(); i++) {
+            char c = s.charAt(i);
+            switch (c) {
+                case '"': out.append("\\\""); break;
+                case '\\': out.append("\\\\"); break;
+                case '\n': out.append("\\n"); break;
+                case '\r': out.append("\\r"); break;
+                case '\t': out.append("\\t"); break;
+                case '\b': out.append("\\b"); break;
+                case '\f': out.append("\\f"); break;
+                default:
+                    if (c < 0x20 || c == 0x2028 || c == 0x2029 || c == '<') {
+                        out.append(String.format("\\u%04x", (int) c));
+                    } else {
+                        out.append(c);
+                    }
+            }
+        }
+        out.append('"');
+    }
+}
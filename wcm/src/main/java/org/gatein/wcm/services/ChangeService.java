@@ -0,0 +1,69 @@
+/*
+ * JBoss, a division of Red Hat
+ * Copyright 2010, Red Hat Middleware, LLC, and individual
+ * contributors as indicated by the @authors tag. See the
+ * copyright.txt in the distribution for a full listing of
+ * individual contributors.
+ *
+ * This is free software; you can redistribute it and/or modify it
+ * under the terms of the GNU Lesser General Public License as
+ * published by the Free Software Foundation; either version 2.1 of
+ * the License, or (at your option) any later version.
+ *
+ * This software is distributed in the hope that it will be useful,
+ * but WITHOUT ANY WARRANTY; without even the implied warranty of
+ * MERCHANTABILITY or FITNESS FOR A PARTICULAR PURPOSE. See the GNU
+ * Lesser General Public License for more details.
+ *
+ * You should have received a copy of the GNU Lesser General Public
+ * License along with this software; if not, write to the Free
+ * Software Foundation, Inc., 51 Franklin St, Fifth Floor, Boston, MA
+ * 02110-1301 USA, or see the FSF site: http://www.fsf.org.
+ */
+
+package org.gatein.wcm.services;
+
+import java.util.List;
+
+import javax.ejb.Local;
+
+import org.gatein.wcm.WcmException;
+import org.gatein.wcm.domain.Change;
+
+/**
+ * Append-only log of content modifications, read as a feed ordered by Change's id.
+ * It's used internally by WcmService, authorization should be checked by caller.
+ *
+ * @see org.gatein.wcm.Wcm.CHANGES
+ *
+ * @author <a href="mailto:lponce@redhat.com">Lucas Ponce</a>
+ */
+@Local
+public interface ChangeService {
+
+    /**
+     * Stores a Change in the transaction of the caller, so it's visible only if the modification is committed.
+     *
+     * @param change Change to log
+     * @throws WcmException
+     */
+    void record(Change change) throws WcmException;
+
+    /**
+     * Changes not published yet are not returned.
+     *
+     * @param since Last Change's position already read, null to start from the oldest Change kept
+     * @param max Max number of Changes, bounded by Wcm.CHANGES.MAX
+     * @return list of Changes with position greater than since, ordered by position
+     * @throws WcmException
+     */
+    List<Change> findChanges(Long since, int max) throws WcmException;
+
+    /**
+     * Position of the feed, so a consumer that has just read the whole content can start following it.
+     *
+     * @return position of last published Change, null if log is empty
+     * @throws WcmException
+     */
+    Long lastChange() throws WcmException;
+}
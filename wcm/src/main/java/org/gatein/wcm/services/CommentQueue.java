@@ -0,0 +1,69 @@
+/*
+ * JBoss, a division of Red Hat
+ * Copyright 2010, Red Hat Middleware, LLC, and individual
+ * contributors as indicated by the @authors tag. See the
+ * copyright.txt in the distribution for a full listing of
+ * individual contributors.
+ *
+ * This is free software; you can redistribute it and/or modify it
+ * under the terms of the GNU Lesser General Public License as
+ * published by the Free Software Foundation; either version 2.1 of
+ * the License, or (at your option) any later version.
+ *
+ * This software is distributed in the hope that it will be useful,
+ * but WITHOUT ANY WARRANTY; without even the implied warranty of
+ * MERCHANTABILITY or FITNESS FOR A PARTICULAR PURPOSE. See the GNU
+ * Lesser General Public License for more details.
+ *
+ * You should have received a copy of the GNU Lesser General Public
+ * License along with this software; if not, write to the Free
+ * Software Foundation, Inc., 51 Franklin St, Fifth Floor, Boston, MA
+ * 02110-1301 USA, or see the FSF site: http://www.fsf.org.
+ */
+
+package org.gatein.wcm.services;
+
+import javax.ejb.Local;
+
+import org.gatein.wcm.WcmAuthorizationException;
+import org.gatein.wcm.WcmException;
+import org.gatein.wcm.domain.Comment;
+import org.gatein.wcm.domain.Post;
+
+/**
+ * Comments added by readers are queued in memory and written in batches by a background writer.
+ * Queue is bounded, when it's full the caller writes its Comment synchronously.
+ *
+ * @see org.gatein.wcm.Wcm.COMMENTS
+ *
+ * @author <a href="mailto:lponce@redhat.com">Lucas Ponce</a>
+ */
+@Local
+public interface CommentQueue {
+
+    /**
+     * Adds a new Comment into an existing Post.
+     * Comment's id is null until it's written.
+     *
+     * @param post existing Post where to add a new Comment
+     * @param comment new Comment to add into Post
+     * @return ticket to follow the Comment until it's written, null if Comment has been written synchronously
+     * @throws WcmAuthorizationException if Post has not comments enabled
+     * @throws WcmException
+     */
+    Long add(Post post, Comment comment) throws WcmAuthorizationException, WcmException;
+
+    /**
+     * Checks if a queued Comment is waiting to be written.
+     *
+     * @param ticket ticket returned by add()
+     * @return false if the Comment has been written, discarded or failed, if its ticket is older than
+     * Wcm.COMMENTS.PENDING seconds or if the ticket is unknown in this node
+     */
+    boolean isPending(Long ticket);
+
+    /**
+     * Writes queued Comments.
+     */
+    void flush();
+}
@@ -0,0 +1,108 @@
+/*
+ * JBoss, a division of Red Hat
+ * Copyright 2010, Red Hat Middleware, LLC, and individual
+ * contributors as indicated by the @authors tag. See the
+ * copyright.txt in the distribution for a full listing of
+ * individual contributors.
+ *
+ * This is free software; you can redistribute it and/or modify it
+ * under the terms of the GNU Lesser General Public License as
+ * published by the Free Software Foundation; either version 2.1 of
+ * the License, or (at your option) any later version.
+ *
+ * This software is distributed in the hope that it will be useful,
+ * but WITHOUT ANY WARRANTY; without even the implied warranty of
+ * MERCHANTABILITY or FITNESS FOR A PARTICULAR PURPOSE. See the GNU
+ * Lesser General Public License for more details.
+ *
+ * You should have received a copy of the GNU Lesser General Public
+ * License along with this software; if not, write to the Free
+ * Software Foundation, Inc., 51 Franklin St, Fifth Floor, Boston, MA
+ * 02110-1301 USA, or see the FSF site: http://www.fsf.org.
+ */
+
+package org.gatein.wcm.services;
+
+import java.util.List;
+
+import javax.ejb.Local;
+
+import org.gatein.wcm.WcmException;
+import org.gatein.wcm.domain.PostHistory;
+
+/**
+ * Storage of versions in history.
+ * It's used internally by WcmService, authorization should be checked by caller.
+ *
+ * @see org.gatein.wcm.Wcm.HISTORY
+ *
+ * @author <a href="mailto:lponce@redhat.com">Lucas Ponce</a>
+ */
+@Local
+public interface HistoryService {
+
+    /**
+     * Stores a new version of a Post in history.
+     * Version should be newer than any version of the Post in history.
+     * Previous version is encoded as a delta against the new one.
+     *
+     * @param version PostHistory with full content
+     * @throws WcmException
+     */
+    void archive(PostHistory version) throws WcmException;
+
+    /**
+     * @param postId Post's id
+     * @param version Post's version
+     * @return PostHistory with full content, not attached to persistence context, null if version doesn't exist
+     * @throws WcmException
+     */
+    PostHistory findPostVersion(Long postId, Long version) throws WcmException;
+
+    /**
+     * @return list of Post's ids with versions in history
+     * @throws WcmException
+     */
+    List<Long> findPostsWithHistory() throws WcmException;
+
+    /**
+     * Encodes all versions in history of a Post as deltas, keeping snapshots every Wcm.HISTORY.SNAPSHOTS versions.
+     * Post is compacted in its own transaction.
+     *
+     * @param postId Post's id
+     * @return number of versions encoded as deltas
+     * @throws WcmException
+     */
+    int compactPost(Long postId) throws WcmException;
+
+    /**
+     * Prunes versions of a Post not retained by Wcm.HISTORY.POSTS policy, archiving them if Wcm.HISTORY.ARCHIVE is defined.
+     * At most Wcm.HISTORY.BATCH versions are pruned, in its own transaction.
+     *
+     * @param postId Post's id
+     * @return number of versions pruned
+     * @throws WcmException
+     */
+    int prunePost(Long postId) throws WcmException;
+
+    /**
+     * Prunes versions of an Upload not retained by Wcm.HISTORY.UPLOADS policy, archiving them if Wcm.HISTORY.ARCHIVE is defined.
+     * Only versions are pruned, stored files are not modified.
+     * At most Wcm.HISTORY.BATCH versions are pruned, in its own transaction.
+     *
+     * @param uploadId Upload's id
+     * @return number of versions pruned
+     * @throws WcmException
+     */
+    int pruneUpload(Long uploadId) throws WcmException;
+
+    /**
+     * Prunes versions of a Template not retained by Wcm.HISTORY.TEMPLATES policy, archiving them if Wcm.HISTORY.ARCHIVE is defined.
+     * At most Wcm.HISTORY.BATCH versions are pruned, in its own transaction.
+     *
+     * @param templateId Template's id
+     * @return number of versions pruned
+     * @throws WcmException
+     */
+    int pruneTemplate(Long templateId) throws WcmException;
+}
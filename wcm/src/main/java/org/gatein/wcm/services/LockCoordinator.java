@@ -0,0 +1,120 @@
+/*
+ * JBoss, a division of Red Hat
+ * Copyright 2010, Red Hat Middleware, LLC, and individual
+ * contributors as indicated by the @authors tag. See the
+ * copyright.txt in the distribution for a full listing of
+ * individual contributors.
+ *
+ * This is free software; you can redistribute it and/or modify it
+ * under the terms of the GNU Lesser General Public License as
+ * published by the Free Software Foundation; either version 2.1 of
+ * the License, or (at your option) any later version.
+ *
+ * This software is distributed in the hope that it will be useful,
+ * but WITHOUT ANY WARRANTY; without even the implied warranty of
+ * MERCHANTABILITY or FITNESS FOR A PARTICULAR PURPOSE. See the GNU
+ * Lesser General Public License for more details.
+ *
+ * You should have received a copy of the GNU Lesser General Public
+ * License along with this software; if not, write to the Free
+ * Software Foundation, Inc., 51 Franklin St, Fifth Floor, Boston, MA
+ * 02110-1301 USA, or see the FSF site: http://www.fsf.org.
+ */
+
+package org.gatein.wcm.services;
+
+import java.util.Calendar;
+
+import javax.ejb.Local;
+
+import org.gatein.wcm.WcmException;
+import org.gatein.wcm.WcmLockException;
+import org.gatein.wcm.domain.Lock;
+import org.gatein.wcm.domain.UserWcm;
+
+/**
+ * Coordination of Locks between nodes of a cluster.
+ * Locks are leases stored in database: a Lock expires Wcm.TIMEOUTS.LOCKS minutes after its last renewal.
+ * Every acquired Lock gets a fencing token, writes from a holder whose token has been superseded are rejected.
+ * Each node keeps the Locks it holds, so a holder can acquire again an item without accessing database.
+ *
+ * @see org.gatein.wcm.Wcm.CLUSTER
+ * @see Lock
+ *
+ * @author <a href="mailto:lponce@redhat.com">Lucas Ponce</a>
+ */
+@Local
+public interface LockCoordinator {
+
+    /**
+     * Acquires or renews a Lock for an item.
+     *
+     * @param originId Item's id to lock
+     * @param type Type of item to lock
+     * @param user UserWcm who acquires the Lock
+     * @return Lock held by user
+     * @throws WcmLockException if item is locked by a different user
+     * @throws WcmException
+     */
+    Lock acquire(Long originId, Character type, UserWcm user) throws WcmLockException, WcmException;
+
+    /**
+     * Releases a Lock held by user.
+     *
+     * @param originId Item's id to unlock
+     * @param type Type of item to unlock
+     * @param user UserWcm who holds the Lock
+     * @throws WcmLockException if item is locked by a different user
+     * @throws WcmException
+     */
+    void release(Long originId, Character type, UserWcm user) throws WcmLockException, WcmException;
+
+    /**
+     * Removes a Lock without checking its holder.
+     * Authorization should be checked by caller.
+     *
+     * @param originId Item's id to unlock
+     * @param type Type of item to unlock
+     * @throws WcmException
+     */
+    void remove(Long originId, Character type) throws WcmException;
+
+    /**
+     * Validates that a Lock held by user in this node has not expired or been superseded by a Lock with a different token.
+     * Items not locked in this node by user are validated only against Locks of different users.
+     *
+     * @param originId Item's id to write
+     * @param type Type of item to write
+     * @param user UserWcm who writes
+     * @throws WcmLockException if Lock held by user has expired or been superseded, or item is locked by a different user
+     * @throws WcmException
+     */
+    void fence(Long originId, Character type, UserWcm user) throws WcmLockException, WcmException;
+
+    /**
+     * Acquires or renews a named Lease for this node.
+     * Lease is committed in its own transaction.
+     *
+     * @param name Lease's name
+     * @param seconds max seconds Lease is owned without renewal
+     * @return true if this node owns the Lease, false if another node owns it or created it at the same time
+     * @throws WcmException
+     */
+    boolean lease(String name, int seconds) throws WcmException;
+
+    /**
+     * Deletes a batch of Locks not renewed since cutoff.
+     * Batch is committed in its own transaction.
+     *
+     * @param cutoff Locks created or renewed before cutoff are expired
+     * @param max approximate max number of Locks to delete, Locks with same timestamp than last one are deleted too
+     * @return number of Locks deleted, a value lower than max means there are no more expired Locks
+     * @throws WcmException
+     */
+    int expire(Calendar cutoff, int max) throws WcmException;
+
+    /**
+     * @return name of this node
+     */
+    String getNode();
+}
@@ -0,0 +1,53 @@
+/*
+ * JBoss, a division of Red Hat
+ * Copyright 2010, Red Hat Middleware, LLC, and individual
+ * contributors as indicated by the @authors tag. See the
+ * copyright.txt in the distribution for a full listing of
+ * individual contributors.
+ *
+ * This is free software; you can redistribute it and/or modify it
+ * under the terms of the GNU Lesser General Public License as
+ * published by the Free Software Foundation; either version 2.1 of
+ * the License, or (at your option) any later version.
+ *
+ * This software is distributed in the hope that it will be useful,
+ * but WITHOUT ANY WARRANTY; without even the implied warranty of
+ * MERCHANTABILITY or FITNESS FOR A PARTICULAR PURPOSE. See the GNU
+ * Lesser General Public License for more details.
+ *
+ * You should have received a copy of the GNU Lesser General Public
+ * License along with this software; if not, write to the Free
+ * Software Foundation, Inc., 51 Franklin St, Fifth Floor, Boston, MA
+ * 02110-1301 USA, or see the FSF site: http://www.fsf.org.
+ */
+
+package org.gatein.wcm.services;
+
+import java.util.List;
+
+import javax.ejb.Local;
+
+import org.gatein.wcm.WcmException;
+
+/**
+ * Full-text index over Posts, Uploads and Templates.
+ * It's used internally by WcmService, authorization should be checked by caller.
+ *
+ * @see org.gatein.wcm.Wcm.SEARCH
+ *
+ * @author <a href="mailto:lponce@redhat.com">Lucas Ponce</a>
+ */
+@Local
+public interface SearchService {
+
+    /**
+     * All words of query should be present in an item, last word is also matched as prefix.
+     *
+     * @param type Type of items as defined in Wcm.SEARCH
+     * @param query Words to search
+     * @param max Max number of ids, bounded by Wcm.SEARCH.MAX
+     * @return list of ids ranked by relevance, null if index is not built yet on this node
+     * @throws WcmException
+     */
+    List<Long> search(Character type, String query, int max) throws WcmException;
+}
@@ -24,6 +24,8 @@
 package org.gatein.wcm.services;
 
 import java.io.InputStream;
+import java.util.Calendar;
+import java.util.Collection;
 import java.util.List;
 import java.util.Map;
 
@@ -101,6 +103,14 @@ public interface WcmService {
      */
     Category findCategory(String path, UserWcm user) throws WcmException;
 
+    /**
+     * @param paths Categories' paths
+     * @param user UserWcm who performs operation
+     * @return List of Categories defined by paths in the same order, skipping the ones that don't exist or user has not rights to read
+     * @throws WcmException
+     */
+    List<Category> findCategories(Collection<String> paths, UserWcm user) throws WcmException;
+
     /**
      * @param user UserWcm who performs operation
      * @return List of Categories that user can read
@@ -163,6 +173,20 @@ public interface WcmService {
      */
 	void create(Post post, UserWcm user) throws WcmAuthorizationException, WcmException;
 
+    /**
+     * Persists a list of new Posts into backend, i.e. for an import.
+     * Posts are written in JDBC batches of Wcm.BULK.BATCH and persistence context is cleared between batches,
+     * so Posts are detached when this method returns.
+     * User has to have rights to write.
+     *
+     * @param posts new Posts to persist
+     * @param categoryId existing Category to link Posts, null for no Category
+     * @param user UserWcm who performs operation
+     * @throws WcmAuthorizationException
+     * @throws WcmException
+     */
+    void create(List<Post> posts, Long categoryId, UserWcm user) throws WcmAuthorizationException, WcmException;
+
     /**
      * Updates an existing Post.
      * User has to have rights to write.
@@ -198,6 +222,20 @@ public interface WcmService {
      */
 	void add(Post post, Category cat, UserWcm user) throws WcmAuthorizationException, WcmException;
 
+    /**
+     * Links a list of Posts into a Category and its parents.
+     * Links are inserted with set based statements, one per Category in the path and chunk of Posts,
+     * skipping Posts already linked. Persistence context is cleared after the operation.
+     * User has to have rights to write on Category and all Posts, otherwise no Post is linked.
+     *
+     * @param postIds existing Posts' ids to link
+     * @param categoryId existing Category's id to link
+     * @param user UserWcm who performs operation
+     * @throws WcmAuthorizationException
+     * @throws WcmException
+     */
+    void addAll(Collection<Long> postIds, Long categoryId, UserWcm user) throws WcmAuthorizationException, WcmException;
+
     /**
      * Unlinks Post from Category.
      * User has to have rights to write both on Post and Category.
@@ -222,6 +260,16 @@ public interface WcmService {
      */
 	void add(Post post, Comment comment) throws WcmAuthorizationException, WcmException;
 
+    /**
+     * Adds new Comments in a single transaction.
+     * Comments reference their Post, Comments of Posts without comments enabled are discarded.
+     * It's used by CommentQueue to write batches of Comments.
+     *
+     * @param comments new Comments to add
+     * @throws WcmException
+     */
+    void add(List<Comment> comments) throws WcmException;
+
     /**
      * Deletes an existing Comment from Post.
      * User has to have rights to write.
@@ -251,6 +299,18 @@ public interface WcmService {
      */
     Post findPost(Long id, String locale, UserWcm user) throws WcmException;
 
+    /**
+     * Posts are read with their Categories and Acls in one query per chunk of ids,
+     * translations need a query for Relationships and another one for translated Posts.
+     *
+     * @param ids Posts' ids
+     * @param locale Locale used as a key for a Relationship
+     * @param user UserWcm who performs operation
+     * @return List of Posts defined by ids in the same order, skipping the ones that don't exist or user has not rights to read
+     * @throws WcmException
+     */
+    List<Post> findPosts(Collection<Long> ids, String locale, UserWcm user) throws WcmException;
+
     /**
      * @param categoryId Category's id
      * @param user UserWcm who performs operation
@@ -266,6 +326,33 @@ public interface WcmService {
      */
     List<Post> findPosts(UserWcm user) throws WcmException;
 
+    /**
+     * Paged variant of findPosts(UserWcm).
+     * Posts are ordered by modification date, newest first, and offset counts only Posts that user can read.
+     *
+     * @param offset Number of readable Posts to skip
+     * @param limit Max number of Posts to return
+     * @param user UserWcm who performs operation
+     * @return List of Posts that user can read
+     * @throws WcmException
+     */
+    List<Post> findPosts(int offset, int limit, UserWcm user) throws WcmException;
+
+    /**
+     * Keyset iteration of Posts by modified date and id for bulk reads.
+     * Persistence context is cleared after each chunk read, so returned Posts are detached
+     * and this method should not be mixed with pending changes in the same transaction.
+     *
+     * @param afterModified Last Post's modified date already read, null to start from the beginning
+     * @param afterId Last Post's id already read, null to start from the beginning
+     * @param max Max number of Posts to return
+     * @param user UserWcm who performs operation
+     * @return List of Posts after (afterModified, afterId) that user can read, ordered by modified date and id.
+     * Fewer than max Posts means iteration is finished.
+     * @throws WcmException
+     */
+    List<Post> findPostsAfter(Calendar afterModified, Long afterId, int max, UserWcm user) throws WcmException;
+
     /**
      * @param categoryId Category's id
      * @param status Post's status
@@ -285,6 +372,36 @@ public interface WcmService {
      */
     List<Post> findPosts(Long categoryId, String locale, Character status, UserWcm user) throws WcmException;
 
+    /**
+     * Paged variant of findPosts(Long, String, Character, UserWcm).
+     * Posts are ordered by modification date, newest first, and offset counts only Posts that user can read.
+     *
+     * @param categoryId Category's id, null for Posts in any Category
+     * @param locale Locale used as a key for a Relationship, null for no translation
+     * @param status Post's status, null for any status
+     * @param offset Number of readable Posts to skip
+     * @param limit Max number of Posts to return
+     * @param user UserWcm who performs operation
+     * @return List of Posts linked by Category defined by categoryId that user can read filtered by Post's status
+     * @throws WcmException
+     */
+    List<Post> findPosts(Long categoryId, String locale, Character status, int offset, int limit, UserWcm user) throws WcmException;
+
+    /**
+     * Keyset variant of findPosts(Long, String, Character, int, int, UserWcm).
+     * Next page starts after the last Post of the previous one, so previous pages are not read again.
+     *
+     * @param categoryId Category's id, null for Posts in any Category
+     * @param locale Locale used as a key for a Relationship, null for no translation
+     * @param status Post's status, null for any status
+     * @param before Last Post of previous page, only its modified date and id are used, null for first page
+     * @param limit Max number of Posts to return
+     * @param user UserWcm who performs operation
+     * @return List of Posts older than before linked by Category defined by categoryId that user can read filtered by Post's status
+     * @throws WcmException
+     */
+    List<Post> findPosts(Long categoryId, String locale, Character status, Post before, int limit, UserWcm user) throws WcmException;
+
 
     /**
      * @param filterName Filter for Post's title/name
@@ -294,6 +411,18 @@ public interface WcmService {
      */
     List<Post> findPosts(String filterName, UserWcm user) throws WcmException;
 
+    /**
+     * Full-text search over Post's title, excerpt and content.
+     * If the index is not built yet on this node it falls back to a filter by Post's title.
+     *
+     * @param query Words to search, last word is also matched as prefix
+     * @param max Max number of Posts, bounded by Wcm.SEARCH.MAX
+     * @param user UserWcm who performs operation
+     * @return List of Posts that user can read ranked by relevance
+     * @throws WcmException
+     */
+    List<Post> searchPosts(String query, int max, UserWcm user) throws WcmException;
+
     /**
      *
      * @param postId Post's id
@@ -313,6 +442,19 @@ public interface WcmService {
      */
     void changeVersionPost(Long postId, Long version, UserWcm user) throws WcmException;
 
+    /**
+     * Compacts existing Posts' history storing older versions as deltas.
+     * Each Post is compacted in its own transaction.
+     * Only admin users can compact history.
+     *
+     * @param user UserWcm who performs operation
+     * @return number of versions stored as deltas
+     * @throws WcmAuthorizationException if user is not admin
+     * @throws WcmException
+     * @see org.gatein.wcm.Wcm.HISTORY
+     */
+    int compactHistory(UserWcm user) throws WcmAuthorizationException, WcmException;
+
     /*
      * Acl API
      */
@@ -341,6 +483,44 @@ public interface WcmService {
      */
     void remove(Comment c, UserWcm user) throws WcmException;
 
+    /**
+     * Updates status of an existing Comment.
+     * User has to have rights to write the Post of the Comment.
+     *
+     * @param c Comment with id and new status
+     * @param user UserWcm who performs operation
+     * @throws WcmAuthorizationException
+     * @throws WcmException
+     */
+    void update(Comment c, UserWcm user) throws WcmAuthorizationException, WcmException;
+
+    /**
+     * Page of Comments of a Post, newest first.
+     * Neither Post nor its Comments collection are loaded, so a Post with many Comments is rendered by pages.
+     *
+     * @param postId Id of the Post
+     * @param status Status of the Comments, null for Comments in any status only for users with rights to write the Post
+     * @param before Id of the last Comment of previous page, null for first page
+     * @param limit Max number of Comments in the page, 0 for all Comments
+     * @param user UserWcm who performs operation
+     * @return List of Comments older than before, empty if Post doesn't accept Comments and user has not rights to write it,
+     * null if user has not rights to read the Post or the Comments
+     * @throws WcmException
+     */
+    List<Comment> findComments(Long postId, Character status, Long before, int limit, UserWcm user) throws WcmException;
+
+    /**
+     * Comments of several Posts already loaded, newest first, read with a single query per chunk of Posts.
+     * Rights are checked against the Posts given: users with rights to write a Post get its Comments in any status,
+     * other users get public Comments of Posts that accept Comments.
+     *
+     * @param posts Posts loaded by user
+     * @param user UserWcm who performs operation
+     * @return Comments by Post's id, Posts user can not read are not included
+     * @throws WcmException
+     */
+    Map<Long, List<Comment>> findComments(Collection<Post> posts, UserWcm user) throws WcmException;
+
 	/*
 	 * Upload API.
 	 */
@@ -436,6 +616,14 @@ public interface WcmService {
      */
     Upload findUpload(Long id, UserWcm user) throws WcmException;
 
+    /**
+     * @param ids Uploads' ids
+     * @param user UserWcm who performs operation
+     * @return List of Uploads defined by ids in the same order, skipping the ones that don't exist or user has not rights to read
+     * @throws WcmException
+     */
+    List<Upload> findUploads(Collection<Long> ids, UserWcm user) throws WcmException;
+
     /**
      * @param categoryId Category's id
      * @param user UserWcm who performs operation
@@ -459,6 +647,18 @@ public interface WcmService {
      */
     List<Upload> findUploads(String filterName, UserWcm user) throws WcmException;
 
+    /**
+     * Full-text search over Upload's file name and description.
+     * If the index is not built yet on this node it falls back to a filter by Upload's file name and description.
+     *
+     * @param query Words to search, last word is also matched as prefix
+     * @param max Max number of Uploads, bounded by Wcm.SEARCH.MAX
+     * @param user UserWcm who performs operation
+     * @return List of Uploads that user can read ranked by relevance
+     * @throws WcmException
+     */
+    List<Upload> searchUploads(String query, int max, UserWcm user) throws WcmException;
+
     /**
      *
      * @param uploadId Post's id
@@ -586,6 +786,18 @@ public interface WcmService {
      */
     List<Template> findTemplates(String filterName, UserWcm user) throws WcmException;
 
+    /**
+     * Full-text search over Template's name and content.
+     * If the index is not built yet on this node it falls back to a filter by Template's name.
+     *
+     * @param query Words to search, last word is also matched as prefix
+     * @param max Max number of Templates, bounded by Wcm.SEARCH.MAX
+     * @param user UserWcm who performs operation
+     * @return List of Templates ranked by relevance
+     * @throws WcmException
+     */
+    List<Template> searchTemplates(String query, int max, UserWcm user) throws WcmException;
+
     /**
      * @param templateId Post's id
      * @param user UserWcm who performs operation
@@ -702,6 +914,37 @@ public interface WcmService {
      */
     List<Template> findTemplatesRelationshipTemplate(Long templateId, UserWcm user) throws WcmException;
 
+    /*
+     * Changes API
+     */
+
+    /**
+     * Reads the log of content modifications as a feed.
+     * Consumers store last Change's position read and use it as since in next call.
+     * Changes of items user can not read are skipped, usernames are only returned to users with WRITE rights on the item.
+     * If last Change read is skipped, a Change with only its position is returned, so consumers can advance.
+     *
+     * @param since Last Change's position already read, null to start from the oldest Change kept
+     * @param max Max number of Changes, bounded by Wcm.CHANGES.MAX
+     * @param user UserWcm who performs operation
+     * @return list of detached Changes with position greater than since, ordered by position
+     * @throws WcmException
+     * @see org.gatein.wcm.Wcm.CHANGES
+     */
+    List<Change> findChanges(Long since, int max, UserWcm user) throws WcmException;
+
+    /**
+     * Version of the Categories' tree used to validate cached markup.
+     * Root Categories are stamped by changes of Categories below them and of items linked to them,
+     * so only roots readable by user are read.
+     *
+     * @see org.gatein.wcm.domain.Category#getLastChange()
+     * @param user UserWcm who performs operation
+     * @return version of Categories' tree readable by user
+     * @throws WcmException
+     */
+    String versionCategories(UserWcm user) throws WcmException;
+
     /*
      * Locks API
      */
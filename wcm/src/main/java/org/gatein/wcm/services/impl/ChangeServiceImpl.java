@@ -0,0 +1,164 @@
+/*
+ * JBoss, a division of Red Hat
+ * Copyright 2010, Red Hat Middleware, LLC, and individual
+ * contributors as indicated by the @authors tag. See the
+ * copyright.txt in the distribution for a full listing of
+ * individual contributors.
+ *
+ * This is free software; you can redistribute it and/or modify it
+ * under the terms of the GNU Lesser General Public License as
+ * published by the Free Software Foundation; either version 2.1 of
+ * the License, or (at your option) any later version.
+ *
+ * This software is distributed in the hope that it will be useful,
+ * but WITHOUT ANY WARRANTY; without even the implied warranty of
+ * MERCHANTABILITY or FITNESS FOR A PARTICULAR PURPOSE. See the GNU
+ * Lesser General Public License for more details.
+ *
+ * You should have received a copy of the GNU Lesser General Public
+ * License along with this software; if not, write to the Free
+ * Software Foundation, Inc., 51 Franklin St, Fifth Floor, Boston, MA
+ * 02110-1301 USA, or see the FSF site: http://www.fsf.org.
+ */
+
+package org.gatein.wcm.services.impl;
+
+import java.util.Calendar;
+import java.util.List;
+import java.util.logging.Logger;
+
+import javax.ejb.Schedule;
+import javax.ejb.Stateless;
+import javax.inject.Inject;
+import javax.persistence.EntityManager;
+import javax.persistence.LockModeType;
+import javax.persistence.PersistenceContext;
+
+import org.gatein.wcm.Wcm;
+import org.gatein.wcm.WcmException;
+import org.gatein.wcm.domain.Change;
+import org.gatein.wcm.domain.Lease;
+import org.gatein.wcm.services.ChangeService;
+import org.gatein.wcm.services.LockCoordinator;
+
+/**
+ * Implementation of ChangeService.
+ * A timer publishes committed Changes assigning their positions in the feed.
+ * A timer deletes Changes older than Wcm.CHANGES.KEEP_DAYS.
+ *
+ * @author <a href="mailto:lponce@redhat.com">Lucas Ponce</a>
+ */
+@Stateless
+public class ChangeServiceImpl implements ChangeService {
+
+    private static final Logger log = Logger.getLogger(ChangeServiceImpl.class.getName());
+
+    @PersistenceContext
+    EntityManager em;
+
+    @Inject
+    LockCoordinator locks;
+
+    /**
+     * @see ChangeService#record(org.gatein.wcm.domain.Change)
+     */
+    @Override
+    public void record(Change change) throws WcmException {
+        if (change == null) return;
+        try {
+            em.persist(change);
+        } catch (Exception e) {
+            throw new WcmException(e);
+        }
+    }
+
+    /**
+     * @see ChangeService#findChanges(Long, int)
+     */
+    @Override
+    public List<Change> findChanges(Long since, int max) throws WcmException {
+        if (max <= 0 || max > Wcm.CHANGES.MAX) max = Wcm.CHANGES.MAX;
+        try {
+            return em.createNamedQuery("listChanges", Change.class)
+                    .setParameter("since", since == null ? new Long(0) : since)
+                    .setMaxResults(max)
+                    .getResultList();
+        } catch (Exception e) {
+            throw new WcmException(e);
+        }
+    }
+
+    /**
+     * @see ChangeService#lastChange()
+     */
+    @Override
+    public Long lastChange() throws WcmException {
+        try {
+            return em.createNamedQuery("lastChange", Long.class)
+                    .getSingleResult();
+        } catch (Exception e) {
+            throw new WcmException(e);
+        }
+    }
+
+    /*
+     * Publishes committed Changes.
+     * Positions are assigned in the order Changes become visible, so a Change committed after a higher id
+     * is read after it and no consumer skips it, whatever the duration of transactions or the clocks of nodes.
+     * In a cluster only the node owning the changes lease publishes, its Lease row is locked to exclude a previous owner.
+     */
+    @Schedule(hour = "*", minute = "*", second = "*/5", persistent = false)
+    void publishChanges() {
+        try {
+            if (!locks.lease(Wcm.CLUSTER.CHANGES, Wcm.CLUSTER.LEASE)) return;
+        } catch (Exception e) {
+            log.fine("Node " + locks.getNode() + " could not acquire lease " + Wcm.CLUSTER.CHANGES);
+            return;
+        }
+        try {
+            em.find(Lease.class, Wcm.CLUSTER.CHANGES, LockModeType.PESSIMISTIC_WRITE);
+            Long last = em.createNamedQuery("lastChange", Long.class).getSingleResult();
+            long position = last == null ? 0 : last;
+            List<Change> unpublished;
+            do {
+                unpublished = em.createNamedQuery("listUnpublishedChanges", Change.class)
+                        .setMaxResults(Wcm.CHANGES.MAX)
+                        .getResultList();
+                for (Change change : unpublished) {
+                    change.setPosition(++position);
+                }
+                em.flush();
+            } while (unpublished.size() == Wcm.CHANGES.MAX);
+        } catch (Exception e) {
+            log.warning("Error publishing Changes");
+            e.printStackTrace();
+        }
+    }
+
+    /*
+     * Deletes old Changes.
+     * In a cluster only the node owning the changes lease prunes the log.
+     */
+    @Schedule(hour = "*", minute = "45")
+    void pruneChanges() {
+        try {
+            if (!locks.lease(Wcm.CLUSTER.CHANGES, Wcm.CLUSTER.LEASE)) return;
+        } catch (Exception e) {
+            log.fine("Node " + locks.getNode() + " could not acquire lease " + Wcm.CLUSTER.CHANGES);
+            return;
+        }
+        try {
+            Calendar cutoff = Calendar.getInstance();
+            cutoff.add(Calendar.DATE, -Wcm.CHANGES.KEEP_DAYS);
+            int deleted = em.createNamedQuery("deleteChanges")
+                    .setParameter("cutoff", cutoff)
+                    .executeUpdate();
+            if (deleted > 0) {
+                log.info("Deleted " + deleted + " Changes older than " + Wcm.CHANGES.KEEP_DAYS + " days");
+            }
+        } catch (Exception e) {
+            log.warning("Error pruning Changes");
+            e.printStackTrace();
+        }
+    }
+}
@@ -0,0 +1,193 @@
+/*
+ * JBoss, a division of Red Hat
+ * Copyright 2010, Red Hat Middleware, LLC, and individual
+ * contributors as indicated by the @authors tag. See the
+ * copyright.txt in the distribution for a full listing of
+ * individual contributors.
+ *
+ * This is free software; you can redistribute it and/or modify it
+ * under the terms of the GNU Lesser General Public License as
+ * published by the Free Software Foundation; either version 2.1 of
+ * the License, or (at your option) any later version.
+ *
+ * This software is distributed in the hope that it will be useful,
+ * but WITHOUT ANY WARRANTY; without even the implied warranty of
+ * MERCHANTABILITY or FITNESS FOR A PARTICULAR PURPOSE. See the GNU
+ * Lesser General Public License for more details.
+ *
+ * You should have received a copy of the GNU Lesser General Public
+ * License along with this software; if not, write to the Free
+ * Software Foundation, Inc., 51 Franklin St, Fifth Floor, Boston, MA
+ * 02110-1301 USA, or see the FSF site: http://www.fsf.org.
+ */
+
+package org.gatein.wcm.services.impl;
+
+import java.util.ArrayList;
+import java.util.Iterator;
+import java.util.List;
+import java.util.Map;
+import java.util.concurrent.ArrayBlockingQueue;
+import java.util.concurrent.BlockingQueue;
+import java.util.concurrent.ConcurrentHashMap;
+import java.util.concurrent.ConcurrentMap;
+import java.util.concurrent.atomic.AtomicBoolean;
+import java.util.concurrent.atomic.AtomicLong;
+import java.util.logging.Logger;
+
+import javax.annotation.PreDestroy;
+import javax.ejb.ConcurrencyManagement;
+import javax.ejb.ConcurrencyManagementType;
+import javax.ejb.Schedule;
+import javax.ejb.Singleton;
+import javax.ejb.Startup;
+import javax.ejb.TransactionAttribute;
+import javax.ejb.TransactionAttributeType;
+import javax.inject.Inject;
+
+import org.gatein.wcm.Wcm;
+import org.gatein.wcm.WcmAuthorizationException;
+import org.gatein.wcm.WcmException;
+import org.gatein.wcm.domain.Comment;
+import org.gatein.wcm.domain.Post;
+import org.gatein.wcm.services.CommentQueue;
+import org.gatein.wcm.services.WcmService;
+
+/**
+ * Implementation of CommentQueue.
+ * Queue is local to the node, every batch is written in its own transaction by WcmService.
+ * A batch that fails is retried Comment by Comment, so a wrong Comment doesn't discard the others.
+ * Every queued Comment has a ticket, released when the Comment is written, discarded or fails.
+ *
+ * @author <a href="mailto:lponce@redhat.com">Lucas Ponce</a>
+ */
+@Singleton
+@Startup
+@ConcurrencyManagement(ConcurrencyManagementType.BEAN)
+@TransactionAttribute(TransactionAttributeType.NOT_SUPPORTED)
+public class CommentQueueImpl implements CommentQueue {
+
+    private static final Logger log = Logger.getLogger(CommentQueueImpl.class.getName());
+
+    @Inject
+    WcmService wcm;
+
+    private final BlockingQueue<Queued> queue = new ArrayBlockingQueue<Queued>(Wcm.COMMENTS.QUEUE);
+    private final AtomicBoolean running = new AtomicBoolean(false);
+
+    /*
+     * Tickets of queued Comments and their expiration time
+     */
+    private final ConcurrentMap<Long, Long> tickets = new ConcurrentHashMap<Long, Long>();
+    private final AtomicLong nextTicket = new AtomicLong(System.currentTimeMillis());
+
+    /**
+     * @see CommentQueue#add(org.gatein.wcm.domain.Post, org.gatein.wcm.domain.Comment)
+     */
+    @Override
+    public Long add(Post post, Comment comment) throws WcmAuthorizationException, WcmException {
+        if (post == null || comment == null || post.getId() == null) return null;
+        if (post.getCommentsStatus().equals(Wcm.COMMENTS.NO_COMMENTS)) {
+            throw new WcmAuthorizationException("Post: " + post + " has not COMMENTS enabled ");
+        }
+        comment.setPost(post);
+        Long ticket = nextTicket.incrementAndGet();
+        tickets.put(ticket, System.currentTimeMillis() + Wcm.COMMENTS.PENDING * 1000l);
+        if (!queue.offer(new Queued(ticket, comment))) {
+            tickets.remove(ticket);
+            // Back-pressure: queue is full, request thread writes its own Comment
+            wcm.add(post, comment);
+            return null;
+        }
+        return ticket;
+    }
+
+    /**
+     * @see CommentQueue#isPending(Long)
+     */
+    @Override
+    public boolean isPending(Long ticket) {
+        if (ticket == null) return false;
+        Long expires = tickets.get(ticket);
+        if (expires == null) return false;
+        if (expires < System.currentTimeMillis()) {
+            tickets.remove(ticket);
+            return false;
+        }
+        return true;
+    }
+
+    /**
+     * @see CommentQueue#flush()
+     */
+    @Override
+    public void flush() {
+        if (!running.compareAndSet(false, true)) return;
+        try {
+            List<Queued> batch = new ArrayList<Queued>(Wcm.COMMENTS.BATCH);
+            while (queue.drainTo(batch, Wcm.COMMENTS.BATCH) > 0) {
+                write(batch);
+                batch.clear();
+            }
+            expire();
+        } finally {
+            running.set(false);
+        }
+    }
+
+    @Schedule(hour = "*", minute = "*", second = "*/5", persistent = false)
+    void timeout() {
+        flush();
+    }
+
+    @PreDestroy
+    void stop() {
+        flush();
+    }
+
+    /*
+     * Tickets are released when their batch is done, also for Comments discarded or not written
+     */
+    private void write(List<Queued> batch) {
+        List<Comment> comments = new ArrayList<Comment>(batch.size());
+        for (Queued q : batch) {
+            comments.add(q.comment);
+        }
+        try {
+            wcm.add(comments);
+        } catch (Exception e) {
+            log.warning("Error writing " + batch.size() + " comments in batch, writing them one by one.");
+            for (Comment c : comments) {
+                // Ids assigned in the rolled back transaction are not valid
+                c.setId(null);
+                try {
+                    wcm.add(c.getPost(), c);
+                } catch (Exception ex) {
+                    log.warning("Comment from " + c.getAuthor() + " on Post " + c.getPost().getId() + " cannot be written: " + ex.getMessage());
+                }
+            }
+        } finally {
+            for (Queued q : batch) {
+                tickets.remove(q.ticket);
+            }
+        }
+    }
+
+    private void expire() {
+        long now = System.currentTimeMillis();
+        Iterator<Map.Entry<Long, Long>> it = tickets.entrySet().iterator();
+        while (it.hasNext()) {
+            if (it.next().getValue() < now) it.remove();
+        }
+    }
+
+    private static class Queued {
+        final Long ticket;
+        final Comment comment;
+
+        Queued(Long ticket, Comment comment) {
+            this.ticket = ticket;
+            this.comment = comment;
+        }
+    }
+}
@@ -0,0 +1,610 @@
+/*
+ * JBoss, a division of Red Hat
+ * Copyright 2010, Red Hat Middleware, LLC, and individual
+ * contributors as indicated by the @authors tag. See the
+ * copyright.txt in the distribution for a full listing of
+ * individual contributors.
+ *
+ * This is free software; you can redistribute it and/or modify it
+ * under the terms of the GNU Lesser General Public License as
+ * published by the Free Software Foundation; either version 2.1 of
+ * the License, or (at your option) any later version.
+ *
+ * This software is distributed in the hope that it will be useful,
+ * but WITHOUT ANY WARRANTY; without even the implied warranty of
+ * MERCHANTABILITY or FITNESS FOR A PARTICULAR PURPOSE. See the GNU
+ * Lesser General Public License for more details.
+ *
+ * You should have received a copy of the GNU Lesser General Public
+ * License along with this software; if not, write to the Free
+ * Software Foundation, Inc., 51 Franklin St, Fifth Floor, Boston, MA
+ * 02110-1301 USA, or see the FSF site: http://www.fsf.org.
+ */
+
+package org.gatein.wcm.services.impl;
+
+import java.io.BufferedOutputStream;
+import java.io.File;
+import java.io.FileOutputStream;
+import java.text.SimpleDateFormat;
+import java.util.ArrayList;
+import java.util.Calendar;
+import java.util.List;
+import java.util.Properties;
+import java.util.logging.Logger;
+import java.util.zip.ZipEntry;
+import java.util.zip.ZipOutputStream;
+
+import javax.annotation.Resource;
+import javax.ejb.Schedule;
+import javax.ejb.SessionContext;
+import javax.ejb.Stateless;
+import javax.ejb.TransactionAttribute;
+import javax.ejb.TransactionAttributeType;
+import javax.inject.Inject;
+import javax.persistence.EntityManager;
+import javax.persistence.PersistenceContext;
+import javax.transaction.Status;
+import javax.transaction.Synchronization;
+import javax.transaction.TransactionSynchronizationRegistry;
+
+import org.gatein.wcm.Wcm;
+import org.gatein.wcm.WcmException;
+import org.gatein.wcm.domain.PostHistory;
+import org.gatein.wcm.domain.PostHistoryPK;
+import org.gatein.wcm.domain.TemplateHistory;
+import org.gatein.wcm.domain.UploadHistory;
+import org.gatein.wcm.services.HistoryService;
+import org.gatein.wcm.services.LockCoordinator;
+
+/**
+ * Implementation of HistoryService.
+ * Versions are stored as reverse deltas: newest version in history keeps full content and older ones
+ * are rebuilt applying deltas from the nearest newer snapshot.
+ * Versions archived out of order keep full content, so existing deltas never change their base.
+ * A timer prunes versions following retention policies defined in Wcm.HISTORY.
+ *
+ * @see RetentionPolicy
+ *
+ * @author <a href="mailto:lponce@redhat.com">Lucas Ponce</a>
+ */
+@Stateless
+public class HistoryServiceImpl implements HistoryService {
+
+    private static final Logger log = Logger.getLogger(HistoryServiceImpl.class.getName());
+
+    @PersistenceContext
+    EntityManager em;
+
+    @Inject
+    LockCoordinator locks;
+
+    @Resource
+    SessionContext context;
+
+    @Resource
+    TransactionSynchronizationRegistry transactions;
+
+    /**
+     * @see HistoryService#archive(org.gatein.wcm.domain.PostHistory)
+     */
+    @Override
+    public void archive(PostHistory version) throws WcmException {
+        if (version == null || version.getId() == null || version.getVersion() == null) return;
+        try {
+            List<PostHistory> previous = em.createNamedQuery("listPostHistoryBefore")
+                    .setParameter("postid", version.getId())
+                    .setParameter("version", version.getVersion())
+                    .setMaxResults(1)
+                    .getResultList();
+            List<PostHistory> next = em.createNamedQuery("listPostHistoryAfter")
+                    .setParameter("postid", version.getId())
+                    .setParameter("version", version.getVersion())
+                    .setMaxResults(1)
+                    .getResultList();
+            PostHistory prev = previous.size() == 1 ? previous.get(0) : null;
+            // A version archived between existing ones (i.e. after a revert) is stored as full content
+            // and previous version is rebuilt before its delta base changes
+            PostHistory prevFull = null;
+            if (prev != null && !next.isEmpty() && isDelta(prev)) {
+                prevFull = findPostVersion(prev.getId(), prev.getVersion());
+            }
+            version.setDelta(false);
+            em.persist(version);
+            if (prev != null) {
+                String prevContent = prevFull != null ? prevFull.getContent() : prev.getContent();
+                String prevExcerpt = prevFull != null ? prevFull.getExcerpt() : prev.getExcerpt();
+                if (isSnapshot(prev)) {
+                    prev.setContent(prevContent);
+                    prev.setExcerpt(prevExcerpt);
+                    prev.setDelta(false);
+                } else if (!isDelta(prev) || prevFull != null) {
+                    encode(prev, prevContent, prevExcerpt, version.getContent(), version.getExcerpt());
+                }
+            }
+        } catch (Exception e) {
+            throw new WcmException(e);
+        }
+    }
+
+    /**
+     * @see HistoryService#findPostVersion(Long, Long)
+     */
+    @Override
+    public PostHistory findPostVersion(Long postId, Long version) throws WcmException {
+        if (postId == null || version == null) return null;
+        try {
+            PostHistoryPK pk = new PostHistoryPK();
+            pk.setId(postId);
+            pk.setVersion(version);
+            PostHistory postH = em.find(PostHistory.class, pk);
+            if (postH == null) return null;
+            PostHistory result = copy(postH);
+            if (!isDelta(postH)) return result;
+
+            Long snapshot = (Long)em.createNamedQuery("snapshotPostHistory")
+                    .setParameter("postid", postId)
+                    .setParameter("version", version)
+                    .getSingleResult();
+            if (snapshot == null) {
+                throw new WcmException("History of Post " + postId + " has not snapshot after version " + version);
+            }
+            List<PostHistory> chain = em.createNamedQuery("listPostHistoryChain")
+                    .setParameter("postid", postId)
+                    .setParameter("version", version)
+                    .setParameter("snapshot", snapshot)
+                    .getResultList();
+            String content = null;
+            String excerpt = null;
+            for (PostHistory ph : chain) {
+                if (!isDelta(ph)) {
+                    content = ph.getContent();
+                    excerpt = ph.getExcerpt();
+                } else {
+                    content = TextDelta.apply(content, ph.getContent());
+                    excerpt = TextDelta.apply(excerpt, ph.getExcerpt());
+                }
+            }
+            result.setContent(TextDelta.apply(content, postH.getContent()));
+            result.setExcerpt(TextDelta.apply(excerpt, postH.getExcerpt()));
+            result.setDelta(false);
+            return result;
+        } catch (WcmException e) {
+            throw e;
+        } catch (Exception e) {
+            throw new WcmException(e);
+        }
+    }
+
+    /**
+     * @see HistoryService#findPostsWithHistory()
+     */
+    @Override
+    public List<Long> findPostsWithHistory() throws WcmException {
+        try {
+            List<Long> result = em.createNamedQuery("listPostsHistory")
+                    .getResultList();
+            return result;
+        } catch (Exception e) {
+            throw new WcmException(e);
+        }
+    }
+
+    /**
+     * @see HistoryService#compactPost(Long)
+     */
+    @Override
+    @TransactionAttribute(TransactionAttributeType.REQUIRES_NEW)
+    public int compactPost(Long postId) throws WcmException {
+        if (postId == null) return 0;
+        try {
+            List<PostHistory> versions = em.createNamedQuery("listPostHistory")
+                    .setParameter("postid", postId)
+                    .getResultList();
+            List<String> contents = new ArrayList<String>(versions.size());
+            List<String> excerpts = new ArrayList<String>(versions.size());
+            decode(versions, contents, excerpts);
+            int encoded = encode(versions, contents, excerpts);
+            if (encoded > 0) {
+                log.info("Post " + postId + ": compacted " + encoded + " of " + versions.size() + " versions in history");
+            }
+            return encoded;
+        } catch (Exception e) {
+            throw new WcmException(e);
+        }
+    }
+
+    /**
+     * @see HistoryService#prunePost(Long)
+     */
+    @Override
+    @TransactionAttribute(TransactionAttributeType.REQUIRES_NEW)
+    public int prunePost(Long postId) throws WcmException {
+        if (postId == null || !RetentionPolicy.POSTS.isEnabled()) return 0;
+        try {
+            List<PostHistory> versions = em.createNamedQuery("listPostHistory")
+                    .setParameter("postid", postId)
+                    .getResultList();
+            List<Calendar> dates = new ArrayList<Calendar>(versions.size());
+            List<Long> numbers = new ArrayList<Long>(versions.size());
+            for (PostHistory ph : versions) {
+                dates.add(ph.getModified());
+                numbers.add(ph.getVersion());
+            }
+            boolean[] keep = limit(RetentionPolicy.POSTS.retain(dates, Calendar.getInstance()));
+            current(keep, numbers, liveVersion("currentPostVersion", postId));
+            bases(keep, versions);
+            if (!pruned(keep)) return 0;
+
+            List<String> contents = new ArrayList<String>(versions.size());
+            List<String> excerpts = new ArrayList<String>(versions.size());
+            decode(versions, contents, excerpts);
+
+            List<PostHistory> kept = new ArrayList<PostHistory>();
+            List<String> keptContents = new ArrayList<String>();
+            List<String> keptExcerpts = new ArrayList<String>();
+            List<Properties> archived = new ArrayList<Properties>();
+            for (int i = 0; i < versions.size(); i++) {
+                PostHistory ph = versions.get(i);
+                if (keep[i]) {
+                    kept.add(ph);
+                    keptContents.add(contents.get(i));
+                    keptExcerpts.add(excerpts.get(i));
+                } else {
+                    Properties version = properties(ph.getId(), ph.getVersion(), ph.getCreated(), ph.getModified(), ph.getDeleted());
+                    put(version, "author", ph.getAuthor());
+                    put(version, "title", ph.getTitle());
+                    put(version, "locale", ph.getLocale());
+                    put(version, "status", ph.getPostStatus());
+                    put(version, "content", contents.get(i));
+                    put(version, "excerpt", excerpts.get(i));
+                    archived.add(version);
+                    em.remove(ph);
+                }
+            }
+            archive("post-" + postId, archived);
+            // Deltas of kept versions are rebuilt against the next kept version
+            encode(kept, keptContents, keptExcerpts);
+            return archived.size();
+        } catch (Exception e) {
+            throw new WcmException(e);
+        }
+    }
+
+    /**
+     * @see HistoryService#pruneUpload(Long)
+     */
+    @Override
+    @TransactionAttribute(TransactionAttributeType.REQUIRES_NEW)
+    public int pruneUpload(Long uploadId) throws WcmException {
+        if (uploadId == null || !RetentionPolicy.UPLOADS.isEnabled()) return 0;
+        try {
+            List<UploadHistory> versions = em.createNamedQuery("listUploadHistory")
+                    .setParameter("uploadid", uploadId)
+                    .getResultList();
+            List<Calendar> dates = new ArrayList<Calendar>(versions.size());
+            List<Long> numbers = new ArrayList<Long>(versions.size());
+            for (UploadHistory uh : versions) {
+                dates.add(uh.getModified());
+                numbers.add(uh.getVersion());
+            }
+            boolean[] keep = limit(RetentionPolicy.UPLOADS.retain(dates, Calendar.getInstance()));
+            current(keep, numbers, liveVersion("currentUploadVersion", uploadId));
+            List<Properties> archived = new ArrayList<Properties>();
+            for (int i = 0; i < versions.size(); i++) {
+                if (keep[i]) continue;
+                UploadHistory uh = versions.get(i);
+                Properties version = properties(uh.getId(), uh.getVersion(), uh.getCreated(), uh.getModified(), uh.getDeleted());
+                put(version, "user", uh.getUser());
+                put(version, "fileName", uh.getFileName());
+                put(version, "storedName", uh.getStoredName());
+                put(version, "mimeType", uh.getMimeType());
+                put(version, "description", uh.getDescription());
+                archived.add(version);
+                em.remove(uh);
+            }
+            archive("upload-" + uploadId, archived);
+            return archived.size();
+        } catch (Exception e) {
+            throw new WcmException(e);
+        }
+    }
+
+    /**
+     * @see HistoryService#pruneTemplate(Long)
+     */
+    @Override
+    @TransactionAttribute(TransactionAttributeType.REQUIRES_NEW)
+    public int pruneTemplate(Long templateId) throws WcmException {
+        if (templateId == null || !RetentionPolicy.TEMPLATES.isEnabled()) return 0;
+        try {
+            List<TemplateHistory> versions = em.createNamedQuery("listTemplateHistory")
+                    .setParameter("templateid", templateId)
+                    .getResultList();
+            List<Calendar> dates = new ArrayList<Calendar>(versions.size());
+            List<Long> numbers = new ArrayList<Long>(versions.size());
+            for (TemplateHistory th : versions) {
+                dates.add(th.getModified());
+                numbers.add(th.getVersion());
+            }
+            boolean[] keep = limit(RetentionPolicy.TEMPLATES.retain(dates, Calendar.getInstance()));
+            current(keep, numbers, liveVersion("currentTemplateVersion", templateId));
+            List<Properties> archived = new ArrayList<Properties>();
+            for (int i = 0; i < versions.size(); i++) {
+                if (keep[i]) continue;
+                TemplateHistory th = versions.get(i);
+                Properties version = properties(th.getId(), th.getVersion(), th.getCreated(), th.getModified(), th.getDeleted());
+                put(version, "user", th.getUser());
+                put(version, "name", th.getName());
+                put(version, "locale", th.getLocale());
+                put(version, "content", th.getContent());
+                archived.add(version);
+                em.remove(th);
+            }
+            archive("template-" + templateId, archived);
+            return archived.size();
+        } catch (Exception e) {
+            throw new WcmException(e);
+        }
+    }
+
+    /*
+     * Applies retention policies to history.
+     * In a cluster only the node owning the retention lease prunes history.
+     * Every item is pruned in transactions of at most Wcm.HISTORY.BATCH versions.
+     */
+    @Schedule(hour = "*", minute = "30")
+    void applyRetention() {
+        if (!RetentionPolicy.POSTS.isEnabled() && !RetentionPolicy.UPLOADS.isEnabled() && !RetentionPolicy.TEMPLATES.isEnabled()) return;
+        try {
+            if (!locks.lease(Wcm.CLUSTER.RETENTION, Wcm.CLUSTER.LEASE)) return;
+        } catch (Exception e) {
+            log.fine("Node " + locks.getNode() + " could not acquire lease " + Wcm.CLUSTER.RETENTION);
+            return;
+        }
+        try {
+            long start = System.currentTimeMillis();
+            HistoryService history = context.getBusinessObject(HistoryService.class);
+            int posts = 0, uploads = 0, templates = 0;
+            int pruned;
+            if (RetentionPolicy.POSTS.isEnabled()) {
+                for (Long id : findPostsWithHistory()) {
+                    do {
+                        pruned = history.prunePost(id);
+                        posts += pruned;
+                    } while (pruned >= Wcm.HISTORY.BATCH);
+                }
+            }
+            if (RetentionPolicy.UPLOADS.isEnabled()) {
+                List<Long> ids = em.createNamedQuery("listUploadsHistory").getResultList();
+                for (Long id : ids) {
+                    do {
+                        pruned = history.pruneUpload(id);
+                        uploads += pruned;
+                    } while (pruned >= Wcm.HISTORY.BATCH);
+                }
+            }
+            if (RetentionPolicy.TEMPLATES.isEnabled()) {
+                List<Long> ids = em.createNamedQuery("listTemplatesHistory").getResultList();
+                for (Long id : ids) {
+                    do {
+                        pruned = history.pruneTemplate(id);
+                        templates += pruned;
+                    } while (pruned >= Wcm.HISTORY.BATCH);
+                }
+            }
+            log.info("History retention pruned " + posts + " Post versions, " + uploads + " Upload versions and " +
+                    templates + " Template versions in " + (System.currentTimeMillis() - start) + " ms");
+        } catch (Exception e) {
+            log.warning("Error applying history retention");
+            e.printStackTrace();
+        }
+    }
+
+    /*
+     * Rebuilds full content of versions, newest version first.
+     */
+    private void decode(List<PostHistory> versions, List<String> contents, List<String> excerpts) {
+        String content = null;
+        String excerpt = null;
+        for (PostHistory ph : versions) {
+            if (!isDelta(ph)) {
+                content = ph.getContent();
+                excerpt = ph.getExcerpt();
+            } else {
+                content = TextDelta.apply(content, ph.getContent());
+                excerpt = TextDelta.apply(excerpt, ph.getExcerpt());
+            }
+            contents.add(content);
+            excerpts.add(excerpt);
+        }
+    }
+
+    /*
+     * Encodes versions, newest version first, as deltas against next version.
+     * Newest version and snapshots keep full content, chains of deltas are not longer than Wcm.HISTORY.SNAPSHOTS.
+     */
+    private int encode(List<PostHistory> versions, List<String> contents, List<String> excerpts) {
+        int encoded = 0;
+        int chain = 0;
+        for (int i = 0; i < versions.size(); i++) {
+            PostHistory ph = versions.get(i);
+            if (i == 0 || isSnapshot(ph) || chain >= Wcm.HISTORY.SNAPSHOTS - 1) {
+                if (isDelta(ph)) {
+                    ph.setContent(contents.get(i));
+                    ph.setExcerpt(excerpts.get(i));
+                    ph.setDelta(false);
+                }
+                chain = 0;
+            } else if (encode(ph, contents.get(i), excerpts.get(i), contents.get(i - 1), excerpts.get(i - 1))) {
+                encoded++;
+                chain++;
+            } else {
+                chain = 0;
+            }
+        }
+        return encoded;
+    }
+
+    /*
+     * Limits versions pruned in a transaction to Wcm.HISTORY.BATCH, oldest versions first.
+     */
+    private boolean[] limit(boolean[] keep) {
+        int pruned = 0;
+        for (int i = keep.length - 1; i >= 0; i--) {
+            if (!keep[i]) {
+                if (pruned < Wcm.HISTORY.BATCH) {
+                    pruned++;
+                } else {
+                    keep[i] = true;
+                }
+            }
+        }
+        return keep;
+    }
+
+    /*
+     * Current version of the live item is never pruned, even if it is older than retention policy.
+     */
+    private void current(boolean[] keep, List<Long> versions, Long live) {
+        if (live == null) return;
+        for (int i = 0; i < versions.size(); i++) {
+            if (live.equals(versions.get(i))) keep[i] = true;
+        }
+    }
+
+    private Long liveVersion(String query, Long id) {
+        List<Long> result = em.createNamedQuery(query)
+                .setParameter("id", id)
+                .getResultList();
+        return result.isEmpty() ? null : result.get(0);
+    }
+
+    /*
+     * Base of a kept delta is never pruned, a delta is stored against next newer version.
+     * Versions are iterated oldest first so a chain of deltas keeps all its bases up to the snapshot.
+     */
+    private void bases(boolean[] keep, List<PostHistory> versions) {
+        for (int i = versions.size() - 1; i > 0; i--) {
+            if (keep[i] && isDelta(versions.get(i))) keep[i - 1] = true;
+        }
+    }
+
+    private boolean pruned(boolean[] keep) {
+        for (boolean k : keep) {
+            if (!k) return true;
+        }
+        return false;
+    }
+
+    private Properties properties(Long id, Long version, Calendar created, Calendar modified, Calendar deleted) {
+        SimpleDateFormat format = new SimpleDateFormat("yyyy-MM-dd'T'HH:mm:ss.SSSZ");
+        Properties p = new Properties();
+        put(p, "id", id);
+        put(p, "version", version);
+        put(p, "created", created == null ? null : format.format(created.getTime()));
+        put(p, "modified", modified == null ? null : format.format(modified.getTime()));
+        put(p, "deleted", deleted == null ? null : format.format(deleted.getTime()));
+        return p;
+    }
+
+    private void put(Properties p, String key, Object value) {
+        if (value != null) p.setProperty(key, value.toString());
+    }
+
+    /*
+     * Archives pruned versions once current transaction has committed, a rolled back prune doesn't leave
+     * versions in the archive that are still in history.
+     */
+    private void archive(final String name, final List<Properties> versions) {
+        if (versions.isEmpty() || System.getProperty(Wcm.HISTORY.ARCHIVE) == null) return;
+        transactions.registerInterposedSynchronization(new Synchronization() {
+            @Override
+            public void beforeCompletion() {
+            }
+
+            @Override
+            public void afterCompletion(int status) {
+                if (status != Status.STATUS_COMMITTED) return;
+                try {
+                    write(name, versions);
+                } catch (Exception e) {
+                    log.severe("Error archiving " + versions.size() + " pruned versions of " + name);
+                    e.printStackTrace();
+                }
+            }
+        });
+    }
+
+    /*
+     * Archives pruned versions in a zip file under Wcm.HISTORY.ARCHIVE folder, one entry per version.
+     */
+    private void write(String name, List<Properties> versions) throws Exception {
+        String folder = System.getProperty(Wcm.HISTORY.ARCHIVE);
+        if (folder == null || versions.isEmpty()) return;
+        File dir = new File(folder);
+        if (!dir.exists() && !dir.mkdirs()) {
+            throw new WcmException("Cannot create dir: " + folder);
+        }
+        File file = new File(dir, name + "-" + System.currentTimeMillis() + ".zip");
+        ZipOutputStream zip = new ZipOutputStream(new BufferedOutputStream(new FileOutputStream(file)));
+        try {
+            for (Properties version : versions) {
+                zip.putNextEntry(new ZipEntry(version.getProperty("version") + ".properties"));
+                version.store(zip, name + " version " + version.getProperty("version"));
+                zip.closeEntry();
+            }
+        } finally {
+            zip.close();
+        }
+    }
+
+    /*
+     * Stores content and excerpt of version as delta against next version if delta is shorter.
+     */
+    private boolean encode(PostHistory version, String content, String excerpt, String nextContent, String nextExcerpt) {
+        String deltaContent = TextDelta.encode(nextContent, content);
+        String deltaExcerpt = TextDelta.encode(nextExcerpt, excerpt);
+        if (length(deltaContent) + length(deltaExcerpt) >= length(content) + length(excerpt)) {
+            version.setContent(content);
+            version.setExcerpt(excerpt);
+            version.setDelta(false);
+            return false;
+        }
+        version.setContent(deltaContent);
+        version.setExcerpt(deltaExcerpt);
+        version.setDelta(true);
+        return true;
+    }
+
+    private boolean isDelta(PostHistory version) {
+        return version.getDelta() != null && version.getDelta();
+    }
+
+    private boolean isSnapshot(PostHistory version) {
+        return version.getVersion() % Wcm.HISTORY.SNAPSHOTS == 0;
+    }
+
+    private int length(String text) {
+        return text == null ? 0 : text.length();
+    }
+
+    private PostHistory copy(PostHistory postH) {
+        PostHistory copy = new PostHistory();
+        copy.setId(postH.getId());
+        copy.setVersion(postH.getVersion());
+        copy.setAuthor(postH.getAuthor());
+        copy.setCreated(postH.getCreated());
+        copy.setContent(postH.getContent());
+        copy.setTitle(postH.getTitle());
+        copy.setExcerpt(postH.getExcerpt());
+        copy.setPostStatus(postH.getPostStatus());
+        copy.setName(postH.getName());
+        copy.setModified(postH.getModified());
+        copy.setDeleted(postH.getDeleted());
+        copy.setGroup(postH.getGroup());
+        copy.setLocale(postH.getLocale());
+        copy.setDelta(postH.getDelta());
+        return copy;
+    }
+}
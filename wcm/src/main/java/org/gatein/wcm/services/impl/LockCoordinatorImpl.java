@@ -0,0 +1,382 @@
+/*
+ * JBoss, a division of Red Hat
+ * Copyright 2010, Red Hat Middleware, LLC, and individual
+ * contributors as indicated by the @authors tag. See the
+ * copyright.txt in the distribution for a full listing of
+ * individual contributors.
+ *
+ * This is free software; you can redistribute it and/or modify it
+ * under the terms of the GNU Lesser General Public License as
+ * published by the Free Software Foundation; either version 2.1 of
+ * the License, or (at your option) any later version.
+ *
+ * This software is distributed in the hope that it will be useful,
+ * but WITHOUT ANY WARRANTY; without even the implied warranty of
+ * MERCHANTABILITY or FITNESS FOR A PARTICULAR PURPOSE. See the GNU
+ * Lesser General Public License for more details.
+ *
+ * You should have received a copy of the GNU Lesser General Public
+ * License along with this software; if not, write to the Free
+ * Software Foundation, Inc., 51 Franklin St, Fifth Floor, Boston, MA
+ * 02110-1301 USA, or see the FSF site: http://www.fsf.org.
+ */
+
+package org.gatein.wcm.services.impl;
+
+import java.util.Calendar;
+import java.util.List;
+import java.util.concurrent.ConcurrentHashMap;
+import java.util.concurrent.ConcurrentMap;
+import java.util.logging.Logger;
+
+import javax.annotation.Resource;
+import javax.ejb.Stateless;
+import javax.ejb.TransactionAttribute;
+import javax.ejb.TransactionAttributeType;
+import javax.persistence.EntityManager;
+import javax.persistence.PersistenceContext;
+import javax.persistence.PersistenceException;
+import javax.transaction.Status;
+import javax.transaction.Synchronization;
+import javax.transaction.TransactionSynchronizationRegistry;
+
+import org.gatein.wcm.Wcm;
+import org.gatein.wcm.WcmException;
+import org.gatein.wcm.WcmLockException;
+import org.gatein.wcm.domain.Lease;
+import org.gatein.wcm.domain.Lock;
+import org.gatein.wcm.domain.LockPK;
+import org.gatein.wcm.domain.UserWcm;
+import org.gatein.wcm.portlet.util.ParseDates;
+import org.gatein.wcm.services.LockCoordinator;
+
+/**
+ * Database lease implementation of LockCoordinator.
+ * Locks held in a node are kept in a node local map, a holder renews its Lock in database only
+ * when half of Wcm.TIMEOUTS.LOCKS has passed since last renewal.
+ * The map is updated after commit, so a rolled back acquire or renewal is never seen as held.
+ * Several nodes can be tested in the same JVM creating instances with different node names over same database.
+ *
+ * @author <a href="mailto:lponce@redhat.com">Lucas Ponce</a>
+ */
+@Stateless
+public class LockCoordinatorImpl implements LockCoordinator {
+
+    private static final Logger log = Logger.getLogger(LockCoordinatorImpl.class.getName());
+
+    /*
+     * Locks held by users, by node
+     */
+    private static final ConcurrentMap<String, Lock> held = new ConcurrentHashMap<String, Lock>();
+
+    @PersistenceContext
+    EntityManager em;
+
+    @Resource
+    TransactionSynchronizationRegistry transactions;
+
+    private String node;
+
+    public LockCoordinatorImpl() {
+        this.node = Wcm.CLUSTER.NODE;
+    }
+
+    LockCoordinatorImpl(String node, EntityManager em) {
+        this.node = node;
+        this.em = em;
+    }
+
+    /**
+     * @see LockCoordinator#acquire(Long, Character, org.gatein.wcm.domain.UserWcm)
+     */
+    @Override
+    public Lock acquire(Long originId, Character type, UserWcm user) throws WcmLockException, WcmException {
+        if (originId == null || type == null || user == null) {
+            throw new WcmException("Illegal acquire() invocation");
+        }
+        String key = key(originId, type);
+        Calendar now = Calendar.getInstance();
+        try {
+            Lock lock = held.get(key);
+            if (lock != null && lock.getUsername().equals(user.getUsername())) {
+                if (!expired(lock, now, Wcm.TIMEOUTS.LOCKS * 30)) {
+                    return lock;
+                }
+                int renewed = em.createNamedQuery("renewLock")
+                        .setParameter("created", now)
+                        .setParameter("originid", originId)
+                        .setParameter("type", type)
+                        .setParameter("token", lock.getToken())
+                        .executeUpdate();
+                if (renewed > 0) {
+                    lock = copy(lock);
+                    lock.setCreated(now);
+                    hold(key, lock);
+                    return lock;
+                }
+                held.remove(key);
+            }
+            lock = em.find(Lock.class, pk(originId, type));
+            if (lock != null && !lock.getUsername().equals(user.getUsername())) {
+                held.remove(key);
+                String msg = "Lock for ";
+                if (type.equals(Wcm.LOCK.POST)) {
+                    msg += " Post ID " + originId;
+                } else if (type.equals(Wcm.LOCK.CATEGORY)) {
+                    msg += " Category ID " + originId;
+                } else if (type.equals(Wcm.LOCK.UPLOAD)) {
+                    msg += " Upload ID " + originId;
+                } else if (type.equals(Wcm.LOCK.TEMPLATE)) {
+                    msg += " Template ID " + originId;
+                }
+                msg += " by user: " + lock.getUsername() + " at " + ParseDates.parse(lock.getCreated());
+                throw new WcmLockException(msg);
+            }
+            if (lock == null) {
+                lock = new Lock();
+                lock.setOriginId(originId);
+                lock.setType(type);
+                lock.setUsername(user.getUsername());
+                lock.setToken(nextToken());
+                lock.setNode(node);
+                lock.setCreated(now);
+                em.persist(lock);
+            } else {
+                lock.setNode(node);
+                lock.setCreated(now);
+            }
+            hold(key, copy(lock));
+            return lock;
+        } catch (WcmLockException e) {
+            throw new WcmLockException(e.getMessage());
+        } catch (Exception e) {
+            throw new WcmException(e);
+        }
+    }
+
+    /**
+     * @see LockCoordinator#release(Long, Character, org.gatein.wcm.domain.UserWcm)
+     */
+    @Override
+    public void release(Long originId, Character type, UserWcm user) throws WcmLockException, WcmException {
+        if (originId == null || type == null || user == null) {
+            throw new WcmException("Illegal release() invocation");
+        }
+        try {
+            Lock lock = em.find(Lock.class, pk(originId, type));
+            if (lock != null) {
+                if (lock.getUsername().equals(user.getUsername())) {
+                    held.remove(key(originId, type));
+                    em.remove(lock);
+                } else {
+                    // This exception can be raised if an admin or scheduler deletes a lock and user tries to unlock a different one
+                    throw new WcmLockException("Lock only can be unlocked by admin or user: " + lock.getUsername());
+                }
+            } else {
+                held.remove(key(originId, type));
+            }
+        } catch (WcmLockException e) {
+            throw new WcmLockException(e.getMessage());
+        } catch (Exception e) {
+            throw new WcmException(e);
+        }
+    }
+
+    /**
+     * @see LockCoordinator#remove(Long, Character)
+     */
+    @Override
+    public void remove(Long originId, Character type) throws WcmException {
+        if (originId == null || type == null) {
+            throw new WcmException("Illegal remove() invocation");
+        }
+        try {
+            held.remove(key(originId, type));
+            Lock lock = em.find(Lock.class, pk(originId, type));
+            if (lock != null) {
+                em.remove(lock);
+            }
+        } catch (Exception e) {
+            throw new WcmException(e);
+        }
+    }
+
+    /**
+     * @see LockCoordinator#fence(Long, Character, org.gatein.wcm.domain.UserWcm)
+     */
+    @Override
+    public void fence(Long originId, Character type, UserWcm user) throws WcmLockException, WcmException {
+        if (originId == null || type == null || user == null) return;
+        String key = key(originId, type);
+        Lock lock = held.get(key);
+        try {
+            Lock current = em.find(Lock.class, pk(originId, type));
+            if (lock == null || !lock.getUsername().equals(user.getUsername())) {
+                // Not held in this node by user, write is accepted unless a different user holds the item
+                if (current != null && !current.getUsername().equals(user.getUsername())) {
+                    throw new WcmLockException("Item is locked by user: " + current.getUsername() + " with token " + current.getToken() +
+                            " at " + ParseDates.parse(current.getCreated()));
+                }
+                return;
+            }
+            // Lease of the holder has expired or has been removed, a different user could have written the item meanwhile
+            if (current == null) {
+                held.remove(key);
+                throw new WcmLockException("Lock with token " + lock.getToken() + " has expired or has been removed");
+            }
+            if (current.getToken() != null && !current.getToken().equals(lock.getToken())) {
+                held.remove(key);
+                throw new WcmLockException("Lock with token " + lock.getToken() + " has been superseded by user: " + current.getUsername() +
+                        " with token " + current.getToken() + " at " + ParseDates.parse(current.getCreated()));
+            }
+        } catch (WcmLockException e) {
+            throw new WcmLockException(e.getMessage());
+        } catch (Exception e) {
+            throw new WcmException(e);
+        }
+    }
+
+    /**
+     * @see LockCoordinator#lease(String, int)
+     */
+    @Override
+    @TransactionAttribute(TransactionAttributeType.REQUIRES_NEW)
+    public boolean lease(String name, int seconds) throws WcmException {
+        if (name == null) {
+            throw new WcmException("Illegal lease() invocation");
+        }
+        try {
+            Calendar now = Calendar.getInstance();
+            Calendar expires = (Calendar)now.clone();
+            expires.add(Calendar.SECOND, seconds);
+            int acquired = em.createNamedQuery("acquireLease")
+                    .setParameter("owner", node)
+                    .setParameter("expires", expires)
+                    .setParameter("name", name)
+                    .setParameter("now", now)
+                    .executeUpdate();
+            if (acquired > 0) return true;
+            if (em.find(Lease.class, name) != null) return false;
+            Lease lease = new Lease();
+            lease.setName(name);
+            lease.setOwner(node);
+            lease.setExpires(expires);
+            try {
+                em.persist(lease);
+                em.flush();
+            } catch (PersistenceException e) {
+                // Another node inserted the first row of this lease at the same time, transaction is rolled back
+                log.info("Node " + node + " lost first election of lease " + name);
+                return false;
+            }
+            log.info("Node " + node + " owns lease " + name);
+            return true;
+        } catch (Exception e) {
+            throw new WcmException(e);
+        }
+    }
+
+    /**
+     * @see LockCoordinator#expire(java.util.Calendar, int)
+     */
+    @Override
+    @TransactionAttribute(TransactionAttributeType.REQUIRES_NEW)
+    public int expire(Calendar cutoff, int max) throws WcmException {
+        if (cutoff == null || max < 1) {
+            throw new WcmException("Illegal expire() invocation");
+        }
+        try {
+            // Timestamp of last lock of the batch, using lock_created index
+            List<Calendar> last = em.createNamedQuery("listExpiredLocks")
+                    .setParameter("cutoff", cutoff)
+                    .setFirstResult(max - 1)
+                    .setMaxResults(1)
+                    .getResultList();
+            int deleted = em.createNamedQuery("deleteExpiredLocks")
+                    .setParameter("cutoff", cutoff)
+                    .setParameter("last", last.isEmpty() ? cutoff : last.get(0))
+                    .executeUpdate();
+            return deleted;
+        } catch (Exception e) {
+            throw new WcmException(e);
+        }
+    }
+
+    /**
+     * @see LockCoordinator#getNode()
+     */
+    @Override
+    public String getNode() {
+        return node;
+    }
+
+    /*
+     * Next fencing token, incremented in database to be unique between nodes.
+     */
+    private Long nextToken() {
+        int updated = em.createNamedQuery("nextLeaseToken")
+                .setParameter("name", Wcm.CLUSTER.TOKENS)
+                .executeUpdate();
+        if (updated == 0) {
+            Lease tokens = new Lease();
+            tokens.setName(Wcm.CLUSTER.TOKENS);
+            tokens.setToken(1l);
+            em.persist(tokens);
+            em.flush();
+            return tokens.getToken();
+        }
+        return (Long)em.createNamedQuery("leaseToken")
+                .setParameter("name", Wcm.CLUSTER.TOKENS)
+                .getSingleResult();
+    }
+
+    /*
+     * Stores a Lock in node's map when the transaction that acquired or renewed it is committed.
+     */
+    private void hold(final String key, final Lock lock) {
+        if (transactions == null) {
+            held.put(key, lock);
+            return;
+        }
+        transactions.registerInterposedSynchronization(new Synchronization() {
+            @Override
+            public void beforeCompletion() {
+            }
+
+            @Override
+            public void afterCompletion(int status) {
+                if (status == Status.STATUS_COMMITTED) {
+                    held.put(key, lock);
+                }
+            }
+        });
+    }
+
+    private boolean expired(Lock lock, Calendar now, int seconds) {
+        Calendar limit = (Calendar)lock.getCreated().clone();
+        limit.add(Calendar.SECOND, seconds);
+        return now.after(limit);
+    }
+
+    private String key(Long originId, Character type) {
+        return node + "/" + type + "/" + originId;
+    }
+
+    private LockPK pk(Long originId, Character type) {
+        LockPK pk = new LockPK();
+        pk.setOriginId(originId);
+        pk.setType(type);
+        return pk;
+    }
+
+    private Lock copy(Lock lock) {
+        Lock copy = new Lock();
+        copy.setOriginId(lock.getOriginId());
+        copy.setType(lock.getType());
+        copy.setUsername(lock.getUsername());
+        copy.setToken(lock.getToken());
+        copy.setNode(lock.getNode());
+        copy.setCreated((Calendar)lock.getCreated().clone());
+        return copy;
+    }
+}
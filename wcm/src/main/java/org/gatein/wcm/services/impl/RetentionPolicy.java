@@ -0,0 +1,89 @@
+/*
+ * JBoss, a division of Red Hat
+ * Copyright 2010, Red Hat Middleware, LLC, and individual
+ * contributors as indicated by the @authors tag. See the
+ * copyright.txt in the distribution for a full listing of
+ * individual contributors.
+ *
+ * This is free software; you can redistribute it and/or modify it
+ * under the terms of the GNU Lesser General Public License as
+ * published by the Free Software Foundation; either version 2.1 of
+ * the License, or (at your option) any later version.
+ *
+ * This software is distributed in the hope that it will be useful,
+ * but WITHOUT ANY WARRANTY; without even the implied warranty of
+ * MERCHANTABILITY or FITNESS FOR A PARTICULAR PURPOSE. See the GNU
+ * Lesser General Public License for more details.
+ *
+ * You should have received a copy of the GNU Lesser General Public
+ * License along with this software; if not, write to the Free
+ * Software Foundation, Inc., 51 Franklin St, Fifth Floor, Boston, MA
+ * 02110-1301 USA, or see the FSF site: http://www.fsf.org.
+ */
+
+package org.gatein.wcm.services.impl;
+
+import java.util.Calendar;
+import java.util.List;
+
+import org.gatein.wcm.Wcm;
+
+/**
+ * Retention rules for versions in history.
+ * A version is kept if it's one of the newest keepLast versions, if it was modified in last keepDays days
+ * or, when daily is enabled, if it's the last version of its day.
+ *
+ * @see org.gatein.wcm.Wcm.HISTORY
+ *
+ * @author <a href="mailto:lponce@redhat.com">Lucas Ponce</a>
+ */
+public final class RetentionPolicy {
+
+    public static final RetentionPolicy POSTS = new RetentionPolicy(Wcm.HISTORY.POSTS.KEEP_LAST, Wcm.HISTORY.POSTS.KEEP_DAYS, Wcm.HISTORY.POSTS.DAILY);
+    public static final RetentionPolicy UPLOADS = new RetentionPolicy(Wcm.HISTORY.UPLOADS.KEEP_LAST, Wcm.HISTORY.UPLOADS.KEEP_DAYS, Wcm.HISTORY.UPLOADS.DAILY);
+    public static final RetentionPolicy TEMPLATES = new RetentionPolicy(Wcm.HISTORY.TEMPLATES.KEEP_LAST, Wcm.HISTORY.TEMPLATES.KEEP_DAYS, Wcm.HISTORY.TEMPLATES.DAILY);
+
+    private final int keepLast;
+    private final int keepDays;
+    private final boolean daily;
+
+    public RetentionPolicy(int keepLast, int keepDays, boolean daily) {
+        this.keepLast = keepLast;
+        this.keepDays = keepDays;
+        this.daily = daily;
+    }
+
+    /**
+     * @return false if retention is disabled and all versions are kept
+     */
+    public boolean isEnabled() {
+        return keepLast >= 0;
+    }
+
+    /**
+     * @param modified modification dates of versions, newest version first
+     * @param now reference date
+     * @return flags of versions to keep, in same order than modified
+     */
+    public boolean[] retain(List<Calendar> modified, Calendar now) {
+        boolean[] keep = new boolean[modified.size()];
+        Calendar limit = (Calendar)now.clone();
+        limit.add(Calendar.DAY_OF_YEAR, -keepDays);
+        Calendar previous = null;
+        for (int i = 0; i < keep.length; i++) {
+            Calendar date = modified.get(i);
+            if (!isEnabled() || i < keepLast || date == null || date.after(limit)) {
+                keep[i] = true;
+            } else if (daily && (previous == null || !sameDay(previous, date))) {
+                keep[i] = true;
+            }
+            if (date != null) previous = date;
+        }
+        return keep;
+    }
+
+    private boolean sameDay(Calendar a, Calendar b) {
+        return a.get(Calendar.YEAR) == b.get(Calendar.YEAR) &&
+                a.get(Calendar.DAY_OF_YEAR) == b.get(Calendar.DAY_OF_YEAR);
+    }
+}
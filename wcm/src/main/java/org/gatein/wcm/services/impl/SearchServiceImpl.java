@@ -0,0 +1,555 @@
+/*
+ * JBoss, a division of Red Hat
+ * Copyright 2010, Red Hat Middleware, LLC, and individual
+ * contributors as indicated by the @authors tag. See the
+ * copyright.txt in the distribution for a full listing of
+ * individual contributors.
+ *
+ * This is free software; you can redistribute it and/or modify it
+ * under the terms of the GNU Lesser General Public License as
+ * published by the Free Software Foundation; either version 2.1 of
+ * the License, or (at your option) any later version.
+ *
+ * This software is distributed in the hope that it will be useful,
+ * but WITHOUT ANY WARRANTY; without even the implied warranty of
+ * MERCHANTABILITY or FITNESS FOR A PARTICULAR PURPOSE. See the GNU
+ * Lesser General Public License for more details.
+ *
+ * You should have received a copy of the GNU Lesser General Public
+ * License along with this software; if not, write to the Free
+ * Software Foundation, Inc., 51 Franklin St, Fifth Floor, Boston, MA
+ * 02110-1301 USA, or see the FSF site: http://www.fsf.org.
+ */
+
+package org.gatein.wcm.services.impl;
+
+import java.io.BufferedInputStream;
+import java.io.BufferedOutputStream;
+import java.io.File;
+import java.io.FileInputStream;
+import java.io.FileOutputStream;
+import java.io.ObjectInputStream;
+import java.io.ObjectOutputStream;
+import java.io.Serializable;
+import java.text.Normalizer;
+import java.util.ArrayList;
+import java.util.Collections;
+import java.util.Comparator;
+import java.util.HashMap;
+import java.util.HashSet;
+import java.util.List;
+import java.util.Map;
+import java.util.Set;
+import java.util.TreeMap;
+import java.util.concurrent.atomic.AtomicBoolean;
+import java.util.concurrent.locks.ReadWriteLock;
+import java.util.concurrent.locks.ReentrantReadWriteLock;
+import java.util.logging.Logger;
+import java.util.zip.GZIPInputStream;
+import java.util.zip.GZIPOutputStream;
+
+import javax.annotation.PostConstruct;
+import javax.annotation.PreDestroy;
+import javax.ejb.ConcurrencyManagement;
+import javax.ejb.ConcurrencyManagementType;
+import javax.ejb.Schedule;
+import javax.ejb.Singleton;
+import javax.ejb.Startup;
+import javax.ejb.TransactionAttribute;
+import javax.ejb.TransactionAttributeType;
+import javax.inject.Inject;
+import javax.persistence.EntityManager;
+import javax.persistence.PersistenceContext;
+
+import org.gatein.wcm.Wcm;
+import org.gatein.wcm.WcmException;
+import org.gatein.wcm.domain.Change;
+import org.gatein.wcm.services.ChangeService;
+import org.gatein.wcm.services.SearchService;
+
+/**
+ * Implementation of SearchService.
+ * Inverted index kept in memory and stored on local disk, items are ranked with BM25.
+ * A timer follows Change log to update the index, so writes done in any node are indexed in every node.
+ * If index file is missing or it's older than Wcm.CHANGES.KEEP_DAYS the index is rebuilt from database.
+ *
+ * @author <a href="mailto:lponce@redhat.com">Lucas Ponce</a>
+ */
+@Singleton
+@Startup
+@ConcurrencyManagement(ConcurrencyManagementType.BEAN)
+@TransactionAttribute(TransactionAttributeType.NOT_SUPPORTED)
+public class SearchServiceImpl implements SearchService {
+
+    private static final Logger log = Logger.getLogger(SearchServiceImpl.class.getName());
+
+    private static final String FILE = "index.bin";
+    private static final int CHUNK = 500;
+    private static final int MIN_TERM = 2;
+    private static final int MAX_TERM = 64;
+    private static final long DAY = 24L * 60 * 60 * 1000;
+    /*
+     * BM25 parameters
+     */
+    private static final double K1 = 1.2;
+    private static final double B = 0.75;
+
+    @PersistenceContext
+    EntityManager em;
+
+    @Inject
+    ChangeService changes;
+
+    private final ReadWriteLock lock = new ReentrantReadWriteLock();
+    private final AtomicBoolean running = new AtomicBoolean(false);
+    private Store store;
+    private volatile boolean dirty;
+
+    @PostConstruct
+    void start() {
+        Store loaded = load();
+        lock.writeLock().lock();
+        try {
+            store = loaded;
+        } finally {
+            lock.writeLock().unlock();
+        }
+    }
+
+    @PreDestroy
+    void stop() {
+        save();
+    }
+
+    /**
+     * @see SearchService#search(Character, String, int)
+     */
+    @Override
+    public List<Long> search(Character type, String query, int max) throws WcmException {
+        if (type == null || query == null) return null;
+        if (max <= 0 || max > Wcm.SEARCH.MAX) max = Wcm.SEARCH.MAX;
+        List<String> terms = tokens(query, false);
+        lock.readLock().lock();
+        try {
+            if (store == null) return null;
+            Index index = store.indexes.get(type);
+            if (index == null || terms.isEmpty()) return new ArrayList<Long>();
+            Map<Long, Double> scores = null;
+            for (int i = 0; i < terms.size(); i++) {
+                Map<Long, Double> termScores = score(index, terms.get(i), i == terms.size() - 1);
+                if (scores == null) {
+                    scores = termScores;
+                } else {
+                    Map<Long, Double> all = new HashMap<Long, Double>();
+                    for (Map.Entry<Long, Double> s : scores.entrySet()) {
+                        Double other = termScores.get(s.getKey());
+                        if (other != null) {
+                            all.put(s.getKey(), s.getValue() + other);
+                        }
+                    }
+                    scores = all;
+                }
+                if (scores.isEmpty()) break;
+            }
+            List<Map.Entry<Long, Double>> ranked = new ArrayList<Map.Entry<Long, Double>>(scores.entrySet());
+            Collections.sort(ranked, new Comparator<Map.Entry<Long, Double>>() {
+                @Override
+                public int compare(Map.Entry<Long, Double> e1, Map.Entry<Long, Double> e2) {
+                    int c = e2.getValue().compareTo(e1.getValue());
+                    return c != 0 ? c : e2.getKey().compareTo(e1.getKey());
+                }
+            });
+            List<Long> result = new ArrayList<Long>(Math.min(max, ranked.size()));
+            for (Map.Entry<Long, Double> r : ranked) {
+                if (result.size() == max) break;
+                result.add(r.getKey());
+            }
+            return result;
+        } finally {
+            lock.readLock().unlock();
+        }
+    }
+
+    /*
+     * BM25 score of items matching a term.
+     * If prefix is true the term is expanded to Wcm.SEARCH.EXPANSIONS index terms, an item keeps its best expansion.
+     */
+    private Map<Long, Double> score(Index index, String term, boolean prefix) {
+        Map<Long, Double> scores = new HashMap<Long, Double>();
+        Map<String, Map<Long, Integer>> matches;
+        if (prefix) {
+            matches = index.postings.subMap(term, term + Character.MAX_VALUE);
+        } else {
+            Map<Long, Integer> postings = index.postings.get(term);
+            matches = postings == null ? Collections.<String, Map<Long, Integer>>emptyMap() : Collections.singletonMap(term, postings);
+        }
+        int n = index.lengths.size();
+        double avg = n == 0 ? 1 : (double)index.total / n;
+        int expansions = 0;
+        for (Map<Long, Integer> postings : matches.values()) {
+            if (expansions++ == Wcm.SEARCH.EXPANSIONS) break;
+            int df = postings.size();
+            double idf = Math.log(1 + (n - df + 0.5) / (df + 0.5));
+            for (Map.Entry<Long, Integer> p : postings.entrySet()) {
+                double tf = p.getValue();
+                double length = index.lengths.get(p.getKey());
+                double s = idf * tf * (K1 + 1) / (tf + K1 * (1 - B + B * length / avg));
+                Double previous = scores.get(p.getKey());
+                if (previous == null || previous < s) {
+                    scores.put(p.getKey(), s);
+                }
+            }
+        }
+        return scores;
+    }
+
+    /*
+     * Applies Changes to the index or rebuilds it if it's not available.
+     */
+    @Schedule(hour = "*", minute = "*", second = "*/15", persistent = false)
+    void follow() {
+        if (!running.compareAndSet(false, true)) return;
+        try {
+            Long position = null;
+            boolean rebuild;
+            lock.readLock().lock();
+            try {
+                rebuild = store == null || store.updated < System.currentTimeMillis() - Wcm.CHANGES.KEEP_DAYS * DAY;
+                if (!rebuild) position = store.position;
+            } finally {
+                lock.readLock().unlock();
+            }
+            // A position ahead of the log belongs to a different log, i.e. one stored before positions were published
+            if (!rebuild && position != null) {
+                Long last = changes.lastChange();
+                rebuild = last == null || position > last;
+            }
+            if (rebuild) {
+                rebuild();
+                return;
+            }
+            List<Change> list;
+            do {
+                list = changes.findChanges(position, Wcm.CHANGES.MAX);
+                Set<Long> posts = new HashSet<Long>();
+                Set<Long> uploads = new HashSet<Long>();
+                Set<Long> templates = new HashSet<Long>();
+                for (Change c : list) {
+                    if (Wcm.CHANGES.POST.equals(c.getType())) posts.add(c.getItemId());
+                    if (Wcm.CHANGES.UPLOAD.equals(c.getType())) uploads.add(c.getItemId());
+                    if (Wcm.CHANGES.TEMPLATE.equals(c.getType())) templates.add(c.getItemId());
+                    position = c.getPosition();
+                }
+                Map<Long, Map<String, Integer>> postsDocs = read("searchPostsIds", Wcm.SEARCH.POST, posts);
+                Map<Long, Map<String, Integer>> uploadsDocs = read("searchUploadsIds", Wcm.SEARCH.UPLOAD, uploads);
+                Map<Long, Map<String, Integer>> templatesDocs = read("searchTemplatesIds", Wcm.SEARCH.TEMPLATE, templates);
+                lock.writeLock().lock();
+                try {
+                    store.index(Wcm.SEARCH.POST).update(posts, postsDocs);
+                    store.index(Wcm.SEARCH.UPLOAD).update(uploads, uploadsDocs);
+                    store.index(Wcm.SEARCH.TEMPLATE).update(templates, templatesDocs);
+                    store.position = position;
+                    store.updated = System.currentTimeMillis();
+                    if (!list.isEmpty()) dirty = true;
+                } finally {
+                    lock.writeLock().unlock();
+                }
+            } while (list.size() == Wcm.CHANGES.MAX);
+        } catch (Exception e) {
+            log.warning("Error updating search index");
+            e.printStackTrace();
+        } finally {
+            running.set(false);
+        }
+    }
+
+    /*
+     * Stores index on disk if it was modified.
+     */
+    @Schedule(hour = "*", minute = "*/" + Wcm.TIMEOUTS.TIMER, persistent = false)
+    void flush() {
+        save();
+    }
+
+    /*
+     * Builds a new index from database while the current one keeps serving searches.
+     * Position is read first, Changes done during the rebuild are applied again later.
+     */
+    private void rebuild() throws WcmException {
+        long start = System.currentTimeMillis();
+        Store fresh = new Store();
+        fresh.position = changes.lastChange();
+        fresh.updated = start;
+        scan("searchPostsAfter", Wcm.SEARCH.POST, fresh.index(Wcm.SEARCH.POST));
+        scan("searchUploadsAfter", Wcm.SEARCH.UPLOAD, fresh.index(Wcm.SEARCH.UPLOAD));
+        scan("searchTemplatesAfter", Wcm.SEARCH.TEMPLATE, fresh.index(Wcm.SEARCH.TEMPLATE));
+        lock.writeLock().lock();
+        try {
+            store = fresh;
+            dirty = true;
+        } finally {
+            lock.writeLock().unlock();
+        }
+        save();
+        log.info("Search index rebuilt in " + (System.currentTimeMillis() - start) + " ms");
+    }
+
+    /*
+     * Reads all items of a type in id order, CHUNK rows per query.
+     */
+    private void scan(String query, Character type, Index index) throws WcmException {
+        try {
+            Long last = new Long(0);
+            List<Object[]> rows;
+            do {
+                rows = em.createNamedQuery(query)
+                        .setParameter("id", last)
+                        .setMaxResults(CHUNK)
+                        .getResultList();
+                for (Object[] row : rows) {
+                    last = (Long)row[0];
+                    index.put(last, document(type, row));
+                }
+            } while (rows.size() == CHUNK);
+        } catch (Exception e) {
+            throw new WcmException(e);
+        }
+    }
+
+    /*
+     * Reads current content of changed items, deleted items are not present in returned map.
+     */
+    private Map<Long, Map<String, Integer>> read(String query, Character type, Set<Long> ids) throws WcmException {
+        Map<Long, Map<String, Integer>> docs = new HashMap<Long, Map<String, Integer>>();
+        if (ids.isEmpty()) return docs;
+        try {
+            List<Long> all = new ArrayList<Long>(ids);
+            for (int i = 0; i < all.size(); i += CHUNK) {
+                List<Object[]> rows = em.createNamedQuery(query)
+                        .setParameter("ids", all.subList(i, Math.min(i + CHUNK, all.size())))
+                        .getResultList();
+                for (Object[] row : rows) {
+                    docs.put((Long)row[0], document(type, row));
+                }
+            }
+            return docs;
+        } catch (Exception e) {
+            throw new WcmException(e);
+        }
+    }
+
+    /*
+     * Weighted term frequencies of an item.
+     * Rows are projections defined in searchXXX named queries.
+     */
+    private Map<String, Integer> document(Character type, Object[] row) {
+        Map<String, Integer> doc = new HashMap<String, Integer>();
+        if (Wcm.SEARCH.POST.equals(type)) {
+            add(doc, tokens((String)row[1], false), Wcm.SEARCH.TITLE);
+            add(doc, tokens((String)row[2], true), Wcm.SEARCH.EXCERPT);
+            add(doc, tokens((String)row[3], true), Wcm.SEARCH.CONTENT);
+        } else if (Wcm.SEARCH.UPLOAD.equals(type)) {
+            add(doc, tokens((String)row[1], false), Wcm.SEARCH.TITLE);
+            add(doc, tokens((String)row[2], false), Wcm.SEARCH.EXCERPT);
+        } else if (Wcm.SEARCH.TEMPLATE.equals(type)) {
+            add(doc, tokens((String)row[1], false), Wcm.SEARCH.TITLE);
+            add(doc, tokens((String)row[2], true), Wcm.SEARCH.CONTENT);
+        }
+        return doc;
+    }
+
+    private void add(Map<String, Integer> doc, List<String> tokens, int weight) {
+        for (String token : tokens) {
+            Integer tf = doc.get(token);
+            doc.put(token, tf == null ? weight : tf + weight);
+        }
+    }
+
+    /*
+     * Splits text in lowercase terms of letters and digits without accents.
+     * If html is true tags and entities are skipped.
+     */
+    static List<String> tokens(String text, boolean html) {
+        List<String> tokens = new ArrayList<String>();
+        if (text == null) return tokens;
+        String normalized = Normalizer.normalize(text, Normalizer.Form.NFD);
+        StringBuilder token = new StringBuilder();
+        int i = 0;
+        while (i < normalized.length()) {
+            char c = normalized.charAt(i);
+            if (html && c == '<') {
+                int end = normalized.indexOf('>', i);
+                i = end == -1 ? normalized.length() : end + 1;
+                term(token, tokens);
+                continue;
+            }
+            if (html && c == '&') {
+                int end = normalized.indexOf(';', i);
+                if (end != -1 && end - i <= 10) {
+                    i = end + 1;
+                    term(token, tokens);
+                    continue;
+                }
+            }
+            if (Character.getType(c) == Character.NON_SPACING_MARK) {
+                // Accents are removed, so "canción" and "cancion" are the same term
+            } else if (Character.isLetterOrDigit(c)) {
+                token.append(Character.toLowerCase(c));
+            } else {
+                term(token, tokens);
+            }
+            i++;
+        }
+        term(token, tokens);
+        return tokens;
+    }
+
+    private static void term(StringBuilder token, List<String> tokens) {
+        if (token.length() >= MIN_TERM && token.length() <= MAX_TERM) {
+            tokens.add(token.toString());
+        }
+        token.setLength(0);
+    }
+
+    private File file() {
+        String folder = System.getProperty(Wcm.SEARCH.FOLDER);
+        if (folder == null) {
+            String data = System.getProperty(Wcm.UPLOADS.DEFAULT);
+            folder = (data == null ? System.getProperty(Wcm.UPLOADS.TMP_DIR) : data) + "/wcm/search";
+        }
+        return new File(folder, FILE);
+    }
+
+    private Store load() {
+        File f = file();
+        if (!f.exists()) return null;
+        ObjectInputStream in = null;
+        try {
+            in = new ObjectInputStream(new BufferedInputStream(new GZIPInputStream(new FileInputStream(f))));
+            Store loaded = (Store)in.readObject();
+            log.info("Search index loaded from " + f.getAbsolutePath());
+            return loaded;
+        } catch (Exception e) {
+            log.warning("Cannot read search index " + f.getAbsolutePath() + ", it will be rebuilt");
+            return null;
+        } finally {
+            if (in != null) {
+                try {
+                    in.close();
+                } catch (Exception ignored) {
+                }
+            }
+        }
+    }
+
+    /*
+     * Writes a temporary file and renames it, a crash while saving keeps the previous index.
+     */
+    private void save() {
+        lock.readLock().lock();
+        try {
+            if (store == null || !dirty) return;
+            File f = file();
+            File tmp = new File(f.getParentFile(), FILE + ".tmp");
+            f.getParentFile().mkdirs();
+            ObjectOutputStream out = null;
+            try {
+                out = new ObjectOutputStream(new GZIPOutputStream(new BufferedOutputStream(new FileOutputStream(tmp))));
+                out.writeObject(store);
+                out.close();
+                out = null;
+                if (f.exists() && !f.delete() || !tmp.renameTo(f)) {
+                    log.warning("Cannot write search index " + f.getAbsolutePath());
+                    return;
+                }
+                dirty = false;
+            } catch (Exception e) {
+                log.warning("Error writing search index " + f.getAbsolutePath());
+                e.printStackTrace();
+            } finally {
+                if (out != null) {
+                    try {
+                        out.close();
+                    } catch (Exception ignored) {
+                    }
+                }
+            }
+        } finally {
+            lock.readLock().unlock();
+        }
+    }
+
+    /*
+     * Indexes of all types and position in Change log.
+     */
+    static class Store implements Serializable {
+        private static final long serialVersionUID = 1L;
+
+        final Map<Character, Index> indexes = new HashMap<Character, Index>();
+        Long position;
+        long updated;
+
+        Index index(Character type) {
+            Index index = indexes.get(type);
+            if (index == null) {
+                index = new Index();
+                indexes.put(type, index);
+            }
+            return index;
+        }
+    }
+
+    /*
+     * Inverted index of a type of item.
+     * Terms are sorted to expand prefixes, terms of each item are kept to remove it.
+     */
+    static class Index implements Serializable {
+        private static final long serialVersionUID = 1L;
+
+        final TreeMap<String, Map<Long, Integer>> postings = new TreeMap<String, Map<Long, Integer>>();
+        final Map<Long, String[]> terms = new HashMap<Long, String[]>();
+        final Map<Long, Integer> lengths = new HashMap<Long, Integer>();
+        long total;
+
+        void put(Long id, Map<String, Integer> doc) {
+            remove(id);
+            if (doc.isEmpty()) return;
+            int length = 0;
+            for (Map.Entry<String, Integer> t : doc.entrySet()) {
+                Map<Long, Integer> items = postings.get(t.getKey());
+                if (items == null) {
+                    items = new HashMap<Long, Integer>();
+                    postings.put(t.getKey(), items);
+                }
+                items.put(id, t.getValue());
+                length += t.getValue();
+            }
+            terms.put(id, doc.keySet().toArray(new String[doc.size()]));
+            lengths.put(id, length);
+            total += length;
+        }
+
+        void remove(Long id) {
+            String[] old = terms.remove(id);
+            if (old == null) return;
+            for (String term : old) {
+                Map<Long, Integer> items = postings.get(term);
+                if (items == null) continue;
+                items.remove(id);
+                if (items.isEmpty()) postings.remove(term);
+            }
+            total -= lengths.remove(id);
+        }
+
+        void update(Set<Long> ids, Map<Long, Map<String, Integer>> docs) {
+            for (Long id : ids) {
+                Map<String, Integer> doc = docs.get(id);
+                if (doc == null) {
+                    remove(id);
+                } else {
+                    put(id, doc);
+                }
+            }
+        }
+    }
+}
@@ -0,0 +1,179 @@
+/*
+ * JBoss, a division of Red Hat
+ * Copyright 2010, Red Hat Middleware, LLC, and individual
+ * contributors as indicated by the @authors tag. See the
+ * copyright.txt in the distribution for a full listing of
+ * individual contributors.
+ *
+ * This is free software; you can redistribute it and/or modify it
+ * under the terms of the GNU Lesser General Public License as
+ * published by the Free Software Foundation; either version 2.1 of
+ * the License, or (at your option) any later version.
+ *
+ * This software is distributed in the hope that it will be useful,
+ * but WITHOUT ANY WARRANTY; without even the implied warranty of
+ * MERCHANTABILITY or FITNESS FOR A PARTICULAR PURPOSE. See the GNU
+ * Lesser General Public License for more details.
+ *
+ * You should have received a copy of the GNU Lesser General Public
+ * License along with this software; if not, write to the Free
+ * Software Foundation, Inc., 51 Franklin St, Fifth Floor, Boston, MA
+ * 02110-1301 USA, or see the FSF site: http://www.fsf.org.
+ */
+
+package org.gatein.wcm.services.impl;
+
+import java.util.HashMap;
+import java.util.Map;
+
+/**
+ * Text deltas used to store history versions.
+ * A delta rebuilds a target text from a base text with a list of operations:
+ * - "=offset,length;" copies length chars from base starting at offset.
+ * - "+length:text" inserts length chars of text.
+ * Encoder keeps common prefix and suffix and looks for blocks of base inside the changed region,
+ * it is linear in the length of texts.
+ *
+ * @author <a href="mailto:lponce@redhat.com">Lucas Ponce</a>
+ */
+public final class TextDelta {
+
+    /*
+     * Size of blocks of base indexed to find moved or unchanged regions
+     */
+    private static final int BLOCK = 32;
+    private static final int PRIME = 31;
+
+    private TextDelta() {
+    }
+
+    /**
+     * @param base text used as reference
+     * @param target text to encode
+     * @return delta to rebuild target from base, null if target is null
+     */
+    public static String encode(String base, String target) {
+        if (target == null) return null;
+        if (base == null) base = "";
+        StringBuilder delta = new StringBuilder();
+        int baseLength = base.length();
+        int targetLength = target.length();
+
+        int prefix = 0;
+        int max = Math.min(baseLength, targetLength);
+        while (prefix < max && base.charAt(prefix) == target.charAt(prefix)) prefix++;
+        int suffix = 0;
+        max = max - prefix;
+        while (suffix < max && base.charAt(baseLength - 1 - suffix) == target.charAt(targetLength - 1 - suffix)) suffix++;
+
+        copy(delta, 0, prefix);
+        encodeMiddle(delta, base, prefix, baseLength - suffix, target, prefix, targetLength - suffix);
+        copy(delta, baseLength - suffix, suffix);
+        return delta.toString();
+    }
+
+    /**
+     * @param base text used as reference
+     * @param delta delta created with encode(base, target)
+     * @return target text, null if delta is null
+     * @throws IllegalArgumentException if delta is malformed
+     */
+    public static String apply(String base, String delta) {
+        if (delta == null) return null;
+        if (base == null) base = "";
+        StringBuilder target = new StringBuilder(base.length() + 64);
+        int i = 0;
+        int length = delta.length();
+        while (i < length) {
+            char op = delta.charAt(i++);
+            if (op == '=') {
+                int comma = delta.indexOf(',', i);
+                int end = delta.indexOf(';', comma);
+                if (comma == -1 || end == -1) throw new IllegalArgumentException("Malformed delta at " + i);
+                int offset = Integer.parseInt(delta.substring(i, comma));
+                int count = Integer.parseInt(delta.substring(comma + 1, end));
+                target.append(base, offset, offset + count);
+                i = end + 1;
+            } else if (op == '+') {
+                int colon = delta.indexOf(':', i);
+                if (colon == -1) throw new IllegalArgumentException("Malformed delta at " + i);
+                int count = Integer.parseInt(delta.substring(i, colon));
+                target.append(delta, colon + 1, colon + 1 + count);
+                i = colon + 1 + count;
+            } else {
+                throw new IllegalArgumentException("Malformed delta at " + (i - 1));
+            }
+        }
+        return target.toString();
+    }
+
+    /*
+     * Encodes target[targetStart, targetEnd) using blocks of base[baseStart, baseEnd).
+     */
+    private static void encodeMiddle(StringBuilder delta, String base, int baseStart, int baseEnd,
+                                     String target, int targetStart, int targetEnd) {
+        if (targetEnd - targetStart < BLOCK || baseEnd - baseStart < BLOCK) {
+            insert(delta, target, targetStart, targetEnd);
+            return;
+        }
+        // Index blocks of base at fixed positions
+        Map<Integer, Integer> blocks = new HashMap<Integer, Integer>();
+        for (int i = baseStart; i + BLOCK <= baseEnd; i += BLOCK) {
+            int hash = hash(base, i);
+            if (!blocks.containsKey(hash)) blocks.put(hash, i);
+        }
+        int power = 1;
+        for (int i = 1; i < BLOCK; i++) power *= PRIME;
+
+        int literal = targetStart;
+        int i = targetStart;
+        int hash = hash(target, i);
+        while (i + BLOCK <= targetEnd) {
+            Integer j = blocks.get(hash);
+            if (j != null && base.regionMatches(j, target, i, BLOCK)) {
+                int start = i;
+                int baseOffset = j;
+                // Extend match backward over pending literal
+                while (start > literal && baseOffset > baseStart && base.charAt(baseOffset - 1) == target.charAt(start - 1)) {
+                    start--;
+                    baseOffset--;
+                }
+                int end = i + BLOCK;
+                int baseEndMatch = j + BLOCK;
+                while (end < targetEnd && baseEndMatch < baseEnd && base.charAt(baseEndMatch) == target.charAt(end)) {
+                    end++;
+                    baseEndMatch++;
+                }
+                insert(delta, target, literal, start);
+                copy(delta, baseOffset, end - start);
+                literal = end;
+                i = end;
+                if (i + BLOCK <= targetEnd) hash = hash(target, i);
+            } else {
+                if (i + BLOCK < targetEnd) {
+                    hash = (hash - target.charAt(i) * power) * PRIME + target.charAt(i + BLOCK);
+                }
+                i++;
+            }
+        }
+        insert(delta, target, literal, targetEnd);
+    }
+
+    private static int hash(String text, int start) {
+        int hash = 0;
+        for (int i = start; i < start + BLOCK; i++) {
+            hash = hash * PRIME + text.charAt(i);
+        }
+        return hash;
+    }
+
+    private static void copy(StringBuilder delta, int offset, int length) {
+        if (length <= 0) return;
+        delta.append('=').append(offset).append(',').append(length).append(';');
+    }
+
+    private static void insert(StringBuilder delta, String target, int start, int end) {
+        if (end <= start) return;
+        delta.append('+').append(end - start).append(':').append(target, start, end);
+    }
+}
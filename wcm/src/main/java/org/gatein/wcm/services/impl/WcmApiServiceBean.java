@@ -24,16 +24,23 @@
 package org.gatein.wcm.services.impl;
 
 import java.util.ArrayList;
+import java.util.Collection;
+import java.util.Collections;
+import java.util.HashMap;
 import java.util.List;
+import java.util.Map;
 import java.util.logging.Logger;
 
 import javax.ejb.Stateless;
 import javax.inject.Inject;
 
 import org.gatein.wcm.Wcm;
+import org.gatein.wcm.WcmException;
 import org.gatein.wcm.api.domain.Category;
+import org.gatein.wcm.api.domain.Change;
 import org.gatein.wcm.api.domain.Comment;
 import org.gatein.wcm.api.domain.Post;
+import org.gatein.wcm.api.domain.PostCursor;
 import org.gatein.wcm.api.domain.Upload;
 import org.gatein.wcm.domain.UserWcm;
 import org.gatein.wcm.portlet.util.ViewMetadata;
@@ -116,6 +123,27 @@ public class WcmApiServiceBean implements WcmApiService {
         }
     }
 
+    /**
+     * @see WcmApiService#findCategories(java.util.Collection, String)
+     */
+    @Override
+    public List<Category> findCategories(Collection<String> paths, String user) throws Exception {
+        UserWcm userWcm = null;
+        if (user == null || (user != null && ANONYMOUS.equals(user))) {
+            userWcm = new UserWcm(ANONYMOUS);
+        } else {
+            userWcm = portal.getPortalUser(user);
+        }
+        try {
+            List<org.gatein.wcm.domain.Category> listCategories = wcm.findCategories(paths, userWcm);
+            return convertCategories(listCategories);
+        } catch (Exception e) {
+            log.warning("Error querying categories for paths " + paths + " and user " + user);
+            e.printStackTrace();
+            throw new Exception(e.getMessage());
+        }
+    }
+
     /**
      * @see WcmApiService#findPosts(String)
      */
@@ -129,7 +157,7 @@ public class WcmApiServiceBean implements WcmApiService {
         }
         try {
             List<org.gatein.wcm.domain.Post> listPosts = wcm.findPosts(userWcm);
-            return convertPosts(listPosts);
+            return convertPosts(listPosts, userWcm);
         } catch (Exception e) {
             log.warning("Error querying posts for user " + user);
             e.printStackTrace();
@@ -137,6 +165,60 @@ public class WcmApiServiceBean implements WcmApiService {
         }
     }
 
+    /**
+     * @see WcmApiService#findPosts(int, int, int, String)
+     */
+    @Override
+    public List<Post> findPosts(int offset, int limit, int fields, String user) throws Exception {
+        UserWcm userWcm = null;
+        if (user == null || (user != null && ANONYMOUS.equals(user))) {
+            userWcm = new UserWcm(ANONYMOUS);
+        } else {
+            userWcm = portal.getPortalUser(user);
+        }
+        try {
+            List<org.gatein.wcm.domain.Post> listPosts = wcm.findPosts(offset, limit, userWcm);
+            return convertPosts(listPosts, fields, userWcm);
+        } catch (Exception e) {
+            log.warning("Error querying posts page " + offset + "," + limit + " for user " + user);
+            e.printStackTrace();
+            throw new Exception(e.getMessage());
+        }
+    }
+
+    /**
+     * @see WcmApiService#openPosts(int, int, String)
+     */
+    @Override
+    public PostCursor openPosts(int size, int fields, String user) throws Exception {
+        if (size <= 0) throw new Exception("Cursor size should be positive");
+        return new PostCursor(size, fields);
+    }
+
+    /**
+     * @see WcmApiService#fetchPosts(org.gatein.wcm.api.domain.PostCursor, String)
+     */
+    @Override
+    public List<Post> fetchPosts(PostCursor cursor, String user) throws Exception {
+        if (cursor == null) throw new Exception("Cursor is null");
+        if (cursor.isDone()) return new ArrayList<Post>();
+        UserWcm userWcm = null;
+        if (user == null || (user != null && ANONYMOUS.equals(user))) {
+            userWcm = new UserWcm(ANONYMOUS);
+        } else {
+            userWcm = portal.getPortalUser(user);
+        }
+        try {
+            List<org.gatein.wcm.domain.Post> listPosts = wcm.findPostsAfter(cursor.getLastModified(), cursor.getLastId(), cursor.getSize(), userWcm);
+            if (listPosts == null) listPosts = new ArrayList<org.gatein.wcm.domain.Post>();
+            return convertPosts(listPosts, cursor.getFields(), userWcm);
+        } catch (Exception e) {
+            log.warning("Error fetching " + cursor + " for user " + user);
+            e.printStackTrace();
+            throw new Exception(e.getMessage());
+        }
+    }
+
     /**
      * @see WcmApiService#findPosts(Long, String)
      */
@@ -150,7 +232,7 @@ public class WcmApiServiceBean implements WcmApiService {
         }
         try {
             List<org.gatein.wcm.domain.Post> listPosts = wcm.findPosts(categoryId, userWcm);
-            return convertPosts(listPosts);
+            return convertPosts(listPosts, userWcm);
         } catch (Exception e) {
             log.warning("Error querying posts for user " + user);
             e.printStackTrace();
@@ -171,7 +253,7 @@ public class WcmApiServiceBean implements WcmApiService {
         }
         try {
             List<org.gatein.wcm.domain.Post> listPosts = wcm.findPosts(filterName, userWcm);
-            return convertPosts(listPosts);
+            return convertPosts(listPosts, userWcm);
         } catch (Exception e) {
             log.warning("Error querying posts for user " + user);
             e.printStackTrace();
@@ -179,6 +261,27 @@ public class WcmApiServiceBean implements WcmApiService {
         }
     }
 
+    /**
+     * @see WcmApiService#searchPosts(String, int, int, String)
+     */
+    @Override
+    public List<Post> searchPosts(String query, int max, int fields, String user) throws Exception {
+        UserWcm userWcm = null;
+        if (user == null || (user != null && ANONYMOUS.equals(user))) {
+            userWcm = new UserWcm(ANONYMOUS);
+        } else {
+            userWcm = portal.getPortalUser(user);
+        }
+        try {
+            List<org.gatein.wcm.domain.Post> listPosts = wcm.searchPosts(query, max, userWcm);
+            return convertPosts(listPosts, fields, userWcm);
+        } catch (Exception e) {
+            log.warning("Error searching posts " + query + " for user " + user);
+            e.printStackTrace();
+            throw new Exception(e.getMessage());
+        }
+    }
+
     /**
      * @see WcmApiService#findPosts(Long, Character, String)
      */
@@ -192,7 +295,7 @@ public class WcmApiServiceBean implements WcmApiService {
         }
         try {
             List<org.gatein.wcm.domain.Post> listPosts = wcm.findPosts(categoryId, status, userWcm);
-            return convertPosts(listPosts);
+            return convertPosts(listPosts, userWcm);
         } catch (Exception e) {
             log.warning("Error querying posts for user " + user);
             e.printStackTrace();
@@ -213,7 +316,7 @@ public class WcmApiServiceBean implements WcmApiService {
         }
         try {
             List<org.gatein.wcm.domain.Post> listPosts = wcm.findPosts(categoryId, locale, status, userWcm);
-            return convertPosts(listPosts);
+            return convertPosts(listPosts, userWcm);
         } catch (Exception e) {
             log.warning("Error querying posts for user " + user);
             e.printStackTrace();
@@ -221,6 +324,27 @@ public class WcmApiServiceBean implements WcmApiService {
         }
     }
 
+    /**
+     * @see WcmApiService#findPosts(Long, String, Character, int, int, int, String)
+     */
+    @Override
+    public List<Post> findPosts(Long categoryId, String locale, Character status, int offset, int limit, int fields, String user) throws Exception {
+        UserWcm userWcm = null;
+        if (user == null || (user != null && ANONYMOUS.equals(user))) {
+            userWcm = new UserWcm(ANONYMOUS);
+        } else {
+            userWcm = portal.getPortalUser(user);
+        }
+        try {
+            List<org.gatein.wcm.domain.Post> listPosts = wcm.findPosts(categoryId, locale, status, offset, limit, userWcm);
+            return convertPosts(listPosts, fields, userWcm);
+        } catch (Exception e) {
+            log.warning("Error querying posts page " + offset + "," + limit + " for category " + categoryId + " and user " + user);
+            e.printStackTrace();
+            throw new Exception(e.getMessage());
+        }
+    }
+
     /**
      * @see WcmApiService#findPost(Long, String)
      */
@@ -234,7 +358,7 @@ public class WcmApiServiceBean implements WcmApiService {
         }
         try {
             org.gatein.wcm.domain.Post post = wcm.findPost(id, userWcm);
-            return convert(post);
+            return convert(post, userWcm);
         } catch (Exception e) {
             log.warning("Error querying posts for user " + user);
             e.printStackTrace();
@@ -254,8 +378,8 @@ public class WcmApiServiceBean implements WcmApiService {
             userWcm = portal.getPortalUser(user);
         }
         try {
-            org.gatein.wcm.domain.Post post = wcm.findPost(id, userWcm);
-            return convert(post);
+            org.gatein.wcm.domain.Post post = wcm.findPost(id, locale, userWcm);
+            return convert(post, userWcm);
         } catch (Exception e) {
             log.warning("Error querying posts for user " + user);
             e.printStackTrace();
@@ -263,6 +387,27 @@ public class WcmApiServiceBean implements WcmApiService {
         }
     }
 
+    /**
+     * @see WcmApiService#findPosts(java.util.Collection, String, String)
+     */
+    @Override
+    public List<Post> findPosts(Collection<Long> ids, String locale, String user) throws Exception {
+        UserWcm userWcm = null;
+        if (user == null || (user != null && ANONYMOUS.equals(user))) {
+            userWcm = new UserWcm(ANONYMOUS);
+        } else {
+            userWcm = portal.getPortalUser(user);
+        }
+        try {
+            List<org.gatein.wcm.domain.Post> listPosts = wcm.findPosts(ids, locale, userWcm);
+            return convertPosts(listPosts, userWcm);
+        } catch (Exception e) {
+            log.warning("Error querying posts " + ids + " for user " + user);
+            e.printStackTrace();
+            throw new Exception(e.getMessage());
+        }
+    }
+
     /**
      * @see WcmApiService#findUploads(String)
      */
@@ -305,6 +450,27 @@ public class WcmApiServiceBean implements WcmApiService {
         }
     }
 
+    /**
+     * @see WcmApiService#searchUploads(String, int, String)
+     */
+    @Override
+    public List<Upload> searchUploads(String query, int max, String user) throws Exception {
+        UserWcm userWcm = null;
+        if (user == null || (user != null && ANONYMOUS.equals(user))) {
+            userWcm = new UserWcm(ANONYMOUS);
+        } else {
+            userWcm = portal.getPortalUser(user);
+        }
+        try {
+            List<org.gatein.wcm.domain.Upload> listUploads = wcm.searchUploads(query, max, userWcm);
+            return convertUploads(listUploads);
+        } catch (Exception e) {
+            log.warning("Error searching uploads " + query + " for user " + user);
+            e.printStackTrace();
+            throw new Exception(e.getMessage());
+        }
+    }
+
     /**
      * @see WcmApiService#findUploads(String, String)
      */
@@ -347,6 +513,27 @@ public class WcmApiServiceBean implements WcmApiService {
         }
     }
 
+    /**
+     * @see WcmApiService#findUploads(java.util.Collection, String)
+     */
+    @Override
+    public List<Upload> findUploads(Collection<Long> ids, String user) throws Exception {
+        UserWcm userWcm = null;
+        if (user == null || (user != null && ANONYMOUS.equals(user))) {
+            userWcm = new UserWcm(ANONYMOUS);
+        } else {
+            userWcm = portal.getPortalUser(user);
+        }
+        try {
+            List<org.gatein.wcm.domain.Upload> listUploads = wcm.findUploads(ids, userWcm);
+            return convertUploads(listUploads);
+        } catch (Exception e) {
+            log.warning("Error querying uploads " + ids + " for user " + user);
+            e.printStackTrace();
+            throw new Exception(e.getMessage());
+        }
+    }
+
     @Override
     public void add(Long postId, Comment comment, String user) throws Exception {
         UserWcm userWcm = null;
@@ -380,49 +567,109 @@ public class WcmApiServiceBean implements WcmApiService {
         }
     }
 
+    /**
+     * @see WcmApiService#findChanges(Long, int, String)
+     */
+    @Override
+    public List<Change> findChanges(Long since, int max, String user) throws Exception {
+        UserWcm userWcm = null;
+        if (user == null || (user != null && ANONYMOUS.equals(user))) {
+            userWcm = new UserWcm(ANONYMOUS);
+        } else {
+            userWcm = portal.getPortalUser(user);
+        }
+        try {
+            List<org.gatein.wcm.domain.Change> listChanges = wcm.findChanges(since, max, userWcm);
+            if (listChanges == null) return null;
+            ArrayList<Change> out = new ArrayList<Change>(listChanges.size());
+            for (org.gatein.wcm.domain.Change c : listChanges) {
+                out.add(convert(c));
+            }
+            return out;
+        } catch (Exception e) {
+            log.warning("Error querying changes since " + since + " for user " + user);
+            e.printStackTrace();
+            throw new Exception(e.getMessage());
+        }
+    }
+
     /**
      * Auxiliar functions to convert classes between org.gatein.wcm.domain.* and org.gatein.wcm.api.domain.*
+     * Converted Categories are shared by id within a single response, so a Category linked by many Posts
+     * is converted and serialized only once.
      */
     private List<Category> convertCategories(List<org.gatein.wcm.domain.Category> listCategories) {
         if (listCategories == null) return null;
-        ArrayList<Category> out = new ArrayList<Category>();
+        Map<Long, Category> cats = new HashMap<Long, Category>();
+        ArrayList<Category> out = new ArrayList<Category>(listCategories.size());
         for (org.gatein.wcm.domain.Category c : listCategories) {
-            out.add(convert(c));
+            out.add(convert(c, cats));
         }
         return out;
     }
 
-    private List<Post> convertPosts(List<org.gatein.wcm.domain.Post> listPosts) {
+    private List<Post> convertPosts(List<org.gatein.wcm.domain.Post> listPosts, UserWcm userWcm) throws WcmException {
+        return convertPosts(listPosts, Post.ALL, userWcm);
+    }
+
+    private List<Post> convertPosts(List<org.gatein.wcm.domain.Post> listPosts, int fields, UserWcm userWcm) throws WcmException {
         if (listPosts == null) return null;
-        ArrayList<Post> out = new ArrayList<Post>();
+        Map<Long, Category> cats = new HashMap<Long, Category>();
+        // Comments of all Posts are read together, rights are checked against Posts already loaded
+        Map<Long, List<org.gatein.wcm.domain.Comment>> comments = null;
+        if ((fields & Post.COMMENTS) != 0) {
+            comments = wcm.findComments(listPosts, userWcm);
+        }
+        ArrayList<Post> out = new ArrayList<Post>(listPosts.size());
         for (org.gatein.wcm.domain.Post p : listPosts) {
-            out.add(convert(p));
+            out.add(convert(p, fields, cats, comments, userWcm));
         }
         return out;
     }
 
     private List<Upload> convertUploads(List<org.gatein.wcm.domain.Upload> listUploads) {
         if (listUploads == null) return null;
-        ArrayList<Upload> out = new ArrayList<Upload>();
+        Map<Long, Category> cats = new HashMap<Long, Category>();
+        ArrayList<Upload> out = new ArrayList<Upload>(listUploads.size());
         for (org.gatein.wcm.domain.Upload u : listUploads) {
-            out.add(convert(u));
+            out.add(convert(u, cats));
         }
         return out;
     }
 
-
     private Category convert(org.gatein.wcm.domain.Category cat) {
+        return convert(cat, new HashMap<Long, Category>());
+    }
+
+    private Category convert(org.gatein.wcm.domain.Category cat, Map<Long, Category> cats) {
         if (cat == null) return null;
-        Category out = new Category();
+        Category out = cats.get(cat.getId());
+        if (out != null) return out;
+        out = new Category();
         out.setId(cat.getId());
         out.setName(cat.getName());
         out.setType(cat.getType());
         out.setNumChildren(cat.getNumChildren());
         out.setPath(ViewMetadata.categoryTitle(cat));
+        cats.put(cat.getId(), out);
         return out;
     }
 
-    private Comment convert(org.gatein.wcm.domain.Comment comment) {
+    private Change convert(org.gatein.wcm.domain.Change change) {
+        if (change == null) return null;
+        Change out = new Change();
+        out.setId(change.getPosition());
+        out.setType(change.getType());
+        out.setOperation(change.getOperation());
+        out.setItemId(change.getItemId());
+        out.setParentType(change.getParentType());
+        out.setParentId(change.getParentId());
+        out.setUser(change.getUsername());
+        out.setCreated(change.getCreated());
+        return out;
+    }
+
+    private Comment convert(org.gatein.wcm.domain.Comment comment, Long postId) {
         if (comment == null) return null;
         Comment out = new Comment();
         out.setId(comment.getId());
@@ -431,39 +678,59 @@ public class WcmApiServiceBean implements WcmApiService {
         out.setAuthorEmail(comment.getAuthorEmail());
         out.setAuthorUrl(comment.getAuthorUrl());
         out.setStatus(comment.getStatus());
-        out.setPostId(comment.getPost() != null ? comment.getPost().getId() : null);
+        out.setPostId(postId);
         out.setContent(comment.getContent());
         return out;
     }
 
-    private Post convert(org.gatein.wcm.domain.Post post) {
+    private Post convert(org.gatein.wcm.domain.Post post, UserWcm userWcm) throws WcmException {
+        if (post == null) return null;
+        return convertPosts(Collections.singletonList(post), userWcm).get(0);
+    }
+
+    /*
+     * Comments are read only when they are requested, for all Posts of a response in convertPosts().
+     */
+    private Post convert(org.gatein.wcm.domain.Post post, int fields, Map<Long, Category> cats, Map<Long, List<org.gatein.wcm.domain.Comment>> comments, UserWcm userWcm) {
         if (post == null) return null;
         Post out = new Post();
-        out.setContent(post.getContent());
+        if ((fields & Post.CONTENT) != 0) out.setContent(post.getContent());
         out.setCreated(post.getCreated());
         out.setAuthor(post.getAuthor());
         out.setCommentsStatus(post.getCommentsStatus());
-        out.setExcerpt(post.getExcerpt());
+        if ((fields & Post.EXCERPT) != 0) out.setExcerpt(post.getExcerpt());
         out.setId(post.getId());
         out.setTitle(post.getTitle());
         out.setVersion(post.getVersion());
         out.setLocale(post.getLocale());
         out.setPostStatus(post.getPostStatus());
         out.setModified(post.getModified());
-        if (post.getComments() != null) {
-            for (org.gatein.wcm.domain.Comment com : post.getComments()) {
-                out.getComments().add(convert(com));
+        out.setCommentsPublic(post.getCommentsPublic());
+        // Comments held for moderation are only counted for users with rights to write the Post
+        if (userWcm.canWrite(post)) {
+            out.setCommentsCount(post.getCommentsCount());
+            out.setCommentsPending(post.getCommentsPending());
+        }
+        out.setLastCommentAt(post.getLastCommentAt());
+        out.setWordCount(post.getWordCount());
+        if (comments != null && comments.get(post.getId()) != null) {
+            for (org.gatein.wcm.domain.Comment com : comments.get(post.getId())) {
+                out.getComments().add(convert(com, post.getId()));
             }
         }
-        if (post.getCategories() != null) {
+        if ((fields & Post.CATEGORIES) != 0 && post.getCategories() != null) {
             for (org.gatein.wcm.domain.Category cat : post.getCategories()) {
-                out.getCategories().add(convert(cat));
+                out.getCategories().add(convert(cat, cats));
             }
         }
         return out;
     }
 
     private Upload convert(org.gatein.wcm.domain.Upload upload) {
+        return convert(upload, new HashMap<Long, Category>());
+    }
+
+    private Upload convert(org.gatein.wcm.domain.Upload upload, Map<Long, Category> cats) {
         if (upload == null) return null;
         Upload out = new Upload();
         out.setStoredName(upload.getStoredName());
@@ -477,7 +744,7 @@ public class WcmApiServiceBean implements WcmApiService {
         out.setUser(upload.getUser());
         if (upload.getCategories() != null) {
             for (org.gatein.wcm.domain.Category cat : upload.getCategories()) {
-                out.getCategories().add(convert(cat));
+                out.getCategories().add(convert(cat, cats));
             }
         }
         return out;
@@ -29,20 +29,32 @@ import java.io.File;
 import java.io.FileOutputStream;
 import java.io.InputStream;
 import java.util.*;
+import java.util.concurrent.atomic.AtomicLong;
 import java.util.logging.Logger;
 
 import javax.ejb.Schedule;
 import javax.ejb.Stateless;
+import javax.inject.Inject;
 import javax.persistence.EntityManager;
+import javax.persistence.LockModeType;
 import javax.persistence.PersistenceContext;
+import javax.persistence.Query;
+import javax.persistence.TemporalType;
+import javax.persistence.TypedQuery;
 
 import org.gatein.wcm.Wcm;
 import org.gatein.wcm.WcmAuthorizationException;
 import org.gatein.wcm.WcmException;
+import org.gatein.wcm.api.util.HtmlScanner;
 import org.gatein.wcm.WcmLockException;
 import org.gatein.wcm.domain.*;
-import org.gatein.wcm.portlet.util.ParseDates;
+import org.gatein.wcm.services.ChangeService;
+import org.gatein.wcm.services.HistoryService;
+import org.gatein.wcm.services.LockCoordinator;
+import org.gatein.wcm.services.SearchService;
 import org.gatein.wcm.services.WcmService;
+import org.hibernate.Hibernate;
+import org.hibernate.SQLQuery;
 
 /**
  * Implementation of WcmService public API.
@@ -58,6 +70,42 @@ public class WcmServiceImpl implements WcmService {
     @PersistenceContext
     EntityManager em;
 
+    @Inject
+    LockCoordinator locks;
+
+    @Inject
+    HistoryService history;
+
+    @Inject
+    ChangeService changes;
+
+    @Inject
+    SearchService search;
+
+    /*
+     * Metrics of checkUnlocks() in this node
+     */
+    private static final AtomicLong reapedLocks = new AtomicLong();
+    private static final AtomicLong reaperSweeps = new AtomicLong();
+
+    /*
+     * Max number of parameters bound in a single IN (...) query
+     */
+    private static final int IN_CHUNK = 500;
+
+    /*
+     * Min number of rows fetched per query when scanning pages of readable rows
+     */
+    private static final int PAGE_CHUNK = 50;
+
+    /*
+     * Set based maintenance of Category - Post links
+     */
+    private static final String LINK_POSTS = "insert into wcm_categories_posts (category_id, post_id) " +
+            "select :categoryId, p.post_id from wcm_posts p where p.post_id in (:ids) and not exists " +
+            "(select 1 from wcm_categories_posts cp where cp.category_id = :categoryId and cp.post_id = p.post_id)";
+    private static final String UNLINK_POSTS = "delete from wcm_categories_posts where category_id in (:categoryIds) and post_id in (:ids)";
+
     /**
      * @see WcmService#create(org.gatein.wcm.domain.Category, org.gatein.wcm.domain.UserWcm)
      */
@@ -85,6 +133,7 @@ public class WcmServiceImpl implements WcmService {
 		}
 		try {
 			em.persist(cat);			
+            change(Wcm.CHANGES.CATEGORY, Wcm.CHANGES.CREATE, cat.getId(), user);
 		} catch (Exception e) {
 			throw new WcmException(e);
 		}			
@@ -101,7 +150,12 @@ public class WcmServiceImpl implements WcmService {
 			throw new WcmAuthorizationException("User: " + user + " has not WRITE rights on Category " + cat);
 		}
 		try {
+            locks.fence(cat.getId(), Wcm.LOCK.CATEGORY, user);
+            // A moved Category changes its old ancestors too
+            Category old = em.find(Category.class, cat.getId());
+            Category oldParent = old != null ? old.getParent() : null;
 			em.merge(cat);
+            stampPath(oldParent, change(Wcm.CHANGES.CATEGORY, Wcm.CHANGES.UPDATE, cat.getId(), user).getId());
 		} catch (Exception e) {
 			throw new WcmException(e);
 		}			
@@ -117,10 +171,12 @@ public class WcmServiceImpl implements WcmService {
                     // If I can WRITE in parent but NOT in child, I will detach child from parent
                     child.setParent(null);
                     em.merge(child);
+                    change(Wcm.CHANGES.CATEGORY, Wcm.CHANGES.UPDATE, child.getId(), user);
                 }
 			}
 		}
 		em.remove(cat);
+		stampPath(cat.getParent(), change(Wcm.CHANGES.CATEGORY, Wcm.CHANGES.DELETE, cat.getId(), user).getId());
 	}
 
     /**
@@ -386,6 +442,43 @@ public class WcmServiceImpl implements WcmService {
         return output;
     }
 
+    /**
+     * @see WcmService#findCategories(java.util.Collection, org.gatein.wcm.domain.UserWcm)
+     */
+    @Override
+    public List<Category> findCategories(Collection<String> paths, UserWcm user) throws WcmException {
+        if (user == null) return null;
+        if (paths == null) return null;
+        List<Category> output = new ArrayList<Category>();
+        try {
+            Set<String> names = new HashSet<String>();
+            for (String path : paths) {
+                String name = child(path);
+                if (name != null && !"".equals(name)) names.add(name);
+            }
+            List<Category> candidates = new ArrayList<Category>();
+            for (List<String> chunk : chunks(names)) {
+                candidates.addAll(em.createNamedQuery("listCategoriesNames", Category.class)
+                        .setParameter("names", chunk)
+                        .getResultList());
+            }
+            for (String path : paths) {
+                Category found = null;
+                for (Category c : candidates) {
+                    if (hasPath(c, path)) {
+                        found = c;
+                    }
+                }
+                if (found != null && user.canRead(found)) {
+                    output.add(found);
+                }
+            }
+        } catch (Exception e) {
+            throw new WcmException(e);
+        }
+        return output;
+    }
+
     private boolean hasPath(Category c, String path) {
         if (path == null || "".equals(path)) return false;
         if (c.getName().equals(child(path))) {
@@ -431,7 +524,9 @@ public class WcmServiceImpl implements WcmService {
 			post.add(write);
 		}					
 		try {
+            digest(post);
 			em.persist(post);			
+            change(Wcm.CHANGES.POST, Wcm.CHANGES.CREATE, post.getId(), user);
 		} catch (Exception e) {
 			throw new WcmException(e);
 		}			
@@ -450,28 +545,180 @@ public class WcmServiceImpl implements WcmService {
         if (!user.canWrite(post)) {
             throw new WcmAuthorizationException("User: " + user + " has not WRITE rights on Post " + post);
         }
-		// cat.add(post); // Category -> Posts is lazy, findPosts(Category) is used for that instead to browse into the relationship
-		post.add(cat);
+		// Category -> Posts is lazy and can be large, links are maintained in join table without loading it
 		try {
-			post = em.merge(post);
-			cat = em.merge(cat);
-            if (!cat.getPosts().contains(post))
-                cat.getPosts().add(post);
+            boolean managed = em.contains(post);
+            cat = em.find(Category.class, cat.getId());
+            em.flush();
             // We add category parents to post relationship
-            Category parent = cat.getParent();
-            while (parent != null) {
-                if (!parent.getPosts().contains(post)) {
-                    parent.getPosts().add(post);
+            linkPosts(categoryPath(cat), Collections.singletonList(post.getId()));
+            if (managed) {
+                em.refresh(post);
+            } else {
+                for (Category parent = cat; parent != null; parent = parent.getParent()) {
                     post.add(parent);
                 }
-                parent = parent.getParent();
             }
+            change(Wcm.CHANGES.POST, Wcm.CHANGES.UPDATE, post.getId(), user);
             em.flush();
 		} catch (Exception e) {
 			throw new WcmException(e);
 		}			
 	}
 
+    /**
+     * @see WcmService#create(java.util.List, Long, org.gatein.wcm.domain.UserWcm)
+     */
+    @Override
+    public void create(List<Post> posts, Long categoryId, UserWcm user)
+            throws WcmAuthorizationException, WcmException {
+        if (posts == null || user == null) return;
+        Category cat = null;
+        if (categoryId != null) {
+            cat = em.find(Category.class, categoryId);
+            if (cat == null) {
+                throw new WcmException("Category " + categoryId + " not found");
+            }
+            if (!user.canWrite(cat)) {
+                throw new WcmAuthorizationException("User: " + user + " has not WRITE rights on Category " + cat);
+            }
+        }
+        try {
+            List<Long> ids = new ArrayList<Long>();
+            Change last = null;
+            int pending = 0;
+            for (Post post : posts) {
+                post.setAuthor(user.getUsername());
+                for (String group : user.getWriteGroups()) {
+                    Acl write = new Acl(group, Wcm.ACL.WRITE);
+                    write.setPost(post);
+                    post.add(write);
+                }
+                digest(post);
+                em.persist(post);
+                ids.add(post.getId());
+                last = record(Wcm.CHANGES.POST, Wcm.CHANGES.CREATE, post.getId(), user);
+                if (++pending == Wcm.BULK.BATCH) {
+                    em.flush();
+                    em.clear();
+                    pending = 0;
+                }
+            }
+            em.flush();
+            em.clear();
+            if (cat != null && last != null) {
+                List<Long> path = categoryPath(em.find(Category.class, categoryId));
+                linkPosts(path, ids);
+                em.clear();
+                stampIds(path, last.getId());
+                em.flush();
+            }
+        } catch (Exception e) {
+            throw new WcmException(e);
+        }
+    }
+
+    /**
+     * @see WcmService#addAll(java.util.Collection, Long, org.gatein.wcm.domain.UserWcm)
+     */
+    @Override
+    public void addAll(Collection<Long> postIds, Long categoryId, UserWcm user)
+            throws WcmAuthorizationException, WcmException {
+        if (postIds == null || categoryId == null || user == null) return;
+        Category cat = em.find(Category.class, categoryId);
+        if (cat == null) {
+            throw new WcmException("Category " + categoryId + " not found");
+        }
+        if (!user.canWrite(cat)) {
+            throw new WcmAuthorizationException("User: " + user + " has not WRITE rights on Category " + cat);
+        }
+        try {
+            List<Long> ids = new ArrayList<Long>();
+            for (List<Long> chunk : chunks(postIds)) {
+                for (Post post : em.createNamedQuery("listPostsIds", Post.class)
+                        .setParameter("ids", chunk)
+                        .getResultList()) {
+                    if (!user.canWrite(post)) {
+                        throw new WcmAuthorizationException("User: " + user + " has not WRITE rights on Post " + post);
+                    }
+                    ids.add(post.getId());
+                }
+            }
+            em.flush();
+            List<Long> path = categoryPath(cat);
+            linkPosts(path, ids);
+            // Categories and Posts loaded above keep their collections without new links
+            em.clear();
+            Change last = null;
+            int pending = 0;
+            for (Long id : ids) {
+                last = record(Wcm.CHANGES.POST, Wcm.CHANGES.UPDATE, id, user);
+                if (++pending == Wcm.BULK.BATCH) {
+                    em.flush();
+                    pending = 0;
+                }
+            }
+            if (last != null) {
+                stampIds(path, last.getId());
+            }
+            em.flush();
+            em.clear();
+        } catch (WcmAuthorizationException e) {
+            throw e;
+        } catch (Exception e) {
+            throw new WcmException(e);
+        }
+    }
+
+    /*
+     * Category and its parents, it's used to link an item in all Categories of a path
+     */
+    private List<Long> categoryPath(Category cat) {
+        List<Long> path = new ArrayList<Long>();
+        while (cat != null) {
+            path.add(cat.getId());
+            cat = cat.getParent();
+        }
+        return path;
+    }
+
+    /*
+     * Inserts links between Categories and Posts directly in join table.
+     * Already existing links are skipped, so it can be repeated safely.
+     * Only join table is declared as query space, so second level cache of other tables is not invalidated.
+     * Category.posts and Post.categories already loaded don't see new links, callers refresh or clear them.
+     */
+    private int linkPosts(List<Long> categoryIds, Collection<Long> postIds) {
+        int inserted = 0;
+        for (List<Long> chunk : chunks(postIds)) {
+            for (Long categoryId : categoryIds) {
+                inserted += em.createNativeQuery(LINK_POSTS)
+                        .unwrap(SQLQuery.class)
+                        .addSynchronizedQuerySpace("wcm_categories_posts")
+                        .setParameter("categoryId", categoryId)
+                        .setParameterList("ids", chunk)
+                        .executeUpdate();
+            }
+        }
+        return inserted;
+    }
+
+    /*
+     * Deletes links between Categories and Posts directly in join table.
+     */
+    private int unlinkPosts(List<Long> categoryIds, Collection<Long> postIds) {
+        int deleted = 0;
+        for (List<Long> chunk : chunks(postIds)) {
+            deleted += em.createNativeQuery(UNLINK_POSTS)
+                    .unwrap(SQLQuery.class)
+                    .addSynchronizedQuerySpace("wcm_categories_posts")
+                    .setParameterList("categoryIds", categoryIds)
+                    .setParameterList("ids", chunk)
+                    .executeUpdate();
+        }
+        return deleted;
+    }
+
     /**
      * @see WcmService#update(org.gatein.wcm.domain.Post, org.gatein.wcm.domain.UserWcm)
      */
@@ -483,21 +730,26 @@ public class WcmServiceImpl implements WcmService {
 			throw new WcmAuthorizationException("User: " + user + " has not WRITE rights on Post " + post);
 		}
 		try {
-            Long nVersion = (Long)em.createNamedQuery("maxPostVersion")
-                    .setParameter("postid", post.getId())
-                    .getResultList()
-                    .get(0);
-            if (nVersion == null || nVersion < post.getVersion()) {
-                Post postOrig = em.find(Post.class, post.getId());
+            locks.fence(post.getId(), Wcm.LOCK.POST, user);
+            Post postOrig = em.find(Post.class, post.getId(), LockModeType.PESSIMISTIC_WRITE);
+            if (em.find(PostHistory.class, postHistoryPK(postOrig.getId(), postOrig.getVersion())) == null) {
                 PostHistory postVersion = createVersion(postOrig, postOrig.getVersion());
-                em.persist(postVersion);
+                history.archive(postVersion);
             }
 
             post.setAuthor(user.getUsername());
 			post.setModified(Calendar.getInstance());
-            Long nextVersion = Math.max((nVersion == null ? 0 : nVersion) + 1, post.getVersion() + 1);
+            Long nextVersion = nextVersion(postOrig);
 			post.setVersion(nextVersion);
+            post.setLastVersion(nextVersion);
+            // Comments counters are only maintained by Comments operations
+            post.setCommentsCount(postOrig.getCommentsCount());
+            post.setCommentsPublic(postOrig.getCommentsPublic());
+            post.setCommentsPending(postOrig.getCommentsPending());
+            post.setLastCommentAt(postOrig.getLastCommentAt());
+            digest(post);
 			em.merge(post);
+            change(Wcm.CHANGES.POST, Wcm.CHANGES.UPDATE, post.getId(), user);
 		} catch (Exception e) {
 			throw new WcmException(e);
 		}			
@@ -509,24 +761,26 @@ public class WcmServiceImpl implements WcmService {
     @Override
     public void deletePost(Long id, UserWcm user) throws WcmAuthorizationException, WcmException {
         if (id == null || user == null) return;
-        Post post = em.getReference(Post.class, id);
+        Post post = em.find(Post.class, id, LockModeType.PESSIMISTIC_WRITE);
+        if (post == null) return;
         if (!user.canWrite(post)) {
             throw new WcmAuthorizationException("User: " + user + " has not WRITE rights on Post " + post);
         }
         try {
+            List<Long> linked = new ArrayList<Long>();
             for (Category cat : post.getCategories()) {
-                cat.remove(post);
-                post.remove(cat);
-                em.merge(cat);
+                linked.add(cat.getId());
             }
-            Long nVersion = (Long)em.createNamedQuery("maxPostVersion")
-                    .setParameter("postid", post.getId())
-                    .getResultList()
-                    .get(0);
-            PostHistory postVersion = createVersion(post, nVersion == null ? 0 : nVersion + 1);
+            if (!linked.isEmpty()) {
+                em.flush();
+                unlinkPosts(linked, Collections.singletonList(id));
+                post.getCategories().clear();
+            }
+            PostHistory postVersion = createVersion(post, nextVersion(post));
             postVersion.setDeleted(Calendar.getInstance());
-            em.persist(postVersion);
+            history.archive(postVersion);
             em.remove(post);
+            stampIds(linked, change(Wcm.CHANGES.POST, Wcm.CHANGES.DELETE, id, user).getId());
         } catch (Exception e) {
             throw new WcmException(e);
         }
@@ -559,7 +813,7 @@ public class WcmServiceImpl implements WcmService {
         if (id == null) return null;
         try {
             Post p = em.find(Post.class, id);
-            if (p.getLocale() != null && !p.getLocale().equals(locale)) {
+            if (p != null && p.getLocale() != null && !p.getLocale().equals(locale)) {
                 RelationshipPK pk = new RelationshipPK();
                 pk.setOriginId(id);
                 pk.setKey(locale);
@@ -581,6 +835,67 @@ public class WcmServiceImpl implements WcmService {
         }
     }
 
+    /**
+     * @see WcmService#findPosts(java.util.Collection, String, org.gatein.wcm.domain.UserWcm)
+     */
+    @Override
+    public List<Post> findPosts(Collection<Long> ids, String locale, UserWcm user) throws WcmException {
+        if (user == null) return null;
+        if (ids == null) return null;
+        try {
+            Map<Long, Post> posts = new HashMap<Long, Post>();
+            for (List<Long> chunk : chunks(ids)) {
+                for (Post p : em.createNamedQuery("listPostsIds", Post.class)
+                        .setParameter("ids", chunk)
+                        .getResultList()) {
+                    posts.put(p.getId(), p);
+                }
+            }
+            if (locale != null && !"".equals(locale)) {
+                List<Long> translate = new ArrayList<Long>();
+                for (Post p : posts.values()) {
+                    if (p.getLocale() != null && !p.getLocale().equals(locale)) {
+                        translate.add(p.getId());
+                    }
+                }
+                Map<Long, Long> aliases = new HashMap<Long, Long>();
+                for (List<Long> chunk : chunks(translate)) {
+                    for (Relationship r : em.createNamedQuery("listRelationshipsKey", Relationship.class)
+                            .setParameter("ids", chunk)
+                            .setParameter("type", Wcm.RELATIONSHIP.POST)
+                            .setParameter("key", locale)
+                            .getResultList()) {
+                        aliases.put(r.getOriginId(), r.getAliasId());
+                    }
+                }
+                Map<Long, Post> translated = new HashMap<Long, Post>();
+                for (List<Long> chunk : chunks(new HashSet<Long>(aliases.values()))) {
+                    for (Post p : em.createNamedQuery("listPostsIds", Post.class)
+                            .setParameter("ids", chunk)
+                            .getResultList()) {
+                        translated.put(p.getId(), p);
+                    }
+                }
+                for (Map.Entry<Long, Long> alias : aliases.entrySet()) {
+                    Post pr = translated.get(alias.getValue());
+                    if (pr != null) {
+                        posts.put(alias.getKey(), pr);
+                    }
+                }
+            }
+            List<Post> result = new ArrayList<Post>();
+            for (Long id : ids) {
+                Post p = posts.get(id);
+                if (p != null && user.canRead(p)) {
+                    result.add(p);
+                }
+            }
+            return result;
+        } catch (Exception e) {
+            throw new WcmException(e);
+        }
+    }
+
     /**
      * @see WcmService#findPosts(org.gatein.wcm.domain.UserWcm)
      */
@@ -653,6 +968,122 @@ public class WcmServiceImpl implements WcmService {
         }
     }
 
+    /**
+     * @see WcmService#findPosts(int, int, org.gatein.wcm.domain.UserWcm)
+     */
+    @Override
+    public List<Post> findPosts(int offset, int limit, UserWcm user) throws WcmException {
+        if (user == null) return null;
+        try {
+            return page(null, null, null, null, offset, limit, user);
+        } catch (Exception e) {
+            throw new WcmException(e);
+        }
+    }
+
+    /**
+     * @see WcmService#findPostsAfter(java.util.Calendar, Long, int, org.gatein.wcm.domain.UserWcm)
+     */
+    @Override
+    public List<Post> findPostsAfter(Calendar afterModified, Long afterId, int max, UserWcm user) throws WcmException {
+        if (user == null) return null;
+        List<Post> result = new ArrayList<Post>();
+        if (max <= 0) return result;
+        try {
+            Calendar lastModified = afterModified;
+            if (lastModified == null) {
+                lastModified = Calendar.getInstance();
+                lastModified.setTimeInMillis(0);
+            }
+            Long last = afterId == null ? new Long(0) : afterId;
+            while (true) {
+                List<Post> rows = em.createNamedQuery("listPostsAfter", Post.class)
+                        .setParameter("modified", lastModified)
+                        .setParameter("id", last)
+                        .setMaxResults(max)
+                        .getResultList();
+                em.clear();
+                for (Post p : rows) {
+                    lastModified = p.getModified();
+                    last = p.getId();
+                    if (user.canRead(p)) {
+                        result.add(p);
+                        if (result.size() == max) return result;
+                    }
+                }
+                if (rows.size() < max) return result;
+            }
+        } catch (Exception e) {
+            throw new WcmException(e);
+        }
+    }
+
+    /**
+     * @see WcmService#findPosts(Long, String, Character, int, int, org.gatein.wcm.domain.UserWcm)
+     */
+    @Override
+    public List<Post> findPosts(Long categoryId, String locale, Character status, int offset, int limit, UserWcm user) throws WcmException {
+        if (user == null) return null;
+        try {
+            return page(categoryId, status, null, locale, offset, limit, user);
+        } catch (Exception e) {
+            throw new WcmException(e);
+        }
+    }
+
+    /**
+     * @see WcmService#findPosts(Long, String, Character, Post, int, org.gatein.wcm.domain.UserWcm)
+     */
+    @Override
+    public List<Post> findPosts(Long categoryId, String locale, Character status, Post before, int limit, UserWcm user) throws WcmException {
+        if (user == null) return null;
+        try {
+            return page(categoryId, status, before, locale, 0, limit, user);
+        } catch (Exception e) {
+            throw new WcmException(e);
+        }
+    }
+
+    /*
+     * Scans Posts newest first in chunks until limit readable Posts are collected after skipping offset readable Posts.
+     * Every chunk seeks after (modified, id) of the last row read, so rows already read are never scanned again.
+     * ACL is checked after locale translation, as the translated Post is the one returned.
+     */
+    private List<Post> page(Long categoryId, Character status, Post before, String locale, int offset, int limit, UserWcm user) throws Exception {
+        List<Post> result = new ArrayList<Post>();
+        if (limit <= 0) return result;
+        if (offset < 0) offset = 0;
+        String name = "listPosts" + (categoryId != null ? "Category" : "") + (status != null ? "Status" : "") + "Page";
+        int chunk = Math.max(limit, PAGE_CHUNK);
+        Calendar modified = before != null ? before.getModified() : null;
+        Long id = before != null ? before.getId() : null;
+        int skipped = 0;
+        while (true) {
+            TypedQuery<Post> query = em.createNamedQuery(modified != null && id != null ? name + "Before" : name, Post.class);
+            if (categoryId != null) query.setParameter("categoryId", categoryId);
+            if (status != null) query.setParameter("status", status);
+            if (modified != null && id != null) {
+                query.setParameter("modified", modified)
+                        .setParameter("id", id);
+            }
+            List<Post> rows = query.setMaxResults(chunk).getResultList();
+            if (!rows.isEmpty()) {
+                modified = rows.get(rows.size() - 1).getModified();
+                id = rows.get(rows.size() - 1).getId();
+            }
+            for (Post p : localeFilter(rows, locale)) {
+                if (!user.canRead(p)) continue;
+                if (skipped < offset) {
+                    skipped++;
+                    continue;
+                }
+                result.add(p);
+                if (result.size() == limit) return result;
+            }
+            if (rows.size() < chunk) return result;
+        }
+    }
+
     /**
      * @see WcmService#findPosts(String, org.gatein.wcm.domain.UserWcm)
      */
@@ -670,6 +1101,29 @@ public class WcmServiceImpl implements WcmService {
         }
     }
 
+    /**
+     * @see WcmService#searchPosts(String, int, org.gatein.wcm.domain.UserWcm)
+     */
+    @Override
+    public List<Post> searchPosts(String query, int max, UserWcm user) throws WcmException {
+        if (user == null) return null;
+        if (query == null) return null;
+        if (max <= 0 || max > Wcm.SEARCH.MAX) max = Wcm.SEARCH.MAX;
+        List<Long> ids = search.search(Wcm.SEARCH.POST, query, Wcm.SEARCH.MAX);
+        if (ids == null) {
+            List<Post> result = findPosts(query, user);
+            return result.size() > max ? new ArrayList<Post>(result.subList(0, max)) : result;
+        }
+        List<Post> result = new ArrayList<Post>();
+        for (List<Long> chunk : chunks(ids)) {
+            for (Post p : findPosts(chunk, null, user)) {
+                result.add(p);
+                if (result.size() == max) return result;
+            }
+        }
+        return result;
+    }
+
     /**
      * @see WcmService#versionsPost(Long, UserWcm)
      */
@@ -708,12 +1162,9 @@ public class WcmServiceImpl implements WcmService {
                             .getResultList();
                     if (versions != null && !versions.contains(post.getVersion())) {
                         PostHistory postHistoryCurrent = createVersion(post, post.getVersion());
-                        em.persist(postHistoryCurrent);
+                        history.archive(postHistoryCurrent);
                     }
-                    PostHistoryPK key = new PostHistoryPK();
-                    key.setId(postId);
-                    key.setVersion(version);
-                    PostHistory postH = em.find(PostHistory.class, key);
+                    PostHistory postH = history.findPostVersion(postId, version);
                     if (postH != null) {
                         post.setTitle(postH.getTitle());
                         post.setExcerpt(postH.getExcerpt());
@@ -723,7 +1174,9 @@ public class WcmServiceImpl implements WcmService {
                         post.setModified(Calendar.getInstance());
                         post.setLocale(postH.getLocale());
                         post.setPostStatus(postH.getPostStatus());
+                        digest(post);
                         em.merge(post);
+                        change(Wcm.CHANGES.POST, Wcm.CHANGES.UPDATE, postId, user);
                     }
                 }
             }
@@ -732,6 +1185,25 @@ public class WcmServiceImpl implements WcmService {
         }
     }
 
+    /**
+     * @see WcmService#compactHistory(org.gatein.wcm.domain.UserWcm)
+     */
+    @Override
+    public int compactHistory(UserWcm user) throws WcmAuthorizationException, WcmException {
+        if (user == null) {
+            throw new WcmException("Illegal compactHistory() invocation");
+        }
+        if (!user.isManager()) {
+            throw new WcmAuthorizationException("compactHistory() is an operation for managers.");
+        }
+        int encoded = 0;
+        for (Long postId : history.findPostsWithHistory()) {
+            encoded += history.compactPost(postId);
+        }
+        log.info("Compacted " + encoded + " versions in Posts' history");
+        return encoded;
+    }
+
     /**
      * @see WcmService#remove(org.gatein.wcm.domain.Acl, org.gatein.wcm.domain.UserWcm)
      */
@@ -749,6 +1221,7 @@ public class WcmServiceImpl implements WcmService {
                 p.getAcls().remove(pAcl);
                 pAcl.setPost(null);
                 em.remove(pAcl);
+                change(Wcm.CHANGES.ACL, Wcm.CHANGES.DELETE, acl.getId(), Wcm.CHANGES.POST, p.getId(), user);
             } else if (acl.getUpload() != null) {
                 Upload u = em.find(Upload.class, acl.getUpload().getId());
                 if (!user.canWrite(u)) {
@@ -758,6 +1231,7 @@ public class WcmServiceImpl implements WcmService {
                 u.getAcls().remove(pAcl);
                 pAcl.setUpload(null);
                 em.remove(pAcl);
+                change(Wcm.CHANGES.ACL, Wcm.CHANGES.DELETE, acl.getId(), Wcm.CHANGES.UPLOAD, u.getId(), user);
             } else if (acl.getCategory() != null) {
                 Category c = em.find(Category.class, acl.getCategory().getId());
                 if (!user.canWrite(c)) {
@@ -767,6 +1241,7 @@ public class WcmServiceImpl implements WcmService {
                 c.getAcls().remove(pAcl);
                 pAcl.setCategory(null);
                 em.remove(pAcl);
+                change(Wcm.CHANGES.ACL, Wcm.CHANGES.DELETE, acl.getId(), Wcm.CHANGES.CATEGORY, c.getId(), user);
             }
         } catch (Exception e) {
             throw new WcmException(e);
@@ -786,10 +1261,15 @@ public class WcmServiceImpl implements WcmService {
             Post p = em.find(Post.class, c.getPost().getId());
             if (user.canWrite(p)) {
                     Comment delete = em.find(Comment.class, c.getId());
-                    if (delete != null) {
+                    if (delete != null && delete.getPost() != null && delete.getPost().getId().equals(p.getId())) {
                         delete.setPost(null);
-                        p.getComments().remove(delete);
+                        // Comments collection is not loaded to remove a single Comment
+                        if (Hibernate.isInitialized(p.getComments())) {
+                            p.getComments().remove(delete);
+                        }
                         em.remove(delete);
+                        recountComments(p.getId());
+                        change(Wcm.CHANGES.COMMENT, Wcm.CHANGES.DELETE, c.getId(), Wcm.CHANGES.POST, p.getId(), user);
                     }
             } else {
                 throw new WcmAuthorizationException("User: " + user + " has not WRITE rights on Post " + p);
@@ -799,6 +1279,148 @@ public class WcmServiceImpl implements WcmService {
         }
     }
 
+    /**
+     * @see WcmService#update(org.gatein.wcm.domain.Comment, org.gatein.wcm.domain.UserWcm)
+     */
+    @Override
+    public void update(Comment c, UserWcm user) throws WcmAuthorizationException, WcmException {
+        if (c == null || c.getId() == null || c.getStatus() == null || user == null) return;
+        try {
+            Comment comment = em.find(Comment.class, c.getId());
+            if (comment == null || comment.getPost() == null) return;
+            Post p = comment.getPost();
+            if (!user.canWrite(p)) {
+                throw new WcmAuthorizationException("User: " + user + " has not WRITE rights on Post " + p);
+            }
+            if (c.getStatus().equals(comment.getStatus())) return;
+            comment.setStatus(c.getStatus());
+            recountComments(p.getId());
+            change(Wcm.CHANGES.COMMENT, Wcm.CHANGES.UPDATE, comment.getId(), Wcm.CHANGES.POST, p.getId(), user);
+        } catch (WcmAuthorizationException e) {
+            throw e;
+        } catch (Exception e) {
+            throw new WcmException(e);
+        }
+    }
+
+    /**
+     * @see WcmService#findComments(Long, Character, Long, int, org.gatein.wcm.domain.UserWcm)
+     */
+    @Override
+    public List<Comment> findComments(Long postId, Character status, Long before, int limit, UserWcm user) throws WcmException {
+        if (postId == null || user == null) return null;
+        try {
+            Post post = access(postId);
+            if (post == null || !user.canRead(post)) return null;
+            boolean canWrite = user.canWrite(post);
+            if (status == null && !canWrite) return null;
+            if (!canWrite && Wcm.COMMENTS.NO_COMMENTS.equals(post.getCommentsStatus())) return new ArrayList<Comment>();
+            // Projection, a Comment entity would load its Post
+            Query query;
+            if (status == null) {
+                query = before == null ? em.createNamedQuery("listAllCommentsPost") : em.createNamedQuery("listAllCommentsPostBefore").setParameter("before", before);
+            } else {
+                query = before == null ? em.createNamedQuery("listCommentsPost") : em.createNamedQuery("listCommentsPostBefore").setParameter("before", before);
+                query.setParameter("status", status);
+            }
+            query.setParameter("postId", postId);
+            if (limit > 0) query.setMaxResults(limit);
+            List<Object[]> rows = query.getResultList();
+            List<Comment> result = new ArrayList<Comment>(rows.size());
+            for (Object[] row : rows) {
+                Comment c = new Comment();
+                c.setId((Long)row[0]);
+                c.setAuthor((String)row[1]);
+                c.setAuthorEmail((String)row[2]);
+                c.setAuthorUrl((String)row[3]);
+                c.setCreated((Calendar)row[4]);
+                c.setContent((String)row[5]);
+                c.setStatus((Character)row[6]);
+                c.setPost(post);
+                result.add(c);
+            }
+            return result;
+        } catch (Exception e) {
+            throw new WcmException(e);
+        }
+    }
+
+    /**
+     * @see WcmService#findComments(java.util.Collection, org.gatein.wcm.domain.UserWcm)
+     */
+    @Override
+    public Map<Long, List<Comment>> findComments(Collection<Post> posts, UserWcm user) throws WcmException {
+        if (posts == null || user == null) return null;
+        Map<Long, List<Comment>> result = new HashMap<Long, List<Comment>>();
+        Map<Long, Post> all = new HashMap<Long, Post>();
+        Map<Long, Post> published = new HashMap<Long, Post>();
+        for (Post p : posts) {
+            if (p == null || p.getId() == null || !user.canRead(p)) continue;
+            result.put(p.getId(), new ArrayList<Comment>());
+            if (user.canWrite(p)) {
+                all.put(p.getId(), p);
+            } else if (!Wcm.COMMENTS.NO_COMMENTS.equals(p.getCommentsStatus())) {
+                published.put(p.getId(), p);
+            }
+        }
+        try {
+            for (List<Long> chunk : chunks(all.keySet())) {
+                comments(em.createNamedQuery("listAllCommentsPosts")
+                        .setParameter("ids", chunk), all, result);
+            }
+            for (List<Long> chunk : chunks(published.keySet())) {
+                comments(em.createNamedQuery("listCommentsPosts")
+                        .setParameter("ids", chunk)
+                        .setParameter("status", Wcm.COMMENT.PUBLIC), published, result);
+            }
+            return result;
+        } catch (Exception e) {
+            throw new WcmException(e);
+        }
+    }
+
+    /*
+     * Comments from a projection with Post's id first, a Comment entity would load its Post
+     */
+    private void comments(Query query, Map<Long, Post> posts, Map<Long, List<Comment>> result) {
+        List<Object[]> rows = query.getResultList();
+        for (Object[] row : rows) {
+            Comment c = new Comment();
+            c.setId((Long)row[1]);
+            c.setAuthor((String)row[2]);
+            c.setAuthorEmail((String)row[3]);
+            c.setAuthorUrl((String)row[4]);
+            c.setCreated((Calendar)row[5]);
+            c.setContent((String)row[6]);
+            c.setStatus((Character)row[7]);
+            c.setPost(posts.get(row[0]));
+            result.get(row[0]).add(c);
+        }
+    }
+
+    /*
+     * Detached Post with id, comments status and Acls, enough to check user rights without loading the Post.
+     */
+    private Post access(Long postId) {
+        List<Object[]> rows = em.createNamedQuery("listPostAccess")
+                .setParameter("id", postId)
+                .getResultList();
+        if (rows.isEmpty()) return null;
+        Post post = new Post();
+        post.setId(postId);
+        post.setCommentsStatus((Character)rows.get(0)[0]);
+        Set<Acl> acls = new HashSet<Acl>();
+        for (Object[] row : rows) {
+            if (row[1] == null) continue;
+            Acl acl = new Acl();
+            acl.setPrincipal((String)row[1]);
+            acl.setPermission((Character)row[2]);
+            acls.add(acl);
+        }
+        post.setAcls(acls);
+        return post;
+    }
+
     private PostHistory createVersion(Post post, Long nVersion) {
 		if (post == null || post.getId() == null || post.getVersion() == null) return null;		
 		PostHistory copy = new PostHistory();
@@ -826,14 +1448,69 @@ public class WcmServiceImpl implements WcmService {
 		}
 		comment.setPost(post);
 		try {
-			comment.setPost(post);
+			// Comment owns the relationship, Post is not merged
 			em.persist(comment);
-			em.merge(post);
+            countComments(post.getId(), 1, Wcm.COMMENT.PUBLIC.equals(comment.getStatus()) ? 1 : 0,
+                    Wcm.COMMENT.PENDING.equals(comment.getStatus()) ? 1 : 0, comment.getCreated());
+            change(Wcm.CHANGES.COMMENT, Wcm.CHANGES.CREATE, comment.getId(), Wcm.CHANGES.POST, post.getId(), comment.getAuthor());
 		} catch (Exception e) {
 			throw new WcmException(e);
 		}		
 	}
 
+    /**
+     * @see WcmService#add(java.util.List)
+     */
+    @Override
+    public void add(List<Comment> comments) throws WcmException {
+        if (comments == null || comments.isEmpty()) return;
+        try {
+            Set<Long> postIds = new HashSet<Long>();
+            for (Comment c : comments) {
+                if (c.getPost() != null && c.getPost().getId() != null) postIds.add(c.getPost().getId());
+            }
+            // Only comments status is read, Posts and their Comments are not loaded
+            Map<Long, Character> status = new HashMap<Long, Character>();
+            for (List<Long> chunk : chunks(postIds)) {
+                List<Object[]> rows = em.createNamedQuery("listPostsCommentsStatus")
+                        .setParameter("ids", chunk)
+                        .getResultList();
+                for (Object[] row : rows) {
+                    status.put((Long)row[0], (Character)row[1]);
+                }
+            }
+            // Counters per Post: count, public, pending. Posts are locked in id order
+            Map<Long, int[]> counters = new TreeMap<Long, int[]>();
+            Map<Long, Calendar> last = new HashMap<Long, Calendar>();
+            for (Comment c : comments) {
+                Long postId = c.getPost() != null ? c.getPost().getId() : null;
+                Character commentsStatus = status.get(postId);
+                if (commentsStatus == null || commentsStatus.equals(Wcm.COMMENTS.NO_COMMENTS)) {
+                    log.warning("Post: " + postId + " doesn't accept comments. Comment from " + c.getAuthor() + " is discarded.");
+                    continue;
+                }
+                em.persist(c);
+                change(Wcm.CHANGES.COMMENT, Wcm.CHANGES.CREATE, c.getId(), Wcm.CHANGES.POST, postId, c.getAuthor());
+                int[] counter = counters.get(postId);
+                if (counter == null) {
+                    counter = new int[3];
+                    counters.put(postId, counter);
+                }
+                counter[0]++;
+                if (Wcm.COMMENT.PUBLIC.equals(c.getStatus())) counter[1]++;
+                if (Wcm.COMMENT.PENDING.equals(c.getStatus())) counter[2]++;
+                if (last.get(postId) == null || c.getCreated().after(last.get(postId))) {
+                    last.put(postId, c.getCreated());
+                }
+            }
+            for (Map.Entry<Long, int[]> counter : counters.entrySet()) {
+                countComments(counter.getKey(), counter.getValue()[0], counter.getValue()[1], counter.getValue()[2], last.get(counter.getKey()));
+            }
+        } catch (Exception e) {
+            throw new WcmException(e);
+        }
+    }
+
     /**
      * @see WcmService#remove(org.gatein.wcm.domain.Post, org.gatein.wcm.domain.Comment, org.gatein.wcm.domain.UserWcm)
      */
@@ -841,16 +1518,20 @@ public class WcmServiceImpl implements WcmService {
 	public void remove(Post post, Comment comment, UserWcm user)
 			throws WcmAuthorizationException, WcmException {
 		if (post == null || comment == null || post.getId() == null || comment.getId() == null) return;
-		if (!post.getComments().contains(comment)) return;
 		if (!user.canWrite(post)) {
 			throw new WcmAuthorizationException("User: " + user + " has not WRITE rights on Post " + post);
 		}				
-		comment.setPost(null);
-		post.getComments().remove(comment);		
 		try {
 			comment = em.find(Comment.class, comment.getId());
+			if (comment == null || comment.getPost() == null || !post.getId().equals(comment.getPost().getId())) return;
+			Post p = comment.getPost();
+			comment.setPost(null);
+			if (Hibernate.isInitialized(p.getComments())) {
+				p.getComments().remove(comment);
+			}
 			em.remove(comment);
-			em.merge(post);
+            recountComments(post.getId());
+            change(Wcm.CHANGES.COMMENT, Wcm.CHANGES.DELETE, comment.getId(), Wcm.CHANGES.POST, post.getId(), user);
 		} catch (Exception e) {
 			throw new WcmException(e);
 		}		
@@ -867,28 +1548,33 @@ public class WcmServiceImpl implements WcmService {
             throw new WcmAuthorizationException("User: " + user + " has not WRITE rights on Post " + post);
         }
         try {
-            Category cat = em.find(Category.class, catId);
-            cat.getPosts().remove(post);
-            post.getCategories().remove(cat);
-            em.merge(cat);
-            em.merge(post);
-            // Remove Category's children
-            List<Category> children = findChildren(cat, user);
-            while (post.getCategories().size() > 0 && children.size() > 0) {
-                for (Iterator<Category> iterator = children.iterator(); iterator.hasNext();) {
-                    Category child = iterator.next();
-                    if (post.getCategories().contains(child)) {
-                        post.getCategories().remove(child);
-                        child.getPosts().remove(post);
-                        iterator.remove();
-                        List<Category> childrenChild = findChildren(child, user);
-                        for (Category cChild : childrenChild) {
-                            children.add(cChild);
-                        }
+            // Remove Category's children linked with Post
+            Set<Long> linked = new HashSet<Long>();
+            for (Category c : post.getCategories()) {
+                linked.add(c.getId());
+            }
+            List<Long> ids = new ArrayList<Long>();
+            ids.add(catId);
+            List<Category> children = findChildren(catId, user);
+            while (children != null && children.size() > 0) {
+                List<Category> next = new ArrayList<Category>();
+                for (Category child : children) {
+                    if (linked.contains(child.getId())) {
+                        ids.add(child.getId());
+                        next.addAll(findChildren(child, user));
                     }
                 }
+                children = next;
             }
             em.flush();
+            unlinkPosts(ids, Collections.singletonList(postId));
+            for (Iterator<Category> iterator = post.getCategories().iterator(); iterator.hasNext();) {
+                if (ids.contains(iterator.next().getId())) {
+                    iterator.remove();
+                }
+            }
+            stampIds(ids, change(Wcm.CHANGES.POST, Wcm.CHANGES.UPDATE, postId, user).getId());
+            em.flush();
         } catch (Exception e) {
             throw new WcmException(e);
         }
@@ -913,6 +1599,7 @@ public class WcmServiceImpl implements WcmService {
 			upload.setStoredName(storedName);
 			upload.setUser(user.getUsername());
 			em.persist(upload);			
+            change(Wcm.CHANGES.UPLOAD, Wcm.CHANGES.CREATE, upload.getId(), user);
 		} catch (Exception e) {
 			throw new WcmException(e);
 		}	
@@ -961,12 +1648,9 @@ public class WcmServiceImpl implements WcmService {
 			throw new WcmAuthorizationException("User: " + user + " has not WRITE rights on Upload " + upload);
 		}	
 		try {
-            Long nVersion = (Long)em.createNamedQuery("maxUploadVersion")
-                    .setParameter("uploadid", upload.getId())
-                    .getResultList()
-                    .get(0);
-            if (nVersion == null || nVersion < upload.getVersion()) {
-                Upload uploadOrig = em.find(Upload.class, upload.getId());
+            locks.fence(upload.getId(), Wcm.LOCK.UPLOAD, user);
+            Upload uploadOrig = em.find(Upload.class, upload.getId(), LockModeType.PESSIMISTIC_WRITE);
+            if (em.find(UploadHistory.class, uploadHistoryPK(uploadOrig.getId(), uploadOrig.getVersion())) == null) {
                 UploadHistory uploadVersion = createVersion(uploadOrig, uploadOrig.getVersion());
                 em.persist(uploadVersion);
             }
@@ -977,11 +1661,13 @@ public class WcmServiceImpl implements WcmService {
 			copyFile(is, storedName);
 			upload.setStoredName(storedName);
 
-            Long nextVersion = Math.max((nVersion == null ? 0 : nVersion) + 1, upload.getVersion() + 1);
+            Long nextVersion = nextVersion(uploadOrig);
 			upload.setVersion(nextVersion);
+            upload.setLastVersion(nextVersion);
 			upload.setUser(user.getUsername());
             upload.setModified(Calendar.getInstance());
 			em.merge(upload);				
+            change(Wcm.CHANGES.UPLOAD, Wcm.CHANGES.UPDATE, upload.getId(), user);
 		} catch (Exception e) {
 			throw new WcmException(e);
 		}		
@@ -1013,21 +1699,20 @@ public class WcmServiceImpl implements WcmService {
 			throw new WcmAuthorizationException("User: " + user + " has not WRITE rights on Upload " + upload);
 		}	
 		try {
-            Long nVersion = (Long)em.createNamedQuery("maxUploadVersion")
-                    .setParameter("uploadid", upload.getId())
-                    .getResultList()
-                    .get(0);
-            if (nVersion == null || nVersion < upload.getVersion()) {
-                Upload uploadOrig = em.find(Upload.class, upload.getId());
+            locks.fence(upload.getId(), Wcm.LOCK.UPLOAD, user);
+            Upload uploadOrig = em.find(Upload.class, upload.getId(), LockModeType.PESSIMISTIC_WRITE);
+            if (em.find(UploadHistory.class, uploadHistoryPK(uploadOrig.getId(), uploadOrig.getVersion())) == null) {
                 UploadHistory uploadVersion = createVersion(uploadOrig, uploadOrig.getVersion());
                 em.persist(uploadVersion);
             }
 
-            Long nextVersion = Math.max((nVersion == null ? 0 : nVersion) + 1, upload.getVersion() + 1);
+            Long nextVersion = nextVersion(uploadOrig);
             upload.setVersion(nextVersion);
+            upload.setLastVersion(nextVersion);
             upload.setUser(user.getUsername());
             upload.setModified(Calendar.getInstance());
             em.merge(upload);
+            change(Wcm.CHANGES.UPLOAD, Wcm.CHANGES.UPDATE, upload.getId(), user);
 		} catch (Exception e) {
 			throw new WcmException(e);
 		}	
@@ -1044,18 +1729,16 @@ public class WcmServiceImpl implements WcmService {
 			throw new WcmAuthorizationException("User: " + user + " has not WRITE rights on Upload " + upload);
 		}			
 		try {
-            upload = em.getReference(Upload.class, upload.getId());
-            Long nVersion = (Long)em.createNamedQuery("maxUploadVersion")
-                    .setParameter("uploadid", upload.getId())
-                    .getResultList()
-                    .get(0);
-            UploadHistory version = createVersion(upload, nVersion == null ? 0 : nVersion + 1);
+            upload = em.find(Upload.class, upload.getId(), LockModeType.PESSIMISTIC_WRITE);
+            if (upload == null) return;
+            UploadHistory version = createVersion(upload, nextVersion(upload));
 			version.setDeleted(Calendar.getInstance());
 			em.persist(version);
             for (Category c : upload.getCategories()) {
                 c.getUploads().remove(upload);
             }
 			em.remove(upload);
+            stamp(upload.getCategories(), change(Wcm.CHANGES.UPLOAD, Wcm.CHANGES.DELETE, upload.getId(), user).getId());
 		} catch (Exception e) {
 			throw new WcmException(e);
 		}
@@ -1103,6 +1786,29 @@ public class WcmServiceImpl implements WcmService {
         }
     }
 
+    /**
+     * @see WcmService#searchUploads(String, int, org.gatein.wcm.domain.UserWcm)
+     */
+    @Override
+    public List<Upload> searchUploads(String query, int max, UserWcm user) throws WcmException {
+        if (user == null) return null;
+        if (query == null) return null;
+        if (max <= 0 || max > Wcm.SEARCH.MAX) max = Wcm.SEARCH.MAX;
+        List<Long> ids = search.search(Wcm.SEARCH.UPLOAD, query, Wcm.SEARCH.MAX);
+        if (ids == null) {
+            List<Upload> result = findUploads(query, user);
+            return result.size() > max ? new ArrayList<Upload>(result.subList(0, max)) : result;
+        }
+        List<Upload> result = new ArrayList<Upload>();
+        for (List<Long> chunk : chunks(ids)) {
+            for (Upload u : findUploads(chunk, user)) {
+                result.add(u);
+                if (result.size() == max) return result;
+            }
+        }
+        return result;
+    }
+
     /**
      * @see WcmService#add(org.gatein.wcm.domain.Upload, org.gatein.wcm.domain.Category, org.gatein.wcm.domain.UserWcm)
      */
@@ -1131,6 +1837,7 @@ public class WcmServiceImpl implements WcmService {
                 }
                 parent = parent.getParent();
             }
+            change(Wcm.CHANGES.UPLOAD, Wcm.CHANGES.UPDATE, upload.getId(), user);
             em.flush();
         } catch (Exception e) {
             throw new WcmException(e);
@@ -1148,6 +1855,7 @@ public class WcmServiceImpl implements WcmService {
             throw new WcmAuthorizationException("User: " + user + " has not WRITE rights on Upload " + upload);
         }
         try {
+            List<Category> linked = new ArrayList<Category>(upload.getCategories());
             Category cat = em.find(Category.class, catId);
             cat.getUploads().remove(upload);
             upload.getCategories().remove(cat);
@@ -1169,6 +1877,7 @@ public class WcmServiceImpl implements WcmService {
                     }
                 }
             }
+            stamp(linked, change(Wcm.CHANGES.UPLOAD, Wcm.CHANGES.UPDATE, uploadId, user).getId());
             em.flush();
         } catch (Exception e) {
             throw new WcmException(e);
@@ -1193,6 +1902,35 @@ public class WcmServiceImpl implements WcmService {
         }
     }
 
+    /**
+     * @see WcmService#findUploads(java.util.Collection, org.gatein.wcm.domain.UserWcm)
+     */
+    @Override
+    public List<Upload> findUploads(Collection<Long> ids, UserWcm user) throws WcmException {
+        if (user == null) return null;
+        if (ids == null) return null;
+        try {
+            Map<Long, Upload> uploads = new HashMap<Long, Upload>();
+            for (List<Long> chunk : chunks(ids)) {
+                for (Upload u : em.createNamedQuery("listUploadsIds", Upload.class)
+                        .setParameter("ids", chunk)
+                        .getResultList()) {
+                    uploads.put(u.getId(), u);
+                }
+            }
+            List<Upload> result = new ArrayList<Upload>();
+            for (Long id : ids) {
+                Upload u = uploads.get(id);
+                if (u != null && user.canRead(u)) {
+                    result.add(u);
+                }
+            }
+            return result;
+        } catch (Exception e) {
+            throw new WcmException(e);
+        }
+    }
+
     /**
      * @see WcmService#findUploads(Long, org.gatein.wcm.domain.UserWcm)
      */
@@ -1263,6 +2001,7 @@ public class WcmServiceImpl implements WcmService {
                         upload.setUser(user.getUsername());
                         upload.setModified(Calendar.getInstance());
                         em.merge(upload);
+                        change(Wcm.CHANGES.UPLOAD, Wcm.CHANGES.UPDATE, uploadId, user);
                     }
                 }
             }
@@ -1283,6 +2022,7 @@ public class WcmServiceImpl implements WcmService {
         }
         try {
             em.persist(temp);
+            change(Wcm.CHANGES.TEMPLATE, Wcm.CHANGES.CREATE, temp.getId(), user);
         } catch (Exception e) {
             throw new WcmException(e);
         }
@@ -1339,6 +2079,40 @@ public class WcmServiceImpl implements WcmService {
         }
     }
 
+    /**
+     * @see WcmService#searchTemplates(String, int, org.gatein.wcm.domain.UserWcm)
+     */
+    @Override
+    public List<Template> searchTemplates(String query, int max, UserWcm user) throws WcmException {
+        if (user == null) return null;
+        if (query == null) return null;
+        if (max <= 0 || max > Wcm.SEARCH.MAX) max = Wcm.SEARCH.MAX;
+        List<Long> ids = search.search(Wcm.SEARCH.TEMPLATE, query, max);
+        if (ids == null) {
+            List<Template> result = findTemplates(query, user);
+            return result.size() > max ? new ArrayList<Template>(result.subList(0, max)) : result;
+        }
+        try {
+            Map<Long, Template> templates = new HashMap<Long, Template>();
+            for (List<Long> chunk : chunks(ids)) {
+                for (Template t : em.createNamedQuery("listTemplatesIds", Template.class)
+                        .setParameter("ids", chunk)
+                        .getResultList()) {
+                    templates.put(t.getId(), t);
+                }
+            }
+            // In this version we don't have ACL on Template entities
+            List<Template> result = new ArrayList<Template>(templates.size());
+            for (Long id : ids) {
+                Template t = templates.get(id);
+                if (t != null) result.add(t);
+            }
+            return result;
+        } catch (Exception e) {
+            throw new WcmException(e);
+        }
+    }
+
     /**
      * @see WcmService#findTemplate(Long, org.gatein.wcm.domain.UserWcm)
      */
@@ -1408,6 +2182,7 @@ public class WcmServiceImpl implements WcmService {
                 }
                 parent = parent.getParent();
             }
+            change(Wcm.CHANGES.TEMPLATE, Wcm.CHANGES.UPDATE, template.getId(), user);
             em.flush();
         } catch (Exception e) {
             throw new WcmException(e);
@@ -1424,19 +2199,17 @@ public class WcmServiceImpl implements WcmService {
             throw new WcmAuthorizationException("User: " + user + " has not ADMIN rights to WRITE Template ");
         }
         try {
-            Template template = em.getReference(Template.class, id);
+            Template template = em.find(Template.class, id, LockModeType.PESSIMISTIC_WRITE);
+            if (template == null) return;
             // Template object has not versioning functionality
             for (Category c : template.getCategories()) {
                 c.getTemplates().remove(template);
             }
-            Long nVersion = (Long)em.createNamedQuery("maxTemplateVersion")
-                    .setParameter("templateid", template.getId())
-                    .getResultList()
-                    .get(0);
-            TemplateHistory templateVersion = createVersion(template, nVersion == null ? 0 : nVersion + 1);
+            TemplateHistory templateVersion = createVersion(template, nextVersion(template));
             templateVersion.setDeleted(Calendar.getInstance());
             em.persist(templateVersion);
             em.remove(template);
+            change(Wcm.CHANGES.TEMPLATE, Wcm.CHANGES.DELETE, id, user);
         } catch (Exception e) {
             throw new WcmException(e);
         }
@@ -1474,6 +2247,7 @@ public class WcmServiceImpl implements WcmService {
                     }
                 }
             }
+            change(Wcm.CHANGES.TEMPLATE, Wcm.CHANGES.UPDATE, templateId, user);
             em.flush();
         } catch (Exception e) {
             throw new WcmException(e);
@@ -1491,21 +2265,20 @@ public class WcmServiceImpl implements WcmService {
             throw new WcmAuthorizationException("User: " + user + " has not ADMIN rights to WRITE Template ");
         }
         try {
-            Long nVersion = (Long)em.createNamedQuery("maxTemplateVersion")
-                    .setParameter("templateid", template.getId())
-                    .getResultList()
-                    .get(0);
-            if (nVersion == null || nVersion < template.getVersion()) {
-                Template templateOrig = em.find(Template.class, template.getId());
+            locks.fence(template.getId(), Wcm.LOCK.TEMPLATE, user);
+            Template templateOrig = em.find(Template.class, template.getId(), LockModeType.PESSIMISTIC_WRITE);
+            if (em.find(TemplateHistory.class, templateHistoryPK(templateOrig.getId(), templateOrig.getVersion())) == null) {
                 TemplateHistory templateVersion = createVersion(templateOrig, templateOrig.getVersion());
                 em.persist(templateVersion);
             }
 
-            Long nextVersion = Math.max((nVersion == null ? 0 : nVersion) + 1, template.getVersion() + 1);
+            Long nextVersion = nextVersion(templateOrig);
             template.setVersion(nextVersion);
+            template.setLastVersion(nextVersion);
             template.setUser(user.getUsername());
             template.setModified(Calendar.getInstance());
             em.merge(template);
+            change(Wcm.CHANGES.TEMPLATE, Wcm.CHANGES.UPDATE, template.getId(), user);
         } catch (Exception e) {
             throw new WcmException(e);
         }
@@ -1578,6 +2351,7 @@ public class WcmServiceImpl implements WcmService {
                         template.setCreated(templateH.getCreated());
                         template.setModified(Calendar.getInstance());
                         em.merge(template);
+                        change(Wcm.CHANGES.TEMPLATE, Wcm.CHANGES.UPDATE, templateId, user);
                     }
                 }
             }
@@ -1606,6 +2380,7 @@ public class WcmServiceImpl implements WcmService {
                     newRelationship.setAliasId(targetId);
                     newRelationship.setType(Wcm.RELATIONSHIP.POST);
                     em.persist(newRelationship);
+                    change(Wcm.CHANGES.RELATIONSHIP, Wcm.CHANGES.CREATE, targetId, Wcm.CHANGES.POST, originId, user);
                 }
             }
         } catch (Exception e) {
@@ -1629,6 +2404,7 @@ public class WcmServiceImpl implements WcmService {
                 Relationship existing = em.find(Relationship.class, pk);
                 if (existing != null) {
                     em.remove(existing);
+                    change(Wcm.CHANGES.RELATIONSHIP, Wcm.CHANGES.DELETE, existing.getAliasId(), Wcm.CHANGES.POST, originId, user);
                 }
             }
         } catch (Exception e) {
@@ -1691,6 +2467,7 @@ public class WcmServiceImpl implements WcmService {
                     newRelationship.setAliasId(targetId);
                     newRelationship.setType(Wcm.RELATIONSHIP.TEMPLATE);
                     em.persist(newRelationship);
+                    change(Wcm.CHANGES.RELATIONSHIP, Wcm.CHANGES.CREATE, targetId, Wcm.CHANGES.TEMPLATE, originId, user);
                 }
             }
         } catch (Exception e) {
@@ -1714,6 +2491,7 @@ public class WcmServiceImpl implements WcmService {
                 Relationship existing = em.find(Relationship.class, pk);
                 if (existing != null) {
                     em.remove(existing);
+                    change(Wcm.CHANGES.RELATIONSHIP, Wcm.CHANGES.DELETE, existing.getAliasId(), Wcm.CHANGES.TEMPLATE, originId, user);
                 }
             }
         } catch (Exception e) {
@@ -1756,47 +2534,114 @@ public class WcmServiceImpl implements WcmService {
     }
 
     /**
-     * @see WcmService#lock(Long, Character, org.gatein.wcm.domain.UserWcm)
+     * @see WcmService#findChanges(Long, int, org.gatein.wcm.domain.UserWcm)
      */
     @Override
-    public void lock(Long originId, Character type, UserWcm user) throws WcmLockException, WcmException {
-        if (originId == null || type == null|| user == null) {
-            throw new WcmException("Illegal lock() invocation");
-        }
+    public List<Change> findChanges(Long since, int max, UserWcm user) throws WcmException {
+        if (user == null) return null;
+        List<Change> list = changes.findChanges(since, max);
+        List<Change> out = new ArrayList<Change>(list.size());
         try {
-            LockPK pk = new LockPK();
-            pk.setOriginId(originId);
-            pk.setType(type);
-            Lock lock = em.find(Lock.class, pk);
-            if (lock != null && !lock.getUsername().equals(user.getUsername())) {
-                String msg = "Lock for ";
-                if (type.equals(Wcm.LOCK.POST)) {
-                    msg += " Post ID " + originId;
-                } else if (type.equals(Wcm.LOCK.CATEGORY)) {
-                    msg += " Category ID " + originId;
-                } else if (type.equals(Wcm.LOCK.UPLOAD)) {
-                    msg += " Upload ID " + originId;
-                } else if (type.equals(Wcm.LOCK.TEMPLATE)) {
-                    msg += " Template ID " + originId;
+            // Items read in this call, missing items are stored as null
+            Map<String, Object> items = new HashMap<String, Object>();
+            Change skipped = null;
+            for (Change c : list) {
+                // Comments, Acls and Relationships are read with their owner item
+                Character type = c.getParentType() != null ? c.getParentType() : c.getType();
+                Long id = c.getParentType() != null ? c.getParentId() : c.getItemId();
+                Object item = item(type, id, items);
+                boolean read;
+                if (item == null) {
+                    // Only deletion of the item itself is visible once it's removed
+                    read = c.getParentType() == null && Wcm.CHANGES.DELETE.equals(c.getOperation());
+                } else {
+                    read = user.canRead(item);
+                }
+                boolean write = Wcm.CHANGES.TEMPLATE.equals(type) ? user.isManager() : user.canWrite(item);
+                if (read && !write) {
+                    if (item instanceof Post && !Wcm.POSTS.PUBLISHED.equals(((Post)item).getPostStatus())) {
+                        read = false;
+                    } else if (Wcm.CHANGES.ACL.equals(c.getType())) {
+                        read = false;
+                    } else if (Wcm.CHANGES.COMMENT.equals(c.getType())) {
+                        Comment comment = em.find(Comment.class, c.getItemId());
+                        read = comment == null ? Wcm.CHANGES.DELETE.equals(c.getOperation()) : Wcm.COMMENT.PUBLIC.equals(comment.getStatus());
+                    }
+                }
+                Change copy = new Change(c.getType(), c.getOperation(), c.getItemId(), write ? c.getUsername() : null);
+                copy.setId(c.getId());
+                copy.setPosition(c.getPosition());
+                copy.setParentType(c.getParentType());
+                copy.setParentId(c.getParentId());
+                copy.setCreated(c.getCreated());
+                if (read) {
+                    out.add(copy);
+                    skipped = null;
+                } else {
+                    skipped = new Change();
+                    skipped.setId(c.getId());
+                    skipped.setPosition(c.getPosition());
+                    skipped.setCreated(null);
                 }
-                msg += " by user: " + lock.getUsername() + " at " + ParseDates.parse(lock.getCreated());
-                throw new WcmLockException(msg);
             }
-            if (lock == null) {
-                lock = new Lock();
-                lock.setOriginId(originId);
-                lock.setType(type);
-                lock.setUsername(user.getUsername());
-                lock.setCreated(Calendar.getInstance());
-                em.persist(lock);
+            if (skipped != null) out.add(skipped);
+            return out;
+        } catch (Exception e) {
+            throw new WcmException(e);
+        }
+    }
+
+    /*
+        Item owning a Change, null if it doesn't exist anymore.
+     */
+    private Object item(Character type, Long id, Map<String, Object> items) {
+        String key = type + ":" + id;
+        if (items.containsKey(key)) return items.get(key);
+        Object item = null;
+        if (id != null) {
+            if (Wcm.CHANGES.POST.equals(type)) {
+                item = em.find(Post.class, id);
+            } else if (Wcm.CHANGES.UPLOAD.equals(type)) {
+                item = em.find(Upload.class, id);
+            } else if (Wcm.CHANGES.CATEGORY.equals(type)) {
+                item = em.find(Category.class, id);
+            } else if (Wcm.CHANGES.TEMPLATE.equals(type)) {
+                item = em.find(Template.class, id);
+            }
+        }
+        items.put(key, item);
+        return item;
+    }
+
+    /**
+     * @see WcmService#versionCategories(org.gatein.wcm.domain.UserWcm)
+     */
+    @Override
+    public String versionCategories(UserWcm user) throws WcmException {
+        if (user == null) return null;
+        try {
+            List<Category> roots = aclFilter(em.createNamedQuery("listRootCategories", Category.class).getResultList(), user);
+            StringBuilder version = new StringBuilder();
+            for (Category c : roots) {
+                version.append(c.getId()).append(':').append(c.getLastChange()).append(';');
             }
-        } catch (WcmLockException e) {
-            throw new WcmLockException(e.getMessage());
+            return version.toString();
         } catch (Exception e) {
             throw new WcmException(e);
         }
     }
 
+    /**
+     * @see WcmService#lock(Long, Character, org.gatein.wcm.domain.UserWcm)
+     */
+    @Override
+    public void lock(Long originId, Character type, UserWcm user) throws WcmLockException, WcmException {
+        if (originId == null || type == null|| user == null) {
+            throw new WcmException("Illegal lock() invocation");
+        }
+        locks.acquire(originId, type, user);
+    }
+
     /**
      * @see WcmService#unlock(Long, Character, org.gatein.wcm.domain.UserWcm)
      */
@@ -1806,18 +2651,7 @@ public class WcmServiceImpl implements WcmService {
             throw new WcmException("Illegal unlock() invocation");
         }
         try {
-            LockPK pk = new LockPK();
-            pk.setOriginId(originId);
-            pk.setType(type);
-            Lock lock = em.find(Lock.class, pk);
-            if (lock != null) {
-                if (lock.getUsername().equals(user.getUsername())) {
-                    em.remove(lock);
-                } else {
-                    // This exception can be raised if an admin or scheduler deletes a lock and user tries to unlock a different one
-                    throw new WcmLockException("Lock only can be unlocked by admin or user: " + lock.getUsername());
-                }
-            }
+            locks.release(originId, type, user);
         } catch (Exception e) {
             throw new WcmException(e);
         }
@@ -1834,17 +2668,7 @@ public class WcmServiceImpl implements WcmService {
         if (!user.isManager()) {
             throw new WcmAuthorizationException("RemoveLock() is an operation for managers.");
         }
-        try {
-            LockPK pk = new LockPK();
-            pk.setOriginId(originId);
-            pk.setType(type);
-            Lock lock = em.find(Lock.class, pk);
-            if (lock != null) {
-                em.remove(lock);
-            }
-        } catch (Exception e) {
-            throw new WcmException(e);
-        }
+        locks.remove(originId, type);
     }
 
     /**
@@ -1904,24 +2728,271 @@ public class WcmServiceImpl implements WcmService {
 
     @Schedule(hour="*", minute = "*/" + Wcm.TIMEOUTS.TIMER)
     void checkUnlocks() {
+        // In a cluster only the node owning the reaper lease expires locks
         try {
-            List<Lock> lockList = em.createNamedQuery("listLocks")
-                    .getResultList();
-            for (Lock l : lockList) {
-                Calendar created = (Calendar)l.getCreated().clone();
-                created.add(Calendar.MINUTE, Wcm.TIMEOUTS.LOCKS);
-                Calendar now = Calendar.getInstance();
-                if (now.after(created)) {
-                    log.info("Timeout for lock: " + l);
-                    em.remove(l);
-                }
+            if (!locks.lease(Wcm.CLUSTER.REAPER, Wcm.CLUSTER.LEASE)) return;
+        } catch (Exception e) {
+            log.fine("Node " + locks.getNode() + " could not acquire lease " + Wcm.CLUSTER.REAPER);
+            return;
+        }
+        try {
+            long start = System.currentTimeMillis();
+            Calendar cutoff = Calendar.getInstance();
+            cutoff.add(Calendar.MINUTE, -Wcm.TIMEOUTS.LOCKS);
+            int expired = 0;
+            int batches = 0;
+            int deleted;
+            do {
+                deleted = locks.expire(cutoff, Wcm.TIMEOUTS.LOCKS_BATCH);
+                expired += deleted;
+                batches++;
+            } while (deleted >= Wcm.TIMEOUTS.LOCKS_BATCH);
+            long elapsed = System.currentTimeMillis() - start;
+            reapedLocks.addAndGet(expired);
+            reaperSweeps.incrementAndGet();
+            if (expired > 0) {
+                log.info("Timeout for " + expired + " locks in " + batches + " batches, sweep took " + elapsed + " ms. " +
+                        "Total: " + reapedLocks.get() + " locks in " + reaperSweeps.get() + " sweeps.");
+            } else {
+                log.fine("No locks expired, sweep took " + elapsed + " ms.");
             }
         } catch (Exception e) {
-            log.warning("Error querying/deleting locks");
+            log.warning("Error deleting expired locks");
             e.printStackTrace();
         }
     }
 
+    /*
+     * Next version of a Post.
+     * Callers read the live row with a pessimistic lock, concurrent editors wait and get different versions.
+     * Counter is incremented in the locked entity, second level cache only refreshes this Post.
+     * History is only queried to seed rows stored before the counter existed, when their counter is null.
+     */
+    private Long nextVersion(Post post) {
+        Long history = null;
+        if (post.getLastVersion() == null) {
+            history = (Long)em.createNamedQuery("maxPostVersion")
+                    .setParameter("postid", post.getId())
+                    .getSingleResult();
+        }
+        post.setLastVersion(max(post.getLastVersion(), history, post.getVersion()) + 1);
+        return post.getLastVersion();
+    }
+
+    /*
+     * Next version of an Upload, same rules than nextVersion(Post).
+     */
+    private Long nextVersion(Upload upload) {
+        Long history = null;
+        if (upload.getLastVersion() == null) {
+            history = (Long)em.createNamedQuery("maxUploadVersion")
+                    .setParameter("uploadid", upload.getId())
+                    .getSingleResult();
+        }
+        upload.setLastVersion(max(upload.getLastVersion(), history, upload.getVersion()) + 1);
+        return upload.getLastVersion();
+    }
+
+    /*
+     * Next version of a Template, same rules than nextVersion(Post).
+     */
+    private Long nextVersion(Template template) {
+        Long history = null;
+        if (template.getLastVersion() == null) {
+            history = (Long)em.createNamedQuery("maxTemplateVersion")
+                    .setParameter("templateid", template.getId())
+                    .getSingleResult();
+        }
+        template.setLastVersion(max(template.getLastVersion(), history, template.getVersion()) + 1);
+        return template.getLastVersion();
+    }
+
+    private long max(Long last, Long history, Long current) {
+        return Math.max(last == null ? 0 : last, Math.max(history == null ? 0 : history, current == null ? 0 : current));
+    }
+
+    private PostHistoryPK postHistoryPK(Long id, Long version) {
+        PostHistoryPK pk = new PostHistoryPK();
+        pk.setId(id);
+        pk.setVersion(version);
+        return pk;
+    }
+
+    private UploadHistoryPK uploadHistoryPK(Long id, Long version) {
+        UploadHistoryPK pk = new UploadHistoryPK();
+        pk.setId(id);
+        pk.setVersion(version);
+        return pk;
+    }
+
+    private TemplateHistoryPK templateHistoryPK(Long id, Long version) {
+        TemplateHistoryPK pk = new TemplateHistoryPK();
+        pk.setId(id);
+        pk.setVersion(version);
+        return pk;
+    }
+
+    /*
+     * Comments counters of a Post.
+     * Counters are updated in the managed Post read with a row lock, concurrent writers of Comments don't lose
+     * increments and second level cache only refreshes this Post.
+     * Counters not calculated yet, of Posts created before counters existed, are calculated from Comments.
+     */
+    private void countComments(Long postId, int count, int published, int pending, Calendar last) {
+        Post post = em.find(Post.class, postId, LockModeType.PESSIMISTIC_WRITE);
+        if (post == null) return;
+        if (post.getCommentsCount() == null || post.getCommentsPublic() == null || post.getCommentsPending() == null) {
+            recountComments(post);
+            return;
+        }
+        post.setCommentsCount(post.getCommentsCount() + count);
+        post.setCommentsPublic(post.getCommentsPublic() + published);
+        post.setCommentsPending(post.getCommentsPending() + pending);
+        if (last != null && (post.getLastCommentAt() == null || last.after(post.getLastCommentAt()))) {
+            post.setLastCommentAt(last);
+        }
+    }
+
+    /*
+     * Comments counters of a Post calculated from Comments, used when Comments change their status or are removed.
+     */
+    private void recountComments(Long postId) {
+        Post post = em.find(Post.class, postId, LockModeType.PESSIMISTIC_WRITE);
+        if (post == null) return;
+        recountComments(post);
+    }
+
+    private void recountComments(Post post) {
+        int count = 0;
+        int published = 0;
+        int pending = 0;
+        Calendar last = null;
+        List<Object[]> rows = em.createNamedQuery("countCommentsPost")
+                .setParameter("postId", post.getId())
+                .getResultList();
+        for (Object[] row : rows) {
+            int n = ((Number)row[1]).intValue();
+            count += n;
+            if (Wcm.COMMENT.PUBLIC.equals(row[0])) published += n;
+            if (Wcm.COMMENT.PENDING.equals(row[0])) pending += n;
+            Calendar created = (Calendar)row[2];
+            if (created != null && (last == null || created.after(last))) last = created;
+        }
+        post.setCommentsCount(count);
+        post.setCommentsPublic(published);
+        post.setCommentsPending(pending);
+        post.setLastCommentAt(last);
+    }
+
+    /*
+     * Logs a Change in current transaction and stamps Categories showing the changed item
+     */
+    private Change change(Character type, Character operation, Long itemId, UserWcm user) throws WcmException {
+        return change(type, operation, itemId, null, null, user);
+    }
+
+    private Change change(Character type, Character operation, Long itemId, Character parentType, Long parentId, UserWcm user) throws WcmException {
+        return change(type, operation, itemId, parentType, parentId, user != null ? user.getUsername() : null);
+    }
+
+    private Change change(Character type, Character operation, Long itemId, Character parentType, Long parentId, String username) throws WcmException {
+        Change change = new Change(type, operation, itemId, username);
+        change.setParentType(parentType);
+        change.setParentId(parentId);
+        changes.record(change);
+        stamp(change);
+        return change;
+    }
+
+    /*
+     * Logs a Change without stamping Categories, bulk operations stamp them once for all items
+     */
+    private Change record(Character type, Character operation, Long itemId, UserWcm user) throws WcmException {
+        Change change = new Change(type, operation, itemId, user.getUsername());
+        changes.record(change);
+        return change;
+    }
+
+    /*
+     * Categories are stamped with the id of the Change, it's the version of their content for cached markup.
+     * Posts and Uploads stamp their Categories, a Category stamps itself and its ancestors.
+     * Items already removed or unlinked are stamped by callers, as they are not reachable from the Change.
+     */
+    private void stamp(Change change) {
+        Character type = change.getParentType() != null ? change.getParentType() : change.getType();
+        Long id = change.getParentId() != null ? change.getParentId() : change.getItemId();
+        if (id == null || change.getId() == null) return;
+        if (Wcm.CHANGES.POST.equals(type)) {
+            Post p = em.find(Post.class, id);
+            if (p != null) stamp(p.getCategories(), change.getId());
+        } else if (Wcm.CHANGES.UPLOAD.equals(type)) {
+            Upload u = em.find(Upload.class, id);
+            if (u != null) stamp(u.getCategories(), change.getId());
+        } else if (Wcm.CHANGES.CATEGORY.equals(type)) {
+            stampPath(em.find(Category.class, id), change.getId());
+        }
+    }
+
+    private void stamp(Collection<Category> categories, Long changeId) {
+        for (Category c : categories) {
+            if (c != null) c.setLastChange(changeId);
+        }
+    }
+
+    private void stampIds(Collection<Long> categoryIds, Long changeId) {
+        for (Long id : categoryIds) {
+            Category c = em.find(Category.class, id);
+            if (c != null) c.setLastChange(changeId);
+        }
+    }
+
+    private void stampPath(Category cat, Long changeId) {
+        while (cat != null) {
+            cat.setLastChange(changeId);
+            cat = cat.getParent();
+        }
+    }
+
+    /*
+     * Render-ready fields derived from excerpt and content, computed once per saved version
+     * so lists don't process Post's html on every render.
+     */
+    private void digest(Post post) {
+        String summary = HtmlScanner.text(post.getExcerpt());
+        post.setSummary(summary != null && summary.length() <= Wcm.POSTS.SUMMARY ? summary : null);
+        HtmlScanner scanner = HtmlScanner.scan(post.getContent(), Wcm.POSTS.IMAGES);
+        StringBuilder images = new StringBuilder();
+        for (int i = 0; i < scanner.images() && images != null; i++) {
+            String src = scanner.src(i);
+            if (src.length() == 0 || src.indexOf('\n') != -1) {
+                images = null;
+            } else {
+                if (i > 0) images.append('\n');
+                images.append(src);
+            }
+        }
+        post.setImages(images != null && images.length() <= Wcm.POSTS.IMAGES_LENGTH ? images.toString() : null);
+        post.setWordCount(HtmlScanner.words(post.getContent()));
+    }
+
+    /*
+     * Splits distinct non null values in lists of IN_CHUNK size to bound IN (...) queries
+     */
+    private <T> List<List<T>> chunks(Collection<T> values) {
+        List<List<T>> chunks = new ArrayList<List<T>>();
+        List<T> chunk = new ArrayList<T>();
+        for (T value : new LinkedHashSet<T>(values)) {
+            if (value == null) continue;
+            if (chunk.size() == IN_CHUNK) {
+                chunks.add(chunk);
+                chunk = new ArrayList<T>();
+            }
+            chunk.add(value);
+        }
+        if (!chunk.isEmpty()) chunks.add(chunk);
+        return chunks;
+    }
+
     /*
      *  Aux functions to extract path for categories
      */
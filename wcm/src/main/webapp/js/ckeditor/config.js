@@ -89,6 +89,9 @@ CKEDITOR.on( 'instanceReady', function( ev )
                                            'wcm-comment-content':1,
                                            'wcm-comment-author':1,
                                            'wcm-comment-created':1,
+                                           'wcm-count-comments':1,
+                                           'wcm-last-comment':1,
+                                           'wcm-word-count':1,
                                            'wcm-form-author':1,
                                            'wcm-form-email':1,
                                            'wcm-form-url':1,
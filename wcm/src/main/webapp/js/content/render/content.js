@@ -61,4 +61,32 @@ function wcmAddComment(namespace, postid) {
             }
         });
     });
-}
\ No newline at end of file
+}
+
+function wcmMoreComments(namespace, postid, before, link) {
+    require(["SHARED/jquery"], function($) {
+        var href = $("#" + namespace + "-showMoreComments").val();
+        var list = $(link).prev("ul");
+        $.ajax({
+            type: "GET",
+            url: href + "&postid=" + postid + "&before=" + before + "&from=" + list.children("li").length,
+            cache: false,
+            dataType: "text",
+            success: function(data)
+            {
+                var page = $("<div>" + data + "</div>");
+                list.append(page.children("li"));
+                var next = page.children("a.wcm-comments-more");
+                if (next.length > 0) {
+                    $(link).replaceWith(next);
+                } else {
+                    $(link).remove();
+                }
+            },
+            error: function(XMLHttpRequest, textStatus, errorThrown)
+            {
+                alert("Problem accessing wcmMoreComments()");
+            }
+        });
+    });
+}
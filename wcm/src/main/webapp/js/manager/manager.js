@@ -86,4 +86,23 @@ function removeLock(namespace, href, lockid, locktype) {
             }
         });
     });
+}
+
+function compactHistory(namespace, href, msg) {
+    require(["SHARED/jquery"], function($) {
+        $.ajax({
+            type: "POST",
+            url: href + "&namespace=" + namespace,
+            cache: false,
+            dataType: "text",
+            success: function(data)
+            {
+                alert(msg + " " + data);
+            },
+            error: function(XMLHttpRequest, textStatus, errorThrown)
+            {
+                alert("Problem accessing compactHistory()");
+            }
+        });
+    });
 }
\ No newline at end of file
@@ -30,6 +30,9 @@
 <portlet:resourceURL var="addCommentPost">
     <portlet:param name="event" value="<%= Wcm.EVENTS.ADD_COMMENT_POST %>" />
 </portlet:resourceURL>
+<portlet:resourceURL var="showMoreComments">
+    <portlet:param name="event" value="<%= Wcm.EVENTS.SHOW_MORE_COMMENTS %>" />
+</portlet:resourceURL>
 <portlet:resourceURL var="unlockPostEvent">
     <portlet:param name="event" value="<%= Wcm.EVENTS.UNLOCK_POST %>" />
 </portlet:resourceURL>
@@ -41,6 +44,7 @@
 %>
 <% String n = renderResponse.getNamespace(); %>
 <input id="<%=n%>-addCommentPost" type="hidden" value="<%= addCommentPost %>" />
+<input id="<%=n%>-showMoreComments" type="hidden" value="<%= showMoreComments %>" />
 <div id="${n}uploads-preview" class="wcm-upload-preview">
     <img id="${n}uploads-preview-content" class="wcm-upload-image" src="" />
 </div>
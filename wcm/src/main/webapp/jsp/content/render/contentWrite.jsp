@@ -30,6 +30,9 @@
 <portlet:resourceURL var="addCommentPost">
     <portlet:param name="event" value="<%= Wcm.EVENTS.ADD_COMMENT_POST %>" />
 </portlet:resourceURL>
+<portlet:resourceURL var="showMoreComments">
+    <portlet:param name="event" value="<%= Wcm.EVENTS.SHOW_MORE_COMMENTS %>" />
+</portlet:resourceURL>
 <%
     Long editid = (Long)request.getAttribute("editid");
 %>
@@ -43,6 +46,7 @@
 <script type="text/javascript" src="<%=renderResponse.encodeURL(renderRequest.getContextPath() + "/js/content/render/content.js") %>"></script>
 <% String n = renderResponse.getNamespace(); %>
 <input id="<%=n%>-addCommentPost" type="hidden" value="<%= addCommentPost %>" />
+<input id="<%=n%>-showMoreComments" type="hidden" value="<%= showMoreComments %>" />
 <%
     String processedTemplate =  (String)renderRequest.getAttribute("processedTemplate");
     if (processedTemplate != null) {
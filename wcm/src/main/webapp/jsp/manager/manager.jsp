@@ -42,6 +42,9 @@
         <div class="wcm-manager-locks">
             <span class="glyphicon glyphicon-lock margin-right margin-top"></span> <a href="javascript:;" onclick="showLocks('${n}', '${showLocksEvent}', '${managerView}');">${rsc.getString('manager.locks')}</a>
         </div>
+        <div class="wcm-manager-locks">
+            <span class="glyphicon glyphicon-compressed margin-right margin-top"></span> <a href="javascript:;" onclick="compactHistory('${n}', '${compactHistoryEvent}', '${rsc.getString('manager.compact_history_done')}');">${rsc.getString('manager.compact_history')}</a>
+        </div>
     </div>
 
 </div>
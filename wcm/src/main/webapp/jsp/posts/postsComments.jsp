@@ -25,6 +25,7 @@
 <%@ page import="org.gatein.wcm.portlet.util.ViewMetadata" %>
 <%@ page import="org.gatein.wcm.domain.Post" %>
 <%@ page import="org.gatein.wcm.domain.Comment" %>
+<%@ page import="java.util.List" %>
 <%@ page import="java.util.Set" %>
 <%@ page import="org.gatein.wcm.portlet.util.ParseDates" %>
 <%@ page import="org.gatein.wcm.domain.UserWcm" %>
@@ -36,6 +37,7 @@
 <%
     String n = (String)request.getAttribute("namespace");
     Post p = (Post)request.getAttribute("post");
+    List<Comment> comments = (List<Comment>)request.getAttribute("comments");
     UserWcm userWcm = (UserWcm)request.getAttribute("userWcm");
 
     boolean canWrite = userWcm.canWrite(p);
@@ -45,13 +47,13 @@
 <div class="wcm-comments" >
     <ul>
     <%
-        if (p.getComments() != null) {
-            for (Comment c : p.getComments()) {
+        if (comments != null) {
+            for (Comment c : comments) {
     %>
         <li>
             <%
                 String statusClass = "";
-                if (c.getStatus().equals(Wcm.COMMENT.REJECTED)) {
+                if (c.getStatus().equals(Wcm.COMMENT.REJECTED) || c.getStatus().equals(Wcm.COMMENT.PENDING)) {
                     statusClass = "wcm-orange";
                 }
             %>
@@ -65,14 +67,14 @@
                 %>
                 <div class="wcm-comment-actions">
                     <%
-                        if (c.getStatus().equals(Wcm.COMMENT.PUBLIC)) {
+                        if (c.getStatus().equals(Wcm.COMMENT.PUBLIC) || c.getStatus().equals(Wcm.COMMENT.PENDING)) {
                     %>
                     <span class="glyphicon glyphicon-eye-close margin-top"></span> <a href="javascript:;" onclick="changeStatusComment('<%= n %>', '<%= changeStatusCommentPostEvent%>', '<%= p.getId() %>', '<%= c.getId()%>', '<%= Wcm.COMMENT.REJECTED %>');">${rsc.getString('postsComments.reject')}</a>
                     <%
                         }
                     %>
                     <%
-                        if (c.getStatus().equals(Wcm.COMMENT.REJECTED)) {
+                        if (c.getStatus().equals(Wcm.COMMENT.REJECTED) || c.getStatus().equals(Wcm.COMMENT.PENDING)) {
                     %>
                     <span class="glyphicon glyphicon-eye-open margin-top"></span> <a href="javascript:;" onclick="changeStatusComment('<%= n %>', '<%= changeStatusCommentPostEvent%>', '<%= p.getId() %>', '<%= c.getId()%>', '<%= Wcm.COMMENT.PUBLIC %>');">${rsc.getString('postsComments.public')}</a>
                     <%
@@ -255,6 +255,9 @@
 <portlet:resourceURL var="removeLockEvent">
     <portlet:param name="event" value="<%= Wcm.EVENTS.REMOVE_LOCK %>" />
 </portlet:resourceURL>
+<portlet:resourceURL var="compactHistoryEvent">
+    <portlet:param name="event" value="<%= Wcm.EVENTS.COMPACT_HISTORY %>" />
+</portlet:resourceURL>
 
 
 
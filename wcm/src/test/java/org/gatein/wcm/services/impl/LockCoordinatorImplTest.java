@@ -0,0 +1,355 @@
+/*
+ * JBoss, a division of Red Hat
+ * Copyright 2010, Red Hat Middleware, LLC, and individual
+ * contributors as indicated by the @authors tag. See the
+ * copyright.txt in the distribution for a full listing of
+ * individual contributors.
+ *
+ * This is free software; you can redistribute it and/or modify it
+ * under the terms of the GNU Lesser General Public License as
+ * published by the Free Software Foundation; either version 2.1 of
+ * the License, or (at your option) any later version.
+ *
+ * This software is distributed in the hope that it will be useful,
+ * but WITHOUT ANY WARRANTY; without even the implied warranty of
+ * MERCHANTABILITY or FITNESS FOR A PARTICULAR PURPOSE. See the GNU
+ * Lesser General Public License for more details.
+ *
+ * You should have received a copy of the GNU Lesser General Public
+ * License along with this software; if not, write to the Free
+ * Software Foundation, Inc., 51 Franklin St, Fifth Floor, Boston, MA
+ * 02110-1301 USA, or see the FSF site: http://www.fsf.org.
+ */
+
+package org.gatein.wcm.services.impl;
+
+import static org.junit.Assert.assertEquals;
+import static org.junit.Assert.assertFalse;
+import static org.junit.Assert.assertNotNull;
+import static org.junit.Assert.assertNull;
+import static org.junit.Assert.assertTrue;
+import static org.junit.Assert.fail;
+
+import java.util.ArrayList;
+import java.util.Calendar;
+import java.util.List;
+import java.util.concurrent.Callable;
+import java.util.concurrent.CountDownLatch;
+import java.util.concurrent.ExecutorService;
+import java.util.concurrent.Executors;
+import java.util.concurrent.Future;
+import java.util.concurrent.TimeUnit;
+import java.util.concurrent.atomic.AtomicInteger;
+
+import javax.persistence.EntityManager;
+import javax.persistence.EntityManagerFactory;
+import javax.persistence.Persistence;
+
+import org.gatein.wcm.Wcm;
+import org.gatein.wcm.WcmLockException;
+import org.gatein.wcm.domain.Lease;
+import org.gatein.wcm.domain.Lock;
+import org.gatein.wcm.domain.LockPK;
+import org.gatein.wcm.domain.UserWcm;
+import org.hibernate.ejb.HibernateEntityManagerFactory;
+import org.hibernate.stat.Statistics;
+import org.junit.After;
+import org.junit.AfterClass;
+import org.junit.Before;
+import org.junit.BeforeClass;
+import org.junit.Test;
+
+/**
+ * Several LockCoordinatorImpl nodes in the same JVM over an in-memory database.
+ * Each node has its own EntityManager and each call runs in its own transaction, as a container would do.
+ *
+ * @author <a href="mailto:lponce@redhat.com">Lucas Ponce</a>
+ */
+public class LockCoordinatorImplTest {
+
+    private static final AtomicInteger nodes = new AtomicInteger();
+
+    private static EntityManagerFactory emf;
+
+    private List<EntityManager> ems = new ArrayList<EntityManager>();
+
+    private UserWcm alice = new UserWcm("alice");
+    private UserWcm bob = new UserWcm("bob");
+
+    @BeforeClass
+    public static void createDatabase() {
+        emf = Persistence.createEntityManagerFactory("wcm-locks-test");
+    }
+
+    @AfterClass
+    public static void dropDatabase() {
+        emf.close();
+    }
+
+    @Before
+    public void clean() throws Exception {
+        final EntityManager em = emf.createEntityManager();
+        tx(em, new Callable<Object>() {
+            @Override
+            public Object call() {
+                em.createQuery("delete from Lock").executeUpdate();
+                em.createQuery("delete from Lease").executeUpdate();
+                return null;
+            }
+        });
+        em.close();
+    }
+
+    @After
+    public void close() {
+        for (EntityManager em : ems) {
+            if (em.getTransaction().isActive()) em.getTransaction().rollback();
+            em.close();
+        }
+    }
+
+    @Test
+    public void acquireIsExclusiveBetweenNodes() throws Exception {
+        Node a = node();
+        Node b = node();
+        Lock lock = a.acquire(1l, Wcm.LOCK.POST, alice);
+        assertEquals("alice", lock.getUsername());
+        assertNotNull(lock.getToken());
+        try {
+            b.acquire(1l, Wcm.LOCK.POST, bob);
+            fail("Post is locked by alice in a different node");
+        } catch (WcmLockException e) {
+            // Expected
+        }
+        // Same item on a different type is not locked
+        assertEquals("bob", b.acquire(1l, Wcm.LOCK.CATEGORY, bob).getUsername());
+        a.release(1l, Wcm.LOCK.POST, alice);
+        assertEquals("bob", b.acquire(1l, Wcm.LOCK.POST, bob).getUsername());
+    }
+
+    @Test
+    public void renewalOnHoldingNodeDoesNotQueryDatabase() throws Exception {
+        Node a = node();
+        Lock lock = a.acquire(2l, Wcm.LOCK.POST, alice);
+        Statistics statistics = ((HibernateEntityManagerFactory)emf).getSessionFactory().getStatistics();
+        long statements = statistics.getPrepareStatementCount();
+        Lock renewed = a.acquire(2l, Wcm.LOCK.POST, alice);
+        assertEquals(statements, statistics.getPrepareStatementCount());
+        assertEquals(lock.getToken(), renewed.getToken());
+        // A different node has to read database
+        Node b = node();
+        statements = statistics.getPrepareStatementCount();
+        try {
+            b.acquire(2l, Wcm.LOCK.POST, bob);
+            fail("Post is locked by alice in a different node");
+        } catch (WcmLockException e) {
+            // Expected
+        }
+        assertTrue(statistics.getPrepareStatementCount() > statements);
+    }
+
+    @Test
+    public void fencingRejectsHolderAfterLockExpired() throws Exception {
+        Node a = node();
+        Node b = node();
+        Lock old = a.acquire(3l, Wcm.LOCK.POST, alice);
+        a.fence(3l, Wcm.LOCK.POST, alice);
+        // Reaper of any node removes Locks older than cutoff
+        Calendar cutoff = Calendar.getInstance();
+        cutoff.add(Calendar.HOUR, 1);
+        assertEquals(1, b.expire(cutoff, 100));
+        Lock current = b.acquire(3l, Wcm.LOCK.POST, bob);
+        assertTrue(current.getToken() > old.getToken());
+        try {
+            a.fence(3l, Wcm.LOCK.POST, alice);
+            fail("Write with an expired Lock is accepted");
+        } catch (WcmLockException e) {
+            // Expected
+        }
+        b.fence(3l, Wcm.LOCK.POST, bob);
+    }
+
+    @Test
+    public void fencingRejectsHolderAfterLockRemoved() throws Exception {
+        Node a = node();
+        Node b = node();
+        a.acquire(4l, Wcm.LOCK.POST, alice);
+        b.remove(4l, Wcm.LOCK.POST);
+        try {
+            a.fence(4l, Wcm.LOCK.POST, alice);
+            fail("Write with a removed Lock is accepted");
+        } catch (WcmLockException e) {
+            // Expected
+        }
+        // Holder has to acquire a new Lock, with a new token
+        a.acquire(4l, Wcm.LOCK.POST, alice);
+        a.fence(4l, Wcm.LOCK.POST, alice);
+    }
+
+    @Test
+    public void singleReaperIsElected() throws Exception {
+        final int size = 4;
+        final CountDownLatch start = new CountDownLatch(1);
+        ExecutorService pool = Executors.newFixedThreadPool(size);
+        List<Future<Boolean>> results = new ArrayList<Future<Boolean>>();
+        final List<Node> candidates = new ArrayList<Node>();
+        for (int i = 0; i < size; i++) {
+            final Node n = node();
+            candidates.add(n);
+            results.add(pool.submit(new Callable<Boolean>() {
+                @Override
+                public Boolean call() throws Exception {
+                    start.await();
+                    return n.lease(Wcm.CLUSTER.REAPER, 60);
+                }
+            }));
+        }
+        start.countDown();
+        Node owner = null;
+        for (int i = 0; i < size; i++) {
+            if (results.get(i).get(30, TimeUnit.SECONDS)) {
+                assertNull("Only one node owns the lease", owner);
+                owner = candidates.get(i);
+            }
+        }
+        pool.shutdown();
+        assertNotNull(owner);
+        assertEquals(owner.coordinator.getNode(), lease(Wcm.CLUSTER.REAPER).getOwner());
+        // Owner renews, others wait until the lease expires
+        assertTrue(owner.lease(Wcm.CLUSTER.REAPER, -1));
+        Node next = candidates.get(candidates.indexOf(owner) == 0 ? 1 : 0);
+        assertTrue(next.lease(Wcm.CLUSTER.REAPER, 60));
+        assertFalse(owner.lease(Wcm.CLUSTER.REAPER, 60));
+    }
+
+    @Test
+    public void concurrentFirstLeaseInsertElectsOneNode() throws Exception {
+        final Node a = node();
+        final Node b = node();
+        // Node a inserts the first row and doesn't commit yet
+        a.em.getTransaction().begin();
+        assertTrue(a.coordinator.lease(Wcm.CLUSTER.RETENTION, 60));
+        // Node b doesn't see it and inserts the same row
+        ExecutorService pool = Executors.newSingleThreadExecutor();
+        Future<Boolean> second = pool.submit(new Callable<Boolean>() {
+            @Override
+            public Boolean call() throws Exception {
+                b.em.getTransaction().begin();
+                try {
+                    return b.coordinator.lease(Wcm.CLUSTER.RETENTION, 60);
+                } finally {
+                    b.em.getTransaction().rollback();
+                }
+            }
+        });
+        assertFalse(second.get(30, TimeUnit.SECONDS));
+        pool.shutdown();
+        a.em.getTransaction().commit();
+        assertEquals(a.coordinator.getNode(), lease(Wcm.CLUSTER.RETENTION).getOwner());
+        assertFalse(b.lease(Wcm.CLUSTER.RETENTION, 60));
+    }
+
+    private Lease lease(String name) {
+        EntityManager em = emf.createEntityManager();
+        try {
+            return em.find(Lease.class, name);
+        } finally {
+            em.close();
+        }
+    }
+
+    private Node node() {
+        EntityManager em = emf.createEntityManager();
+        ems.add(em);
+        return new Node(new LockCoordinatorImpl("node-" + nodes.incrementAndGet(), em), em);
+    }
+
+    private static <T> T tx(EntityManager em, Callable<T> work) throws Exception {
+        em.getTransaction().begin();
+        try {
+            T result = work.call();
+            if (em.getTransaction().getRollbackOnly()) {
+                em.getTransaction().rollback();
+            } else {
+                em.getTransaction().commit();
+            }
+            return result;
+        } catch (Exception e) {
+            if (em.getTransaction().isActive()) em.getTransaction().rollback();
+            throw e;
+        } finally {
+            em.clear();
+        }
+    }
+
+    /*
+     * Node with its own EntityManager, every call is a transaction
+     */
+    private static class Node {
+
+        final LockCoordinatorImpl coordinator;
+        final EntityManager em;
+
+        Node(LockCoordinatorImpl coordinator, EntityManager em) {
+            this.coordinator = coordinator;
+            this.em = em;
+        }
+
+        Lock acquire(final Long originId, final Character type, final UserWcm user) throws Exception {
+            return tx(em, new Callable<Lock>() {
+                @Override
+                public Lock call() throws Exception {
+                    return coordinator.acquire(originId, type, user);
+                }
+            });
+        }
+
+        void release(final Long originId, final Character type, final UserWcm user) throws Exception {
+            tx(em, new Callable<Object>() {
+                @Override
+                public Object call() throws Exception {
+                    coordinator.release(originId, type, user);
+                    return null;
+                }
+            });
+        }
+
+        void remove(final Long originId, final Character type) throws Exception {
+            tx(em, new Callable<Object>() {
+                @Override
+                public Object call() throws Exception {
+                    coordinator.remove(originId, type);
+                    return null;
+                }
+            });
+        }
+
+        void fence(final Long originId, final Character type, final UserWcm user) throws Exception {
+            tx(em, new Callable<Object>() {
+                @Override
+                public Object call() throws Exception {
+                    coordinator.fence(originId, type, user);
+                    return null;
+                }
+            });
+        }
+
+        int expire(final Calendar cutoff, final int max) throws Exception {
+            return tx(em, new Callable<Integer>() {
+                @Override
+                public Integer call() throws Exception {
+                    return coordinator.expire(cutoff, max);
+                }
+            });
+        }
+
+        boolean lease(final String name, final int seconds) throws Exception {
+            return tx(em, new Callable<Boolean>() {
+                @Override
+                public Boolean call() throws Exception {
+                    return coordinator.lease(name, seconds);
+                }
+            });
+        }
+    }
+}